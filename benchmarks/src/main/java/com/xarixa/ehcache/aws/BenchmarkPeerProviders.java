@@ -0,0 +1,134 @@
+package com.xarixa.ehcache.aws;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.distribution.CachePeer;
+
+import com.xarixa.ehcache.aws.discovery.AwsDiscoveryServiceConfig;
+import com.xarixa.ehcache.aws.discovery.DiscoveryService;
+import com.xarixa.ehcache.aws.discovery.DiscoveryServiceConfig;
+import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
+
+/**
+ * Creates peer providers, hosts and caches for the benchmarks. The providers resolve their stubs from an
+ * in-process map of fake {@link CachePeer}'s rather than over RMI, so the benchmarks run without a network
+ * and measure only the provider itself.
+ *
+ * @author Fabric WorldWide
+ */
+final class BenchmarkPeerProviders {
+	static final int RMI_LISTENER_PORT = 40000;
+	static final int PEER_PORT = 40001;
+
+	private BenchmarkPeerProviders() {
+	}
+
+	/**
+	 * Creates a provider which has not been initialised, so no discovery service is running. The membership
+	 * is driven by the benchmark through {@link AwsSecurityGroupAwareCacheManagerPeerProvider#setCachePeerHosts(Set)}.
+	 */
+	static AwsSecurityGroupAwareCacheManagerPeerProvider createPeerProvider() {
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setAccessKey("benchmark");
+		config.setSecretKey("benchmark");
+		config.setSecurityGroup("benchmark");
+		config.setSecurityGroupRefreshInterval(60000);
+		config.setRmiListenerPort(RMI_LISTENER_PORT);
+
+		DiscoveryServiceFactory discoveryServiceFactory = new DiscoveryServiceFactory() {
+			@Override
+			public DiscoveryService createDiscoveryService(
+					UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+					DiscoveryServiceConfig discoveryServiceConfig) {
+				throw new UnsupportedOperationException("The benchmarks drive the membership themselves");
+			}
+		};
+
+		final ConcurrentMap<String,CachePeer> cachePeers = new ConcurrentHashMap<>();
+		return new AwsSecurityGroupAwareCacheManagerPeerProvider(config, discoveryServiceFactory) {
+			@Override
+			public CachePeer lookupRemoteCachePeer(String url) {
+				CachePeer cachePeer = cachePeers.get(url);
+				if (cachePeer == null) {
+					cachePeer = createCachePeer(url);
+					CachePeer existingCachePeer = cachePeers.putIfAbsent(url, cachePeer);
+					if (existingCachePeer != null) {
+						cachePeer = existingCachePeer;
+					}
+				}
+				return cachePeer;
+			}
+		};
+	}
+
+	/**
+	 * Creates the given number of distinct hosts, none of which are local to the provider
+	 * @param count	Up to 65024 hosts
+	 * @param offset	The index of the first host, so that disjoint sets of hosts can be created
+	 */
+	static Set<CachePeerHost> createHosts(int count, int offset) {
+		Set<CachePeerHost> hosts = new HashSet<>(count * 2);
+		for (int i = offset; i < offset + count; i++) {
+			hosts.add(createHost(i));
+		}
+		return hosts;
+	}
+
+	static CachePeerHost createHost(int index) {
+		return new CachePeerHost("10.1." + (index / 254) + "." + (index % 254 + 1), PEER_PORT);
+	}
+
+	static Ehcache[] createCaches(int count) {
+		Ehcache[] caches = new Ehcache[count];
+		for (int i = 0; i < count; i++) {
+			caches[i] = createCache("cache" + i);
+		}
+		return caches;
+	}
+
+	private static CachePeer createCachePeer(final String url) {
+		return (CachePeer)Proxy.newProxyInstance(CachePeer.class.getClassLoader(), new Class<?>[] { CachePeer.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getUrl".equals(method.getName()) || "toString".equals(method.getName())) {
+							return url;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return url.hashCode();
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static Ehcache createCache(final String name) {
+		return (Ehcache)Proxy.newProxyInstance(Ehcache.class.getClassLoader(), new Class<?>[] { Ehcache.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getName".equals(method.getName()) || "toString".equals(method.getName())) {
+							return name;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return name.hashCode();
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.xarixa.ehcache.aws;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
+import org.jclouds.sshj.config.SshjSshClientModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableSet;
+import com.xarixa.ehcache.aws.discovery.AwsDiscoveryServiceConfig;
+import com.xarixa.ehcache.aws.discovery.AwsSecurityGroupAwareDiscoveryServiceFactory;
+
+/**
+ * Measures what discovery adds to CacheManager startup. {@link #providerInit()} is the time that
+ * {@link AwsSecurityGroupAwareCacheManagerPeerProvider#init()} takes with the default discovery service, which no
+ * longer builds any jclouds context. The other two compare the compute service context with SSH that discovery
+ * used to build on that path against the EC2 API client that the filtered query now builds on its first run.
+ * Each is measured as a single shot in a fresh JVM, as that is what startup pays. Building a context does not
+ * contact AWS, so no account or network is needed.
+ *
+ * @author Fabric WorldWide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class DiscoveryStartupBenchmark {
+
+	@Benchmark
+	public AwsSecurityGroupAwareCacheManagerPeerProvider providerInit() {
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setAccessKey("benchmark");
+		config.setSecretKey("benchmark");
+		config.setSecurityGroup("benchmark");
+		// Long enough that the first run is not due before the provider is disposed of
+		config.setSecurityGroupRefreshInterval((int)TimeUnit.HOURS.toMillis(1));
+		config.setRmiListenerPort(BenchmarkPeerProviders.RMI_LISTENER_PORT);
+
+		AwsSecurityGroupAwareCacheManagerPeerProvider peerProvider =
+				new AwsSecurityGroupAwareCacheManagerPeerProvider(config, new AwsSecurityGroupAwareDiscoveryServiceFactory());
+		peerProvider.init();
+		peerProvider.dispose();
+		return peerProvider;
+	}
+
+	@Benchmark
+	public void buildComputeServiceContextWithSsh() {
+		ComputeServiceContext context = ContextBuilder.newBuilder("aws-ec2")
+				.credentials("benchmark", "benchmark")
+				.modules(ImmutableSet.of(new SLF4JLoggingModule(), new SshjSshClientModule()))
+				.buildView(ComputeServiceContext.class);
+		context.close();
+	}
+
+	@Benchmark
+	public void buildEc2Api() throws IOException {
+		AWSEC2Api ec2Api = ContextBuilder.newBuilder("aws-ec2")
+				.credentials("benchmark", "benchmark")
+				.modules(ImmutableSet.of(new SLF4JLoggingModule()))
+				.buildApi(AWSEC2Api.class);
+		ec2Api.close();
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link AwsSecurityGroupAwareCacheManagerPeerProvider#listRemoteCachePeers(Ehcache)},
+ * which is called for every replicated event. The {@link #listRemoteCachePeers(ReaderState)} benchmark only reads
+ * a settled membership and should scale with the number of threads, see {@link PeerProviderBenchmarks} to run it at
+ * 1 to 64 threads. The <strong>readWhileChanging</strong> group reads while another thread changes the membership
+ * as a discovery service would, only much more often, so that it measures the cost of the misses.
+ *
+ * @author Fabric WorldWide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ListRemoteCachePeersBenchmark {
+	static final int PEER_COUNT = 20;
+	static final int CACHE_COUNT = 10;
+	private static final long MEMBERSHIP_CHANGE_INTERVAL_MS = 10;
+
+	private AwsSecurityGroupAwareCacheManagerPeerProvider peerProvider;
+	private Ehcache[] caches;
+	private Set<CachePeerHost> hosts;
+	private Set<CachePeerHost> hostsWithOneLess;
+
+	/**
+	 * Each reader walks through the caches from its own offset, so that the threads do not all read the same list
+	 */
+	@State(Scope.Thread)
+	public static class ReaderState {
+		private static int nextOffset;
+		private int cacheIndex;
+
+		@Setup
+		public void setUp() {
+			synchronized (ReaderState.class) {
+				cacheIndex = nextOffset++;
+			}
+		}
+
+		Ehcache nextCache(Ehcache[] caches) {
+			return caches[cacheIndex++ % caches.length];
+		}
+	}
+
+	/**
+	 * Flips the membership between all of the hosts and all but one of them
+	 */
+	@State(Scope.Thread)
+	public static class WriterState {
+		private boolean flip;
+	}
+
+	@Setup
+	public void setUp() {
+		peerProvider = BenchmarkPeerProviders.createPeerProvider();
+		caches = BenchmarkPeerProviders.createCaches(CACHE_COUNT);
+		hosts = BenchmarkPeerProviders.createHosts(PEER_COUNT, 0);
+		hostsWithOneLess = new HashSet<>(hosts);
+		hostsWithOneLess.remove(BenchmarkPeerProviders.createHost(0));
+
+		// Resolve every list up front so that the reads measure the settled state
+		peerProvider.setCachePeerHosts(hosts);
+		for (Ehcache cache : caches) {
+			if (peerProvider.listRemoteCachePeers(cache).size() != PEER_COUNT) {
+				throw new IllegalStateException("Expected " + PEER_COUNT + " peers for " + cache.getName());
+			}
+		}
+	}
+
+	@Benchmark
+	public List<CachePeer> listRemoteCachePeers(ReaderState readerState) {
+		return peerProvider.listRemoteCachePeers(readerState.nextCache(caches));
+	}
+
+	@Benchmark
+	@Group("readWhileChanging")
+	@GroupThreads(3)
+	public List<CachePeer> readWhileChangingReader(ReaderState readerState) {
+		return peerProvider.listRemoteCachePeers(readerState.nextCache(caches));
+	}
+
+	@Benchmark
+	@Group("readWhileChanging")
+	@GroupThreads(1)
+	public void readWhileChangingWriter(WriterState writerState) throws InterruptedException {
+		peerProvider.setCachePeerHosts(writerState.flip ? hosts : hostsWithOneLess);
+		writerState.flip = !writerState.flip;
+		TimeUnit.MILLISECONDS.sleep(MEMBERSHIP_CHANGE_INTERVAL_MS);
+	}
+
+}
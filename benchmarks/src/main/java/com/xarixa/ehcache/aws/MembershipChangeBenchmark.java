@@ -0,0 +1,75 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Ehcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a membership change followed by the first {@link AwsSecurityGroupAwareCacheManagerPeerProvider#listRemoteCachePeers(Ehcache)}
+ * of every cache, which is what the replicators pay for when a host joins. Only the stubs of the new host
+ * should be looked up, the stubs of the remaining hosts are carried over.
+ *
+ * @author Fabric WorldWide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MembershipChangeBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int hostCount;
+
+	@Param({ "10" })
+	public int cacheCount;
+
+	private AwsSecurityGroupAwareCacheManagerPeerProvider peerProvider;
+	private Ehcache[] caches;
+	private Set<CachePeerHost> hosts;
+	private Set<CachePeerHost> hostsWithOneMore;
+	private boolean flip;
+
+	@Setup
+	public void setUp() {
+		peerProvider = BenchmarkPeerProviders.createPeerProvider();
+		caches = BenchmarkPeerProviders.createCaches(cacheCount);
+		hosts = BenchmarkPeerProviders.createHosts(hostCount, 0);
+		hostsWithOneMore = new HashSet<>(hosts);
+		hostsWithOneMore.add(BenchmarkPeerProviders.createHost(hostCount));
+
+		peerProvider.setCachePeerHosts(hosts);
+		rebuildAllCachePeers();
+	}
+
+	@Benchmark
+	public int hostJoinsOrLeavesThenAllCachePeersAreRebuilt() {
+		peerProvider.setCachePeerHosts(flip ? hosts : hostsWithOneMore);
+		flip = !flip;
+		return rebuildAllCachePeers();
+	}
+
+	private int rebuildAllCachePeers() {
+		int cachePeerCount = 0;
+		for (Ehcache cache : caches) {
+			cachePeerCount += peerProvider.listRemoteCachePeers(cache).size();
+		}
+		return cachePeerCount;
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.xarixa.ehcache.aws;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link ListRemoteCachePeersBenchmark#listRemoteCachePeers(ListRemoteCachePeersBenchmark.ReaderState)}
+ * at 1 to 64 threads so that the scaling of the read path can be compared between builds. Any JMH command line
+ * options are applied to every run, i.e. <strong>-f 1 -wi 3</strong> for a quicker run.
+ *
+ * @author Fabric WorldWide
+ */
+public class PeerProviderBenchmarks {
+	private static final int MAX_THREADS = 64;
+
+	public static void main(String[] args) throws Exception {
+		Options commandLineOptions = new CommandLineOptions(args);
+
+		for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+			Options options = new OptionsBuilder()
+				.parent(commandLineOptions)
+				.include(ListRemoteCachePeersBenchmark.class.getName() + ".listRemoteCachePeers$")
+				.threads(threads)
+				.build();
+			new Runner(options).run();
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link AwsSecurityGroupAwareCacheManagerPeerProvider#setCachePeerHosts(Set)} and of
+ * {@link AwsSecurityGroupAwareCacheManagerPeerProvider#updateCachePeerHosts(CachePeerHostDelta)}, one of which
+ * is called by the discovery service on every refresh, for an unchanged membership and for a membership where one
+ * host comes and goes.
+ *
+ * @author Fabric WorldWide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SetCachePeerHostsBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int hostCount;
+
+	private AwsSecurityGroupAwareCacheManagerPeerProvider peerProvider;
+	private Set<CachePeerHost> hosts;
+	private Set<CachePeerHost> hostsWithOneMore;
+	private CachePeerHost oneMoreHost;
+	private boolean flip;
+	private long version;
+
+	@Setup
+	public void setUp() {
+		peerProvider = BenchmarkPeerProviders.createPeerProvider();
+		hosts = BenchmarkPeerProviders.createHosts(hostCount, 0);
+		hostsWithOneMore = new HashSet<>(hosts);
+		oneMoreHost = BenchmarkPeerProviders.createHost(hostCount);
+		hostsWithOneMore.add(oneMoreHost);
+		version = 1;
+		peerProvider.updateCachePeerHosts(CachePeerHostDelta.fullMembership(version, hosts));
+	}
+
+	/**
+	 * The common case, discovery reports the same hosts as last time
+	 */
+	@Benchmark
+	public void unchangedMembership() {
+		peerProvider.setCachePeerHosts(hosts);
+	}
+
+	@Benchmark
+	public void oneHostAddedOrRemoved() {
+		peerProvider.setCachePeerHosts(flip ? hosts : hostsWithOneMore);
+		flip = !flip;
+	}
+
+	@Benchmark
+	public void unchangedMembershipDelta() {
+		peerProvider.updateCachePeerHosts(new CachePeerHostDelta(version, version,
+				Collections.<CachePeerHost>emptySet(), Collections.<CachePeerHost>emptySet()));
+	}
+
+	@Benchmark
+	public void oneHostAddedOrRemovedDelta() {
+		Set<CachePeerHost> changedHosts = Collections.singleton(oneMoreHost);
+		Set<CachePeerHost> noHosts = Collections.emptySet();
+		peerProvider.updateCachePeerHosts(new CachePeerHostDelta(version, version + 1,
+				flip ? noHosts : changedHosts, flip ? changedHosts : noHosts));
+		version++;
+		flip = !flip;
+	}
+
+}
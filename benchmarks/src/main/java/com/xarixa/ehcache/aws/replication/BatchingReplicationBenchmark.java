@@ -0,0 +1,228 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the replicated puts per second to a number of peers over loopback RMI, sending each put to every
+ * peer in a call of its own as Ehcache's RMI replicators do against gathering them with a {@link ReplicationBatcher}.
+ * Each invocation makes {@link #EVENTS_PER_INVOCATION} puts spread over the caches and, for the batcher, then
+ * flushes and waits for the sends so that the time to reach the peers is measured rather than just the time
+ * to queue. The keys do not repeat within an invocation, so none of the puts are coalesced away.
+ *
+ * @author Fabric WorldWide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchingReplicationBenchmark {
+	static final int EVENTS_PER_INVOCATION = 100;
+	private static final int CACHE_COUNT = 4;
+	/**
+	 * Time to wait for a flush to be sent, which loopback peers are well within
+	 */
+	private static final long SEND_TIMEOUT_MS = 60000;
+
+	@Param({ "1", "4", "16" })
+	public int peerCount;
+
+	private Ehcache[] caches;
+	private List<List<LoopbackCachePeer>> cachePeers;
+	private List<List<CachePeer>> cachePeerStubs;
+	private ReplicationBatcher batcher;
+	private Element[] elements;
+	private final AtomicLong receivedEvents = new AtomicLong();
+
+	@Setup
+	public void setUp() throws RemoteException {
+		caches = new Ehcache[CACHE_COUNT];
+		cachePeers = new ArrayList<>();
+		cachePeerStubs = new ArrayList<>();
+		for (int cacheIndex = 0; cacheIndex < CACHE_COUNT; cacheIndex++) {
+			caches[cacheIndex] = createCache("cache" + cacheIndex);
+
+			// As with Ehcache's RMI listener each cache has its own remote object on each peer
+			List<LoopbackCachePeer> peers = new ArrayList<>();
+			List<CachePeer> stubs = new ArrayList<>();
+			for (int peerIndex = 0; peerIndex < peerCount; peerIndex++) {
+				LoopbackCachePeer peer = new LoopbackCachePeer("//127.0.0.1:" + (40001 + peerIndex), "cache" + cacheIndex);
+				peers.add(peer);
+				stubs.add((CachePeer)UnicastRemoteObject.exportObject(peer, 0));
+			}
+			cachePeers.add(peers);
+			cachePeerStubs.add(stubs);
+		}
+
+		batcher = new ReplicationBatcher("RMI", BatchingCacheReplicatorFactory.DEFAULT_MAXIMUM_BATCH_SIZE, 0) {
+			@Override
+			List<CachePeer> listRemoteCachePeers(Ehcache cache) {
+				return cachePeerStubs.get(Integer.parseInt(cache.getName().substring("cache".length())));
+			}
+		};
+
+		elements = new Element[EVENTS_PER_INVOCATION];
+		for (int i = 0; i < EVENTS_PER_INVOCATION; i++) {
+			elements[i] = new Element("key" + i, "value of " + i + " which is about as long as a short cached value");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws NoSuchObjectException {
+		batcher.shutdown();
+		for (List<LoopbackCachePeer> peers : cachePeers) {
+			for (LoopbackCachePeer peer : peers) {
+				UnicastRemoteObject.unexportObject(peer, true);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EVENTS_PER_INVOCATION)
+	public long callPerEventAndPeer() throws RemoteException {
+		for (int i = 0; i < EVENTS_PER_INVOCATION; i++) {
+			for (CachePeer cachePeer : cachePeerStubs.get(i % CACHE_COUNT)) {
+				cachePeer.put(elements[i]);
+			}
+		}
+		return receivedEvents.get();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EVENTS_PER_INVOCATION)
+	public long batched() {
+		for (int i = 0; i < EVENTS_PER_INVOCATION; i++) {
+			Ehcache cache = caches[i % CACHE_COUNT];
+			batcher.add(cache, elements[i].getObjectKey(), new RmiEventMessage(cache, RmiEventType.PUT, null, elements[i]));
+		}
+		batcher.flushAndWait(SEND_TIMEOUT_MS);
+		return receivedEvents.get();
+	}
+
+	private static Ehcache createCache(final String name) {
+		return (Ehcache)Proxy.newProxyInstance(Ehcache.class.getClassLoader(), new Class<?>[] { Ehcache.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getName".equals(method.getName()) || "toString".equals(method.getName())) {
+							return name;
+						}
+						if ("getStatus".equals(method.getName())) {
+							return Status.STATUS_ALIVE;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return name.hashCode();
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	/**
+	 * A peer which only counts what it receives, so that the benchmark measures the remote calls
+	 */
+	private final class LoopbackCachePeer implements CachePeer {
+		private final String urlBase;
+		private final String cacheName;
+
+		private LoopbackCachePeer(String urlBase, String cacheName) {
+			this.urlBase = urlBase;
+			this.cacheName = cacheName;
+		}
+
+		@Override
+		public void put(Element element) {
+			receivedEvents.incrementAndGet();
+		}
+
+		@Override
+		public boolean remove(Serializable key) {
+			receivedEvents.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void removeAll() {
+			receivedEvents.incrementAndGet();
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public void send(List eventMessages) {
+			receivedEvents.addAndGet(eventMessages.size());
+		}
+
+		@Override
+		public String getName() {
+			return cacheName;
+		}
+
+		@Override
+		public String getGuid() {
+			return urlBase + "/" + cacheName;
+		}
+
+		@Override
+		public String getUrl() {
+			return urlBase + "/" + cacheName;
+		}
+
+		@Override
+		public String getUrlBase() {
+			return urlBase;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public List getKeys() {
+			throw new UnsupportedOperationException("getKeys");
+		}
+
+		@Override
+		public Element getQuiet(Serializable key) {
+			throw new UnsupportedOperationException("getQuiet");
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public List getElements(List keys) {
+			throw new UnsupportedOperationException("getElements");
+		}
+	}
+
+}
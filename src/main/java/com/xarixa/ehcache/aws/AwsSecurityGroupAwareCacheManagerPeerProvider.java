@@ -1,24 +1,20 @@
 package com.xarixa.ehcache.aws;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
-import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -38,17 +34,9 @@ import com.xarixa.ehcache.aws.discovery.AwsDiscoveryServiceConfig;
 import com.xarixa.ehcache.aws.discovery.DiscoveryService;
 import com.xarixa.ehcache.aws.discovery.DiscoveryServiceConfig;
 import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
+import com.xarixa.ehcache.aws.metrics.CachePeerProviderMetrics;
 
-public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManagerPeerProvider implements ManagedCacheManagerPeerProvider, UpdateableHostBasedCacheManagerPeerProvider, AwsSecurityGroupAwareCacheManagerPeerProviderMBean {
-	/**
-	 * Parser for URL's of the form <strong>//HOST:PORT/...</strong>
-	 */
-	private static final ThreadLocal<Matcher> EXTRACT_HOSTNAMES_REGEX = new ThreadLocal<Matcher>() {
-		protected Matcher initialValue() {
-			return Pattern.compile("^//([\\w\\-\\_\\.]+)(:[0-9]+)??(\\/.*)??$").matcher("");
-		}
-	};
-
+public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManagerPeerProvider implements ManagedCacheManagerPeerProvider, DeltaAwareCachePeerProvider, MetricsAwareCachePeerProvider, AwsSecurityGroupAwareCacheManagerPeerProviderMBean, CachePeerLookup {
 	private static final Logger LOG = LoggerFactory.getLogger(AwsSecurityGroupAwareCacheManagerPeerProvider.class.getName());
 
     /**
@@ -56,36 +44,99 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
      */
 	public static final String CACHE_SCHEME = "RMI";
 
+	/**
+	 * How often the network interfaces are enumerated for changes to the local addresses
+	 */
+	private static final long LOCAL_ADDRESS_REFRESH_INTERVAL_MS = 60000;
+
 	/**
 	 * true after {@link #init()} is invoked, false before that or after {@link #dispose()}
 	 */
 	private final AtomicBoolean isActive = new AtomicBoolean(false);
 
     /**
-     * Local address of this host
+     * Operational metrics, exposed through JMX
      */
-    private final InetAddress localhostInetAddress;
+    private final CachePeerProviderMetrics metrics = new CachePeerProviderMetrics();
 
     /**
-     * A lock for {@link #peerUrls}
+     * Counted down by the first discovery result, or by starting with the last known peers
+     * @see #getTimeForClusterToForm()
      */
-    private final ReadWriteLock peerUrlsLock = new ReentrantReadWriteLock(true);
+    private final CountDownLatch clusterFormed = new CountDownLatch(1);
 
     /**
-     * Contains RMI URLs of the form: <strong>//HOST:PORT</strong>
+     * The last known peers kept across restarts, null if they are not kept
      */
-    private Set<String> peerUrls = new HashSet<>();
-    
+    private final PeerListFile peerListFile;
+
     /**
-     * A lock for {@link #cachePeers}
+     * Addresses of this host
      */
-    private final ReadWriteLock cachePeersLock = new ReentrantReadWriteLock(true);
+    private final LocalAddresses localAddresses;
 
     /**
-     * A transient list of cache peers by cache
+     * The current peer URL's and the cache peers resolved for them. Readers take the current table without
+     * any locking, writers replace it as a whole.
      * @see #listRemoteCachePeers(Ehcache)
+     * @see #setCachePeerHosts(Set)
+     */
+    private final AtomicReference<CachePeerTable> cachePeerTable = new AtomicReference<>(CachePeerTable.EMPTY);
+
+    /**
+     * Interned identities of the peers, so that hosts are only turned into URL's once
+     */
+    private final CachePeerIdentities cachePeerIdentities = new CachePeerIdentities();
+
+    /**
+     * Resolves stubs concurrently, merging in those that arrive late through {@link #mergeCachePeerStub(CachePeerIdentity, String, CachePeer)}
+     */
+    private final CachePeerResolver cachePeerResolver;
+
+    /**
+     * Peers which could not be reached and are held back from lookups
+     */
+    private final PeerBackoff peerBackoff;
+
+    /**
+     * Outcome of the calls on the stubs that have been handed out
      */
-    private Map<String,List<CachePeer>> cachePeers = new HashMap<String,List<CachePeer>>();
+    private final CachePeerHealth cachePeerHealth;
+
+    /**
+     * Time in ms at which stubs were last dropped from the table
+     * @see #stale(Date)
+     */
+    private volatile long lastStubEviction;
+
+    /**
+     * Held while the membership is changed by discovery, which keeps the version in step with the table
+     */
+    private final Object membershipLock = new Object();
+
+    /**
+     * The version of the membership last applied by {@link #updateCachePeerHosts(CachePeerHostDelta)}, or -1 if
+     * the membership was last set without one. Guarded by the membership lock.
+     */
+    private long membershipVersion = -1;
+
+    /**
+     * Whether the peer list file is behind the table, it is written once the membership lock has been released
+     * so that discovery does not hold the lock over disk I/O
+     */
+    private volatile boolean peerListFileStale;
+
+    /**
+     * The last known peers which were started with and which discovery has not reported yet. They are kept
+     * until the unconfirmed peers expiry, so that a first discovery result which is empty or partial does not
+     * drop them. Guarded by the membership lock.
+     */
+    private final Set<CachePeerIdentity> unconfirmedPeers = new HashSet<>();
+
+    /**
+     * Time in ms from which the unconfirmed peers are dropped by the next update. Guarded by the membership lock.
+     */
+    private long unconfirmedPeersExpiry;
 
     /**
      * A discovery service for AWS peer discovery
@@ -103,17 +154,39 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
 	 */
 	private final DiscoveryServiceFactory discoveryServiceFactory;
 
+	/**
+	 * @see DiscoveryServiceConfig#getPeerLookupTimeout()
+	 */
+	private final long peerLookupTimeout;
+
 	public AwsSecurityGroupAwareCacheManagerPeerProvider(DiscoveryServiceConfig discoveryServiceConfig,
 			DiscoveryServiceFactory discoveryServiceFactory) {
 		this.discoveryServiceFactory = discoveryServiceFactory;
 		discoveryServiceConfig.validate();
 		this.discoveryServiceConfig = discoveryServiceConfig;
-		try {
-			localhostInetAddress = InetAddress.getLocalHost();
-		} catch (UnknownHostException e) {
-			throw new CacheException("Could not resolve localhost address", e);
-		}
-		LOG.debug("Localhost is: {}", localhostInetAddress);
+		this.peerLookupTimeout = discoveryServiceConfig.getPeerLookupTimeout();
+		this.peerBackoff = new PeerBackoff(discoveryServiceConfig.getPeerRetryBackoff(),
+				discoveryServiceConfig.getPeerRetryMaxBackoff());
+		this.cachePeerHealth = new CachePeerHealth(discoveryServiceConfig.getPeerFailureThreshold(), new CachePeerHealth.Listener() {
+			@Override
+			public void peerUnhealthy(CachePeerIdentity peer) {
+				quarantinePeer(peer);
+			}
+		});
+		this.cachePeerResolver = new CachePeerResolver(this, new CachePeerResolver.Listener() {
+			@Override
+			public void cachePeerResolved(CachePeerIdentity peer, String cacheName, CachePeer cachePeer) {
+				mergeCachePeerStub(peer, cacheName, cachePeer);
+			}
+
+			@Override
+			public void peerRetryDue(CachePeerIdentity peer) {
+				retryPeer(peer);
+			}
+		}, peerBackoff, cachePeerHealth, metrics);
+		this.localAddresses = new LocalAddresses(LOCAL_ADDRESS_REFRESH_INTERVAL_MS);
+		this.peerListFile = discoveryServiceConfig.getPeerListFile() == null ? null :
+			new PeerListFile(Paths.get(discoveryServiceConfig.getPeerListFile()));
     }
 
     public AwsSecurityGroupAwareCacheManagerPeerProvider(CacheManager cacheManager) {
@@ -134,7 +207,9 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
     }
 
     /**
-     * Initialises the discovery service
+     * Initialises the discovery service. If the last known peers were kept they are used straight away,
+     * otherwise this waits up to the {@link DiscoveryServiceConfig#getClusterFormationTimeout() cluster formation
+     * timeout} for the first discovery result so that the caches do not start out with no peers.
      */
     @Override
     public void init() {
@@ -144,16 +219,81 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
 			return;
     	}
 
+    	loadLastKnownPeers();
 		discoveryService = discoveryServiceFactory.createDiscoveryService(this, discoveryServiceConfig);
 		discoveryService.startDiscoveryService();
 		isActive.set(true);
+		awaitClusterFormation();
+    }
+
+    /**
+     * Starts out with the peers from the peer list file, if there are any and discovery has not already
+     * reported its own. Discovery has the cluster formation timeout to report them before those which it
+     * has not are dropped.
+     */
+    void loadLastKnownPeers() {
+    	if (peerListFile == null) {
+    		return;
+    	}
+
+    	Set<CachePeerIdentity> lastKnownPeers = new HashSet<>();
+    	for (CachePeerHost cachePeerHost : peerListFile.read()) {
+    		if (!isLocalCacheHost(cachePeerHost)) {
+    			lastKnownPeers.add(cachePeerIdentities.get(cachePeerHost));
+    		}
+    	}
+    	if (lastKnownPeers.isEmpty()) {
+    		return;
+    	}
+
+		synchronized (membershipLock) {
+			CachePeerTable currentTable;
+			CachePeerTable newTable;
+			do {
+				currentTable = cachePeerTable.get();
+				if (!currentTable.getPeers().isEmpty()) {
+					return;
+				}
+				newTable = currentTable.withPeers(lastKnownPeers);
+			} while (!cachePeerTable.compareAndSet(currentTable, newTable));
+
+			unconfirmedPeers.addAll(lastKnownPeers);
+			unconfirmedPeersExpiry = System.currentTimeMillis() + discoveryServiceConfig.getClusterFormationTimeout();
+		}
+
+		LOG.info("Starting with the last known RMI cache peers from {} while discovery runs: {}",
+				peerListFile.getPath(), lastKnownPeers);
+		clusterFormed.countDown();
+    }
+
+    private void awaitClusterFormation() {
+    	long timeout = getTimeForClusterToForm();
+    	if (timeout <= 0) {
+    		return;
+    	}
+
+    	try {
+    		if (!clusterFormed.await(timeout, TimeUnit.MILLISECONDS)) {
+    			LOG.warn("Discovery did not report any peers within {}ms, continuing without them", timeout);
+    		}
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
     }
 
     @Override
     public void registerPeer(String rmiUrl) {
-		if (!isLocalCachePeer(rmiUrl) && !this.peerUrls.contains(rmiUrl)) {
-			this.peerUrls.add(rmiUrl);
+		if (isLocalCachePeer(rmiUrl)) {
+			return;
 		}
+
+		CachePeerIdentity peer = cachePeerIdentities.get(rmiUrl);
+		CachePeerTable currentTable;
+		CachePeerTable newTable;
+		do {
+			currentTable = cachePeerTable.get();
+			newTable = currentTable.withPeer(peer);
+		} while (newTable != currentTable && !cachePeerTable.compareAndSet(currentTable, newTable));
 	}
 
 	/**
@@ -166,15 +306,8 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
 	 * @see #isLocalCacheHost(String, Integer)
 	 */
 	boolean isLocalCachePeer(String rmiUrl) {
-		Matcher peerHostnameMatcher = EXTRACT_HOSTNAMES_REGEX.get().reset(rmiUrl);
-
-		if (peerHostnameMatcher.matches() && peerHostnameMatcher.groupCount() >= 2) {
-			String host = peerHostnameMatcher.group(1);
-			Integer portNumber = Integer.parseInt(peerHostnameMatcher.group(2));
-			return isLocalCacheHost(host, portNumber);
-		} else {
-			throw new RuntimeException("Cannot extract hostname from RMI URL '" + rmiUrl + "'");
-		}
+		CachePeerIdentity peer = CachePeerIdentity.parse(rmiUrl);
+		return isLocalCacheHost(peer.getHostname(), peer.getPort());
 	}
 
 	/**
@@ -198,157 +331,298 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
 	}
 
 	/**
-	 * Complements {@link #isLocalCachePeer(String)}, checks the host IP/DNS only
+	 * Complements {@link #isLocalCachePeer(String)}, checks the host IP/name only against the addresses
+	 * of the local network interfaces and the local host name, host names are resolved once
 	 * @param host
 	 */
 	boolean isLocalCacheHost(String hostname) {
-		InetAddress[] allHostNames;
+		return localAddresses.contains(hostname);
+	}
+
+	@Override
+	public void setCachePeerHosts(Set<CachePeerHost> cachePeerHosts) {
+		LOG.debug("Updating RMI cache peers list: {}", cachePeerHosts);
+		synchronized (membershipLock) {
+			setCachePeers(withUnconfirmedPeers(getRemoteCachePeers(cachePeerHosts)));
+			membershipVersion = -1;
+		}
+		writePeerListFile();
+	}
+
+	/**
+	 * Applies the change when it follows the version last applied, touching only the peers which joined or
+	 * departed. A full membership is applied as {@link #setCachePeerHosts(Set)} is.
+	 */
+	@Override
+	public boolean updateCachePeerHosts(CachePeerHostDelta cachePeerHostDelta) {
+		LOG.debug("Updating RMI cache peers list with {}", cachePeerHostDelta);
 		try {
-			allHostNames = InetAddress.getAllByName(hostname);
-		} catch (UnknownHostException e) {
-			throw new RuntimeException("Could not get localhost IP address!", e);
+			return applyCachePeerHostDelta(cachePeerHostDelta);
+		} finally {
+			writePeerListFile();
+		}
+	}
+
+	private boolean applyCachePeerHostDelta(CachePeerHostDelta cachePeerHostDelta) {
+		synchronized (membershipLock) {
+			if (cachePeerHostDelta.isFullMembership()) {
+				setCachePeers(withUnconfirmedPeers(getRemoteCachePeers(cachePeerHostDelta.getAddedCachePeerHosts())));
+			} else if (cachePeerHostDelta.getFromVersion() == membershipVersion) {
+				Set<CachePeerIdentity> addedPeers = getRemoteCachePeers(cachePeerHostDelta.getAddedCachePeerHosts());
+				Set<CachePeerIdentity> removedPeers = getRemoteCachePeers(cachePeerHostDelta.getRemovedCachePeerHosts());
+				unconfirmedPeers.removeAll(addedPeers);
+				if (!unconfirmedPeers.isEmpty() && System.currentTimeMillis() >= unconfirmedPeersExpiry) {
+					removedPeers.addAll(unconfirmedPeers);
+					unconfirmedPeers.clear();
+				}
+				changeCachePeers(addedPeers, removedPeers);
+			} else {
+				LOG.debug("Cannot apply {} to version {} of the RMI cache peers list", cachePeerHostDelta, membershipVersion);
+				return false;
+			}
+			membershipVersion = cachePeerHostDelta.getToVersion();
+			return true;
 		}
+	}
 
-		for (InetAddress remoteHost : allHostNames) {
-			if (localhostInetAddress.getHostAddress().equals(remoteHost.getHostAddress())) {
-				return true;
+	/**
+	 * Interns the peers of the hosts other than this one
+	 */
+	private Set<CachePeerIdentity> getRemoteCachePeers(Set<CachePeerHost> cachePeerHosts) {
+		Set<CachePeerIdentity> peers = new HashSet<>(cachePeerHosts.size());
+		for (CachePeerHost cachePeerHost : cachePeerHosts) {
+			// Don't add the local peer in, we don't want comms with the same discovery instance!
+			if (!isLocalCacheHost(cachePeerHost)) {
+				peers.add(cachePeerIdentities.get(cachePeerHost));
 			}
 		}
+		return peers;
+	}
 
-		return false;
+	/**
+	 * Adds the last known peers which discovery has not reported yet to a full membership, until they expire.
+	 * Called holding the membership lock.
+	 */
+	private Set<CachePeerIdentity> withUnconfirmedPeers(Set<CachePeerIdentity> peers) {
+		unconfirmedPeers.removeAll(peers);
+		if (unconfirmedPeers.isEmpty()) {
+			return peers;
+		}
+		if (System.currentTimeMillis() >= unconfirmedPeersExpiry) {
+			unconfirmedPeers.clear();
+			return peers;
+		}
+
+		Set<CachePeerIdentity> peersWithUnconfirmedPeers = new HashSet<>(peers);
+		peersWithUnconfirmedPeers.addAll(unconfirmedPeers);
+		return peersWithUnconfirmedPeers;
 	}
 
-	@Override
-	public void setCachePeerHosts(Set<CachePeerHost> cachePeerHosts) {
-		LOG.debug("Updating RMI cache peers list: {}", cachePeerHosts);
-		Set<String> newPeerUrls = new HashSet<>(cachePeerHosts.size());
-		boolean updated = false;
-		peerUrlsLock.readLock().lock();
+	/**
+	 * Replaces the peers, called holding the membership lock
+	 */
+	private void setCachePeers(Set<CachePeerIdentity> newPeers) {
+		// Update the table only if there were additions or deletions. The new table keeps the stubs of the
+		// peers that remain, so that only new peers need to be resolved in listRemoteCachePeers.
+		CachePeerTable currentTable;
+		CachePeerTable newTable;
+		do {
+			currentTable = cachePeerTable.get();
+			newTable = currentTable.withPeers(newPeers);
+		} while (newTable != currentTable && !cachePeerTable.compareAndSet(currentTable, newTable));
+
+		Set<CachePeerIdentity> addedPeers = new HashSet<>();
+		Set<CachePeerIdentity> removedPeers = new HashSet<>();
+		if (newTable != currentTable) {
+			addedPeers.addAll(newPeers);
+			addedPeers.removeAll(currentTable.getPeers());
+			removedPeers.addAll(currentTable.getPeers());
+			removedPeers.removeAll(newPeers);
+		}
+		cachePeersChanged(currentTable, newTable, addedPeers, removedPeers);
+	}
 
-		try {
-			for (CachePeerHost cachePeerHost : cachePeerHosts) {
-				// Don't add the local peer in, we don't want comms with the same discovery instance!
-				if (!isLocalCacheHost(cachePeerHost)) {
-					// Build the peer URL
-					String peerUrl = new StringBuilder("//")
-						.append(cachePeerHost.getHostname())
-						.append(':')
-						.append(cachePeerHost.getPort())
-						.toString();
-	
-					// Is this an update?
-					updated = !peerUrls.contains(peerUrl);
-					newPeerUrls.add(peerUrl);
-				}
+	/**
+	 * Adds and removes peers, called holding the membership lock
+	 */
+	private void changeCachePeers(Set<CachePeerIdentity> addedPeers, Set<CachePeerIdentity> removedPeers) {
+		CachePeerTable currentTable;
+		CachePeerTable newTable;
+		do {
+			currentTable = cachePeerTable.get();
+			newTable = currentTable.withPeerChanges(addedPeers, removedPeers);
+		} while (newTable != currentTable && !cachePeerTable.compareAndSet(currentTable, newTable));
+
+		// Only count what actually changed, as peers can also have been added through registerPeer
+		Set<CachePeerIdentity> actuallyAddedPeers = new HashSet<>();
+		Set<CachePeerIdentity> actuallyRemovedPeers = new HashSet<>();
+		for (CachePeerIdentity peer : addedPeers) {
+			if (!currentTable.getPeers().contains(peer)) {
+				actuallyAddedPeers.add(peer);
 			}
-	
-			// Update the list only if necessary, if there was a new entry added or there were deletions
-			if (updated || peerUrls.size() != newPeerUrls.size()) {
-				// Upgrade to a write lock
-				peerUrlsLock.readLock().unlock();
-				peerUrlsLock.writeLock().lock();
-
-				try {
-					peerUrls = newPeerUrls;
-
-					// Downgrade the lock to a read lock
-					peerUrlsLock.readLock().lock();
-				} finally {
-					peerUrlsLock.writeLock().unlock();
-				}
-				
-				// Wipe out the list of cache peers so that they can be recreated in listRemoteCachePeers
-				cachePeersLock.writeLock().lock();
-				try {
-					cachePeers.clear();
-				} finally {
-					cachePeersLock.writeLock().unlock();
-				}
+		}
+		for (CachePeerIdentity peer : removedPeers) {
+			if (currentTable.getPeers().contains(peer)) {
+				actuallyRemovedPeers.add(peer);
+			}
+		}
+		cachePeersChanged(currentTable, newTable, actuallyAddedPeers, actuallyRemovedPeers);
+	}
 
-				LOG.info("Updated the RMI cache peers list: {}", newPeerUrls);
+	/**
+	 * Forgets the state of departed peers and records the update
+	 */
+	private void cachePeersChanged(CachePeerTable currentTable, CachePeerTable newTable,
+			Set<CachePeerIdentity> addedPeers, Set<CachePeerIdentity> removedPeers) {
+		if (!removedPeers.isEmpty()) {
+			peerBackoff.removeAll(removedPeers);
+			cachePeerHealth.removeAll(removedPeers);
+			cachePeerIdentities.removeAll(removedPeers);
+			for (CachePeerIdentity peer : removedPeers) {
+				localAddresses.forget(peer.getHostname());
 			}
-		} finally {
-			peerUrlsLock.readLock().unlock();
+			lastStubEviction = System.currentTimeMillis();
+		}
+		if (newTable != currentTable) {
+			LOG.info("Updated the RMI cache peers list, added: {}, removed: {}", addedPeers, removedPeers);
 		}
+		if (peerListFile != null && (newTable != currentTable || clusterFormed.getCount() > 0)) {
+			peerListFileStale = true;
+		}
+		metrics.recordMembershipUpdate(addedPeers.size(), removedPeers.size());
+		clusterFormed.countDown();
 	}
 
+	/**
+	 * Writes the current peers to the peer list file if they have changed since it was last written. Writers
+	 * take turns and each writes the table as it is then, so the file always ends up with the latest peers.
+	 */
+	private void writePeerListFile() {
+		if (peerListFile == null) {
+			return;
+		}
+
+		synchronized (peerListFile) {
+			if (peerListFileStale) {
+				peerListFileStale = false;
+				peerListFile.write(cachePeerTable.get().getPeers());
+			}
+		}
+	}
+
+	/**
+	 * Lists the remote cache peers for the cache. This is invoked for every replication event so the
+	 * common path, where the peers have already been resolved for the cache, reads the current
+	 * {@link CachePeerTable} without taking any locks. On a miss only the peers without a stub for the cache
+	 * are looked up, concurrently and for no longer than the configured
+	 * {@link DiscoveryServiceConfig#getPeerLookupTimeout() lookup timeout}. The stubs are then merged into a
+	 * new copy of the table and the list is published for the cache, unless the membership changed while the
+	 * lookups were running. Stubs which arrive after the timeout are merged into the published list later.
+	 */
 	public final List<CachePeer> listRemoteCachePeers(Ehcache cache)
 			throws CacheException {
-        List<CachePeer> remoteCachePeers;
         String cacheName = cache.getName();
-
-        // First attempt to extract any cached peers list
-		cachePeersLock.readLock().lock();
-		try {
-			remoteCachePeers = cachePeers.get(cacheName);
-		} finally {
-			cachePeersLock.readLock().unlock();
-		}
+		CachePeerTable table = cachePeerTable.get();
 
 		// Return anything we have
+		List<CachePeer> remoteCachePeers = table.getCachePeers(cacheName);
+		metrics.recordListRemoteCachePeers(remoteCachePeers != null);
 		if (remoteCachePeers != null) {
 			return remoteCachePeers;
 		}
 
-		// Try to update, get the write lock for our cache peers map
-		cachePeersLock.writeLock().lock();
-		
-		try {
-			// Daah-ble check! This may have been updated by another thread before we got the write lock.
-			remoteCachePeers = cachePeers.get(cacheName);
-			if (remoteCachePeers != null) {
-				return remoteCachePeers;
+		Map<CachePeerIdentity,CachePeer> resolvedStubs = cachePeerResolver.resolve(
+				table.getUnresolvedPeers(cacheName), cacheName, peerLookupTimeout);
+
+		// Merge the stubs into a copy of the table, retrying if the table was replaced in the meantime
+		while (true) {
+			CachePeerTable currentTable = cachePeerTable.get();
+
+			List<CachePeer> publishedCachePeers = currentTable.getCachePeers(cacheName);
+			if (publishedCachePeers != null) {
+				// Another thread beat us to it
+				return publishedCachePeers;
 			}
 
-			// OK at this point we have the write lock and definitely need to create the list
-			remoteCachePeers = new ArrayList<CachePeer>();
-	        
-	        // Get the read lock for the peer URL's list
-	        peerUrlsLock.readLock().lock();
-	
-	        try {
-				for (String rmiUrl : peerUrls) {
-		            String cacheRmiUrl = createFullyQualifiedRmiCacheUrl(rmiUrl, cacheName);
-		
-		            CachePeer cachePeer = null;
-		            try {
-		                cachePeer = lookupRemoteCachePeer(cacheRmiUrl);
-		                remoteCachePeers.add(cachePeer);
-		            } catch (Exception e) {
-		                if (LOG.isDebugEnabled()) {
-		                    LOG.debug("Exception looking up RMI URL {}. This may be normal if a node has gone offline, "
-		                    		+ "or it may indicate network connectivity issues.", rmiUrl, e);
-		                }
-		            }
-		        }
-			} finally {
-				// Release read lock
-				peerUrlsLock.readLock().unlock();
+			boolean complete = currentTable.getPeers() == table.getPeers();
+			CachePeerTable newTable = currentTable.withCachePeerStubs(cacheName, resolvedStubs, complete);
+			if (cachePeerTable.compareAndSet(currentTable, newTable)) {
+				// If the membership changed we have not looked up every peer, so the list is not published
+				return complete ? newTable.getCachePeers(cacheName) : newTable.buildCachePeers(cacheName);
 			}
-	        
-	        // Finally set this up in the map before releasing the write lock, making it available to other threads
-	        remoteCachePeers = Collections.unmodifiableList(remoteCachePeers);
-	        cachePeers.put(cacheName, remoteCachePeers);
-		} finally {
-			cachePeersLock.writeLock().unlock();
 		}
+	}
 
-        return remoteCachePeers;
+	/**
+	 * Merges a single stub into the table as it is resolved, so that stubs which took longer than the
+	 * lookup timeout appear in the list of cache peers once they arrive
+	 */
+	void mergeCachePeerStub(CachePeerIdentity peer, String cacheName, CachePeer cachePeer) {
+		Map<CachePeerIdentity,CachePeer> resolvedStubs = Collections.singletonMap(peer, cachePeer);
+
+		while (true) {
+			CachePeerTable currentTable = cachePeerTable.get();
+			if (!currentTable.getPeers().contains(peer) ||
+					currentTable.getCachePeerStub(peer, cacheName) == cachePeer) {
+				return;
+			}
+
+			if (cachePeerTable.compareAndSet(currentTable, currentTable.withCachePeerStubs(cacheName, resolvedStubs, false))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Invoked when the backoff of a peer that could not be reached has expired. The peer is looked up in the
+	 * background for each cache that has a published list without it, so that the hot path never waits on it. Nothing
+	 * is retried once the provider has been disposed.
+	 */
+	void retryPeer(CachePeerIdentity peer) {
+		CachePeerTable table = cachePeerTable.get();
+		if (!isActive.get() || !table.getPeers().contains(peer)) {
+			return;
+		}
+
+		Set<String> cacheNames = new HashSet<>();
+		for (String cacheName : table.getCachePeers().keySet()) {
+			if (table.getCachePeerStub(peer, cacheName) == null) {
+				cacheNames.add(cacheName);
+			}
+		}
+
+		LOG.debug("Retrying peer {} for caches {}", peer, cacheNames);
+		cachePeerResolver.resolveInBackground(peer, cacheNames);
+	}
+
+	/**
+	 * Invoked when calls to the peer have failed repeatedly. Its stubs are evicted so that the replicators
+	 * stop waiting on them and the peer is backed off, it is then resolved again in the background through
+	 * {@link #retryPeer(CachePeerIdentity)} once the backoff expires.
+	 */
+	void quarantinePeer(CachePeerIdentity peer) {
+		CachePeerTable currentTable;
+		CachePeerTable newTable;
+		do {
+			currentTable = cachePeerTable.get();
+			newTable = currentTable.withoutCachePeerStubs(peer);
+		} while (newTable != currentTable && !cachePeerTable.compareAndSet(currentTable, newTable));
+
+		if (newTable != currentTable) {
+			lastStubEviction = System.currentTimeMillis();
+			LOG.warn("Evicted the stubs of peer {} after {} consecutive failed calls, it will be resolved again",
+					peer, discoveryServiceConfig.getPeerFailureThreshold());
+			cachePeerResolver.backOff(peer);
+		}
 	}
 
     /**
-     * Gets the fully qualified RMI location for the cache name given a partial RMI URL, i.e.
-     * <strong>//HOST:PORT/CACHE_NAME</strong>
-     * @param rmiUrl	Partial RMI URL
-     * @return The fully qualified RMI location of the cache
+     * Anything registered before stubs were last evicted, either because the peer departed or because calls
+     * to it failed repeatedly, is stale
      */
-    static String createFullyQualifiedRmiCacheUrl(String rmiUrl, String cacheName) {
-        return new StringBuilder().append(rmiUrl).append('/').append(cacheName).toString();
-    }
-
     @Override
     protected boolean stale(Date date) {
-    	return false;
+    	return date.getTime() < lastStubEviction;
     }
 
     @Override
@@ -368,6 +642,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
     	discoveryService.stopDiscoveryService();
     	discoveryService = null;
     	isActive.set(false);
+    	cachePeerResolver.close();
     }
 
     @Override
@@ -375,9 +650,13 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
         return CACHE_SCHEME;
     }
 
+	/**
+	 * The configured cluster formation timeout until the first discovery result has been received, or the
+	 * last known peers have been loaded, and 0 afterwards
+	 */
 	@Override
 	public long getTimeForClusterToForm() {
-		return 0;
+		return clusterFormed.getCount() == 0 ? 0 : discoveryServiceConfig.getClusterFormationTimeout();
 	}
 
 	@Override
@@ -403,13 +682,94 @@ public class AwsSecurityGroupAwareCacheManagerPeerProvider extends RMICacheManag
 	 */
 	@Override
 	public Set<String> getPeerUrls() {
-		peerUrlsLock.readLock().lock();
-		
-		try {
-			return Collections.unmodifiableSet(peerUrls);
-		} finally {
-			peerUrlsLock.readLock().unlock();
-		}
+		return cachePeerTable.get().getPeerUrls();
+	}
+
+	@Override
+	public Map<String,Date> getBackedOffPeers() {
+		return peerBackoff.getBackedOffPeers();
+	}
+
+	@Override
+	public Map<String,Integer> getFailingPeers() {
+		return cachePeerHealth.getFailingPeers();
+	}
+
+	@Override
+	public CachePeerProviderMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public Map<String,Long> getDiscoveryRunDuration() {
+		return metrics.getDiscoveryRunDuration();
+	}
+
+	@Override
+	public long getDiscoveryFailureCount() {
+		return metrics.getDiscoveryFailureCount();
+	}
+
+	@Override
+	public Map<String,Long> getEc2CallLatency() {
+		return metrics.getEc2CallLatency();
+	}
+
+	@Override
+	public long getEc2CallErrorCount() {
+		return metrics.getEc2CallErrorCount();
+	}
+
+	@Override
+	public long getPeersAddedCount() {
+		return metrics.getPeersAddedCount();
+	}
+
+	@Override
+	public long getPeersRemovedCount() {
+		return metrics.getPeersRemovedCount();
+	}
+
+	@Override
+	public int getPeersAddedLastUpdate() {
+		return metrics.getPeersAddedLastUpdate();
+	}
+
+	@Override
+	public int getPeersRemovedLastUpdate() {
+		return metrics.getPeersRemovedLastUpdate();
+	}
+
+	@Override
+	public long getTimeSinceLastSuccessfulDiscovery() {
+		return metrics.getTimeSinceLastSuccessfulDiscovery();
+	}
+
+	@Override
+	public Map<String,Long> getStubLookupLatency() {
+		return metrics.getStubLookupLatency();
+	}
+
+	@Override
+	public long getStubLookupSuccessCount() {
+		return metrics.getStubLookupSuccessCount();
+	}
+
+	@Override
+	public long getStubLookupFailureCount() {
+		return metrics.getStubLookupFailureCount();
+	}
+
+	@Override
+	public double getListRemoteCachePeersHitRatio() {
+		return metrics.getListRemoteCachePeersHitRatio();
+	}
+
+	/**
+	 * The current snapshot of peers, used in testing
+	 */
+	CachePeerTable getCachePeerTable() {
+		return cachePeerTable.get();
 	}
 
 }
@@ -1,5 +1,6 @@
 package com.xarixa.ehcache.aws;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -21,6 +22,8 @@ import org.slf4j.LoggerFactory;
 import com.xarixa.ehcache.aws.discovery.AwsDiscoveryServiceConfig;
 import com.xarixa.ehcache.aws.discovery.AwsSecurityGroupAwareDiscoveryServiceFactory;
 import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
+import com.xarixa.ehcache.aws.discovery.Ec2QueryMode;
+import com.xarixa.ehcache.aws.discovery.PeerAddressPolicy;
 
 /**
  * An {@link RMICacheManagerPeerProviderFactory} that works using AWS security groups to discover
@@ -34,8 +37,26 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderFactory extends RMICac
 			.getLogger(AwsSecurityGroupAwareCacheManagerPeerProviderFactory.class.getName());
     private static final String AWS_SECURITY_GROUP_PROP = "securityGroup";
     private static final String AWS_SECURITY_GROUP_REFRESH_INTERVAL_PROP = "securityGroupRefreshInterval";
+    private static final String EC2_QUERY_MODE_PROP = "ec2QueryMode";
+    private static final String PEER_ADDRESS_POLICY_PROP = "peerAddressPolicy";
+    private static final String AWS_SECURITY_GROUP_MAX_REFRESH_INTERVAL_PROP = "securityGroupMaxRefreshInterval";
     private static final String DISCOVERY_SERVICE_CLASS_PROP = "discoveryServiceClass";
-    private static final Pattern UNIQUE_RESOURCE_PORT_REGEX = Pattern.compile("^.*: ([0-9]+)$");
+    private static final String PEER_LOOKUP_TIMEOUT_PROP = "peerLookupTimeout";
+    private static final String PEER_RETRY_BACKOFF_PROP = "peerRetryBackoff";
+    private static final String PEER_RETRY_MAX_BACKOFF_PROP = "peerRetryMaxBackoff";
+    private static final String PEER_FAILURE_THRESHOLD_PROP = "peerFailureThreshold";
+    private static final String CLUSTER_FORMATION_TIMEOUT_PROP = "clusterFormationTimeout";
+    private static final String PEER_LIST_FILE_PROP = "peerListFile";
+    private static final String PEER_REMOVAL_ROUNDS_PROP = "peerRemovalRounds";
+    private static final String PEER_REMOVAL_DELAY_PROP = "peerRemovalDelay";
+    private static final String GOSSIP_PORT_PROP = "gossipPort";
+    private static final String GOSSIP_ADDRESS_PROP = "gossipAddress";
+    private static final String GOSSIP_INTERVAL_PROP = "gossipInterval";
+    private static final String GOSSIP_FAILURE_TIMEOUT_PROP = "gossipFailureTimeout";
+    private static final String GOSSIP_RECONCILE_INTERVAL_PROP = "gossipReconcileInterval";
+    private static final String LEADER_TIMEOUT_PROP = "leaderTimeout";
+    private static final String DISCOVERY_FILE_PROP = "discoveryFile";
+    static final Pattern UNIQUE_RESOURCE_PORT_REGEX = Pattern.compile("^.*: ([0-9]+)$");
     private static final Map<Integer, AwsSecurityGroupAwareCacheManagerPeerProvider> cachePeerProviders = new HashMap<>();
     private static final ReentrantLock cachePeerProvidersLock = new ReentrantLock();
 
@@ -60,22 +81,8 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderFactory extends RMICac
     				"'");
     	}
 
-    	AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
-    	config.setRmiListenerPort(Integer.parseInt(portMatcher.group(1)));
-    	config.setAccessKey(AwsSecurityUtils.getInstance().getAwsAccessKey());
-    	config.setSecretKey(AwsSecurityUtils.getInstance().getAwsSecretKey());
-   	 	config.setSecurityGroup(PropertyUtil.extractAndLogProperty(AWS_SECURITY_GROUP_PROP, properties));
-   	 	String securityGroupRefreshIntervalString =
-   	 			PropertyUtil.extractAndLogProperty(AWS_SECURITY_GROUP_REFRESH_INTERVAL_PROP, properties);
-   	 	
-   	 	try {
-   	 		config.setSecurityGroupRefreshInterval(Integer.parseInt(securityGroupRefreshIntervalString));
-   	 	} catch (NumberFormatException e) {
-   	 		throw new CacheException("Expected an integer interval in ms for " +
-   	 				AWS_SECURITY_GROUP_REFRESH_INTERVAL_PROP +
-   	 				", but got '" + securityGroupRefreshIntervalString + "'");
-   	 	}
-   	 	
+    	AwsDiscoveryServiceConfig config = createDiscoveryServiceConfig(Integer.parseInt(portMatcher.group(1)), properties);
+
    	 	// Now attempt to get the class for the service factory
    	 	DiscoveryServiceFactory discoveryServiceFactory =
    	 			getDefaultOrConfiguredDiscoveryServiceFactory(
@@ -101,7 +108,127 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderFactory extends RMICac
 		}
 	}
 
-	DiscoveryServiceFactory getDefaultOrConfiguredDiscoveryServiceFactory(String configuredDiscoveryServiceFactoryClassName) {
+	/**
+	 * Creates the discovery configuration from the properties of a peer provider factory, which is shared by the
+	 * providers of each transport
+	 * @param listenerPort	The port of the cache peer listener, which the peers are discovered on
+	 * @param properties
+	 * @return The configuration, which has not been validated yet
+	 */
+	static AwsDiscoveryServiceConfig createDiscoveryServiceConfig(int listenerPort, Properties properties) {
+   	 	AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+   	 	config.setRmiListenerPort(listenerPort);
+   	 	config.setAccessKey(AwsSecurityUtils.getInstance().getAwsAccessKey());
+   	 	config.setSecretKey(AwsSecurityUtils.getInstance().getAwsSecretKey());
+   	 	config.setSecurityGroup(PropertyUtil.extractAndLogProperty(AWS_SECURITY_GROUP_PROP, properties));
+   	 	config.setDiscoveryFile(StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(DISCOVERY_FILE_PROP, properties)));
+   	 	String securityGroupRefreshIntervalString =
+   	 			PropertyUtil.extractAndLogProperty(AWS_SECURITY_GROUP_REFRESH_INTERVAL_PROP, properties);
+   	 	
+   	 	// The interval is not needed when the peers are read from a file
+   	 	if (securityGroupRefreshIntervalString != null || config.getDiscoveryFile() == null) {
+   	 		try {
+   	 			config.setSecurityGroupRefreshInterval(Integer.parseInt(securityGroupRefreshIntervalString));
+   	 		} catch (NumberFormatException e) {
+   	 			throw new CacheException("Expected an integer interval in ms for " +
+   	 					AWS_SECURITY_GROUP_REFRESH_INTERVAL_PROP +
+   	 					", but got '" + securityGroupRefreshIntervalString + "'");
+   	 		}
+   	 	}
+   	 	
+   	 	config.setSecurityGroupMaxRefreshInterval(
+   	 			extractIntegerProperty(AWS_SECURITY_GROUP_MAX_REFRESH_INTERVAL_PROP, "interval in ms", properties));
+
+   	 	String ec2QueryModeString = StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(EC2_QUERY_MODE_PROP, properties));
+   	 	if (ec2QueryModeString != null) {
+   	 		try {
+   	 			config.setEc2QueryMode(Ec2QueryMode.valueOf(ec2QueryModeString.toUpperCase()));
+   	 		} catch (IllegalArgumentException e) {
+   	 			throw new CacheException("Expected one of " + Arrays.toString(Ec2QueryMode.values()) + " for " +
+   	 					EC2_QUERY_MODE_PROP + ", but got '" + ec2QueryModeString + "'");
+   	 		}
+   	 	}
+   	 	
+   	 	String peerAddressPolicyString = StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(PEER_ADDRESS_POLICY_PROP, properties));
+   	 	if (peerAddressPolicyString != null) {
+   	 		try {
+   	 			config.setPeerAddressPolicy(PeerAddressPolicy.valueOf(peerAddressPolicyString.toUpperCase()));
+   	 		} catch (IllegalArgumentException e) {
+   	 			throw new CacheException("Expected one of " + Arrays.toString(PeerAddressPolicy.values()) + " for " +
+   	 					PEER_ADDRESS_POLICY_PROP + ", but got '" + peerAddressPolicyString + "'");
+   	 		}
+   	 	}
+   	 	
+   	 	Integer peerLookupTimeout = extractIntegerProperty(PEER_LOOKUP_TIMEOUT_PROP, "timeout in ms", properties);
+   	 	if (peerLookupTimeout != null) {
+   	 		config.setPeerLookupTimeout(peerLookupTimeout);
+   	 	}
+   	 	Integer peerRetryBackoff = extractIntegerProperty(PEER_RETRY_BACKOFF_PROP, "backoff in ms", properties);
+   	 	if (peerRetryBackoff != null) {
+   	 		config.setPeerRetryBackoff(peerRetryBackoff);
+   	 	}
+   	 	Integer peerRetryMaxBackoff = extractIntegerProperty(PEER_RETRY_MAX_BACKOFF_PROP, "backoff in ms", properties);
+   	 	if (peerRetryMaxBackoff != null) {
+   	 		config.setPeerRetryMaxBackoff(peerRetryMaxBackoff);
+   	 	}
+   	 	Integer peerFailureThreshold = extractIntegerProperty(PEER_FAILURE_THRESHOLD_PROP, "number of failed calls", properties);
+   	 	if (peerFailureThreshold != null) {
+   	 		config.setPeerFailureThreshold(peerFailureThreshold);
+   	 	}
+   	 	Integer clusterFormationTimeout = extractIntegerProperty(CLUSTER_FORMATION_TIMEOUT_PROP, "timeout in ms", properties);
+   	 	if (clusterFormationTimeout != null) {
+   	 		config.setClusterFormationTimeout(clusterFormationTimeout);
+   	 	}
+   	 	config.setPeerListFile(StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(PEER_LIST_FILE_PROP, properties)));
+   	 	Integer peerRemovalRounds = extractIntegerProperty(PEER_REMOVAL_ROUNDS_PROP, "number of discovery runs", properties);
+   	 	if (peerRemovalRounds != null) {
+   	 		config.setPeerRemovalRounds(peerRemovalRounds);
+   	 	}
+   	 	Integer peerRemovalDelay = extractIntegerProperty(PEER_REMOVAL_DELAY_PROP, "delay in ms", properties);
+   	 	if (peerRemovalDelay != null) {
+   	 		config.setPeerRemovalDelay(peerRemovalDelay);
+   	 	}
+
+   	 	config.setGossipPort(extractIntegerProperty(GOSSIP_PORT_PROP, "port", properties));
+   	 	config.setGossipAddress(StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(GOSSIP_ADDRESS_PROP, properties)));
+   	 	Integer gossipInterval = extractIntegerProperty(GOSSIP_INTERVAL_PROP, "interval in ms", properties);
+   	 	if (gossipInterval != null) {
+   	 		config.setGossipInterval(gossipInterval);
+   	 	}
+   	 	Integer gossipFailureTimeout = extractIntegerProperty(GOSSIP_FAILURE_TIMEOUT_PROP, "timeout in ms", properties);
+   	 	if (gossipFailureTimeout != null) {
+   	 		config.setGossipFailureTimeout(gossipFailureTimeout);
+   	 	}
+   	 	Integer gossipReconcileInterval = extractIntegerProperty(GOSSIP_RECONCILE_INTERVAL_PROP, "interval in ms", properties);
+   	 	if (gossipReconcileInterval != null) {
+   	 		config.setGossipReconcileInterval(gossipReconcileInterval);
+   	 	}
+   	 	config.setLeaderTimeout(extractIntegerProperty(LEADER_TIMEOUT_PROP, "timeout in ms", properties));
+   	 	return config;
+	}
+
+	/**
+	 * Extracts an optional integer property
+	 * @param propertyName
+	 * @param description	Describes the expected value in the error message, i.e. "interval in ms"
+	 * @param properties
+	 * @return The value, or null if the property has not been set
+	 */
+	static Integer extractIntegerProperty(String propertyName, String description, Properties properties) {
+		String propertyValue = PropertyUtil.extractAndLogProperty(propertyName, properties);
+		if (propertyValue == null) {
+			return null;
+		}
+
+		try {
+			return Integer.parseInt(propertyValue.trim());
+		} catch (NumberFormatException e) {
+			throw new CacheException("Expected an integer " + description + " for " + propertyName +
+					", but got '" + propertyValue + "'");
+		}
+	}
+
+	static DiscoveryServiceFactory getDefaultOrConfiguredDiscoveryServiceFactory(String configuredDiscoveryServiceFactoryClassName) {
 		// Default to the known factory class or use the configured one if it is set
 		String discoveryServiceClassName =
 				StringUtils.defaultString(configuredDiscoveryServiceFactoryClassName,
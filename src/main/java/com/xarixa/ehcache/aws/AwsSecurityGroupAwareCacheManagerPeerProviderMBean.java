@@ -1,5 +1,7 @@
 package com.xarixa.ehcache.aws;
 
+import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 import com.xarixa.ehcache.aws.discovery.DiscoveryServiceConfig;
@@ -17,5 +19,97 @@ public interface AwsSecurityGroupAwareCacheManagerPeerProviderMBean {
 	 * @return
 	 */
 	Set<String> getPeerUrls();
+
+	/**
+	 * Gets the peers which could not be reached and are held back from lookups, with the time until
+	 * which each one is held back
+	 * @return
+	 */
+	Map<String,Date> getBackedOffPeers();
+
+	/**
+	 * Gets the peers which have had calls fail since their last successful call, with the number of
+	 * consecutive failures
+	 * @return
+	 */
+	Map<String,Integer> getFailingPeers();
+
+	/**
+	 * Gets the count, mean, percentiles and maximum of the discovery run durations in ms
+	 * @return
+	 */
+	Map<String,Long> getDiscoveryRunDuration();
+
+	/**
+	 * Gets the number of discovery runs which failed to update the peers
+	 * @return
+	 */
+	long getDiscoveryFailureCount();
+
+	/**
+	 * Gets the count, mean, percentiles and maximum of the EC2 call latencies in ms
+	 * @return
+	 */
+	Map<String,Long> getEc2CallLatency();
+
+	/**
+	 * Gets the number of EC2 calls which failed
+	 * @return
+	 */
+	long getEc2CallErrorCount();
+
+	/**
+	 * Gets the total number of peers which have joined
+	 * @return
+	 */
+	long getPeersAddedCount();
+
+	/**
+	 * Gets the total number of peers which have departed
+	 * @return
+	 */
+	long getPeersRemovedCount();
+
+	/**
+	 * Gets the number of peers which joined on the last discovery update
+	 * @return
+	 */
+	int getPeersAddedLastUpdate();
+
+	/**
+	 * Gets the number of peers which departed on the last discovery update
+	 * @return
+	 */
+	int getPeersRemovedLastUpdate();
+
+	/**
+	 * Gets the time in ms since discovery last updated the peers, -1 if it never has
+	 * @return
+	 */
+	long getTimeSinceLastSuccessfulDiscovery();
+
+	/**
+	 * Gets the count, mean, percentiles and maximum of the cache peer stub lookup latencies in ms
+	 * @return
+	 */
+	Map<String,Long> getStubLookupLatency();
+
+	/**
+	 * Gets the number of cache peer stub lookups which succeeded
+	 * @return
+	 */
+	long getStubLookupSuccessCount();
+
+	/**
+	 * Gets the number of cache peer stub lookups which failed
+	 * @return
+	 */
+	long getStubLookupFailureCount();
+
+	/**
+	 * Gets the fraction of the requests for the cache peers of a cache which were answered without a lookup
+	 * @return
+	 */
+	double getListRemoteCachePeersHitRatio();
 	
 }
\ No newline at end of file
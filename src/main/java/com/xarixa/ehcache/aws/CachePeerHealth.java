@@ -0,0 +1,148 @@
+package com.xarixa.ehcache.aws;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.distribution.CachePeer;
+
+/**
+ * Tracks the outcome of the calls that the replicators make on the {@link CachePeer} stubs. Stubs are wrapped
+ * before they are handed out so that every call is counted against its peer, a successful call resets the
+ * count and a {@link RemoteException} increments it. Once a peer reaches the threshold of consecutive failures
+ * the {@link Listener} is told so that the stubs can be evicted.
+ *
+ * @author Fabric WorldWide
+ */
+class CachePeerHealth {
+	private final int failureThreshold;
+	private final Listener listener;
+
+	/**
+	 * Consecutive failures by peer, the wrapped stubs hold on to the counter of their peer
+	 */
+	private final ConcurrentMap<CachePeerIdentity,AtomicInteger> consecutiveFailures = new ConcurrentHashMap<>();
+
+	interface Listener {
+		/**
+		 * Calls to the peer have failed repeatedly
+		 */
+		void peerUnhealthy(CachePeerIdentity peer);
+	}
+
+	CachePeerHealth(int failureThreshold, Listener listener) {
+		this.failureThreshold = failureThreshold;
+		this.listener = listener;
+	}
+
+	/**
+	 * Wraps the stub so that the outcome of each call on it is tracked against the peer. The stub has just
+	 * been resolved so any failures recorded against the peer are cleared.
+	 * @param peer
+	 * @param cachePeer
+	 * @return The wrapped stub
+	 */
+	CachePeer track(CachePeerIdentity peer, CachePeer cachePeer) {
+		AtomicInteger failures = consecutiveFailures.get(peer);
+		if (failures == null) {
+			AtomicInteger newFailures = new AtomicInteger();
+			failures = consecutiveFailures.putIfAbsent(peer, newFailures);
+			if (failures == null) {
+				failures = newFailures;
+			}
+		} else if (failures.get() != 0) {
+			failures.set(0);
+		}
+
+		return (CachePeer)Proxy.newProxyInstance(CachePeer.class.getClassLoader(), new Class<?>[] { CachePeer.class },
+				new HealthTrackingInvocationHandler(peer, cachePeer, failures));
+	}
+
+	/**
+	 * Gets the stub that was wrapped by {@link #track(CachePeerIdentity, CachePeer)}
+	 * @return The wrapped stub, or the given one if it is not tracked
+	 */
+	static CachePeer untracked(CachePeer cachePeer) {
+		if (Proxy.isProxyClass(cachePeer.getClass())) {
+			InvocationHandler invocationHandler = Proxy.getInvocationHandler(cachePeer);
+			if (invocationHandler instanceof HealthTrackingInvocationHandler) {
+				return ((HealthTrackingInvocationHandler)invocationHandler).cachePeer;
+			}
+		}
+		return cachePeer;
+	}
+
+	/**
+	 * Forgets the peers, called when they depart
+	 */
+	void removeAll(Collection<CachePeerIdentity> peers) {
+		consecutiveFailures.keySet().removeAll(peers);
+	}
+
+	/**
+	 * The peers which have failed calls since the last successful one
+	 * @return The number of consecutive failures by peer URL, sorted by peer URL
+	 */
+	Map<String,Integer> getFailingPeers() {
+		Map<String,Integer> failingPeers = new TreeMap<>();
+		for (Map.Entry<CachePeerIdentity,AtomicInteger> failures : consecutiveFailures.entrySet()) {
+			int failureCount = failures.getValue().get();
+			if (failureCount > 0) {
+				failingPeers.put(failures.getKey().getBaseUrl(), failureCount);
+			}
+		}
+		return failingPeers;
+	}
+
+	private final class HealthTrackingInvocationHandler implements InvocationHandler {
+		private final CachePeerIdentity peer;
+		private final CachePeer cachePeer;
+		private final AtomicInteger failures;
+
+		private HealthTrackingInvocationHandler(CachePeerIdentity peer, CachePeer cachePeer, AtomicInteger failures) {
+			this.peer = peer;
+			this.cachePeer = cachePeer;
+			this.failures = failures;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				return "HealthTracked[" + peer + ", " + cachePeer + "]";
+			}
+			if ("getUrlBase".equals(method.getName())) {
+				// Known locally, which saves a remote call when replicators group the peers by it
+				return peer.getBaseUrl();
+			}
+
+			try {
+				Object result = method.invoke(cachePeer, args);
+				// Only write when there is something to reset, most calls succeed
+				if (failures.get() != 0) {
+					failures.set(0);
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof RemoteException && failures.incrementAndGet() == failureThreshold) {
+					listener.peerUnhealthy(peer);
+				}
+				throw e.getCause();
+			}
+		}
+	}
+
+}
@@ -1,7 +1,5 @@
 package com.xarixa.ehcache.aws;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
 public class CachePeerHost {
@@ -37,10 +35,9 @@ public class CachePeerHost {
 		
 		if (obj instanceof CachePeerHost) {
 			CachePeerHost other = (CachePeerHost)obj;
-			return new EqualsBuilder()
-				.append(this.hostname, other.hostname)
-				.append(this.port, other.port)
-				.isEquals();
+			// Compared on every discovery refresh for every host, so this avoids the reflective builders
+			return (port == null ? other.port == null : port.equals(other.port)) &&
+				(hostname == null ? other.hostname == null : hostname.equals(other.hostname));
 		}
 
 		return false;
@@ -48,10 +45,7 @@ public class CachePeerHost {
 
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder()
-			.append(hostname)
-			.append(port)
-			.toHashCode();
+		return 31 * (hostname == null ? 0 : hostname.hashCode()) + (port == null ? 0 : port.hashCode());
 	}
 	
 	@Override
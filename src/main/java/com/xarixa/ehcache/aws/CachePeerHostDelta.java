@@ -0,0 +1,71 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A change to the cache peer hosts from one version of the membership to the next, as passed to
+ * {@link DeltaAwareCachePeerProvider#updateCachePeerHosts(CachePeerHostDelta)}. A delta from
+ * version 0 is a full membership, which holds every host as added, and can be applied whatever the current version.
+ * 
+ * @author Fabric WorldWide
+ */
+public class CachePeerHostDelta {
+	private final long fromVersion;
+	private final long toVersion;
+	private final Set<CachePeerHost> addedCachePeerHosts;
+	private final Set<CachePeerHost> removedCachePeerHosts;
+
+	/**
+	 * @param fromVersion				The version which the delta applies to, 0 for a full membership
+	 * @param toVersion					The version after the delta has been applied, the same as the from version
+	 * 									if nothing changed
+	 * @param addedCachePeerHosts		Hosts which joined, this is copied
+	 * @param removedCachePeerHosts		Hosts which departed, this is copied
+	 */
+	public CachePeerHostDelta(long fromVersion, long toVersion, Set<CachePeerHost> addedCachePeerHosts,
+			Set<CachePeerHost> removedCachePeerHosts) {
+		this.fromVersion = fromVersion;
+		this.toVersion = toVersion;
+		this.addedCachePeerHosts = Collections.unmodifiableSet(new HashSet<>(addedCachePeerHosts));
+		this.removedCachePeerHosts = Collections.unmodifiableSet(new HashSet<>(removedCachePeerHosts));
+	}
+
+	/**
+	 * A full membership at a version
+	 */
+	public static CachePeerHostDelta fullMembership(long version, Set<CachePeerHost> cachePeerHosts) {
+		return new CachePeerHostDelta(0, version, cachePeerHosts, Collections.<CachePeerHost>emptySet());
+	}
+
+	public long getFromVersion() {
+		return fromVersion;
+	}
+
+	public long getToVersion() {
+		return toVersion;
+	}
+
+	public Set<CachePeerHost> getAddedCachePeerHosts() {
+		return addedCachePeerHosts;
+	}
+
+	public Set<CachePeerHost> getRemovedCachePeerHosts() {
+		return removedCachePeerHosts;
+	}
+
+	/**
+	 * @return true if this is a full membership rather than a change to a previous version
+	 */
+	public boolean isFullMembership() {
+		return fromVersion == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "CachePeerHostDelta[" + fromVersion + "->" + toVersion + ", added=" + addedCachePeerHosts +
+				", removed=" + removedCachePeerHosts + "]";
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the {@link CachePeerIdentity} of each peer so that the same host reported on every discovery
+ * refresh maps to the same identity, along with the URL's that it has already built.
+ *
+ * @author Fabric WorldWide
+ */
+class CachePeerIdentities {
+	private final ConcurrentMap<CachePeerHost,CachePeerIdentity> identities = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the interned identity for the host
+	 */
+	CachePeerIdentity get(CachePeerHost cachePeerHost) {
+		CachePeerIdentity identity = identities.get(cachePeerHost);
+		if (identity == null) {
+			CachePeerIdentity newIdentity = new CachePeerIdentity(cachePeerHost.getHostname(), cachePeerHost.getPort());
+			identity = identities.putIfAbsent(cachePeerHost, newIdentity);
+			if (identity == null) {
+				identity = newIdentity;
+			}
+		}
+		return identity;
+	}
+
+	/**
+	 * Gets the interned identity for an RMI URL of the form <strong>//HOST:PORT/...</strong>
+	 * @throws IllegalArgumentException if the URL is not of the expected form
+	 */
+	CachePeerIdentity get(String rmiUrl) {
+		CachePeerIdentity parsedIdentity = CachePeerIdentity.parse(rmiUrl);
+		return get(new CachePeerHost(parsedIdentity.getHostname(), parsedIdentity.getPort()));
+	}
+
+	/**
+	 * Forgets the identities, called when the peers depart
+	 */
+	void removeAll(Collection<CachePeerIdentity> removedIdentities) {
+		for (CachePeerIdentity removedIdentity : removedIdentities) {
+			identities.remove(new CachePeerHost(removedIdentity.getHostname(), removedIdentity.getPort()));
+		}
+	}
+
+}
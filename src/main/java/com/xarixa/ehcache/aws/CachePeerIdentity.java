@@ -0,0 +1,119 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The identity of a remote cache peer, parsed once from a {@link CachePeerHost} or an RMI URL. The base
+ * URL of the peer and the fully qualified URL of each cache on it are built once and then reused, so that
+ * the membership and lookup paths do not parse or build any strings. Identities are interned by the
+ * {@link CachePeerIdentities} of each provider, so there is normally a single instance per peer.
+ *
+ * @author Fabric WorldWide
+ */
+final class CachePeerIdentity implements Comparable<CachePeerIdentity> {
+	private final String hostname;
+	private final int port;
+	private final int hashCode;
+
+	/**
+	 * The RMI URL of the peer, of the form <strong>//HOST:PORT</strong>
+	 */
+	private final String baseUrl;
+
+	/**
+	 * Fully qualified RMI URL's of the form <strong>//HOST:PORT/CACHE_NAME</strong> by cache name
+	 */
+	private final ConcurrentMap<String,String> cacheUrls = new ConcurrentHashMap<>();
+
+	CachePeerIdentity(String hostname, int port) {
+		this.hostname = hostname;
+		this.port = port;
+		this.baseUrl = "//" + hostname + ':' + port;
+		this.hashCode = 31 * hostname.hashCode() + port;
+	}
+
+	/**
+	 * Parses an RMI URL of the form <strong>//HOST:PORT/...</strong>
+	 * @param rmiUrl
+	 * @return A new identity which has not been interned
+	 * @throws IllegalArgumentException if the URL is not of the expected form
+	 */
+	static CachePeerIdentity parse(String rmiUrl) {
+		int hostStart = 2;
+		int portStart = rmiUrl.indexOf(':', hostStart);
+		int portEnd = rmiUrl.indexOf('/', hostStart);
+		if (portEnd < 0) {
+			portEnd = rmiUrl.length();
+		}
+
+		if (!rmiUrl.startsWith("//") || portStart <= hostStart || portStart >= portEnd - 1) {
+			throw new IllegalArgumentException("Cannot extract hostname from RMI URL '" + rmiUrl + "'");
+		}
+
+		try {
+			return new CachePeerIdentity(rmiUrl.substring(hostStart, portStart),
+					Integer.parseInt(rmiUrl.substring(portStart + 1, portEnd)));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Cannot extract port from RMI URL '" + rmiUrl + "'", e);
+		}
+	}
+
+	String getHostname() {
+		return hostname;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The RMI URL of the peer, of the form <strong>//HOST:PORT</strong>
+	 */
+	String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Gets the fully qualified RMI location of the cache on this peer
+	 * @return The URL of the form <strong>//HOST:PORT/CACHE_NAME</strong>
+	 */
+	String getCacheUrl(String cacheName) {
+		String cacheUrl = cacheUrls.get(cacheName);
+		if (cacheUrl == null) {
+			cacheUrl = baseUrl + '/' + cacheName;
+			cacheUrls.putIfAbsent(cacheName, cacheUrl);
+		}
+		return cacheUrl;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+
+		if (obj instanceof CachePeerIdentity) {
+			CachePeerIdentity other = (CachePeerIdentity)obj;
+			return port == other.port && hashCode == other.hashCode && hostname.equals(other.hostname);
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public int compareTo(CachePeerIdentity other) {
+		return baseUrl.compareTo(other.baseUrl);
+	}
+
+	@Override
+	public String toString() {
+		return baseUrl;
+	}
+
+}
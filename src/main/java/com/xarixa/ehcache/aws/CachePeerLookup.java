@@ -0,0 +1,23 @@
+package com.xarixa.ehcache.aws;
+
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+import net.sf.ehcache.distribution.CachePeer;
+
+/**
+ * Looks up the remote {@link CachePeer} stub for a fully qualified cache URL, this is normally an RMI
+ * registry lookup.
+ *
+ * @author Fabric WorldWide
+ */
+interface CachePeerLookup {
+
+	/**
+	 * @param url	The fully qualified cache URL, i.e. <strong>//HOST:PORT/CACHE_NAME</strong>
+	 * @return The stub for the remote cache
+	 */
+	CachePeer lookupRemoteCachePeer(String url) throws MalformedURLException, NotBoundException, RemoteException;
+
+}
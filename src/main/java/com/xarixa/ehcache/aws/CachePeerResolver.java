@@ -0,0 +1,263 @@
+package com.xarixa.ehcache.aws;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.distribution.CachePeer;
+
+import com.xarixa.ehcache.aws.metrics.CachePeerProviderMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves {@link CachePeer} stubs for a cache across a set of peers concurrently. Each caller waits at most
+ * for the lookup timeout and gets the stubs which were resolved within it, lookups which complete after that
+ * are handed to the {@link Listener} so that they can be merged in when they arrive. Concurrent requests for
+ * the same cache on the same peer share a single lookup.
+ * <p>
+ * Peers which cannot be reached are recorded in the {@link PeerBackoff} and are skipped until their retry time,
+ * at which point the {@link Listener} is told so that it can resolve them again in the background. Every stub
+ * is wrapped by the {@link CachePeerHealth} before it is handed out.
+ *
+ * @author Fabric WorldWide
+ */
+class CachePeerResolver {
+	private static final Logger LOG = LoggerFactory.getLogger(CachePeerResolver.class.getName());
+	private static final int MAX_LOOKUP_THREADS = 16;
+	private static final long LOOKUP_THREAD_KEEP_ALIVE_SECONDS = 60;
+	private static final AtomicInteger LOOKUP_THREAD_COUNT = new AtomicInteger();
+
+	/**
+	 * Receives every stub that is resolved, including those that were resolved after the caller stopped waiting
+	 */
+	interface Listener {
+		void cachePeerResolved(CachePeerIdentity peer, String cacheName, CachePeer cachePeer);
+
+		/**
+		 * The backoff of a peer which could not be reached has expired
+		 */
+		void peerRetryDue(CachePeerIdentity peer);
+	}
+
+	private final CachePeerLookup cachePeerLookup;
+	private final Listener listener;
+	private final PeerBackoff peerBackoff;
+	private final CachePeerHealth cachePeerHealth;
+	private final CachePeerProviderMetrics metrics;
+	private final ScheduledExecutorService lookupExecutor;
+
+	/**
+	 * Peers which have a retry scheduled
+	 */
+	private final ConcurrentMap<CachePeerIdentity,Boolean> scheduledRetries = new ConcurrentHashMap<>();
+
+	/**
+	 * Lookups which are running, by fully qualified cache URL
+	 */
+	private final ConcurrentMap<String,Future<CachePeer>> inFlightLookups = new ConcurrentHashMap<>();
+
+	CachePeerResolver(CachePeerLookup cachePeerLookup, Listener listener, PeerBackoff peerBackoff,
+			CachePeerHealth cachePeerHealth, CachePeerProviderMetrics metrics) {
+		this(cachePeerLookup, listener, peerBackoff, cachePeerHealth, metrics, createLookupExecutor());
+	}
+
+	CachePeerResolver(CachePeerLookup cachePeerLookup, Listener listener, PeerBackoff peerBackoff,
+			CachePeerHealth cachePeerHealth, CachePeerProviderMetrics metrics, ScheduledExecutorService lookupExecutor) {
+		this.cachePeerLookup = cachePeerLookup;
+		this.listener = listener;
+		this.peerBackoff = peerBackoff;
+		this.cachePeerHealth = cachePeerHealth;
+		this.metrics = metrics;
+		this.lookupExecutor = lookupExecutor;
+	}
+
+	/**
+	 * Threads are only kept while there are lookups to run, so an idle provider does not hold any
+	 */
+	private static ScheduledExecutorService createLookupExecutor() {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setName("AwsCachePeerLookupThread-" + LOOKUP_THREAD_COUNT.incrementAndGet());
+				return t;
+			}
+		};
+
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(MAX_LOOKUP_THREADS, threadFactory);
+		executor.setKeepAliveTime(LOOKUP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Looks up the stubs for the cache on all of the peers concurrently, waiting up to the timeout
+	 * for all of them to complete. Peers which are backed off are skipped.
+	 * @param peers
+	 * @param cacheName
+	 * @param timeoutMs	The maximum time to wait for the lookups
+	 * @return The stubs that were resolved in time by peer
+	 */
+	Map<CachePeerIdentity,CachePeer> resolve(Set<CachePeerIdentity> peers, String cacheName, long timeoutMs) {
+		Map<CachePeerIdentity,CachePeer> resolvedStubs = new HashMap<>();
+		if (peers.isEmpty()) {
+			return resolvedStubs;
+		}
+
+		Map<CachePeerIdentity,Future<CachePeer>> lookups = new HashMap<>();
+		for (CachePeerIdentity peer : peers) {
+			if (peerBackoff.isBackedOff(peer)) {
+				LOG.debug("Skipping lookup of cache {} on peer {} which is backed off", cacheName, peer);
+			} else {
+				lookups.put(peer, submitLookup(peer, cacheName));
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		for (Map.Entry<CachePeerIdentity,Future<CachePeer>> lookup : lookups.entrySet()) {
+			try {
+				CachePeer cachePeer = lookup.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if (cachePeer != null) {
+					resolvedStubs.put(lookup.getKey(), cachePeer);
+				}
+			} catch (TimeoutException e) {
+				LOG.debug("Lookup of cache {} on peer {} did not complete within {}ms, it will be merged in when it does",
+						cacheName, lookup.getKey(), timeoutMs);
+			} catch (ExecutionException e) {
+				// Already logged by the lookup
+			} catch (CancellationException e) {
+				// The resolver was closed
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		return resolvedStubs;
+	}
+
+	/**
+	 * Looks up the stubs for the caches on the peer without waiting for them, the results are only
+	 * handed to the {@link Listener}
+	 */
+	void resolveInBackground(CachePeerIdentity peer, Set<String> cacheNames) {
+		for (String cacheName : cacheNames) {
+			submitLookup(peer, cacheName);
+		}
+	}
+
+	/**
+	 * Submits a lookup, or joins one which is already running for the same cache on the peer
+	 */
+	private Future<CachePeer> submitLookup(final CachePeerIdentity peer, final String cacheName) {
+		final String cacheRmiUrl = peer.getCacheUrl(cacheName);
+		Future<CachePeer> inFlightLookup = inFlightLookups.get(cacheRmiUrl);
+		if (inFlightLookup != null) {
+			return inFlightLookup;
+		}
+
+		FutureTask<CachePeer> lookup = new FutureTask<CachePeer>(new Callable<CachePeer>() {
+			@Override
+			public CachePeer call() throws Exception {
+				long start = System.nanoTime();
+				boolean successful = false;
+				try {
+					CachePeer cachePeer = cachePeerHealth.track(peer, cachePeerLookup.lookupRemoteCachePeer(cacheRmiUrl));
+					successful = true;
+					metrics.recordStubLookup(System.nanoTime() - start, true);
+					peerBackoff.recordSuccess(peer);
+					listener.cachePeerResolved(peer, cacheName, cachePeer);
+					return cachePeer;
+				} catch (RemoteException e) {
+					// The peer could not be reached, hold it back from further lookups for a while
+					backOff(peer);
+	                if (LOG.isDebugEnabled()) {
+	                    LOG.debug("Exception looking up RMI URL {}. This may be normal if a node has gone offline, "
+	                    		+ "or it may indicate network connectivity issues.", cacheRmiUrl, e);
+	                }
+	                throw e;
+				} catch (Exception e) {
+					LOG.debug("Exception looking up RMI URL {}", cacheRmiUrl, e);
+	                throw e;
+				} finally {
+					if (!successful) {
+						metrics.recordStubLookup(System.nanoTime() - start, false);
+					}
+					inFlightLookups.remove(cacheRmiUrl);
+				}
+			}
+		});
+
+		inFlightLookup = inFlightLookups.putIfAbsent(cacheRmiUrl, lookup);
+		if (inFlightLookup != null) {
+			return inFlightLookup;
+		}
+
+		try {
+			lookupExecutor.execute(lookup);
+		} catch (RejectedExecutionException e) {
+			// Closed, the caller gets no stub rather than waiting for a lookup that will never run
+			inFlightLookups.remove(cacheRmiUrl, lookup);
+			lookup.cancel(false);
+		}
+		return lookup;
+	}
+
+	/**
+	 * Records a failure against the peer, holding it back from lookups and scheduling a retry at the end
+	 * of its backoff
+	 */
+	void backOff(CachePeerIdentity peer) {
+		scheduleRetry(peer, peerBackoff.recordFailure(peer));
+	}
+
+	/**
+	 * Schedules a single retry of the peer at its retry time, regardless of how many caches failed on it
+	 */
+	private void scheduleRetry(final CachePeerIdentity peer, long retryAt) {
+		if (scheduledRetries.putIfAbsent(peer, Boolean.TRUE) != null) {
+			return;
+		}
+
+		try {
+			lookupExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					scheduledRetries.remove(peer);
+					listener.peerRetryDue(peer);
+				}
+			}, Math.max(0, retryAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Closed, there is nothing left to retry for
+			scheduledRetries.remove(peer);
+		}
+	}
+
+	/**
+	 * Stops the lookup threads, cancelling the lookups and retries which have not run yet
+	 */
+	void close() {
+		lookupExecutor.shutdownNow();
+		inFlightLookups.clear();
+		scheduledRetries.clear();
+	}
+
+}
@@ -0,0 +1,255 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.sf.ehcache.distribution.CachePeer;
+
+/**
+ * An immutable snapshot of the peers known to the {@link AwsSecurityGroupAwareCacheManagerPeerProvider}
+ * together with the {@link CachePeer} stubs that have been resolved for each cache. A table is never
+ * changed once it has been created, every update creates a new table which is then published as a whole,
+ * which means that readers can use it without taking any locks.
+ * <p>
+ * Stubs are held per peer so that a membership change only drops the stubs of the peers that have
+ * departed, the stubs of the remaining peers are carried over into the new table.
+ *
+ * @author Fabric WorldWide
+ */
+final class CachePeerTable {
+	static final CachePeerTable EMPTY = new CachePeerTable(Collections.<CachePeerIdentity>emptySet(),
+			Collections.<CachePeerIdentity,Map<String,CachePeer>>emptyMap(), Collections.<String,List<CachePeer>>emptyMap());
+
+	private final Set<CachePeerIdentity> peers;
+
+	/**
+	 * Resolved stubs by peer and then by cache name. Only peers which have at least one stub have an entry.
+	 */
+	private final Map<CachePeerIdentity,Map<String,CachePeer>> cachePeerStubs;
+
+	/**
+	 * Unmodifiable lists of cache peers by cache name, only present for caches where a lookup has been
+	 * attempted against every peer
+	 */
+	private final Map<String,List<CachePeer>> cachePeers;
+
+	private CachePeerTable(Set<CachePeerIdentity> peers, Map<CachePeerIdentity,Map<String,CachePeer>> cachePeerStubs,
+			Map<String,List<CachePeer>> cachePeers) {
+		this.peers = peers;
+		this.cachePeerStubs = cachePeerStubs;
+		this.cachePeers = cachePeers;
+	}
+
+	/**
+	 * Creates a table for a new set of peers which does not contain any resolved cache peers
+	 * @param peers	Set of peers, this is copied
+	 */
+	static CachePeerTable forPeers(Set<CachePeerIdentity> peers) {
+		return EMPTY.withPeers(peers);
+	}
+
+	/**
+	 * Unmodifiable set of peers in this table
+	 */
+	Set<CachePeerIdentity> getPeers() {
+		return peers;
+	}
+
+	/**
+	 * Builds the set of peer URL's in this table, of the form <strong>//HOST:PORT</strong>
+	 * @return A new sorted set
+	 */
+	Set<String> getPeerUrls() {
+		Set<String> peerUrls = new TreeSet<>();
+		for (CachePeerIdentity peer : peers) {
+			peerUrls.add(peer.getBaseUrl());
+		}
+		return peerUrls;
+	}
+
+	/**
+	 * Gets the unmodifiable list of peers for the cache
+	 * @param cacheName
+	 * @return The list or null if the peers for this cache have not been resolved yet
+	 */
+	List<CachePeer> getCachePeers(String cacheName) {
+		return cachePeers.get(cacheName);
+	}
+
+	/**
+	 * Unmodifiable map of the cache peer lists by cache name
+	 */
+	Map<String,List<CachePeer>> getCachePeers() {
+		return cachePeers;
+	}
+
+	/**
+	 * Gets the stub that was resolved for the cache on the peer
+	 * @return The stub or null if it has not been resolved
+	 */
+	CachePeer getCachePeerStub(CachePeerIdentity peer, String cacheName) {
+		Map<String,CachePeer> stubsByCache = cachePeerStubs.get(peer);
+		return stubsByCache == null ? null : stubsByCache.get(cacheName);
+	}
+
+	/**
+	 * Gets the peers which do not have a stub resolved for the cache yet
+	 * @param cacheName
+	 * @return A new set of peers
+	 */
+	Set<CachePeerIdentity> getUnresolvedPeers(String cacheName) {
+		Set<CachePeerIdentity> unresolvedPeers = new HashSet<>();
+		for (CachePeerIdentity peer : peers) {
+			if (getCachePeerStub(peer, cacheName) == null) {
+				unresolvedPeers.add(peer);
+			}
+		}
+		return unresolvedPeers;
+	}
+
+	/**
+	 * Creates a copy of this table for the new membership. Stubs for the peers that remain are kept and
+	 * those for departed peers are dropped. When peers have only been removed the cache peer lists are
+	 * rebuilt from the remaining stubs, when peers have been added the lists are dropped so that only
+	 * the new peers are resolved by the next lookup for each cache.
+	 * @param newPeers	Set of peers, this is copied
+	 * @return A new table, or this table if the membership is the same
+	 */
+	CachePeerTable withPeers(Set<CachePeerIdentity> newPeers) {
+		if (peers.equals(newPeers)) {
+			return this;
+		}
+
+		Set<CachePeerIdentity> retainedPeers = Collections.unmodifiableSet(new HashSet<>(newPeers));
+		Map<CachePeerIdentity,Map<String,CachePeer>> retainedStubs = new HashMap<>();
+		for (Map.Entry<CachePeerIdentity,Map<String,CachePeer>> peerStubs : cachePeerStubs.entrySet()) {
+			if (retainedPeers.contains(peerStubs.getKey())) {
+				retainedStubs.put(peerStubs.getKey(), peerStubs.getValue());
+			}
+		}
+
+		CachePeerTable table = new CachePeerTable(retainedPeers, Collections.unmodifiableMap(retainedStubs),
+				Collections.<String,List<CachePeer>>emptyMap());
+		if (!peers.containsAll(retainedPeers)) {
+			return table;
+		}
+
+		// Nothing was added, so every list can be recreated without a lookup
+		Map<String,List<CachePeer>> retainedCachePeers = new HashMap<>();
+		for (String cacheName : cachePeers.keySet()) {
+			retainedCachePeers.put(cacheName, table.buildCachePeers(cacheName));
+		}
+		return new CachePeerTable(retainedPeers, table.cachePeerStubs, Collections.unmodifiableMap(retainedCachePeers));
+	}
+
+	/**
+	 * Creates a copy of this table with the peer added
+	 * @param peer
+	 * @return A new table, or this table if the peer was already present
+	 */
+	CachePeerTable withPeer(CachePeerIdentity peer) {
+		if (peers.contains(peer)) {
+			return this;
+		}
+
+		Set<CachePeerIdentity> newPeers = new HashSet<>(peers);
+		newPeers.add(peer);
+		return withPeers(newPeers);
+	}
+
+	/**
+	 * Creates a copy of this table with peers added and removed, as for {@link #withPeers(Set)}
+	 * @param addedPeers
+	 * @param removedPeers
+	 * @return A new table, or this table if the membership is the same
+	 */
+	CachePeerTable withPeerChanges(Set<CachePeerIdentity> addedPeers, Set<CachePeerIdentity> removedPeers) {
+		if (peers.containsAll(addedPeers) && Collections.disjoint(peers, removedPeers)) {
+			return this;
+		}
+
+		Set<CachePeerIdentity> newPeers = new HashSet<>(peers);
+		newPeers.addAll(addedPeers);
+		newPeers.removeAll(removedPeers);
+		return withPeers(newPeers);
+	}
+
+	/**
+	 * Creates a copy of this table with the stubs which were resolved for the cache merged in. Stubs for
+	 * peers which are no longer members are ignored.
+	 * @param cacheName
+	 * @param resolvedStubs	Stubs by peer
+	 * @param complete		Whether every peer in this table has had a lookup attempted for the cache, if so
+	 * 						the list of cache peers is published for the cache
+	 * @return A new table
+	 */
+	CachePeerTable withCachePeerStubs(String cacheName, Map<CachePeerIdentity,CachePeer> resolvedStubs, boolean complete) {
+		Map<CachePeerIdentity,Map<String,CachePeer>> newStubs = new HashMap<>(cachePeerStubs);
+		for (Map.Entry<CachePeerIdentity,CachePeer> resolvedStub : resolvedStubs.entrySet()) {
+			CachePeerIdentity peer = resolvedStub.getKey();
+			if (peers.contains(peer)) {
+				Map<String,CachePeer> stubsByCache = cachePeerStubs.get(peer);
+				stubsByCache = stubsByCache == null ? new HashMap<String,CachePeer>() : new HashMap<>(stubsByCache);
+				stubsByCache.put(cacheName, resolvedStub.getValue());
+				newStubs.put(peer, Collections.unmodifiableMap(stubsByCache));
+			}
+		}
+
+		CachePeerTable table = new CachePeerTable(peers, Collections.unmodifiableMap(newStubs), cachePeers);
+		if (!complete && !cachePeers.containsKey(cacheName)) {
+			return table;
+		}
+
+		Map<String,List<CachePeer>> newCachePeers = new HashMap<>(cachePeers);
+		newCachePeers.put(cacheName, table.buildCachePeers(cacheName));
+		return new CachePeerTable(peers, table.cachePeerStubs, Collections.unmodifiableMap(newCachePeers));
+	}
+
+	/**
+	 * Creates a copy of this table without any of the stubs of the peer, the peer remains a member so that
+	 * its stubs can be resolved again. The cache peer lists are rebuilt without the peer.
+	 * @param peer
+	 * @return A new table, or this table if the peer had no stubs
+	 */
+	CachePeerTable withoutCachePeerStubs(CachePeerIdentity peer) {
+		if (!cachePeerStubs.containsKey(peer)) {
+			return this;
+		}
+
+		Map<CachePeerIdentity,Map<String,CachePeer>> newStubs = new HashMap<>(cachePeerStubs);
+		newStubs.remove(peer);
+
+		CachePeerTable table = new CachePeerTable(peers, Collections.unmodifiableMap(newStubs), cachePeers);
+		Map<String,List<CachePeer>> newCachePeers = new HashMap<>();
+		for (String cacheName : cachePeers.keySet()) {
+			newCachePeers.put(cacheName, table.buildCachePeers(cacheName));
+		}
+		return new CachePeerTable(peers, table.cachePeerStubs, Collections.unmodifiableMap(newCachePeers));
+	}
+
+	/**
+	 * Builds an unmodifiable list of the cache peers for the cache from the resolved stubs
+	 */
+	List<CachePeer> buildCachePeers(String cacheName) {
+		List<CachePeer> remoteCachePeers = new ArrayList<>(peers.size());
+		for (CachePeerIdentity peer : peers) {
+			CachePeer cachePeer = getCachePeerStub(peer, cacheName);
+			if (cachePeer != null) {
+				remoteCachePeers.add(cachePeer);
+			}
+		}
+		return Collections.unmodifiableList(remoteCachePeers);
+	}
+
+	@Override
+	public String toString() {
+		return "CachePeerTable[peers=" + peers + ", caches=" + cachePeers.keySet() + "]";
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.xarixa.ehcache.aws;
+
+/**
+ * An {@link UpdateableHostBasedCacheManagerPeerProvider} which can also apply a change to its hosts rather than the
+ * full set. This is optional: the discovery services check for it and fall back to
+ * {@link #setCachePeerHosts(java.util.Set)} with the full membership for providers which do not implement it.
+ *
+ * @author Fabric WorldWide
+ */
+public interface DeltaAwareCachePeerProvider extends UpdateableHostBasedCacheManagerPeerProvider {
+
+	/**
+	 * Applies a change to the cache peer hosts. This is cheaper than {@link #setCachePeerHosts(java.util.Set)} as
+	 * only the hosts which joined or departed are looked at, so discovery services which know what changed should
+	 * prefer it.
+	 * 
+	 * @param cachePeerHostDelta	The change, or a full membership
+	 * @return false if the change does not apply to the version of the membership last applied, in which case
+	 * 			nothing has been changed and the full membership should be passed instead
+	 */
+	boolean updateCachePeerHosts(CachePeerHostDelta cachePeerHostDelta);
+
+}
@@ -0,0 +1,180 @@
+package com.xarixa.ehcache.aws;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.ehcache.CacheException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The addresses and host names by which this host is known, so that the local peer can be recognised. The
+ * addresses are taken from all of the network interfaces rather than just the address of the local host name.
+ * There is no notification of changes to the interfaces, so they are enumerated again by the first check after
+ * each refresh interval, on the calling thread, and a new set is only published when the addresses have
+ * actually changed.
+ * <p>
+ * An IP address is checked against the set without any DNS lookup. A peer configured by a host name which is
+ * not one of the local host names is resolved once, and the answer is kept until the local addresses change or
+ * the peer departs.
+ *
+ * @author Fabric WorldWide
+ */
+class LocalAddresses {
+	private static final Logger LOG = LoggerFactory.getLogger(LocalAddresses.class.getName());
+
+	/**
+	 * Local host names, these are resolved once
+	 */
+	private final Set<String> localHostnames;
+	private final long refreshIntervalMs;
+
+	private volatile Set<String> localAddresses = Collections.emptySet();
+	private volatile long nextRefresh;
+
+	/**
+	 * Whether each host name that has been checked resolves to a local address
+	 */
+	private final ConcurrentMap<String, Boolean> resolvedHostnames = new ConcurrentHashMap<>();
+
+	LocalAddresses(long refreshIntervalMs) {
+		this.refreshIntervalMs = refreshIntervalMs;
+
+		InetAddress localhostInetAddress;
+		try {
+			localhostInetAddress = InetAddress.getLocalHost();
+		} catch (UnknownHostException e) {
+			throw new CacheException("Could not resolve localhost address", e);
+		}
+		LOG.debug("Localhost is: {}", localhostInetAddress);
+
+		Set<String> hostnames = new HashSet<>();
+		hostnames.add(localhostInetAddress.getHostName());
+		hostnames.add(localhostInetAddress.getHostAddress());
+		this.localHostnames = Collections.unmodifiableSet(hostnames);
+
+		refresh();
+	}
+
+	/**
+	 * Whether the host name or IP address is one of this host's, only host names which have not been
+	 * checked before are looked up
+	 * @param hostname
+	 */
+	boolean contains(String hostname) {
+		refreshIfDue();
+		Set<String> addresses = localAddresses;
+		if (addresses.contains(hostname) || localHostnames.contains(hostname)) {
+			return true;
+		}
+		if (isIpAddress(hostname)) {
+			return false;
+		}
+
+		Boolean local = resolvedHostnames.get(hostname);
+		if (local == null) {
+			local = resolvesTo(hostname, addresses);
+			resolvedHostnames.put(hostname, local);
+		}
+		return local;
+	}
+
+	/**
+	 * Drops the answer kept for a host name, once no peer on that host is a member any more
+	 */
+	void forget(String hostname) {
+		resolvedHostnames.remove(hostname);
+	}
+
+	/**
+	 * The current unmodifiable set of local IP addresses
+	 */
+	Set<String> getAddresses() {
+		return localAddresses;
+	}
+
+	private void refreshIfDue() {
+		if (System.currentTimeMillis() >= nextRefresh) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Enumerates the addresses of the network interfaces and publishes them if they differ from the current set
+	 * @return true if the addresses changed
+	 */
+	synchronized boolean refresh() {
+		nextRefresh = System.currentTimeMillis() + refreshIntervalMs;
+
+		Set<String> addresses = new HashSet<>();
+		try {
+			Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+			while (networkInterfaces != null && networkInterfaces.hasMoreElements()) {
+				Enumeration<InetAddress> inetAddresses = networkInterfaces.nextElement().getInetAddresses();
+				while (inetAddresses.hasMoreElements()) {
+					addresses.add(stripScope(inetAddresses.nextElement().getHostAddress()));
+				}
+			}
+		} catch (SocketException e) {
+			LOG.warn("Could not enumerate the network interfaces, keeping the current local addresses", e);
+			return false;
+		}
+
+		if (addresses.equals(localAddresses)) {
+			return false;
+		}
+
+		localAddresses = Collections.unmodifiableSet(addresses);
+		resolvedHostnames.clear();
+		LOG.info("Local addresses are: {}", addresses);
+		return true;
+	}
+
+	private static boolean resolvesTo(String hostname, Set<String> addresses) {
+		try {
+			for (InetAddress inetAddress : InetAddress.getAllByName(hostname)) {
+				if (addresses.contains(stripScope(inetAddress.getHostAddress()))) {
+					return true;
+				}
+			}
+		} catch (UnknownHostException e) {
+			LOG.debug("Could not resolve peer host {}, taking it to be remote", hostname, e);
+		}
+		return false;
+	}
+
+	/**
+	 * IPv4 dotted quads and IPv6 addresses, which are never looked up
+	 */
+	private static boolean isIpAddress(String hostname) {
+		if (hostname.indexOf(':') >= 0) {
+			return true;
+		}
+		for (int i = 0; i < hostname.length(); i++) {
+			char c = hostname.charAt(i);
+			if (c != '.' && (c < '0' || c > '9')) {
+				return false;
+			}
+		}
+		return !hostname.isEmpty();
+	}
+
+	/**
+	 * IPv6 addresses of an interface carry the scope, i.e. <strong>fe80:0:0:0:0:0:0:1%lo</strong>, which
+	 * peers will not have
+	 */
+	private static String stripScope(String hostAddress) {
+		int scopeIndex = hostAddress.indexOf('%');
+		return scopeIndex < 0 ? hostAddress : hostAddress.substring(0, scopeIndex);
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.xarixa.ehcache.aws;
+
+import com.xarixa.ehcache.aws.metrics.CachePeerProviderMetrics;
+
+/**
+ * Optionally implemented by an {@link UpdateableHostBasedCacheManagerPeerProvider} which keeps metrics, so that the
+ * discovery services can record their runs into them. Discovery services check for it, providers which do not
+ * implement it simply have nothing recorded.
+ *
+ * @author Fabric WorldWide
+ */
+public interface MetricsAwareCachePeerProvider {
+
+	/**
+	 * The metrics of this provider, which the discovery service also records its runs into
+	 * @return The metrics, never null
+	 */
+	CachePeerProviderMetrics getMetrics();
+
+}
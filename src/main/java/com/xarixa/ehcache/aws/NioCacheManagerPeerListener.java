@@ -0,0 +1,122 @@
+package com.xarixa.ehcache.aws;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+import com.xarixa.ehcache.aws.nio.NioCacheServer;
+import com.xarixa.ehcache.aws.nio.PayloadCompression;
+
+/**
+ * The listener of the <strong>NIO</strong> scheme, which serves the requests of the peers'
+ * {@link NioCacheManagerPeerProvider}s from a {@link NioCacheServer}. Unlike the RMI listener nothing is bound
+ * per cache, every cache of the cache manager is reachable on the one port.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheManagerPeerListener implements CacheManagerPeerListener {
+	private final NioCacheServer server;
+	private final String hostName;
+	private final int port;
+	private volatile Status status = Status.STATUS_UNINITIALISED;
+
+	/**
+	 * @param hostName		The address to listen on, or null for all of them
+	 * @param port			The port to listen on
+	 * @param workerThreads	The number of threads which apply replicated events to the caches
+	 * @param compression	The compression of the responses
+	 */
+	public NioCacheManagerPeerListener(CacheManager cacheManager, String hostName, int port, int workerThreads,
+			PayloadCompression compression) {
+		this.server = new NioCacheServer(cacheManager, hostName, port, workerThreads, compression);
+		this.hostName = hostName;
+		this.port = port;
+	}
+
+	@Override
+	public void init() throws CacheException {
+		try {
+			server.start();
+		} catch (IOException e) {
+			throw new CacheException("Could not listen for NIO cache peers on port " + port, e);
+		}
+		status = Status.STATUS_ALIVE;
+	}
+
+	/**
+	 * @return The compression of the requests from and responses to all of the peers
+	 */
+	public CompressionMetrics getCompressionMetrics() {
+		return server.getCompressionMetrics();
+	}
+
+	@Override
+	public Status getStatus() {
+		return status;
+	}
+
+	@Override
+	public void dispose() throws CacheException {
+		server.stop();
+		status = Status.STATUS_SHUTDOWN;
+	}
+
+	/**
+	 * Caches are looked up by name for each request, so there is nothing to do when they come and go
+	 */
+	@Override
+	public void notifyCacheAdded(String cacheName) {
+	}
+
+	@Override
+	public void notifyCacheRemoved(String cacheName) {
+	}
+
+	/**
+	 * There are no remote objects bound per cache
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List getBoundCachePeers() {
+		return Collections.EMPTY_LIST;
+	}
+
+	/**
+	 * @return The URL base by which the peers know this node, with the address listened on or otherwise the
+	 * 			address of the local host, or null if that cannot be found
+	 */
+	public String getUrlBase() {
+		try {
+			return "//" + (hostName == null ? InetAddress.getLocalHost().getHostAddress() : hostName) + ":" + port;
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Of the same form as the RMI listener's, i.e. "NIO listener port: 40002"
+	 */
+	@Override
+	public String getUniqueResourceIdentifier() {
+		return "NIO listener port: " + port;
+	}
+
+	@Override
+	public void attemptResolutionOfUniqueResourceConflict() throws IllegalStateException, CacheException {
+		throw new IllegalStateException("The NIO listener port " + port + " is in use, configure another port");
+	}
+
+	@Override
+	public String getScheme() {
+		return NioCacheManagerPeerProvider.CACHE_SCHEME;
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Properties;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+import net.sf.ehcache.distribution.CacheManagerPeerListenerFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Creates the {@link NioCacheManagerPeerListener}, configured with
+ * <ul>
+ * <li><strong>port</strong>, the port to listen on, which is required</li>
+ * <li><strong>hostName</strong>, the address to listen on, all of them by default</li>
+ * <li><strong>workerThreads</strong>, the number of threads applying replicated events, the number of
+ * processors by default</li>
+ * <li><strong>compression</strong> and <strong>compressionThreshold</strong>, the compression of the responses as
+ * described by the {@link NioCacheManagerPeerProviderFactory}</li>
+ * </ul>
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheManagerPeerListenerFactory extends CacheManagerPeerListenerFactory {
+	private static final String PORT_PROP = "port";
+	private static final String HOST_NAME_PROP = "hostName";
+	private static final String WORKER_THREADS_PROP = "workerThreads";
+
+	@Override
+	public CacheManagerPeerListener createCachePeerListener(CacheManager cacheManager, Properties properties) {
+		Integer port = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.extractIntegerProperty(PORT_PROP, "port", properties);
+		if (port == null) {
+			throw new CacheException("The " + PORT_PROP + " of the NIO cache peer listener must be set");
+		}
+		if (port < 1 || port > 65535) {
+			throw new IllegalArgumentException("Configured NIO listener port is invalid (was " + port + ")");
+		}
+
+		Integer workerThreads = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.extractIntegerProperty(
+				WORKER_THREADS_PROP, "number of threads", properties);
+		if (workerThreads == null) {
+			workerThreads = Runtime.getRuntime().availableProcessors();
+		} else if (workerThreads < 1) {
+			throw new IllegalArgumentException("Configured NIO listener worker threads is invalid (was " + workerThreads + ")");
+		}
+
+		return new NioCacheManagerPeerListener(cacheManager,
+				StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(HOST_NAME_PROP, properties)), port, workerThreads,
+				NioCacheManagerPeerProviderFactory.createPayloadCompression(properties));
+	}
+
+}
@@ -0,0 +1,320 @@
+package com.xarixa.ehcache.aws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.discovery.DiscoveryService;
+import com.xarixa.ehcache.aws.discovery.DiscoveryServiceConfig;
+import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
+import com.xarixa.ehcache.aws.metrics.CachePeerProviderMetrics;
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+import com.xarixa.ehcache.aws.nio.NioCacheClient;
+import com.xarixa.ehcache.aws.nio.NioCachePeer;
+import com.xarixa.ehcache.aws.nio.PayloadCompression;
+
+/**
+ * A peer provider for the <strong>NIO</strong> scheme, which is discovered in the same way as the RMI provider but
+ * hands out {@link NioCachePeer}s. These share one connection per peer, made by a {@link NioCacheClient} on the
+ * first call rather than by looking up a stub per cache, so a change of membership only has to swap the hosts.
+ * The discovered port is that of the peers' {@link NioCacheManagerPeerListener}.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheManagerPeerProvider implements DeltaAwareCachePeerProvider, MetricsAwareCachePeerProvider {
+	private static final Logger LOG = LoggerFactory.getLogger(NioCacheManagerPeerProvider.class.getName());
+
+	/**
+	 * @see #getScheme()
+	 */
+	public static final String CACHE_SCHEME = "NIO";
+
+	/**
+	 * How often the network interfaces are enumerated for changes to the local addresses
+	 */
+	private static final long LOCAL_ADDRESS_REFRESH_INTERVAL_MS = 60000;
+
+	private final AtomicBoolean isActive = new AtomicBoolean(false);
+	private final CachePeerProviderMetrics metrics = new CachePeerProviderMetrics();
+	private final CountDownLatch clusterFormed = new CountDownLatch(1);
+	private final LocalAddresses localAddresses = new LocalAddresses(LOCAL_ADDRESS_REFRESH_INTERVAL_MS);
+	private final DiscoveryServiceConfig discoveryServiceConfig;
+	private final DiscoveryServiceFactory discoveryServiceFactory;
+	private final long requestTimeout;
+	private final PayloadCompression compression;
+
+	/**
+	 * The current peers and the cache peers handed out for them, replaced as a whole when the peers change
+	 */
+	private volatile Peers peers = new Peers(Collections.<CachePeerHost>emptySet());
+
+	/**
+	 * Held while the membership is changed
+	 */
+	private final Object membershipLock = new Object();
+
+	/**
+	 * The version of the membership last applied by {@link #updateCachePeerHosts(CachePeerHostDelta)}, or -1 if
+	 * the membership was last set without one. Guarded by the membership lock.
+	 */
+	private long membershipVersion = -1;
+
+	private volatile NioCacheClient client;
+	private DiscoveryService discoveryService;
+
+	/**
+	 * @param requestTimeout	How long in ms to wait for a peer to respond to a request
+	 * @param compression		The compression of the requests
+	 */
+	public NioCacheManagerPeerProvider(DiscoveryServiceConfig discoveryServiceConfig,
+			DiscoveryServiceFactory discoveryServiceFactory, long requestTimeout, PayloadCompression compression) {
+		discoveryServiceConfig.validate();
+		this.discoveryServiceConfig = discoveryServiceConfig;
+		this.discoveryServiceFactory = discoveryServiceFactory;
+		this.requestTimeout = requestTimeout;
+		this.compression = compression;
+	}
+
+	public boolean isActive() {
+		return isActive.get();
+	}
+
+	/**
+	 * Starts the client and the discovery service, waiting up to the cluster formation timeout for the first
+	 * discovery result as the RMI provider does
+	 */
+	@Override
+	public void init() {
+		if (isActive.get()) {
+			LOG.warn("Cache manager has already been initialised for: " + discoveryServiceConfig.toString());
+			return;
+		}
+
+		try {
+			client = new NioCacheClient(requestTimeout, discoveryServiceConfig.getPeerRetryBackoff(), compression);
+		} catch (IOException e) {
+			throw new CacheException("Could not start the NIO cache client", e);
+		}
+		discoveryService = discoveryServiceFactory.createDiscoveryService(this, discoveryServiceConfig);
+		discoveryService.startDiscoveryService();
+		isActive.set(true);
+		awaitClusterFormation();
+	}
+
+	private void awaitClusterFormation() {
+		long timeout = getTimeForClusterToForm();
+		if (timeout <= 0) {
+			return;
+		}
+
+		try {
+			if (!clusterFormed.await(timeout, TimeUnit.MILLISECONDS)) {
+				LOG.warn("Discovery did not report any peers within {}ms, continuing without them", timeout);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void setCachePeerHosts(Set<CachePeerHost> cachePeerHosts) {
+		LOG.debug("Updating NIO cache peers list: {}", cachePeerHosts);
+		synchronized (membershipLock) {
+			setRemoteCachePeerHosts(getRemoteCachePeerHosts(cachePeerHosts));
+			membershipVersion = -1;
+		}
+	}
+
+	/**
+	 * Applies the change when it follows the version last applied, as the RMI provider does
+	 */
+	@Override
+	public boolean updateCachePeerHosts(CachePeerHostDelta cachePeerHostDelta) {
+		LOG.debug("Updating NIO cache peers list with {}", cachePeerHostDelta);
+		synchronized (membershipLock) {
+			if (cachePeerHostDelta.isFullMembership()) {
+				setRemoteCachePeerHosts(getRemoteCachePeerHosts(cachePeerHostDelta.getAddedCachePeerHosts()));
+			} else if (cachePeerHostDelta.getFromVersion() == membershipVersion) {
+				Set<CachePeerHost> newHosts = new HashSet<>(peers.hosts);
+				newHosts.removeAll(cachePeerHostDelta.getRemovedCachePeerHosts());
+				newHosts.addAll(getRemoteCachePeerHosts(cachePeerHostDelta.getAddedCachePeerHosts()));
+				setRemoteCachePeerHosts(newHosts);
+			} else {
+				LOG.debug("Cannot apply {} to version {} of the NIO cache peers list", cachePeerHostDelta, membershipVersion);
+				return false;
+			}
+			membershipVersion = cachePeerHostDelta.getToVersion();
+			return true;
+		}
+	}
+
+	/**
+	 * Adds a peer by its URL of the form <strong>//HOST:PORT</strong>, for peers which are not discovered
+	 */
+	@Override
+	public void registerPeer(String url) {
+		CachePeerIdentity peer = CachePeerIdentity.parse(url);
+		CachePeerHost host = new CachePeerHost(peer.getHostname(), peer.getPort());
+		if (isLocalCacheHost(host)) {
+			return;
+		}
+
+		synchronized (membershipLock) {
+			Set<CachePeerHost> newHosts = new HashSet<>(peers.hosts);
+			if (newHosts.add(host)) {
+				setRemoteCachePeerHosts(newHosts);
+			}
+		}
+	}
+
+	@Override
+	public void unregisterPeer(String url) {
+		CachePeerIdentity peer = CachePeerIdentity.parse(url);
+		synchronized (membershipLock) {
+			Set<CachePeerHost> newHosts = new HashSet<>(peers.hosts);
+			if (newHosts.remove(new CachePeerHost(peer.getHostname(), peer.getPort()))) {
+				setRemoteCachePeerHosts(newHosts);
+			}
+		}
+	}
+
+	/**
+	 * Lists a cache peer per remote host, which are created once per membership and cache
+	 */
+	@Override
+	public List<CachePeer> listRemoteCachePeers(Ehcache cache) throws CacheException {
+		Peers currentPeers = peers;
+		List<CachePeer> cachePeers = currentPeers.cachePeers.get(cache.getName());
+		metrics.recordListRemoteCachePeers(cachePeers != null);
+		if (cachePeers != null) {
+			return cachePeers;
+		}
+
+		NioCacheClient currentClient = client;
+		if (currentClient == null) {
+			throw new CacheException("The NIO cache peer provider has not been initialised");
+		}
+
+		List<CachePeer> newCachePeers = new ArrayList<>(currentPeers.hosts.size());
+		for (CachePeerHost host : currentPeers.hosts) {
+			newCachePeers.add(new NioCachePeer(currentClient, host, cache.getName()));
+		}
+		cachePeers = currentPeers.cachePeers.putIfAbsent(cache.getName(), Collections.unmodifiableList(newCachePeers));
+		return cachePeers == null ? currentPeers.cachePeers.get(cache.getName()) : cachePeers;
+	}
+
+	@Override
+	public void dispose() throws CacheException {
+		if (!isActive.get()) {
+			LOG.warn("Cache manager has not been initialised or dispose has already been called for: " +
+					discoveryServiceConfig.toString());
+			return;
+		}
+
+		discoveryService.stopDiscoveryService();
+		discoveryService = null;
+		client.close();
+		isActive.set(false);
+	}
+
+	/**
+	 * The configured cluster formation timeout until the first discovery result has been received, and 0 afterwards
+	 */
+	@Override
+	public long getTimeForClusterToForm() {
+		return clusterFormed.getCount() == 0 ? 0 : discoveryServiceConfig.getClusterFormationTimeout();
+	}
+
+	@Override
+	public String getScheme() {
+		return CACHE_SCHEME;
+	}
+
+	@Override
+	public CachePeerProviderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The compression of the requests to and responses from each peer, which is empty until the
+	 * provider has been initialised
+	 */
+	public Map<CachePeerHost, CompressionMetrics> getCompressionMetrics() {
+		NioCacheClient currentClient = client;
+		return currentClient == null ? Collections.<CachePeerHost, CompressionMetrics>emptyMap() : currentClient.getCompressionMetrics();
+	}
+
+	/**
+	 * @return The current remote hosts
+	 */
+	public Set<CachePeerHost> getCachePeerHosts() {
+		return peers.hosts;
+	}
+
+	private boolean isLocalCacheHost(CachePeerHost host) {
+		return host.getPort().equals(discoveryServiceConfig.getRmiListenerPort()) && localAddresses.contains(host.getHostname());
+	}
+
+	private Set<CachePeerHost> getRemoteCachePeerHosts(Set<CachePeerHost> cachePeerHosts) {
+		Set<CachePeerHost> remoteHosts = new HashSet<>(cachePeerHosts.size());
+		for (CachePeerHost cachePeerHost : cachePeerHosts) {
+			if (!isLocalCacheHost(cachePeerHost)) {
+				remoteHosts.add(cachePeerHost);
+			}
+		}
+		return remoteHosts;
+	}
+
+	/**
+	 * Replaces the hosts, closing the connections to those that departed. Called holding the membership lock.
+	 */
+	private void setRemoteCachePeerHosts(Set<CachePeerHost> newHosts) {
+		Set<CachePeerHost> currentHosts = peers.hosts;
+		Set<CachePeerHost> addedHosts = new HashSet<>(newHosts);
+		addedHosts.removeAll(currentHosts);
+		Set<CachePeerHost> removedHosts = new HashSet<>(currentHosts);
+		removedHosts.removeAll(newHosts);
+
+		if (!addedHosts.isEmpty() || !removedHosts.isEmpty()) {
+			peers = new Peers(newHosts);
+			NioCacheClient currentClient = client;
+			if (currentClient != null) {
+				for (CachePeerHost removedHost : removedHosts) {
+					currentClient.disconnect(removedHost);
+				}
+			}
+			for (CachePeerHost removedHost : removedHosts) {
+				localAddresses.forget(removedHost.getHostname());
+			}
+			LOG.info("Updated the NIO cache peers list, added: {}, removed: {}", addedHosts, removedHosts);
+		}
+		metrics.recordMembershipUpdate(addedHosts.size(), removedHosts.size());
+		clusterFormed.countDown();
+	}
+
+	private static final class Peers {
+		private final Set<CachePeerHost> hosts;
+		private final ConcurrentMap<String, List<CachePeer>> cachePeers = new ConcurrentHashMap<>();
+
+		private Peers(Set<CachePeerHost> hosts) {
+			this.hosts = Collections.unmodifiableSet(hosts);
+		}
+	}
+
+}
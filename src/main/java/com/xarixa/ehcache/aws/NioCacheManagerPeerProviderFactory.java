@@ -0,0 +1,107 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+import net.sf.ehcache.distribution.CacheManagerPeerProviderFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xarixa.ehcache.aws.discovery.AwsDiscoveryServiceConfig;
+import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
+import com.xarixa.ehcache.aws.nio.PayloadCompression;
+
+/**
+ * Creates the {@link NioCacheManagerPeerProvider}. It takes the same discovery properties as the
+ * {@link AwsSecurityGroupAwareCacheManagerPeerProviderFactory}, discovering the peers on the port of the
+ * {@link NioCacheManagerPeerListener}, which must also be configured. In addition
+ * <strong>requestTimeout</strong> is how long in ms to wait for a peer to respond, 10000 by default.
+ * <p>
+ * The requests can be compressed, which the {@link NioCacheManagerPeerListenerFactory} configures for the
+ * responses in the same way:
+ * <ul>
+ * <li><strong>compression</strong>, <strong>none</strong>, which is the default, <strong>deflate</strong> for the
+ * least CPU time or <strong>gzip</strong> for smaller payloads</li>
+ * <li><strong>compressionThreshold</strong>, the length in bytes from which payloads are compressed, 1024 by
+ * default</li>
+ * </ul>
+ * Peers always decompress what they receive, so the compression can differ between them. How much it saves and
+ * costs is measured per peer by {@link NioCacheManagerPeerProvider#getCompressionMetrics()}.
+ * <p>
+ * Ehcache's own replicators always replicate over RMI, so the caches should use the
+ * <strong>BatchingCacheReplicatorFactory</strong> with <strong>scheme=NIO</strong> to replicate over this.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheManagerPeerProviderFactory extends CacheManagerPeerProviderFactory {
+	private static final int DEFAULT_REQUEST_TIMEOUT_MS = 10000;
+	private static final String REQUEST_TIMEOUT_PROP = "requestTimeout";
+	private static final String DISCOVERY_SERVICE_CLASS_PROP = "discoveryServiceClass";
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+	private static final String COMPRESSION_PROP = "compression";
+	private static final String COMPRESSION_THRESHOLD_PROP = "compressionThreshold";
+
+	@Override
+	public CacheManagerPeerProvider createCachePeerProvider(CacheManager cacheManager, Properties properties) {
+		CacheManagerPeerListener cachePeerListener = cacheManager.getCachePeerListener(NioCacheManagerPeerProvider.CACHE_SCHEME);
+		if (cachePeerListener == null) {
+			throw new CacheException("Could not retrieve NIO cache peer listener. " +
+					"Please check your configuration, the class of the cacheManagerPeerListenerFactory " +
+					"element should be set to '" + NioCacheManagerPeerListenerFactory.class.getName() + "'");
+		}
+
+		Matcher portMatcher = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.UNIQUE_RESOURCE_PORT_REGEX.matcher(
+				cachePeerListener.getUniqueResourceIdentifier());
+		if (!portMatcher.matches()) {
+			throw new CacheException("Could not parse NIO listener port from unique resource identifier string: '" +
+					cachePeerListener.getUniqueResourceIdentifier() + "'");
+		}
+
+		AwsDiscoveryServiceConfig config = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.createDiscoveryServiceConfig(
+				Integer.parseInt(portMatcher.group(1)), properties);
+		DiscoveryServiceFactory discoveryServiceFactory =
+				AwsSecurityGroupAwareCacheManagerPeerProviderFactory.getDefaultOrConfiguredDiscoveryServiceFactory(
+						PropertyUtil.extractAndLogProperty(DISCOVERY_SERVICE_CLASS_PROP, properties));
+
+		Integer requestTimeout = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.extractIntegerProperty(
+				REQUEST_TIMEOUT_PROP, "timeout in ms", properties);
+		if (requestTimeout == null) {
+			requestTimeout = DEFAULT_REQUEST_TIMEOUT_MS;
+		} else if (requestTimeout < 1) {
+			throw new IllegalArgumentException("Configured request timeout is invalid (was " + requestTimeout + ")");
+		}
+
+		return new NioCacheManagerPeerProvider(config, discoveryServiceFactory, requestTimeout,
+				createPayloadCompression(properties));
+	}
+
+	static PayloadCompression createPayloadCompression(Properties properties) {
+		String compression = StringUtils.trimToNull(PropertyUtil.extractAndLogProperty(COMPRESSION_PROP, properties));
+		if (compression == null || compression.equalsIgnoreCase("none")) {
+			return PayloadCompression.NONE;
+		}
+
+		PayloadCompression.Algorithm algorithm;
+		try {
+			algorithm = PayloadCompression.Algorithm.valueOf(compression.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Configured compression is invalid (was " + compression + ")");
+		}
+
+		Integer threshold = AwsSecurityGroupAwareCacheManagerPeerProviderFactory.extractIntegerProperty(
+				COMPRESSION_THRESHOLD_PROP, "length in bytes", properties);
+		if (threshold == null) {
+			threshold = DEFAULT_COMPRESSION_THRESHOLD;
+		} else if (threshold < 0) {
+			throw new IllegalArgumentException("Configured compression threshold is invalid (was " + threshold + ")");
+		}
+		return new PayloadCompression(algorithm, threshold);
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.xarixa.ehcache.aws;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Remembers peers which could not be reached and holds them back from further lookups with an exponential
+ * backoff. Each consecutive failure doubles the delay up to a maximum, with a random jitter of up to half of
+ * the delay so that nodes which lost the same peer do not all retry it at the same moment.
+ *
+ * @author Fabric WorldWide
+ */
+class PeerBackoff {
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+	private final ConcurrentMap<CachePeerIdentity,FailureRecord> failureRecords = new ConcurrentHashMap<>();
+
+	/**
+	 * Failure state of a single peer, replaced as a whole on every failure
+	 */
+	private static final class FailureRecord {
+		private final int consecutiveFailures;
+		private final long retryAt;
+
+		private FailureRecord(int consecutiveFailures, long retryAt) {
+			this.consecutiveFailures = consecutiveFailures;
+			this.retryAt = retryAt;
+		}
+	}
+
+	PeerBackoff(long initialBackoffMs, long maxBackoffMs) {
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+	}
+
+	/**
+	 * Records a failure to reach the peer
+	 * @param peer
+	 * @return The time in ms at which the peer may be retried
+	 */
+	long recordFailure(CachePeerIdentity peer) {
+		FailureRecord failureRecord;
+		FailureRecord newFailureRecord;
+		do {
+			failureRecord = failureRecords.get(peer);
+			int consecutiveFailures = failureRecord == null ? 1 : failureRecord.consecutiveFailures + 1;
+			newFailureRecord = new FailureRecord(consecutiveFailures, System.currentTimeMillis() + nextBackoff(consecutiveFailures));
+		} while (failureRecord == null ? failureRecords.putIfAbsent(peer, newFailureRecord) != null :
+			!failureRecords.replace(peer, failureRecord, newFailureRecord));
+
+		return newFailureRecord.retryAt;
+	}
+
+	/**
+	 * The backoff doubles with each consecutive failure up to the maximum, jittered by up to half
+	 */
+	long nextBackoff(int consecutiveFailures) {
+		long backoff = maxBackoffMs;
+		if (consecutiveFailures < Long.SIZE - 1) {
+			backoff = Math.min(maxBackoffMs, initialBackoffMs << (consecutiveFailures - 1));
+			if (backoff < 0) {
+				backoff = maxBackoffMs;
+			}
+		}
+
+		long halfBackoff = backoff / 2;
+		return halfBackoff + (halfBackoff > 0 ? ThreadLocalRandom.current().nextLong(halfBackoff + 1) : 0);
+	}
+
+	/**
+	 * Records that the peer could be reached, which clears any failures
+	 */
+	void recordSuccess(CachePeerIdentity peer) {
+		failureRecords.remove(peer);
+	}
+
+	/**
+	 * Whether the peer failed recently and should not be tried again yet
+	 */
+	boolean isBackedOff(CachePeerIdentity peer) {
+		FailureRecord failureRecord = failureRecords.get(peer);
+		return failureRecord != null && System.currentTimeMillis() < failureRecord.retryAt;
+	}
+
+	/**
+	 * Forgets the peers, called when they depart
+	 */
+	void removeAll(Collection<CachePeerIdentity> peers) {
+		failureRecords.keySet().removeAll(peers);
+	}
+
+	/**
+	 * The peers which are currently held back and the time until which they are held back
+	 * @return A sorted map by peer URL
+	 */
+	Map<String,Date> getBackedOffPeers() {
+		Map<String,Date> backedOffPeers = new TreeMap<>();
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<CachePeerIdentity,FailureRecord> failureRecord : failureRecords.entrySet()) {
+			if (now < failureRecord.getValue().retryAt) {
+				backedOffPeers.put(failureRecord.getKey().getBaseUrl(), new Date(failureRecord.getValue().retryAt));
+			}
+		}
+
+		return backedOffPeers;
+	}
+
+}
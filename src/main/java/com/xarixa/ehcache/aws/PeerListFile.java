@@ -0,0 +1,116 @@
+package com.xarixa.ehcache.aws;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The last known set of peers kept on local disk, one <strong>HOST:PORT</strong> per line, so that a node
+ * which restarts can begin replicating to them straight away while discovery runs. The file is written to a
+ * temporary file next to it and then moved over it, so that a reader never sees a partially written list.
+ *
+ * @author Fabric WorldWide
+ */
+class PeerListFile {
+	private static final Logger LOG = LoggerFactory.getLogger(PeerListFile.class.getName());
+	private static final String HEADER = "# Last known cache peers, rewritten whenever the peers change";
+
+	private final Path path;
+
+	PeerListFile(Path path) {
+		this.path = path;
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Reads the peers, lines which cannot be parsed are skipped
+	 * @return The peers, which is empty if the file does not exist or cannot be read
+	 */
+	Set<CachePeerHost> read() {
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		if (!Files.isRegularFile(path)) {
+			return cachePeerHosts;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				int portIndex = line.lastIndexOf(':');
+				try {
+					cachePeerHosts.add(new CachePeerHost(line.substring(0, portIndex), Integer.parseInt(line.substring(portIndex + 1))));
+				} catch (RuntimeException e) {
+					LOG.warn("Skipping the invalid peer '{}' in the peer list file {}", line, path);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read the peer list file {}, starting without the last known peers", path, e);
+			cachePeerHosts.clear();
+		}
+
+		return cachePeerHosts;
+	}
+
+	/**
+	 * Replaces the file with the peers, failures are logged rather than thrown as the file is only an optimisation
+	 */
+	void write(Collection<CachePeerIdentity> peers) {
+		Set<String> lines = new TreeSet<>();
+		for (CachePeerIdentity peer : peers) {
+			lines.add(peer.getHostname() + ':' + peer.getPort());
+		}
+
+		Path temporaryPath = null;
+		try {
+			Path directory = path.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			temporaryPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+			try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (String line : lines) {
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+
+			try {
+				Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temporaryPath = null;
+		} catch (IOException e) {
+			LOG.warn("Could not write the peer list file {}", path, e);
+		} finally {
+			if (temporaryPath != null) {
+				try {
+					Files.deleteIfExists(temporaryPath);
+				} catch (IOException e) {
+					LOG.debug("Could not delete the temporary peer list file {}", temporaryPath, e);
+				}
+			}
+		}
+	}
+
+}
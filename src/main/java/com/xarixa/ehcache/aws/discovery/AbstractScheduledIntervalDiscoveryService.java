@@ -5,30 +5,64 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A discovery service which runs on a schedule as defined in the configuration.
+ * A discovery service which runs on a schedule as defined in the configuration. The interval starts at the
+ * refresh interval and grows up to the maximum refresh interval while runs find the membership unchanged, see
+ * {@link RefreshInterval}. Each run schedules the next one, so runs never overlap.
  * 
  * @author Fabric WorldWide
  */
 public abstract class AbstractScheduledIntervalDiscoveryService implements DiscoveryService, Runnable {
-	public final static int DEFAULT_START_INTERVAL_MS = 0;
 	private final ScheduledExecutorService discoveryServiceExecutor;
-	private final AwsDiscoveryServiceConfig discoveryServiceConfig;
+	private final RefreshInterval refreshInterval;
+	private boolean active;
 	private ScheduledFuture<?> scheduled;
 
 	public AbstractScheduledIntervalDiscoveryService(ScheduledExecutorService discoveryServiceExecutor,
 			AwsDiscoveryServiceConfig discoveryServiceConfig) {
 		this.discoveryServiceExecutor = discoveryServiceExecutor;
-		this.discoveryServiceConfig = discoveryServiceConfig;
+		Integer refreshIntervalMs = discoveryServiceConfig.getSecurityGroupRefreshInterval();
+		Integer maxRefreshIntervalMs = discoveryServiceConfig.getSecurityGroupMaxRefreshInterval();
+		this.refreshInterval = new RefreshInterval(refreshIntervalMs,
+				maxRefreshIntervalMs == null ? refreshIntervalMs : maxRefreshIntervalMs);
 	}
 
 	@Override
 	public final void startDiscoveryService() {
 		preStartDiscoveryService();
-		// Schedule discovery according to the interval
-		scheduled = discoveryServiceExecutor.scheduleWithFixedDelay(this, DEFAULT_START_INTERVAL_MS,
-				discoveryServiceConfig.getSecurityGroupRefreshInterval(), TimeUnit.MILLISECONDS);
+		// Schedule the first run, which schedules the next one and so on
+		synchronized (this) {
+			active = true;
+			schedule(refreshInterval.getInitialDelay());
+		}
 		postStartDiscoveryService();
 	}
+
+	/**
+	 * Runs discovery and schedules the next run
+	 */
+	@Override
+	public final void run() {
+		boolean changed = false;
+		try {
+			changed = discover();
+		} finally {
+			synchronized (this) {
+				schedule(refreshInterval.next(changed));
+			}
+		}
+	}
+
+	/**
+	 * Discovers the members and updates the provider. Failures should be handled rather than thrown.
+	 * @return true if the membership changed, which brings the interval back down to the refresh interval
+	 */
+	protected abstract boolean discover();
+
+	private void schedule(long delayMs) {
+		if (active) {
+			scheduled = discoveryServiceExecutor.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
 	
 	/**
 	 * Executed before thread execution is started and the run method is scheduled in {@link #startDiscoveryService()}
@@ -46,7 +80,12 @@ public abstract class AbstractScheduledIntervalDiscoveryService implements Disco
 	public final void stopDiscoveryService() {
 		preStopDiscoveryService();
 		try {
-			scheduled.cancel(true);
+			synchronized (this) {
+				active = false;
+				if (scheduled != null) {
+					scheduled.cancel(true);
+				}
+			}
 		} finally {
 			postStopDiscoveryService();
 		}
@@ -6,20 +6,49 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
 public class AwsDiscoveryServiceConfig implements DiscoveryServiceConfig {
+	public static final int DEFAULT_PEER_LOOKUP_TIMEOUT_MS = 2000;
+	public static final int DEFAULT_PEER_RETRY_BACKOFF_MS = 1000;
+	public static final int DEFAULT_PEER_RETRY_MAX_BACKOFF_MS = 300000;
+	public static final int DEFAULT_PEER_FAILURE_THRESHOLD = 3;
+	public static final int DEFAULT_CLUSTER_FORMATION_TIMEOUT_MS = 0;
+	public static final int DEFAULT_PEER_REMOVAL_ROUNDS = 1;
+	public static final int DEFAULT_PEER_REMOVAL_DELAY_MS = 0;
+	public static final int DEFAULT_GOSSIP_INTERVAL_MS = 1000;
+	public static final int DEFAULT_GOSSIP_FAILURE_TIMEOUT_MS = 10000;
+	public static final int DEFAULT_GOSSIP_RECONCILE_INTERVAL_MS = 300000;
+
     /**
      * The RMI listener port for the cache on this host
      */
     private Integer rmiListenerPort;
 
     /**
-     * The AWS security group to query for members
+     * The jclouds group to query for members, whose instances are in the AWS security group named
+     * <strong>jclouds#</strong> followed by the group
      */
 	private String securityGroup;
 
 	/**
-     * AWS security group disovery process refresh time interval
+	 * How EC2 is asked for the members of the security group
+	 */
+	private Ec2QueryMode ec2QueryMode = Ec2QueryMode.ALL_NODES;
+
+	/**
+	 * Which address of the members to replicate to
+	 */
+	private PeerAddressPolicy peerAddressPolicy = PeerAddressPolicy.PUBLIC;
+
+	/**
+     * AWS security group disovery process refresh time interval, which is also the interval that the leader
+     * pushes the membership at when leader elected discovery is used
      */
     private Integer securityGroupRefreshInterval;
+
+    /**
+     * Maximum interval that the refresh interval grows to while the members do not change, if any, when security
+     * group discovery is used
+     */
+    private Integer securityGroupMaxRefreshInterval;
     
     /**
      * The AWS access key
@@ -31,6 +60,83 @@ public class AwsDiscoveryServiceConfig implements DiscoveryServiceConfig {
      */
     private String secretKey;
 
+    /**
+     * Maximum time to wait for remote cache peer lookups
+     */
+    private Integer peerLookupTimeout = DEFAULT_PEER_LOOKUP_TIMEOUT_MS;
+
+    /**
+     * Initial time to hold back a peer that could not be reached
+     */
+    private Integer peerRetryBackoff = DEFAULT_PEER_RETRY_BACKOFF_MS;
+
+    /**
+     * Maximum time to hold back a peer that could not be reached
+     */
+    private Integer peerRetryMaxBackoff = DEFAULT_PEER_RETRY_MAX_BACKOFF_MS;
+
+    /**
+     * Consecutive failed calls after which the stubs of a peer are evicted
+     */
+    private Integer peerFailureThreshold = DEFAULT_PEER_FAILURE_THRESHOLD;
+
+    /**
+     * Maximum time to wait for the first discovery result on initialisation
+     */
+    private Integer clusterFormationTimeout = DEFAULT_CLUSTER_FORMATION_TIMEOUT_MS;
+
+    /**
+     * File to keep the last known peers in, if any
+     */
+    private String peerListFile;
+
+    /**
+     * Consecutive discovery runs a peer must be missing from before it is removed. File discovery only reads the
+     * file when it changes, so it only applies the removal delay.
+     */
+    private Integer peerRemovalRounds = DEFAULT_PEER_REMOVAL_ROUNDS;
+
+    /**
+     * Time a peer must be missing from discovery for before it is removed, which applies to every discovery service
+     */
+    private Integer peerRemovalDelay = DEFAULT_PEER_REMOVAL_DELAY_MS;
+
+    /**
+     * The port to gossip membership on when gossip discovery is used, or to push it on when leader elected
+     * discovery is used
+     */
+    private Integer gossipPort;
+
+    /**
+     * The address of this host that the other members gossip and replicate to, defaults to the local host address
+     */
+    private String gossipAddress;
+
+    /**
+     * Time between gossip rounds
+     */
+    private Integer gossipInterval = DEFAULT_GOSSIP_INTERVAL_MS;
+
+    /**
+     * Time after which a member that has not been heard from is dropped
+     */
+    private Integer gossipFailureTimeout = DEFAULT_GOSSIP_FAILURE_TIMEOUT_MS;
+
+    /**
+     * Time between queries of the security group for gossip seeds
+     */
+    private Integer gossipReconcileInterval = DEFAULT_GOSSIP_RECONCILE_INTERVAL_MS;
+
+    /**
+     * Time after which a leader that has not pushed the membership is replaced, if any
+     */
+    private Integer leaderTimeout;
+
+    /**
+     * File to read the peers from when file discovery is used, in which case the security group, credentials and
+     * refresh interval are not needed
+     */
+    private String discoveryFile;
 
 
     public AwsDiscoveryServiceConfig() {
@@ -53,6 +159,22 @@ public class AwsDiscoveryServiceConfig implements DiscoveryServiceConfig {
 		this.securityGroup = securityGroup;
 	}
 
+	public Ec2QueryMode getEc2QueryMode() {
+		return ec2QueryMode;
+	}
+
+	public void setEc2QueryMode(Ec2QueryMode ec2QueryMode) {
+		this.ec2QueryMode = ec2QueryMode;
+	}
+
+	public PeerAddressPolicy getPeerAddressPolicy() {
+		return peerAddressPolicy;
+	}
+
+	public void setPeerAddressPolicy(PeerAddressPolicy peerAddressPolicy) {
+		this.peerAddressPolicy = peerAddressPolicy;
+	}
+
 	public Integer getSecurityGroupRefreshInterval() {
 		return securityGroupRefreshInterval;
 	}
@@ -61,6 +183,140 @@ public class AwsDiscoveryServiceConfig implements DiscoveryServiceConfig {
 		this.securityGroupRefreshInterval = securityGroupRefreshInterval;
 	}
 
+	public Integer getSecurityGroupMaxRefreshInterval() {
+		return securityGroupMaxRefreshInterval;
+	}
+
+	public void setSecurityGroupMaxRefreshInterval(Integer securityGroupMaxRefreshInterval) {
+		this.securityGroupMaxRefreshInterval = securityGroupMaxRefreshInterval;
+	}
+
+	@Override
+	public Integer getPeerLookupTimeout() {
+		return peerLookupTimeout;
+	}
+
+	public void setPeerLookupTimeout(Integer peerLookupTimeout) {
+		this.peerLookupTimeout = peerLookupTimeout;
+	}
+
+	@Override
+	public Integer getPeerRetryBackoff() {
+		return peerRetryBackoff;
+	}
+
+	public void setPeerRetryBackoff(Integer peerRetryBackoff) {
+		this.peerRetryBackoff = peerRetryBackoff;
+	}
+
+	@Override
+	public Integer getPeerRetryMaxBackoff() {
+		return peerRetryMaxBackoff;
+	}
+
+	public void setPeerRetryMaxBackoff(Integer peerRetryMaxBackoff) {
+		this.peerRetryMaxBackoff = peerRetryMaxBackoff;
+	}
+
+	@Override
+	public Integer getPeerFailureThreshold() {
+		return peerFailureThreshold;
+	}
+
+	public void setPeerFailureThreshold(Integer peerFailureThreshold) {
+		this.peerFailureThreshold = peerFailureThreshold;
+	}
+
+	@Override
+	public Integer getClusterFormationTimeout() {
+		return clusterFormationTimeout;
+	}
+
+	public void setClusterFormationTimeout(Integer clusterFormationTimeout) {
+		this.clusterFormationTimeout = clusterFormationTimeout;
+	}
+
+	@Override
+	public String getPeerListFile() {
+		return peerListFile;
+	}
+
+	public void setPeerListFile(String peerListFile) {
+		this.peerListFile = peerListFile;
+	}
+
+	public Integer getPeerRemovalRounds() {
+		return peerRemovalRounds;
+	}
+
+	public void setPeerRemovalRounds(Integer peerRemovalRounds) {
+		this.peerRemovalRounds = peerRemovalRounds;
+	}
+
+	public Integer getPeerRemovalDelay() {
+		return peerRemovalDelay;
+	}
+
+	public void setPeerRemovalDelay(Integer peerRemovalDelay) {
+		this.peerRemovalDelay = peerRemovalDelay;
+	}
+
+	public Integer getGossipPort() {
+		return gossipPort;
+	}
+
+	public void setGossipPort(Integer gossipPort) {
+		this.gossipPort = gossipPort;
+	}
+
+	public String getGossipAddress() {
+		return gossipAddress;
+	}
+
+	public void setGossipAddress(String gossipAddress) {
+		this.gossipAddress = gossipAddress;
+	}
+
+	public Integer getGossipInterval() {
+		return gossipInterval;
+	}
+
+	public void setGossipInterval(Integer gossipInterval) {
+		this.gossipInterval = gossipInterval;
+	}
+
+	public Integer getGossipFailureTimeout() {
+		return gossipFailureTimeout;
+	}
+
+	public void setGossipFailureTimeout(Integer gossipFailureTimeout) {
+		this.gossipFailureTimeout = gossipFailureTimeout;
+	}
+
+	public Integer getGossipReconcileInterval() {
+		return gossipReconcileInterval;
+	}
+
+	public void setGossipReconcileInterval(Integer gossipReconcileInterval) {
+		this.gossipReconcileInterval = gossipReconcileInterval;
+	}
+
+	public Integer getLeaderTimeout() {
+		return leaderTimeout;
+	}
+
+	public void setLeaderTimeout(Integer leaderTimeout) {
+		this.leaderTimeout = leaderTimeout;
+	}
+
+	public String getDiscoveryFile() {
+		return discoveryFile;
+	}
+
+	public void setDiscoveryFile(String discoveryFile) {
+		this.discoveryFile = discoveryFile;
+	}
+
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder()
@@ -106,22 +362,76 @@ public class AwsDiscoveryServiceConfig implements DiscoveryServiceConfig {
 
 	@Override
 	public void validate() throws IllegalArgumentException {
-		if (StringUtils.isBlank(securityGroup)) {
+		if (StringUtils.isBlank(securityGroup) && discoveryFile == null) {
 			throw new IllegalArgumentException("Configured security group cannot be empty");
 		}
-		if (StringUtils.isBlank(accessKey)) {
+		if (ec2QueryMode == null) {
+			throw new IllegalArgumentException("Configured EC2 query mode cannot be empty");
+		}
+		if (peerAddressPolicy == null) {
+			throw new IllegalArgumentException("Configured peer address policy cannot be empty");
+		}
+		if (StringUtils.isBlank(accessKey) && discoveryFile == null) {
 			throw new IllegalArgumentException("Configured AWS access key cannot be empty");
 		}
-		if (StringUtils.isBlank(secretKey)) {
+		if (StringUtils.isBlank(secretKey) && discoveryFile == null) {
 			throw new IllegalArgumentException("Configured AWS secret key cannot be empty");
 		}
 		if (rmiListenerPort == null || rmiListenerPort <= 0) {
 			throw new IllegalArgumentException("Configured RMI listener port is invalid (was " + rmiListenerPort + ")");
 		}
-		if (rmiListenerPort == null || rmiListenerPort <= 0) {
+		if (securityGroupRefreshInterval == null ? discoveryFile == null : securityGroupRefreshInterval <= 0) {
 			throw new IllegalArgumentException("Configured security group refresh interval is invalid (was " +
 					securityGroupRefreshInterval + ")");
 		}
+		if (securityGroupMaxRefreshInterval != null && (securityGroupRefreshInterval == null ||
+				securityGroupMaxRefreshInterval < securityGroupRefreshInterval)) {
+			throw new IllegalArgumentException("Configured security group maximum refresh interval is invalid (was " +
+					securityGroupMaxRefreshInterval + ")");
+		}
+		if (peerLookupTimeout == null || peerLookupTimeout < 0) {
+			throw new IllegalArgumentException("Configured peer lookup timeout is invalid (was " + peerLookupTimeout + ")");
+		}
+		if (peerRetryBackoff == null || peerRetryBackoff <= 0) {
+			throw new IllegalArgumentException("Configured peer retry backoff is invalid (was " + peerRetryBackoff + ")");
+		}
+		if (peerRetryMaxBackoff == null || peerRetryMaxBackoff < peerRetryBackoff) {
+			throw new IllegalArgumentException("Configured peer retry maximum backoff is invalid (was " +
+					peerRetryMaxBackoff + ")");
+		}
+		if (peerFailureThreshold == null || peerFailureThreshold <= 0) {
+			throw new IllegalArgumentException("Configured peer failure threshold is invalid (was " +
+					peerFailureThreshold + ")");
+		}
+		if (clusterFormationTimeout == null || clusterFormationTimeout < 0) {
+			throw new IllegalArgumentException("Configured cluster formation timeout is invalid (was " +
+					clusterFormationTimeout + ")");
+		}
+		if (peerRemovalRounds == null || peerRemovalRounds <= 0) {
+			throw new IllegalArgumentException("Configured peer removal rounds is invalid (was " + peerRemovalRounds + ")");
+		}
+		if (peerRemovalDelay == null || peerRemovalDelay < 0) {
+			throw new IllegalArgumentException("Configured peer removal delay is invalid (was " + peerRemovalDelay + ")");
+		}
+		if (gossipPort != null) {
+			if (gossipPort <= 0 || gossipPort > 65535) {
+				throw new IllegalArgumentException("Configured gossip port is invalid (was " + gossipPort + ")");
+			}
+			if (gossipInterval == null || gossipInterval <= 0) {
+				throw new IllegalArgumentException("Configured gossip interval is invalid (was " + gossipInterval + ")");
+			}
+			if (gossipFailureTimeout == null || gossipFailureTimeout <= gossipInterval) {
+				throw new IllegalArgumentException("Configured gossip failure timeout is invalid (was " +
+						gossipFailureTimeout + ")");
+			}
+			if (gossipReconcileInterval == null || gossipReconcileInterval <= 0) {
+				throw new IllegalArgumentException("Configured gossip reconcile interval is invalid (was " +
+						gossipReconcileInterval + ")");
+			}
+		}
+		if (leaderTimeout != null && (securityGroupRefreshInterval == null || leaderTimeout <= securityGroupRefreshInterval)) {
+			throw new IllegalArgumentException("Configured leader timeout is invalid (was " + leaderTimeout + ")");
+		}
 	}
 
 }
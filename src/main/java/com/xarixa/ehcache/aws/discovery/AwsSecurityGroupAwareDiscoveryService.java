@@ -1,96 +1,166 @@
 package com.xarixa.ehcache.aws.discovery;
 
-import static com.google.common.base.Predicates.and;
-import static com.google.common.collect.Iterables.filter;
-import static org.jclouds.compute.predicates.NodePredicates.inGroup;
-
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 
-import org.jclouds.ContextBuilder;
-import org.jclouds.compute.ComputeServiceContext;
-import org.jclouds.compute.domain.NodeMetadata;
-import org.jclouds.compute.predicates.NodePredicates;
-import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
-import org.jclouds.sshj.config.SshjSshClientModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ImmutableSet;
-import com.xarixa.ehcache.aws.CachePeerHost;
 import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
 
 /**
  * A discovery service that works against AWS security groups by discovering members of the security group.
- * This runs periodically in a thread through the {@link #run()} method.
+ * This runs periodically in a thread through the {@link #discover()} method.
+ * <p>
+ * One service polls a security group for every provider in the JVM that subscribes to it with the same
+ * credentials, see {@link SharedDiscoveryServiceRegistry}. Each poll is fanned out to all of the subscribers,
+ * with the addresses combined with the RMI listener port of each.
  * 
  * @author Fabric WorldWide
  */
 public class AwsSecurityGroupAwareDiscoveryService extends AbstractScheduledIntervalDiscoveryService {
     private static final Logger LOG = LoggerFactory.getLogger(AwsSecurityGroupAwareDiscoveryService.class.getName());
-	private final UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider;
 	private final String securityGroup;
-	private ComputeServiceContext context;
-	private AwsDiscoveryServiceConfig discoveryServiceConfig;
+	private final SecurityGroupQuery securityGroupQuery;
+	/**
+	 * The client this service built for itself, which it closes a grace period after it is stopped, or null if
+	 * it is shared
+	 */
+	private final Ec2Client ownedEc2Client;
+	private final ScheduledExecutorService discoveryServiceExecutor;
+	/**
+	 * The providers to update
+	 */
+	private final DiscoverySubscribers subscribers;
 
+	/**
+	 * Creates a service with its own EC2 client, which is closed if the service stays stopped for
+	 * {@link Ec2Client#CLOSE_DELAY_MS}
+	 */
+	public AwsSecurityGroupAwareDiscoveryService(
+			ScheduledExecutorService discoveryServiceExecutor,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		this(discoveryServiceExecutor, discoveryServiceConfig,
+				new Ec2Client(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey()), true);
+	}
+
+	/**
+	 * Creates a service with its own EC2 client which updates a single provider
+	 * @deprecated Providers which discover the same security group now share a service, create the service
+	 * through {@link AwsSecurityGroupAwareDiscoveryServiceFactory} instead
+	 */
+	@Deprecated
 	public AwsSecurityGroupAwareDiscoveryService(
 			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
 			ScheduledExecutorService discoveryServiceExecutor,
 			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		this(discoveryServiceExecutor, discoveryServiceConfig);
+		subscribe(updateableCacheManagerPeerProvider, discoveryServiceConfig.getRmiListenerPort());
+	}
+
+	/**
+	 * @param ec2Client	The clients for the credentials of the configuration, which are built on the first run and
+	 * 					closed by the caller
+	 */
+	AwsSecurityGroupAwareDiscoveryService(
+			ScheduledExecutorService discoveryServiceExecutor,
+			AwsDiscoveryServiceConfig discoveryServiceConfig,
+			Ec2Client ec2Client) {
+		this(discoveryServiceExecutor, discoveryServiceConfig, ec2Client, false);
+	}
+
+	private AwsSecurityGroupAwareDiscoveryService(
+			ScheduledExecutorService discoveryServiceExecutor,
+			AwsDiscoveryServiceConfig discoveryServiceConfig,
+			Ec2Client ec2Client,
+			boolean ownsEc2Client) {
 		super(discoveryServiceExecutor, discoveryServiceConfig);
-		this.updateableCacheManagerPeerProvider = updateableCacheManagerPeerProvider;
-		this.discoveryServiceConfig = discoveryServiceConfig;
+		this.securityGroupQuery = new SecurityGroupQuery(discoveryServiceConfig, ec2Client);
+		this.ownedEc2Client = ownsEc2Client ? ec2Client : null;
+		this.discoveryServiceExecutor = discoveryServiceExecutor;
+		this.subscribers = new DiscoverySubscribers(discoveryServiceConfig);
 		// This is the security group to look for
 		securityGroup = discoveryServiceConfig.getSecurityGroup();
 	}
+
+	/**
+	 * Adds a provider to update, which is given the last addresses found straight away if there are any
+	 * @return true if this is the only subscriber, in which case the service should be started
+	 */
+	boolean subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			int rmiListenerPort) {
+		return subscribers.subscribe(updateableCacheManagerPeerProvider, rmiListenerPort);
+	}
+
+	/**
+	 * Removes a provider
+	 * @return true if there are no subscribers left, in which case the service should be stopped
+	 */
+	boolean unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider) {
+		return subscribers.unsubscribe(updateableCacheManagerPeerProvider);
+	}
 	
+	/**
+	 * Keeps the EC2 client if this service owns it and is started again within the grace period
+	 */
 	@Override
 	protected void preStartDiscoveryService() {
-		// Get an EC2 connection using JClouds
-		context = ContextBuilder.newBuilder("aws-ec2")
-                .credentials(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey())
-                .modules(ImmutableSet.of(new SLF4JLoggingModule(), new SshjSshClientModule()))
-                .buildView(ComputeServiceContext.class);
+		if (ownedEc2Client != null) {
+			ownedEc2Client.cancelClose();
+		}
 	}
 
+	/**
+	 * Closes the EC2 client if this service owns it once the grace period has passed, so that it is reused if
+	 * the service is restarted before then
+	 */
 	@Override
 	protected void postStopDiscoveryService() {
-		context = null;
+		subscribers.reset();
+		if (ownedEc2Client != null) {
+			ownedEc2Client.closeLater(discoveryServiceExecutor, Ec2Client.CLOSE_DELAY_MS);
+		}
 	}
 
+	/**
+	 * Queries the security group and updates the subscribers. Failures are recorded and logged rather than thrown,
+	 * as an exception would stop the run from being scheduled again and the peers would never be updated.
+	 * @return true if the addresses differ from those found by the last successful run, or this is the first run
+	 */
 	@Override
-	public void run() {
-		Set<CachePeerHost> cachePeerHosts = getHostsInSecurityGroup();
-		updateableCacheManagerPeerProvider.setCachePeerHosts(cachePeerHosts);
+	protected boolean discover() {
+		long start = System.nanoTime();
+		boolean successful = false;
+		boolean changed = false;
+
+		try {
+			Set<String> addresses;
+			try {
+				addresses = getAddressesInSecurityGroup();
+				subscribers.recordEc2Call(System.nanoTime() - start, true);
+			} catch (RuntimeException e) {
+				subscribers.recordEc2Call(System.nanoTime() - start, false);
+				throw e;
+			}
+
+			changed = subscribers.publish(addresses);
+			successful = true;
+		} catch (RuntimeException e) {
+			LOG.warn("Could not discover the hosts in security group '{}', keeping the current peers", securityGroup, e);
+		} finally {
+			subscribers.recordDiscoveryRun(System.nanoTime() - start, successful);
+		}
+		return changed;
 	}
 
 	/**
-	 * Retrieves all of the {@link CachePeerHost} entries in the AWS security group
+	 * Retrieves the addresses of all of the members of the AWS security group
 	 * @return
+	 * @see AwsDiscoveryServiceConfig#getEc2QueryMode()
+	 * @see AwsDiscoveryServiceConfig#getPeerAddressPolicy()
 	 */
-	Set<CachePeerHost> getHostsInSecurityGroup() {
-		// Create a query to list all of the nodes in this security group
-		Iterable<? extends NodeMetadata> nodesInSecurityGroup =
-				filter(context.getComputeService().listNodesDetailsMatching(
-						NodePredicates.all()), and(inGroup(securityGroup), and(NodePredicates.RUNNING)));
-		Iterator<? extends NodeMetadata> nodesInSecurityGroupIterator = nodesInSecurityGroup.iterator();
-		Set<CachePeerHost> cachePeerHosts = new HashSet<CachePeerHost>();
-
-		while (nodesInSecurityGroupIterator.hasNext()) {
-			NodeMetadata nodeMetadata = nodesInSecurityGroupIterator.next();
-			
-			// Pick the first public IP and add it to the list
-			Iterator<String> publicIpIterator = nodeMetadata.getPublicAddresses().iterator();
-			if (publicIpIterator.hasNext()) {
-				cachePeerHosts.add(new CachePeerHost(publicIpIterator.next(), discoveryServiceConfig.getRmiListenerPort()));
-			} else {
-				LOG.warn("No available public IP address for instance '{}', skipping this instance",  nodeMetadata.getId());
-			}
-		}
-
-		return cachePeerHosts;
+	Set<String> getAddressesInSecurityGroup() {
+		return securityGroupQuery.getAddresses();
 	}
 
 }
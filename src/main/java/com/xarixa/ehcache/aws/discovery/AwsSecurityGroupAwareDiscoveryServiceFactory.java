@@ -9,11 +9,14 @@ import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
 
 /**
  * Default {@link DiscoveryServiceFactory} used by the {@link AwsSecurityGroupAwareCacheManagerPeerProviderFactory}.
+ * Providers which discover the same security group with the same credentials share one discovery service.
  * @author Fabric WorldWide
  */
 public class AwsSecurityGroupAwareDiscoveryServiceFactory implements DiscoveryServiceFactory {
 	private static final int MAX_SCHEDULED_THREAD_POOL_SIZE = 3;
-	private static final ScheduledExecutorService discoveryServiceExecutor = createIntervalBasedExecutor();
+	static final ScheduledExecutorService discoveryServiceExecutor = createIntervalBasedExecutor();
+	private static final SharedDiscoveryServiceRegistry sharedDiscoveryServices =
+			new SharedDiscoveryServiceRegistry(discoveryServiceExecutor);
 
 	private static ScheduledExecutorService createIntervalBasedExecutor() {
 		ThreadFactory threadFactory = new ThreadFactory() {
@@ -35,8 +38,8 @@ public class AwsSecurityGroupAwareDiscoveryServiceFactory implements DiscoverySe
 			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
 			DiscoveryServiceConfig discoveryServiceConfig) {
 		if (discoveryServiceConfig instanceof AwsDiscoveryServiceConfig) {
-			return new AwsSecurityGroupAwareDiscoveryService(updateableCacheManagerPeerProvider,
-					discoveryServiceExecutor, (AwsDiscoveryServiceConfig)discoveryServiceConfig);
+			return new SharedDiscoveryServiceSubscription(sharedDiscoveryServices, updateableCacheManagerPeerProvider,
+					(AwsDiscoveryServiceConfig)discoveryServiceConfig);
 		}
 		
 		throw new IllegalArgumentException("The discovery service config of type " +
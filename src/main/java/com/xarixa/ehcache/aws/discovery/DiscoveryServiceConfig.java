@@ -9,6 +9,43 @@ public interface DiscoveryServiceConfig {
 	 */
 	Integer getRmiListenerPort();
 
+	/**
+	 * The maximum time in ms that a caller waits for the remote cache peer lookups to complete
+	 * @return
+	 */
+	Integer getPeerLookupTimeout();
+
+	/**
+	 * The time in ms that a peer which could not be reached is held back from lookups after the first
+	 * failure, this doubles with each consecutive failure
+	 * @return
+	 */
+	Integer getPeerRetryBackoff();
+
+	/**
+	 * The maximum time in ms that a peer which could not be reached is held back from lookups
+	 * @return
+	 */
+	Integer getPeerRetryMaxBackoff();
+
+	/**
+	 * The number of consecutive failed calls to a peer after which its stubs are evicted and resolved again
+	 * @return
+	 */
+	Integer getPeerFailureThreshold();
+
+	/**
+	 * The maximum time in ms that initialisation waits for the first discovery result, 0 to not wait
+	 * @return
+	 */
+	Integer getClusterFormationTimeout();
+
+	/**
+	 * The path of the file in which the last known peers are kept across restarts, null to not keep them
+	 * @return
+	 */
+	String getPeerListFile();
+
 	/**
 	 * Validates the configuration and throws an exception if invalid
 	 */
@@ -0,0 +1,165 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+import com.xarixa.ehcache.aws.CachePeerHostDelta;
+import com.xarixa.ehcache.aws.DeltaAwareCachePeerProvider;
+import com.xarixa.ehcache.aws.MetricsAwareCachePeerProvider;
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * The providers which a shared discovery service updates. Each set of addresses that is published is compared
+ * with the last one once, and the change is handed to every subscriber with the addresses combined with the
+ * RMI listener port of each. A new subscriber is handed the last addresses straight away. Subscribing and
+ * publishing hold the same lock, so that a new subscriber cannot be handed older addresses after newer ones.
+ *
+ * @author Fabric WorldWide
+ */
+class DiscoverySubscribers {
+	private static final Logger LOG = LoggerFactory.getLogger(DiscoverySubscribers.class.getName());
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	/**
+	 * The addresses last published. Guarded by this.
+	 */
+	private final MembershipTracker<String> membershipTracker;
+
+	/**
+	 * Removes members as soon as they are missing
+	 */
+	DiscoverySubscribers() {
+		membershipTracker = new MembershipTracker<>();
+	}
+
+	/**
+	 * Removes members once they have been missing for the configured peer removal rounds and delay
+	 */
+	DiscoverySubscribers(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		membershipTracker = new MembershipTracker<>(discoveryServiceConfig.getPeerRemovalRounds(),
+				discoveryServiceConfig.getPeerRemovalDelay());
+	}
+
+	/**
+	 * Adds a provider to update
+	 * @return true if this is the only subscriber, in which case the service should be started
+	 */
+	synchronized boolean subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			int rmiListenerPort) {
+		Subscriber subscriber = new Subscriber(updateableCacheManagerPeerProvider, rmiListenerPort);
+		subscribers.add(subscriber);
+		MembershipTracker.Change<String> fullMembership = membershipTracker.getFullMembership();
+		if (fullMembership != null) {
+			subscriber.update(fullMembership, membershipTracker);
+		}
+		return subscribers.size() == 1;
+	}
+
+	/**
+	 * Removes a provider
+	 * @return true if there are no subscribers left, in which case the service should be stopped
+	 */
+	synchronized boolean unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.updateableCacheManagerPeerProvider == updateableCacheManagerPeerProvider) {
+				subscribers.remove(subscriber);
+				break;
+			}
+		}
+		return subscribers.isEmpty();
+	}
+
+	/**
+	 * Hands the addresses to every subscriber, unless there have not been any yet
+	 * @return true if the addresses differ from those last published, or are the first to be published
+	 */
+	synchronized boolean publish(Set<String> addresses) {
+		MembershipTracker.Change<String> change = membershipTracker.update(addresses);
+		if (change.toVersion == 0) {
+			return false;
+		}
+		for (Subscriber subscriber : subscribers) {
+			subscriber.update(change, membershipTracker);
+		}
+		return change.isChanged();
+	}
+
+	/**
+	 * Forgets the addresses last published, so that the next ones are handed over as a full membership
+	 */
+	synchronized void reset() {
+		membershipTracker.reset();
+	}
+
+	void recordEc2Call(long nanos, boolean successful) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.updateableCacheManagerPeerProvider instanceof MetricsAwareCachePeerProvider) {
+				((MetricsAwareCachePeerProvider)subscriber.updateableCacheManagerPeerProvider).getMetrics()
+						.recordEc2Call(nanos, successful);
+			}
+		}
+	}
+
+	void recordDiscoveryRun(long nanos, boolean successful) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.updateableCacheManagerPeerProvider instanceof MetricsAwareCachePeerProvider) {
+				((MetricsAwareCachePeerProvider)subscriber.updateableCacheManagerPeerProvider).getMetrics()
+						.recordDiscoveryRun(nanos, successful);
+			}
+		}
+	}
+
+	/**
+	 * A provider to update, with the RMI listener port that its peers listen on
+	 */
+	private static class Subscriber {
+		private final UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider;
+		private final int rmiListenerPort;
+
+		Subscriber(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider, int rmiListenerPort) {
+			this.updateableCacheManagerPeerProvider = updateableCacheManagerPeerProvider;
+			this.rmiListenerPort = rmiListenerPort;
+		}
+
+		/**
+		 * Passes the change on to the provider with the RMI listener port of its peers, or the full membership
+		 * if the provider could not apply the change or only takes full memberships. Failures are logged so that
+		 * the other subscribers are still updated.
+		 */
+		void update(MembershipTracker.Change<String> change, MembershipTracker<String> membershipTracker) {
+			try {
+				if (updateableCacheManagerPeerProvider instanceof DeltaAwareCachePeerProvider) {
+					DeltaAwareCachePeerProvider deltaAwareCachePeerProvider = (DeltaAwareCachePeerProvider)updateableCacheManagerPeerProvider;
+					if (!deltaAwareCachePeerProvider.updateCachePeerHosts(toCachePeerHostDelta(change))) {
+						deltaAwareCachePeerProvider.updateCachePeerHosts(
+								toCachePeerHostDelta(membershipTracker.getFullMembership()));
+					}
+				} else if (change.isChanged()) {
+					updateableCacheManagerPeerProvider.setCachePeerHosts(
+							toCachePeerHosts(membershipTracker.getFullMembership().added));
+				}
+			} catch (RuntimeException e) {
+				LOG.warn("Could not update the peers of {}", updateableCacheManagerPeerProvider, e);
+			}
+		}
+
+		private CachePeerHostDelta toCachePeerHostDelta(MembershipTracker.Change<String> change) {
+			return new CachePeerHostDelta(change.fromVersion, change.toVersion,
+					toCachePeerHosts(change.added), toCachePeerHosts(change.removed));
+		}
+
+		private Set<CachePeerHost> toCachePeerHosts(Set<String> addresses) {
+			Set<CachePeerHost> cachePeerHosts = new HashSet<CachePeerHost>(addresses.size());
+			for (String address : addresses) {
+				cachePeerHosts.add(new CachePeerHost(address, rmiListenerPort));
+			}
+			return cachePeerHosts;
+		}
+	}
+
+}
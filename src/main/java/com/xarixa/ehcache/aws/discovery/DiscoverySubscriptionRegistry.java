@@ -0,0 +1,26 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * Keeps the discovery services which are shared by the providers in a JVM, see
+ * {@link SharedDiscoveryServiceSubscription}
+ *
+ * @author Fabric WorldWide
+ */
+interface DiscoverySubscriptionRegistry {
+
+	/**
+	 * Subscribes the provider to the shared discovery service for its configuration, starting the service if
+	 * this is its first subscriber
+	 */
+	void subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig);
+
+	/**
+	 * Unsubscribes the provider, stopping the service if this was its last subscriber
+	 */
+	void unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig);
+
+}
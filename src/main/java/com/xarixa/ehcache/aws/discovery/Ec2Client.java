@@ -0,0 +1,114 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.ec2.EC2Api;
+import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The jclouds clients for a set of AWS credentials, each of which is built the first time that it is used rather
+ * than when discovery is started, so that building it stays off the CacheManager startup path. Only the EC2 API
+ * client is built for the {@link Ec2QueryMode#FILTERED filtered} query, the compute service is only built for
+ * listing all of the nodes. Neither has the SSH module, which discovery never uses.
+ * <p>
+ * A client which is no longer used is closed after a grace period rather than straight away, so that a service
+ * which is stopped and started again, as a provider is when its CacheManager is disposed and created again,
+ * reuses the clients that it had already built. A client which has been closed is built again when it is used.
+ *
+ * @author Fabric WorldWide
+ */
+class Ec2Client implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(Ec2Client.class.getName());
+	private static final String PROVIDER = "aws-ec2";
+	/**
+	 * The time in ms that a client which is no longer used is kept before it is closed
+	 */
+	static final long CLOSE_DELAY_MS = 60000;
+	private final String accessKey;
+	private final String secretKey;
+	private ComputeServiceContext computeServiceContext;
+	private EC2Api ec2Api;
+	private ScheduledFuture<?> scheduledClose;
+
+	Ec2Client(String accessKey, String secretKey) {
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+	}
+
+	synchronized ComputeService getComputeService() {
+		if (computeServiceContext == null) {
+			long start = System.currentTimeMillis();
+			computeServiceContext = newContextBuilder().buildView(ComputeServiceContext.class);
+			LOG.debug("Built the jclouds compute service context in {}ms", System.currentTimeMillis() - start);
+		}
+		return computeServiceContext.getComputeService();
+	}
+
+	synchronized EC2Api getEc2Api() {
+		if (ec2Api == null) {
+			long start = System.currentTimeMillis();
+			ec2Api = newContextBuilder().buildApi(AWSEC2Api.class);
+			LOG.debug("Built the jclouds EC2 API client in {}ms", System.currentTimeMillis() - start);
+		}
+		return ec2Api;
+	}
+
+	private ContextBuilder newContextBuilder() {
+		return ContextBuilder.newBuilder(PROVIDER)
+				.credentials(accessKey, secretKey)
+				.modules(ImmutableSet.of(new SLF4JLoggingModule()));
+	}
+
+	/**
+	 * Closes the client once the delay has passed, unless it is used again before then
+	 * @see #cancelClose()
+	 */
+	synchronized void closeLater(ScheduledExecutorService executor, long delayMs) {
+		cancelClose();
+		scheduledClose = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Keeps the client, which is about to be used again
+	 */
+	synchronized void cancelClose() {
+		if (scheduledClose != null) {
+			scheduledClose.cancel(false);
+			scheduledClose = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (computeServiceContext != null) {
+			computeServiceContext.close();
+			computeServiceContext = null;
+		}
+		if (ec2Api != null) {
+			try {
+				ec2Api.close();
+			} catch (IOException e) {
+				LOG.debug("Could not close the jclouds EC2 API client", e);
+			}
+			ec2Api = null;
+		}
+	}
+
+}
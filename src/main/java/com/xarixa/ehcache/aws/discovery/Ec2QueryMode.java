@@ -0,0 +1,22 @@
+package com.xarixa.ehcache.aws.discovery;
+
+/**
+ * How the {@link AwsSecurityGroupAwareDiscoveryService} asks EC2 for the members of the security group. In both
+ * modes the configured security group is the name of a jclouds group, whose nodes are in the EC2 security group
+ * named <strong>jclouds#</strong> followed by the group, so both find the same instances.
+ *
+ * @author Fabric WorldWide
+ */
+public enum Ec2QueryMode {
+	/**
+	 * Lists every node in the account through the jclouds compute service and keeps the running nodes in
+	 * the jclouds group of the same name on the client. The cost grows with the size of the account.
+	 */
+	ALL_NODES,
+
+	/**
+	 * Asks EC2 for the running instances in the EC2 security group of the jclouds group only. The cost grows
+	 * with the size of the group.
+	 */
+	FILTERED
+}
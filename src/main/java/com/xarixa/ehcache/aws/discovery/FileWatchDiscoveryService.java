@@ -0,0 +1,310 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+import com.xarixa.ehcache.aws.CachePeerHostDelta;
+import com.xarixa.ehcache.aws.DeltaAwareCachePeerProvider;
+import com.xarixa.ehcache.aws.MetricsAwareCachePeerProvider;
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * A discovery service which reads the peers from a file that something else keeps up to date, such as a
+ * configuration management agent, and watches it so that a change is applied as soon as it is written rather than
+ * on an interval. The file has one <strong>HOST</strong> or <strong>HOST:PORT</strong> per line, the RMI listener
+ * port of this provider being used when there is no port, and lines starting with # are skipped. An IPv6 address
+ * with a port is written as <strong>[ADDRESS]:PORT</strong>, one without brackets is taken to have no port.
+ * <p>
+ * Events which arrive within a few ms of each other are read once, but the file should still be written to a
+ * temporary file and moved over it so that a partly written list is never read. A file which is deleted or cannot
+ * be read keeps the current peers, as does an empty file. On platforms without native file watching the JDK polls the directory, which
+ * can take seconds.
+ * <p>
+ * As the file is only read when it changes, the peer removal rounds do not apply: a peer which is no longer in the
+ * file is removed once it has been missing for the peer removal delay, without waiting for another change.
+ *
+ * @author Fabric WorldWide
+ */
+public class FileWatchDiscoveryService implements DiscoveryService {
+	private static final Logger LOG = LoggerFactory.getLogger(FileWatchDiscoveryService.class.getName());
+	/**
+	 * Time to wait for further events after one arrives, so that a burst of writes is read once
+	 */
+	private static final long SETTLE_MS = 20;
+
+	private final UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider;
+	private final Path discoveryFile;
+	private final int rmiListenerPort;
+	/**
+	 * The peers last read. Guarded by this.
+	 */
+	private final MembershipTracker<CachePeerHost> membershipTracker;
+	/**
+	 * The peers in the file when it was last read, which removals that become due are worked out against. Guarded
+	 * by this.
+	 */
+	private Set<CachePeerHost> lastCachePeerHosts;
+	private WatchService watchService;
+
+	public FileWatchDiscoveryService(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		this.updateableCacheManagerPeerProvider = updateableCacheManagerPeerProvider;
+		this.discoveryFile = Paths.get(discoveryServiceConfig.getDiscoveryFile()).toAbsolutePath();
+		this.rmiListenerPort = discoveryServiceConfig.getRmiListenerPort();
+		this.membershipTracker = new MembershipTracker<>(1, discoveryServiceConfig.getPeerRemovalDelay());
+	}
+
+	/**
+	 * Reads the file and starts watching it
+	 * @throws IllegalStateException if the directory of the file cannot be watched
+	 */
+	@Override
+	public synchronized void startDiscoveryService() {
+		if (watchService != null) {
+			return;
+		}
+
+		final WatchService newWatchService;
+		try {
+			newWatchService = discoveryFile.getFileSystem().newWatchService();
+			discoveryFile.getParent().register(newWatchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not watch the discovery file " + discoveryFile, e);
+		}
+		watchService = newWatchService;
+		readDiscoveryFile();
+
+		Thread watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch(newWatchService);
+			}
+		}, "AwsFileWatchDiscoveryThread-" + discoveryFile.getFileName());
+		watchThread.setDaemon(true);
+		watchThread.start();
+		LOG.debug("Watching the discovery file {}", discoveryFile);
+	}
+
+	@Override
+	public synchronized void stopDiscoveryService() {
+		if (watchService == null) {
+			return;
+		}
+
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOG.debug("Could not close the watch of the discovery file {}", discoveryFile, e);
+		}
+		watchService = null;
+		membershipTracker.reset();
+		lastCachePeerHosts = null;
+		LOG.debug("Stopped watching the discovery file {}", discoveryFile);
+	}
+
+	/**
+	 * Reads the file whenever an event for it arrives, and removes the missing peers when they become due, until
+	 * the watch service is closed
+	 */
+	private void watch(WatchService watchService) {
+		try {
+			while (true) {
+				long removalWaitMs = getRemovalWaitMs();
+				WatchKey watchKey = removalWaitMs < 0 ? watchService.take() :
+					watchService.poll(removalWaitMs, TimeUnit.MILLISECONDS);
+				if (watchKey == null) {
+					removeMissingPeers();
+					continue;
+				}
+
+				boolean changed = false;
+				while (watchKey != null) {
+					changed |= isDiscoveryFileEvent(watchKey);
+					watchKey.reset();
+					watchKey = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+				}
+
+				if (changed) {
+					readDiscoveryFile();
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// Stopped
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean isDiscoveryFileEvent(WatchKey watchKey) {
+		boolean discoveryFileEvent = false;
+		for (WatchEvent<?> event : watchKey.pollEvents()) {
+			discoveryFileEvent |= event.kind() == OVERFLOW || discoveryFile.getFileName().equals(event.context());
+		}
+		return discoveryFileEvent;
+	}
+
+	/**
+	 * Reads the file and passes on what changed to the provider, failures are logged rather than thrown so that the
+	 * watch carries on
+	 */
+	private void readDiscoveryFile() {
+		long start = System.nanoTime();
+		boolean successful = false;
+		try {
+			Set<CachePeerHost> cachePeerHosts = read();
+			if (cachePeerHosts != null) {
+				update(cachePeerHosts);
+				successful = true;
+			}
+		} catch (RuntimeException e) {
+			LOG.warn("Could not update the peers from the discovery file {}", discoveryFile, e);
+		} finally {
+			if (updateableCacheManagerPeerProvider instanceof MetricsAwareCachePeerProvider) {
+				((MetricsAwareCachePeerProvider)updateableCacheManagerPeerProvider).getMetrics()
+						.recordDiscoveryRun(System.nanoTime() - start, successful);
+			}
+		}
+	}
+
+	/**
+	 * @return The time until the first of the missing peers is due to be removed, or -1 if none are missing
+	 */
+	private synchronized long getRemovalWaitMs() {
+		long nextRemovalTime = membershipTracker.getNextRemovalTime();
+		if (nextRemovalTime == Long.MAX_VALUE) {
+			return -1;
+		}
+		return Math.max(1, nextRemovalTime - System.currentTimeMillis());
+	}
+
+	/**
+	 * Removes the peers which have been missing from the file for the removal delay since it was last read
+	 */
+	private synchronized void removeMissingPeers() {
+		if (lastCachePeerHosts != null) {
+			update(lastCachePeerHosts);
+		}
+	}
+
+	private synchronized void update(Set<CachePeerHost> cachePeerHosts) {
+		if (watchService == null) {
+			return;
+		}
+
+		if (!cachePeerHosts.isEmpty()) {
+			lastCachePeerHosts = cachePeerHosts;
+		}
+		MembershipTracker.Change<CachePeerHost> change = membershipTracker.update(cachePeerHosts);
+		if (!change.isChanged()) {
+			return;
+		}
+
+		if (updateableCacheManagerPeerProvider instanceof DeltaAwareCachePeerProvider) {
+			DeltaAwareCachePeerProvider deltaAwareCachePeerProvider = (DeltaAwareCachePeerProvider)updateableCacheManagerPeerProvider;
+			if (!deltaAwareCachePeerProvider.updateCachePeerHosts(toCachePeerHostDelta(change))) {
+				deltaAwareCachePeerProvider.updateCachePeerHosts(toCachePeerHostDelta(membershipTracker.getFullMembership()));
+			}
+		} else {
+			updateableCacheManagerPeerProvider.setCachePeerHosts(membershipTracker.getFullMembership().added);
+		}
+	}
+
+	/**
+	 * @return The peers in the file, or null if it does not exist or cannot be read
+	 */
+	private Set<CachePeerHost> read() {
+		if (!Files.isRegularFile(discoveryFile)) {
+			LOG.debug("The discovery file {} does not exist, keeping the current peers", discoveryFile);
+			return null;
+		}
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		try (BufferedReader reader = Files.newBufferedReader(discoveryFile, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				CachePeerHost cachePeerHost = parse(line);
+				if (cachePeerHost == null) {
+					LOG.warn("Skipping the invalid peer '{}' in the discovery file {}", line, discoveryFile);
+				} else {
+					cachePeerHosts.add(cachePeerHost);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read the discovery file {}, keeping the current peers", discoveryFile, e);
+			return null;
+		}
+		return cachePeerHosts;
+	}
+
+	/**
+	 * @return The peer on the line, or null if it is not a valid HOST, HOST:PORT, [ADDRESS] or [ADDRESS]:PORT
+	 */
+	private CachePeerHost parse(String line) {
+		String host;
+		String port;
+		if (line.startsWith("[")) {
+			int closeIndex = line.indexOf(']');
+			if (closeIndex < 0) {
+				return null;
+			}
+			host = line.substring(1, closeIndex);
+			String rest = line.substring(closeIndex + 1);
+			if (rest.isEmpty()) {
+				port = null;
+			} else if (rest.startsWith(":")) {
+				port = rest.substring(1);
+			} else {
+				return null;
+			}
+		} else {
+			int portIndex = line.indexOf(':');
+			if (portIndex < 0 || line.indexOf(':', portIndex + 1) >= 0) {
+				// No port, or an IPv6 address without brackets
+				host = line;
+				port = null;
+			} else {
+				host = line.substring(0, portIndex);
+				port = line.substring(portIndex + 1);
+			}
+		}
+
+		if (host.isEmpty()) {
+			return null;
+		}
+		try {
+			return new CachePeerHost(host, port == null ? rmiListenerPort : Integer.parseInt(port));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static CachePeerHostDelta toCachePeerHostDelta(MembershipTracker.Change<CachePeerHost> change) {
+		return new CachePeerHostDelta(change.fromVersion, change.toVersion, change.added, change.removed);
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * A {@link DiscoveryServiceFactory} which reads the peers from a file that is kept up to date by something else,
+ * see {@link FileWatchDiscoveryService}. Set the <strong>discoveryServiceClass</strong> property to this class and
+ * the <strong>discoveryFile</strong> property to the file to use it, in which case the security group and AWS
+ * credentials are not needed.
+ *
+ * @author Fabric WorldWide
+ */
+public class FileWatchDiscoveryServiceFactory implements DiscoveryServiceFactory {
+
+	@Override
+	public DiscoveryService createDiscoveryService(
+			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			DiscoveryServiceConfig discoveryServiceConfig) {
+		if (!(discoveryServiceConfig instanceof AwsDiscoveryServiceConfig)) {
+			throw new IllegalArgumentException("The discovery service config of type " +
+					discoveryServiceConfig.getClass().getName() + " is invalid, it must be of the type " +
+					AwsDiscoveryServiceConfig.class.getName());
+		}
+		if (((AwsDiscoveryServiceConfig)discoveryServiceConfig).getDiscoveryFile() == null) {
+			throw new IllegalArgumentException("A discovery file must be configured to use " + getClass().getName());
+		}
+
+		return new FileWatchDiscoveryService(updateableCacheManagerPeerProvider,
+				(AwsDiscoveryServiceConfig)discoveryServiceConfig);
+	}
+
+}
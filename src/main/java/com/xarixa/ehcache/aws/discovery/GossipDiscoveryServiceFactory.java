@@ -0,0 +1,44 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * A {@link DiscoveryServiceFactory} which finds the peers by gossiping with the other members of the security group,
+ * see {@link GossipNode}, so that EC2 is only queried for seeds on the gossip reconcile interval rather than
+ * polled by every node. Set the <strong>discoveryServiceClass</strong> property to this class and the
+ * <strong>gossipPort</strong> property to use it. Providers which gossip on the same port share one node.
+ *
+ * @author Fabric WorldWide
+ */
+public class GossipDiscoveryServiceFactory implements DiscoveryServiceFactory {
+	private static final MembershipNodeRegistry gossipNodes =
+			new MembershipNodeRegistry(AwsSecurityGroupAwareDiscoveryServiceFactory.discoveryServiceExecutor) {
+				@Override
+				protected MembershipNode createMembershipNode(AwsDiscoveryServiceConfig discoveryServiceConfig,
+						String advertisedAddress, MemberEndpoints memberEndpoints) {
+					return new GossipNode(discoveryServiceExecutor, discoveryServiceConfig.getSecurityGroup(), null,
+							advertisedAddress, discoveryServiceConfig.getGossipPort(), memberEndpoints,
+							discoveryServiceConfig.getGossipInterval(), discoveryServiceConfig.getGossipFailureTimeout(),
+							discoveryServiceConfig.getGossipReconcileInterval(),
+							new DiscoverySubscribers(discoveryServiceConfig));
+				}
+			};
+
+	@Override
+	public DiscoveryService createDiscoveryService(
+			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			DiscoveryServiceConfig discoveryServiceConfig) {
+		if (!(discoveryServiceConfig instanceof AwsDiscoveryServiceConfig)) {
+			throw new IllegalArgumentException("The discovery service config of type " +
+					discoveryServiceConfig.getClass().getName() + " is invalid, it must be of the type " +
+					AwsDiscoveryServiceConfig.class.getName());
+		}
+		if (((AwsDiscoveryServiceConfig)discoveryServiceConfig).getGossipPort() == null) {
+			throw new IllegalArgumentException("A gossip port must be configured to use " + getClass().getName());
+		}
+
+		return new SharedDiscoveryServiceSubscription(gossipNodes, updateableCacheManagerPeerProvider,
+				(AwsDiscoveryServiceConfig)discoveryServiceConfig);
+	}
+
+}
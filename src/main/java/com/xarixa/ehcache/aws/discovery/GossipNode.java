@@ -0,0 +1,317 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A member of a gossip cluster, which finds the other members by exchanging its {@link GossipView} with one of
+ * them every round rather than by asking EC2. Each round the node increments its heartbeat and pushes its view to
+ * a random live member, which merges it and replies with its own (push-pull), so a change reaches every member
+ * in a number of rounds that grows with the logarithm of the size of the cluster. The seeds are only asked for
+ * members when the node starts and on the reconcile interval, and a seed is gossiped with when there are no live
+ * members or, now and then, so that clusters which have split join up again.
+ * <p>
+ * The live members are published to the subscribers after every round, which only updates them when the
+ * members have changed. Until the node has found another member, or gossiped for the failure timeout, only the
+ * rounds with no seeds to gossip with are published, so that the first membership does not hold just this node
+ * while the others have yet to be reached.
+ * <p>
+ * Only the cluster name is checked on a message, and any host that can reach the port knows that, so an entry is
+ * only merged if its host was in the last seeds found. An entry of another host is dropped and the seeds are
+ * asked for again, at most once per failure timeout, so that a member which has joined since is admitted soon
+ * after the others learn of it.
+ *
+ * @author Fabric WorldWide
+ */
+class GossipNode extends MembershipNode {
+	private static final Logger LOG = LoggerFactory.getLogger(GossipNode.class.getName());
+	private static final int MAGIC = 0x45484753;
+	private static final byte VERSION = 1;
+	/**
+	 * Upper bound of the entries in a message, anything larger is not from a gossip node
+	 */
+	private static final int MAX_ENTRIES = 65536;
+
+	private final ScheduledExecutorService executor;
+	private final MemberEndpoints seeds;
+	private final long intervalMs;
+	private final long failureTimeoutMs;
+	private final long reconcileIntervalMs;
+
+	/**
+	 * Guarded by itself, and replaced on every start
+	 */
+	private volatile GossipView view;
+	private ScheduledFuture<?> rounds;
+	/**
+	 * Only used by the rounds
+	 */
+	private List<String> seedEndpoints = Collections.emptyList();
+	private long nextReconcile;
+	private long lastReconcile;
+	/**
+	 * The hosts of the last seeds found, whose entries are merged
+	 */
+	private volatile Set<String> seedHosts = Collections.emptySet();
+	/**
+	 * Whether an entry of a host which is not one of the seed hosts has been dropped since the last reconcile
+	 */
+	private volatile boolean unknownHostsSeen;
+	/**
+	 * Time in ms until which a view of only this node is not published while there are seeds
+	 */
+	private long formationDeadline;
+
+	/**
+	 * @see MembershipNode#MembershipNode(String, String, String, int, long, DiscoverySubscribers)
+	 */
+	GossipNode(ScheduledExecutorService executor, String clusterName, String bindAddress, String advertisedAddress,
+			int port, MemberEndpoints seeds, long intervalMs, long failureTimeoutMs, long reconcileIntervalMs,
+			DiscoverySubscribers subscribers) {
+		super(clusterName, bindAddress, advertisedAddress, port, intervalMs, subscribers);
+		this.executor = executor;
+		this.seeds = seeds;
+		this.intervalMs = intervalMs;
+		this.failureTimeoutMs = failureTimeoutMs;
+		this.reconcileIntervalMs = reconcileIntervalMs;
+	}
+
+	/**
+	 * Listens for gossip and starts the rounds
+	 * @throws IllegalStateException if the port cannot be listened on
+	 */
+	@Override
+	synchronized void start() {
+		if (rounds != null) {
+			return;
+		}
+
+		view = new GossipView(listen("AwsGossipDiscoveryThread"), failureTimeoutMs);
+		nextReconcile = 0;
+		seedHosts = Collections.emptySet();
+		unknownHostsSeen = false;
+		formationDeadline = System.currentTimeMillis() + failureTimeoutMs;
+		rounds = executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				gossip();
+			}
+		}, 0, intervalMs, TimeUnit.MILLISECONDS);
+		LOG.debug("Started gossiping as {} in cluster '{}'", view.getLocalEndpoint(), clusterName);
+	}
+
+	@Override
+	synchronized void stop() {
+		if (rounds == null) {
+			return;
+		}
+
+		rounds.cancel(false);
+		rounds = null;
+		closeListener();
+		subscribers.reset();
+		LOG.debug("Stopped gossiping as {} in cluster '{}'", view.getLocalEndpoint(), clusterName);
+	}
+
+	/**
+	 * @return The <strong>HOST:PORT</strong> gossip endpoint of this node, once it has started
+	 */
+	String getLocalEndpoint() {
+		return view.getLocalEndpoint();
+	}
+
+	/**
+	 * @return The gossip endpoints of the live members, including this node
+	 */
+	Set<String> getLiveEndpoints() {
+		GossipView currentView = view;
+		synchronized (currentView) {
+			return currentView.getLiveEndpoints(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * A round, failures are logged rather than thrown as an exception would stop the rounds from being scheduled
+	 */
+	private void gossip() {
+		long start = System.nanoTime();
+		boolean successful = false;
+		try {
+			GossipView currentView = view;
+			long now = System.currentTimeMillis();
+			List<String> liveMembers;
+			synchronized (currentView) {
+				currentView.heartbeat(now);
+				currentView.purge(now);
+				liveMembers = new ArrayList<>(currentView.getLiveEndpoints(now));
+			}
+			liveMembers.remove(currentView.getLocalEndpoint());
+
+			if (now >= nextReconcile || (unknownHostsSeen && now >= lastReconcile + failureTimeoutMs)) {
+				unknownHostsSeen = false;
+				refreshSeeds();
+				lastReconcile = now;
+				nextReconcile = now + reconcileIntervalMs;
+			}
+
+			String member = chooseMember(liveMembers, currentView.getLocalEndpoint());
+			if (member != null) {
+				try {
+					exchange(currentView, member);
+				} catch (IOException e) {
+					LOG.debug("Could not gossip with {}", member, e);
+				}
+			}
+
+			Set<String> liveEndpoints = getLiveEndpoints();
+			if (liveEndpoints.size() > 1 || now >= formationDeadline || !hasOtherSeeds(currentView.getLocalEndpoint())) {
+				formationDeadline = 0;
+				subscribers.publish(getAddresses(liveEndpoints));
+			}
+			successful = true;
+		} catch (RuntimeException e) {
+			LOG.warn("Gossip round failed in cluster '{}'", clusterName, e);
+		} finally {
+			subscribers.recordDiscoveryRun(System.nanoTime() - start, successful);
+		}
+	}
+
+	private void refreshSeeds() {
+		long start = System.nanoTime();
+		try {
+			seedEndpoints = new ArrayList<>(seeds.getEndpoints());
+			seedHosts = getAddresses(new HashSet<>(seedEndpoints));
+			subscribers.recordEc2Call(System.nanoTime() - start, true);
+		} catch (RuntimeException e) {
+			subscribers.recordEc2Call(System.nanoTime() - start, false);
+			LOG.warn("Could not find the gossip seeds of cluster '{}', keeping the last ones", clusterName, e);
+		}
+	}
+
+	private boolean hasOtherSeeds(String localEndpoint) {
+		for (String seedEndpoint : seedEndpoints) {
+			if (!seedEndpoint.equals(localEndpoint)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Picks a random live member, or a seed if there are none and with a chance of one in the number of members
+	 * otherwise
+	 */
+	private String chooseMember(List<String> liveMembers, String localEndpoint) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<String> candidateSeeds = new ArrayList<>(seedEndpoints);
+		candidateSeeds.remove(localEndpoint);
+		if (!candidateSeeds.isEmpty() && (liveMembers.isEmpty() || random.nextInt(liveMembers.size() + 1) == 0)) {
+			return candidateSeeds.get(random.nextInt(candidateSeeds.size()));
+		}
+		return liveMembers.isEmpty() ? null : liveMembers.get(random.nextInt(liveMembers.size()));
+	}
+
+	/**
+	 * Pushes the view to the member and merges the view it replies with
+	 */
+	private void exchange(GossipView currentView, String member) throws IOException {
+		try (Socket socket = connect(member)) {
+			write(currentView, new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+			if (!read(currentView, new DataInputStream(new BufferedInputStream(socket.getInputStream())))) {
+				LOG.debug("Ignoring the reply of {} which is not in cluster '{}'", member, clusterName);
+			}
+		}
+	}
+
+	/**
+	 * Merges the view of another member and replies with this one
+	 */
+	@Override
+	protected void serve(Socket socket) throws IOException {
+		GossipView currentView = view;
+		if (read(currentView, new DataInputStream(new BufferedInputStream(socket.getInputStream())))) {
+			write(currentView, new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+		} else {
+			LOG.debug("Ignoring gossip from {} which is not in cluster '{}'", socket.getRemoteSocketAddress(),
+					clusterName);
+		}
+	}
+
+	private void write(GossipView currentView, DataOutputStream out) throws IOException {
+		Map<String,long[]> digest;
+		synchronized (currentView) {
+			digest = currentView.getDigest(System.currentTimeMillis());
+		}
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeUTF(clusterName);
+		out.writeInt(digest.size());
+		for (Map.Entry<String,long[]> entry : digest.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue()[0]);
+			out.writeLong(entry.getValue()[1]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a message and merges the entries of the seed hosts into the view
+	 * @return false if the message is from another cluster, in which case it is not merged
+	 * @throws IOException if the message is not a gossip message of this version
+	 */
+	private boolean read(GossipView currentView, DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+			throw new IOException("Not a gossip message of version " + VERSION);
+		}
+		boolean sameCluster = clusterName.equals(in.readUTF());
+		int size = in.readInt();
+		if (size < 0 || size > MAX_ENTRIES) {
+			throw new IOException("Invalid number of gossip entries " + size);
+		}
+
+		String[] endpoints = new String[size];
+		long[] heartbeats = new long[size];
+		long[] ages = new long[size];
+		for (int i = 0; i < size; i++) {
+			endpoints[i] = in.readUTF();
+			heartbeats[i] = in.readLong();
+			ages[i] = in.readLong();
+		}
+
+		if (sameCluster) {
+			Set<String> currentSeedHosts = seedHosts;
+			synchronized (currentView) {
+				long now = System.currentTimeMillis();
+				for (int i = 0; i < size; i++) {
+					if (currentSeedHosts.contains(getAddress(endpoints[i]))) {
+						currentView.merge(endpoints[i], heartbeats[i], ages[i], now);
+					} else if (!endpoints[i].equals(currentView.getLocalEndpoint())) {
+						LOG.debug("Ignoring the member {} of cluster '{}' which is not on a seed host", endpoints[i],
+								clusterName);
+						unknownHostsSeen = true;
+					}
+				}
+			}
+		}
+		return sameCluster;
+	}
+
+}
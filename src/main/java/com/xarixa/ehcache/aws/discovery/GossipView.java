@@ -0,0 +1,111 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The membership of a gossip cluster as seen by one node: a heartbeat per <strong>HOST:PORT</strong> gossip endpoint,
+ * which each node increments for itself every round, and the time at which this node last saw it go up.
+ * Entries are exchanged with their age rather than the time at which they were seen, so that the clocks of the
+ * nodes do not have to agree. A member whose heartbeat has not gone up within the failure timeout is no longer
+ * live, and its entry is dropped after twice that so that it is not gossiped back in.
+ * <p>
+ * This is not thread safe, the {@link GossipNode} guards it.
+ *
+ * @author Fabric WorldWide
+ */
+class GossipView {
+	private final String localEndpoint;
+	private final long failureTimeoutMs;
+	private final Map<String,Entry> entries = new HashMap<>();
+
+	GossipView(String localEndpoint, long failureTimeoutMs) {
+		this.localEndpoint = localEndpoint;
+		this.failureTimeoutMs = failureTimeoutMs;
+		entries.put(localEndpoint, new Entry(0, System.currentTimeMillis()));
+	}
+
+	String getLocalEndpoint() {
+		return localEndpoint;
+	}
+
+	/**
+	 * Increments the heartbeat of this node, which is done once per round
+	 */
+	void heartbeat(long now) {
+		Entry local = entries.get(localEndpoint);
+		local.heartbeat++;
+		local.lastUpdated = now;
+	}
+
+	/**
+	 * Merges an entry received from another node, keeping the highest heartbeat
+	 * @param ageMs	How long ago the sender last saw the heartbeat go up
+	 */
+	void merge(String endpoint, long heartbeat, long ageMs, long now) {
+		if (endpoint.equals(localEndpoint) || ageMs >= failureTimeoutMs * 2) {
+			return;
+		}
+
+		long lastUpdated = now - Math.max(0, ageMs);
+		Entry entry = entries.get(endpoint);
+		if (entry == null) {
+			entries.put(endpoint, new Entry(heartbeat, lastUpdated));
+		} else if (heartbeat > entry.heartbeat) {
+			entry.heartbeat = heartbeat;
+			entry.lastUpdated = Math.max(entry.lastUpdated, lastUpdated);
+		}
+	}
+
+	/**
+	 * Drops the entries of members which have not been seen for twice the failure timeout
+	 */
+	void purge(long now) {
+		Iterator<Map.Entry<String,Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String,Entry> entry = iterator.next();
+			if (!entry.getKey().equals(localEndpoint) && now - entry.getValue().lastUpdated >= failureTimeoutMs * 2) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return The endpoints whose heartbeat has gone up within the failure timeout, including this node
+	 */
+	Set<String> getLiveEndpoints(long now) {
+		Set<String> liveEndpoints = new HashSet<>();
+		for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+			if (now - entry.getValue().lastUpdated < failureTimeoutMs) {
+				liveEndpoints.add(entry.getKey());
+			}
+		}
+		liveEndpoints.add(localEndpoint);
+		return liveEndpoints;
+	}
+
+	/**
+	 * @return All of the entries to send to another node, by endpoint, as the heartbeat and the age in ms
+	 */
+	Map<String,long[]> getDigest(long now) {
+		Map<String,long[]> digest = new HashMap<>(entries.size());
+		for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+			digest.put(entry.getKey(), new long[] {entry.getValue().heartbeat, Math.max(0, now - entry.getValue().lastUpdated)});
+		}
+		return digest;
+	}
+
+	private static class Entry {
+		private long heartbeat;
+		private long lastUpdated;
+
+		Entry(long heartbeat, long lastUpdated) {
+			this.heartbeat = heartbeat;
+			this.lastUpdated = lastUpdated;
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * A {@link DiscoveryServiceFactory} in which the members of the security group elect one of themselves to poll
+ * EC2 and push the members to the rest, see {@link LeaderElectedNode}, so that a cluster makes one EC2 call per
+ * refresh interval rather than one per node. Set the <strong>discoveryServiceClass</strong> property to this class
+ * and the <strong>gossipPort</strong> property to the port that the members push to. Providers which use the same
+ * port share one node.
+ *
+ * @author Fabric WorldWide
+ */
+public class LeaderElectedDiscoveryServiceFactory implements DiscoveryServiceFactory {
+	/**
+	 * Refresh intervals the leader may miss before it is suspected, if the leader timeout is not configured
+	 */
+	private static final int DEFAULT_LEADER_TIMEOUT_INTERVALS = 3;
+	private static final MembershipNodeRegistry leaderElectedNodes =
+			new MembershipNodeRegistry(AwsSecurityGroupAwareDiscoveryServiceFactory.discoveryServiceExecutor) {
+				@Override
+				protected MembershipNode createMembershipNode(AwsDiscoveryServiceConfig discoveryServiceConfig,
+						String advertisedAddress, MemberEndpoints memberEndpoints) {
+					int refreshInterval = discoveryServiceConfig.getSecurityGroupRefreshInterval();
+					Integer leaderTimeout = discoveryServiceConfig.getLeaderTimeout();
+					return new LeaderElectedNode(discoveryServiceExecutor, discoveryServiceConfig.getSecurityGroup(),
+							null, advertisedAddress, discoveryServiceConfig.getGossipPort(), memberEndpoints,
+							refreshInterval,
+							leaderTimeout != null ? leaderTimeout : (long)refreshInterval * DEFAULT_LEADER_TIMEOUT_INTERVALS,
+							new DiscoverySubscribers(discoveryServiceConfig));
+				}
+			};
+
+	@Override
+	public DiscoveryService createDiscoveryService(
+			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			DiscoveryServiceConfig discoveryServiceConfig) {
+		if (!(discoveryServiceConfig instanceof AwsDiscoveryServiceConfig)) {
+			throw new IllegalArgumentException("The discovery service config of type " +
+					discoveryServiceConfig.getClass().getName() + " is invalid, it must be of the type " +
+					AwsDiscoveryServiceConfig.class.getName());
+		}
+		if (((AwsDiscoveryServiceConfig)discoveryServiceConfig).getGossipPort() == null) {
+			throw new IllegalArgumentException("A gossip port must be configured to use " + getClass().getName());
+		}
+
+		return new SharedDiscoveryServiceSubscription(leaderElectedNodes, updateableCacheManagerPeerProvider,
+				(AwsDiscoveryServiceConfig)discoveryServiceConfig);
+	}
+
+}
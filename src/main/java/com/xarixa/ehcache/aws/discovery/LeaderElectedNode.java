@@ -0,0 +1,357 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A member of a cluster in which one node, the leader, asks EC2 for the members and pushes them to the others,
+ * so that a poll of the security group costs one EC2 call rather than one per node. The leader is the member with
+ * the lowest endpoint that has not been suspected of failing, which every node works out for itself from the
+ * membership that it last saw. Each node asks EC2 once when it starts to find the members.
+ * <p>
+ * The leader polls and pushes the membership, with a version that goes up whenever it changes, to every member
+ * on each interval, whether or not it has changed, so that the followers know that it is alive. A follower which
+ * has not heard from the leader within the leader timeout suspects it and moves on to the next endpoint, so a
+ * failed leader is replaced within the leader timeout and an interval. A leader which hears from a member with a
+ * lower endpoint steps down, and a suspected member which pushes is no longer suspected, so the cluster settles
+ * on a single leader again once a split or a long pause is over.
+ * <p>
+ * The leader pushes to the members concurrently, with a timeout of at most half the leader timeout, so that
+ * members which are slow or gone do not hold up the pushes to the others until they suspect the leader. A member
+ * which is still being pushed to from the previous interval is skipped.
+ * <p>
+ * Only the cluster name is checked on a message, and any host that can reach the port knows that, so a push is
+ * only accepted from a member of the membership that the node polled itself or was last pushed. A node which has
+ * just joined is in the membership that the leader polls on its next interval, so it is followed from then on.
+ *
+ * @author Fabric WorldWide
+ */
+class LeaderElectedNode extends MembershipNode {
+	private static final Logger LOG = LoggerFactory.getLogger(LeaderElectedNode.class.getName());
+	private static final int MAGIC = 0x45484c44;
+	private static final byte VERSION = 1;
+	/**
+	 * Upper bound of the members in a message, anything larger is not from a leader
+	 */
+	private static final int MAX_MEMBERS = 65536;
+	private static final int PUSH_THREADS = 8;
+	private static final int MIN_PUSH_TIMEOUT_MS = 100;
+
+	private final ScheduledExecutorService executor;
+	private final MemberEndpoints memberEndpoints;
+	private final long intervalMs;
+	private final long leaderTimeoutMs;
+	private final int pushTimeoutMs;
+	/**
+	 * The members being pushed to
+	 */
+	private final Set<String> pushing = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+	/**
+	 * The state below is guarded by this, the network calls are made without holding it
+	 */
+	private ScheduledFuture<?> ticks;
+	private ExecutorService pushExecutor;
+	private String localEndpoint;
+	/**
+	 * The endpoints last polled or pushed, empty until the first poll
+	 */
+	private Set<String> membership = Collections.emptySet();
+	private final Set<String> suspects = new HashSet<>();
+	private String leader;
+	/**
+	 * The version of the membership last pushed by the leader, or polled if this node is the leader
+	 */
+	private long membershipVersion;
+	private long lastHeardFromLeader;
+
+	/**
+	 * @param memberEndpoints	Polled by the leader, and by every node when it starts
+	 * @param intervalMs		Time between the polls of the leader
+	 * @param leaderTimeoutMs	Time after which a leader that has not pushed is suspected
+	 * @see MembershipNode#MembershipNode(String, String, String, int, long, DiscoverySubscribers)
+	 */
+	LeaderElectedNode(ScheduledExecutorService executor, String clusterName, String bindAddress, String advertisedAddress,
+			int port, MemberEndpoints memberEndpoints, long intervalMs, long leaderTimeoutMs,
+			DiscoverySubscribers subscribers) {
+		super(clusterName, bindAddress, advertisedAddress, port, intervalMs, subscribers);
+		this.executor = executor;
+		this.memberEndpoints = memberEndpoints;
+		this.intervalMs = intervalMs;
+		this.leaderTimeoutMs = leaderTimeoutMs;
+		this.pushTimeoutMs = (int)Math.max(MIN_PUSH_TIMEOUT_MS, Math.min(Math.max(1000, intervalMs), leaderTimeoutMs / 2));
+	}
+
+	/**
+	 * Listens for the leader and starts the polls and leader checks
+	 * @throws IllegalStateException if the port cannot be listened on
+	 */
+	@Override
+	synchronized void start() {
+		if (ticks != null) {
+			return;
+		}
+
+		localEndpoint = listen("AwsLeaderDiscoveryThread");
+		pushExecutor = Executors.newFixedThreadPool(PUSH_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AwsLeaderPushThread-" + localEndpoint);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		membership = Collections.emptySet();
+		suspects.clear();
+		leader = null;
+		membershipVersion = 0;
+		ticks = executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, 0, intervalMs, TimeUnit.MILLISECONDS);
+		LOG.debug("Started leader elected discovery as {} in cluster '{}'", localEndpoint, clusterName);
+	}
+
+	@Override
+	synchronized void stop() {
+		if (ticks == null) {
+			return;
+		}
+
+		ticks.cancel(false);
+		ticks = null;
+		pushExecutor.shutdownNow();
+		pushExecutor = null;
+		pushing.clear();
+		closeListener();
+		subscribers.reset();
+		LOG.debug("Stopped leader elected discovery as {} in cluster '{}'", localEndpoint, clusterName);
+	}
+
+	synchronized String getLocalEndpoint() {
+		return localEndpoint;
+	}
+
+	/**
+	 * @return The endpoint of the member that this node takes to be the leader, or null before the first poll
+	 */
+	synchronized String getLeader() {
+		return leader;
+	}
+
+	synchronized Set<String> getMembership() {
+		return membership;
+	}
+
+	/**
+	 * Polls and pushes if this node is the leader, otherwise checks that the leader is still alive. Failures are
+	 * logged rather than thrown as an exception would stop the ticks from being scheduled.
+	 */
+	private void tick() {
+		try {
+			boolean leading;
+			synchronized (this) {
+				if (leader != null && !leader.equals(localEndpoint)
+						&& System.currentTimeMillis() - lastHeardFromLeader > leaderTimeoutMs) {
+					LOG.info("Have not heard from the leader {} of cluster '{}' within {}ms, electing another",
+							leader, clusterName, leaderTimeoutMs);
+					suspects.add(leader);
+					elect();
+				}
+				leading = leader == null || leader.equals(localEndpoint);
+			}
+
+			if (leading) {
+				lead();
+			}
+		} catch (RuntimeException e) {
+			LOG.warn("Leader elected discovery failed in cluster '{}'", clusterName, e);
+		}
+	}
+
+	/**
+	 * Polls the members, which every node does once to find the leader, and pushes them if this is the leader
+	 */
+	private void lead() {
+		long start = System.nanoTime();
+		boolean successful = false;
+		try {
+			Set<String> polledMembership;
+			try {
+				polledMembership = Collections.unmodifiableSet(new TreeSet<>(memberEndpoints.getEndpoints()));
+				subscribers.recordEc2Call(System.nanoTime() - start, true);
+			} catch (RuntimeException e) {
+				subscribers.recordEc2Call(System.nanoTime() - start, false);
+				LOG.warn("Could not poll the members of cluster '{}', pushing the last ones", clusterName, e);
+				polledMembership = null;
+			}
+
+			Set<String> pushedMembership;
+			long pushedVersion;
+			ExecutorService currentPushExecutor;
+			synchronized (this) {
+				if (ticks == null) {
+					return;
+				}
+				if (polledMembership != null && !polledMembership.equals(membership)) {
+					membership = polledMembership;
+					membershipVersion++;
+					suspects.retainAll(membership);
+				}
+				if (leader == null) {
+					if (polledMembership == null) {
+						return;
+					}
+					elect();
+				}
+				if (!leader.equals(localEndpoint)) {
+					return;
+				}
+				pushedMembership = membership;
+				pushedVersion = membershipVersion;
+				currentPushExecutor = pushExecutor;
+			}
+
+			subscribers.publish(getAddresses(pushedMembership));
+			for (String member : pushedMembership) {
+				if (!member.equals(localEndpoint) && pushing.add(member)) {
+					submitPush(currentPushExecutor, member, pushedMembership, pushedVersion);
+				}
+			}
+			successful = polledMembership != null;
+		} finally {
+			subscribers.recordDiscoveryRun(System.nanoTime() - start, successful);
+		}
+	}
+
+	/**
+	 * Takes the lowest endpoint of the members and this node that is not suspected to be the leader. Guarded by this.
+	 */
+	private void elect() {
+		TreeSet<String> candidates = new TreeSet<>(membership);
+		candidates.removeAll(suspects);
+		candidates.add(localEndpoint);
+		leader = candidates.first();
+		lastHeardFromLeader = System.currentTimeMillis();
+		LOG.debug("Elected {} as the leader of cluster '{}'", leader, clusterName);
+	}
+
+	private void submitPush(ExecutorService currentPushExecutor, final String member, final Set<String> pushedMembership,
+			final long pushedVersion) {
+		try {
+			currentPushExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						push(member, pushedMembership, pushedVersion);
+					} finally {
+						pushing.remove(member);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Stopped
+			pushing.remove(member);
+		}
+	}
+
+	private void push(String member, Set<String> pushedMembership, long pushedVersion) {
+		try (Socket socket = connect(member, pushTimeoutMs)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(clusterName);
+			out.writeUTF(localEndpoint);
+			out.writeLong(pushedVersion);
+			out.writeInt(pushedMembership.size());
+			for (String endpoint : pushedMembership) {
+				out.writeUTF(endpoint);
+			}
+			out.flush();
+		} catch (IOException e) {
+			LOG.debug("Could not push the members of cluster '{}' to {}", clusterName, member, e);
+		}
+	}
+
+	/**
+	 * Reads the membership pushed by a leader which is a member and publishes it if it is newer than the last
+	 */
+	@Override
+	protected void serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+			throw new IOException("Not a leader message of version " + VERSION);
+		}
+		boolean sameCluster = clusterName.equals(in.readUTF());
+		String sender = in.readUTF();
+		long pushedVersion = in.readLong();
+		int size = in.readInt();
+		if (size < 0 || size > MAX_MEMBERS) {
+			throw new IOException("Invalid number of members " + size);
+		}
+		Set<String> pushedMembership = new TreeSet<>();
+		for (int i = 0; i < size; i++) {
+			pushedMembership.add(in.readUTF());
+		}
+
+		if (!sameCluster) {
+			LOG.debug("Ignoring the members pushed by {} which is not in cluster '{}'", sender, clusterName);
+			return;
+		}
+
+		Set<String> publishedMembership = null;
+		synchronized (this) {
+			if (ticks == null) {
+				return;
+			}
+			if (!membership.contains(sender)) {
+				LOG.debug("Ignoring the members pushed by {} which is not a member of cluster '{}'", sender, clusterName);
+				return;
+			}
+			suspects.remove(sender);
+			if (localEndpoint.equals(leader) && sender.compareTo(localEndpoint) > 0) {
+				// This node is the better leader, the sender steps down once this node pushes to it
+				return;
+			}
+
+			if (!sender.equals(leader)) {
+				LOG.debug("Following {} as the leader of cluster '{}'", sender, clusterName);
+				leader = sender;
+				membershipVersion = Long.MIN_VALUE;
+			}
+			lastHeardFromLeader = System.currentTimeMillis();
+			if (pushedVersion > membershipVersion) {
+				membershipVersion = pushedVersion;
+				membership = Collections.unmodifiableSet(pushedMembership);
+				suspects.retainAll(membership);
+				publishedMembership = membership;
+			}
+		}
+
+		if (publishedMembership != null) {
+			subscribers.publish(getAddresses(publishedMembership));
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.Set;
+
+/**
+ * Where a {@link MembershipNode} finds the other members: the seeds that a {@link GossipNode} starts gossiping
+ * with, or the membership that the leader of a {@link LeaderElectedNode} pushes to the followers
+ *
+ * @author Fabric WorldWide
+ */
+interface MemberEndpoints {
+
+	/**
+	 * @return The <strong>HOST:PORT</strong> endpoints of the members, which may include this node
+	 */
+	Set<String> getEndpoints();
+
+}
@@ -0,0 +1,234 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * A discovery service shared by the providers in a JVM which learns the members of its cluster from the other
+ * members over a small TCP endpoint, rather than by asking EC2 every time. Connections are served on a small
+ * pool with a short read timeout, as each is a single small message each way, so that a peer which connects and
+ * stalls only holds up one thread for a moment rather than every other member. Connections beyond what the pool
+ * can queue are closed.
+ *
+ * @author Fabric WorldWide
+ */
+abstract class MembershipNode {
+	private static final Logger LOG = LoggerFactory.getLogger(MembershipNode.class.getName());
+	private static final int MIN_SOCKET_TIMEOUT_MS = 1000;
+	private static final int SERVE_THREADS = 4;
+	private static final int SERVE_QUEUE_SIZE = 64;
+	/**
+	 * The read timeout of the connections which are served
+	 */
+	private static final int SERVE_TIMEOUT_MS = 1000;
+
+	protected final String clusterName;
+	protected final String advertisedAddress;
+	protected final DiscoverySubscribers subscribers;
+	private final String bindAddress;
+	private final int port;
+	private final int socketTimeoutMs;
+	private volatile ServerSocket serverSocket;
+	private volatile ExecutorService serveExecutor;
+
+	/**
+	 * @param clusterName			Messages from nodes with another name are ignored
+	 * @param bindAddress			The address to listen on, or null for all of them
+	 * @param advertisedAddress		The address of this node that the other members connect and replicate to
+	 * @param port					The port to listen on, all of the members are expected to use the same one
+	 * 								unless the member endpoints say otherwise. 0 picks a free port.
+	 * @param intervalMs			The interval of the node, which the socket timeouts are no shorter than
+	 * @param subscribers			The providers to update
+	 */
+	MembershipNode(String clusterName, String bindAddress, String advertisedAddress, int port, long intervalMs,
+			DiscoverySubscribers subscribers) {
+		this.clusterName = clusterName;
+		this.subscribers = subscribers;
+		this.bindAddress = bindAddress;
+		this.advertisedAddress = advertisedAddress;
+		this.port = port;
+		this.socketTimeoutMs = (int)Math.max(MIN_SOCKET_TIMEOUT_MS, intervalMs);
+	}
+
+	boolean subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider, int rmiListenerPort) {
+		return subscribers.subscribe(updateableCacheManagerPeerProvider, rmiListenerPort);
+	}
+
+	boolean unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider) {
+		return subscribers.unsubscribe(updateableCacheManagerPeerProvider);
+	}
+
+	/**
+	 * Starts listening and running the node
+	 * @throws IllegalStateException if the port cannot be listened on
+	 */
+	abstract void start();
+
+	abstract void stop();
+
+	/**
+	 * Handles a connection from another member
+	 */
+	protected abstract void serve(Socket socket) throws IOException;
+
+	/**
+	 * Listens on the port and serves connections on a new thread until {@link #closeListener()} is called
+	 * @return The endpoint of this node
+	 */
+	protected String listen(String threadName) {
+		final ServerSocket listener;
+		try {
+			listener = new ServerSocket();
+			listener.setReuseAddress(true);
+			listener.bind(bindAddress == null ? new InetSocketAddress(port) : new InetSocketAddress(bindAddress, port));
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not listen for " + clusterName + " members on port " + port, e);
+		}
+		serverSocket = listener;
+		final String serveThreadName = threadName + "-" + listener.getLocalPort();
+		serveExecutor = new ThreadPoolExecutor(SERVE_THREADS, SERVE_THREADS, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(SERVE_QUEUE_SIZE), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, serveThreadName);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		final ExecutorService currentServeExecutor = serveExecutor;
+
+		Thread acceptThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept(listener, currentServeExecutor);
+			}
+		}, threadName + "-" + listener.getLocalPort());
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		return advertisedAddress + ':' + listener.getLocalPort();
+	}
+
+	protected void closeListener() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			LOG.debug("Could not close the membership listener", e);
+		}
+		serveExecutor.shutdownNow();
+	}
+
+	/**
+	 * Connects to another member
+	 * @param endpoint	<strong>HOST:PORT</strong>
+	 */
+	protected Socket connect(String endpoint) throws IOException {
+		return connect(endpoint, socketTimeoutMs);
+	}
+
+	/**
+	 * Connects to another member
+	 * @param endpoint	<strong>HOST:PORT</strong>
+	 * @param timeoutMs	The connect and read timeout
+	 */
+	protected Socket connect(String endpoint, int timeoutMs) throws IOException {
+		int portIndex = endpoint.lastIndexOf(':');
+		InetSocketAddress address = new InetSocketAddress(endpoint.substring(0, portIndex),
+				Integer.parseInt(endpoint.substring(portIndex + 1)));
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(address, timeoutMs);
+			socket.setSoTimeout(timeoutMs);
+			socket.setTcpNoDelay(true);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	private void accept(ServerSocket listener, ExecutorService currentServeExecutor) {
+		while (!listener.isClosed()) {
+			final Socket socket;
+			try {
+				socket = listener.accept();
+			} catch (IOException e) {
+				if (!listener.isClosed()) {
+					LOG.debug("Could not accept a membership connection", e);
+				}
+				continue;
+			}
+
+			try {
+				currentServeExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						serveAndClose(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				LOG.debug("Too many membership connections, closing the one from {}", socket.getRemoteSocketAddress());
+				close(socket);
+			}
+		}
+	}
+
+	private void serveAndClose(Socket socket) {
+		try {
+			socket.setSoTimeout(SERVE_TIMEOUT_MS);
+			socket.setTcpNoDelay(true);
+			serve(socket);
+		} catch (SocketException e) {
+			if (!serverSocket.isClosed()) {
+				LOG.debug("Membership connection failed", e);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOG.debug("Membership connection failed", e);
+		} finally {
+			close(socket);
+		}
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			LOG.debug("Could not close the membership connection", e);
+		}
+	}
+
+	/**
+	 * @return The hosts of the <strong>HOST:PORT</strong> endpoints
+	 */
+	protected static Set<String> getAddresses(Set<String> endpoints) {
+		Set<String> addresses = new HashSet<>(endpoints.size());
+		for (String endpoint : endpoints) {
+			addresses.add(getAddress(endpoint));
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return The host of the <strong>HOST:PORT</strong> endpoint
+	 */
+	protected static String getAddress(String endpoint) {
+		return endpoint.substring(0, endpoint.lastIndexOf(':'));
+	}
+
+}
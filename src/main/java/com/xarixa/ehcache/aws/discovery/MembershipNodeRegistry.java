@@ -0,0 +1,115 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * Keeps one {@link MembershipNode} per membership port, which finds the members of the security group of its
+ * first subscriber. Only subscribers which discover the same security group with the same credentials, query,
+ * refresh and removal settings, as {@link SharedDiscoveryServiceRegistry} shares a service between, and the same
+ * gossip settings can share a node, and a subscriber with any other settings on a port that is in use is
+ * rejected. A node is started by its first subscriber and stopped and dropped, along with its
+ * {@link Ec2Client}, when its last subscriber leaves. The security group is the name of the cluster, so nodes of
+ * other groups which listen on the same port are ignored. Nodes listen on all of the local addresses, as the
+ * address that they advertise may be a public one which is not bound to the host.
+ *
+ * @author Fabric WorldWide
+ */
+abstract class MembershipNodeRegistry implements DiscoverySubscriptionRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(MembershipNodeRegistry.class.getName());
+	protected final ScheduledExecutorService discoveryServiceExecutor;
+	private final Map<Integer,MembershipNode> membershipNodes = new HashMap<>();
+	private final Map<Integer,Ec2Client> ec2Clients = new HashMap<>();
+	/**
+	 * What each node discovers and how, as the key of {@link #getKey(AwsDiscoveryServiceConfig)}
+	 */
+	private final Map<Integer,List<Object>> discoveryKeys = new HashMap<>();
+
+	MembershipNodeRegistry(ScheduledExecutorService discoveryServiceExecutor) {
+		this.discoveryServiceExecutor = discoveryServiceExecutor;
+	}
+
+	@Override
+	public synchronized void subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		Integer port = discoveryServiceConfig.getGossipPort();
+		List<Object> discoveryKey = getKey(discoveryServiceConfig);
+		MembershipNode membershipNode = membershipNodes.get(port);
+		if (membershipNode != null && !discoveryKey.equals(discoveryKeys.get(port))) {
+			throw new IllegalArgumentException("Configured gossip port is already used to discover another security group "
+					+ "or with other credentials or settings (was " + port + ")");
+		}
+		if (membershipNode == null) {
+			Ec2Client ec2Client = new Ec2Client(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey());
+			membershipNode = createMembershipNode(discoveryServiceConfig, getAdvertisedAddress(discoveryServiceConfig),
+					new SecurityGroupMemberEndpoints(new SecurityGroupQuery(discoveryServiceConfig, ec2Client), port));
+			membershipNodes.put(port, membershipNode);
+			ec2Clients.put(port, ec2Client);
+			discoveryKeys.put(port, discoveryKey);
+		}
+
+		if (membershipNode.subscribe(updateableCacheManagerPeerProvider, discoveryServiceConfig.getRmiListenerPort())) {
+			LOG.debug("Starting discovery of security group '{}' on port {}", discoveryServiceConfig.getSecurityGroup(), port);
+			membershipNode.start();
+		}
+	}
+
+	@Override
+	public synchronized void unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		Integer port = discoveryServiceConfig.getGossipPort();
+		MembershipNode membershipNode = membershipNodes.get(port);
+		if (membershipNode != null && getKey(discoveryServiceConfig).equals(discoveryKeys.get(port))
+				&& membershipNode.unsubscribe(updateableCacheManagerPeerProvider)) {
+			LOG.debug("Stopping discovery of security group '{}' on port {}", discoveryServiceConfig.getSecurityGroup(), port);
+			membershipNodes.remove(port);
+			discoveryKeys.remove(port);
+			membershipNode.stop();
+			ec2Clients.remove(port).close();
+		}
+	}
+
+	/**
+	 * Creates the node for the configuration of its first subscriber, which listens on all of the local addresses
+	 * @param advertisedAddress	The address of this node that the other members connect and replicate to
+	 * @param memberEndpoints	The members of the security group
+	 */
+	protected abstract MembershipNode createMembershipNode(AwsDiscoveryServiceConfig discoveryServiceConfig,
+			String advertisedAddress, MemberEndpoints memberEndpoints);
+
+	/**
+	 * The key of {@link SharedDiscoveryServiceRegistry#getKey(AwsDiscoveryServiceConfig)} followed by the settings
+	 * of the node
+	 */
+	static List<Object> getKey(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		List<Object> key = new ArrayList<>(SharedDiscoveryServiceRegistry.getKey(discoveryServiceConfig));
+		key.addAll(Arrays.<Object>asList(discoveryServiceConfig.getGossipAddress(),
+				discoveryServiceConfig.getGossipInterval(), discoveryServiceConfig.getGossipFailureTimeout(),
+				discoveryServiceConfig.getGossipReconcileInterval(), discoveryServiceConfig.getLeaderTimeout()));
+		return key;
+	}
+
+	private static String getAdvertisedAddress(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		if (discoveryServiceConfig.getGossipAddress() != null) {
+			return discoveryServiceConfig.getGossipAddress();
+		}
+
+		try {
+			return InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException("Could not find the local host address, set the gossip address", e);
+		}
+	}
+
+}
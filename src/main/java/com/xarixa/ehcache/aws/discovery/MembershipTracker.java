@@ -0,0 +1,160 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the members found by each discovery run and works out what changed since the previous run, once for
+ * all of the subscribers. The version goes up by one with every change, starting from 1 for the first run.
+ * <p>
+ * Members are added as soon as they are found, but one that is no longer found is only removed once it has been
+ * missing for the configured number of consecutive runs and time, so that a single partial response does not
+ * drop peers which the next run brings back. A run that finds no members at all is taken to have failed and
+ * never removes any, and if it is the first run there is no membership until a run finds some.
+ * <p>
+ * This is only used while holding the lock of the discovery service's subscribers, so it is not thread safe.
+ *
+ * @author Fabric WorldWide
+ */
+class MembershipTracker<T> {
+	private final int removalRounds;
+	private final long removalDelayMs;
+	private Set<T> members;
+	private long version;
+	/**
+	 * The members which were not found by the last runs, as the number of runs and the time at which they were
+	 * first missing
+	 */
+	private final Map<T,long[]> missingMembers = new HashMap<>();
+
+	/**
+	 * Removes members as soon as they are missing
+	 */
+	MembershipTracker() {
+		this(1, 0);
+	}
+
+	/**
+	 * @param removalRounds		Consecutive runs a member must be missing from before it is removed, at least 1
+	 * @param removalDelayMs	Time a member must be missing for before it is removed
+	 */
+	MembershipTracker(int removalRounds, long removalDelayMs) {
+		this.removalRounds = removalRounds;
+		this.removalDelayMs = removalDelayMs;
+	}
+
+	/**
+	 * Records the members found by a run
+	 * @return What changed, the first run which finds members is a full membership
+	 */
+	Change<T> update(Set<T> foundMembers) {
+		return update(foundMembers, System.currentTimeMillis());
+	}
+
+	Change<T> update(Set<T> foundMembers, long now) {
+		if (members == null) {
+			if (foundMembers.isEmpty()) {
+				return new Change<T>(0, 0, Collections.<T>emptySet(), Collections.<T>emptySet());
+			}
+			members = Collections.unmodifiableSet(new HashSet<>(foundMembers));
+			version = 1;
+			return getFullMembership();
+		}
+		if (foundMembers.isEmpty()) {
+			return new Change<T>(version, version, Collections.<T>emptySet(), Collections.<T>emptySet());
+		}
+
+		Set<T> newMembers = new HashSet<>(foundMembers);
+		missingMembers.keySet().removeAll(foundMembers);
+		for (T member : members) {
+			if (!foundMembers.contains(member) && !isRemoved(member, now)) {
+				newMembers.add(member);
+			}
+		}
+		newMembers = Collections.unmodifiableSet(newMembers);
+
+		Set<T> added = new HashSet<>(newMembers);
+		added.removeAll(members);
+		Set<T> removed = new HashSet<>(members);
+		removed.removeAll(newMembers);
+
+		long fromVersion = version;
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			members = newMembers;
+			version++;
+		}
+		return new Change<T>(fromVersion, version, added, removed);
+	}
+
+	/**
+	 * Counts another run that the member is missing from
+	 * @return true once it has been missing for long enough to be removed
+	 */
+	private boolean isRemoved(T member, long now) {
+		long[] missing = missingMembers.get(member);
+		if (missing == null) {
+			missing = new long[] {0, now};
+			missingMembers.put(member, missing);
+		}
+		missing[0]++;
+
+		if (missing[0] >= removalRounds && now - missing[1] >= removalDelayMs) {
+			missingMembers.remove(member);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The time at which the first of the missing members is due to be removed if it is still missing, or
+	 * 			Long.MAX_VALUE if none are missing
+	 */
+	long getNextRemovalTime() {
+		long nextRemovalTime = Long.MAX_VALUE;
+		for (long[] missing : missingMembers.values()) {
+			nextRemovalTime = Math.min(nextRemovalTime, missing[1] + removalDelayMs);
+		}
+		return nextRemovalTime;
+	}
+
+	/**
+	 * @return The current members as a change from version 0, or null if there has not been a run yet
+	 */
+	Change<T> getFullMembership() {
+		return members == null ? null : new Change<T>(0, version, members, Collections.<T>emptySet());
+	}
+
+	/**
+	 * Forgets the members, so that the next run is a full membership again
+	 */
+	void reset() {
+		members = null;
+		version = 0;
+		missingMembers.clear();
+	}
+
+	static class Change<T> {
+		final long fromVersion;
+		final long toVersion;
+		final Set<T> added;
+		final Set<T> removed;
+
+		Change(long fromVersion, long toVersion, Set<T> added, Set<T> removed) {
+			this.fromVersion = fromVersion;
+			this.toVersion = toVersion;
+			this.added = added;
+			this.removed = removed;
+		}
+
+		/**
+		 * @return true if the members changed, which a full membership always counts as
+		 */
+		boolean isChanged() {
+			return fromVersion != toVersion;
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.xarixa.ehcache.aws.discovery;
+
+/**
+ * Which address of a discovered instance its peers replicate to
+ *
+ * @author Fabric WorldWide
+ */
+public enum PeerAddressPolicy {
+	/**
+	 * The private address, for peers in the same VPC which then replicate over the local network
+	 */
+	PRIVATE {
+		@Override
+		String selectAddress(String privateAddress, String publicAddress) {
+			return privateAddress;
+		}
+	},
+
+	/**
+	 * The public address, instances without one are skipped
+	 */
+	PUBLIC {
+		@Override
+		String selectAddress(String privateAddress, String publicAddress) {
+			return publicAddress;
+		}
+	},
+
+	/**
+	 * The private address, or the public address of instances that do not have a private one
+	 */
+	PRIVATE_WITH_PUBLIC_FALLBACK {
+		@Override
+		String selectAddress(String privateAddress, String publicAddress) {
+			return privateAddress != null ? privateAddress : publicAddress;
+		}
+	};
+
+	/**
+	 * @param privateAddress	The private address of the instance, null if it has none
+	 * @param publicAddress		The public address of the instance, null if it has none
+	 * @return The address to use, or null if the instance should be skipped
+	 */
+	abstract String selectAddress(String privateAddress, String publicAddress);
+
+}
@@ -0,0 +1,52 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The time until the next discovery run. This doubles each time a run finds the membership unchanged, up to
+ * the maximum, and drops back to the minimum as soon as a run finds a change so that scaling is followed
+ * quickly. Every delay is jittered so that nodes which started together do not keep polling together.
+ * <p>
+ * This is only used from the discovery runs, which never overlap, so it is not thread safe.
+ *
+ * @author Fabric WorldWide
+ */
+class RefreshInterval {
+	/**
+	 * The fraction by which a delay is randomly lengthened or shortened
+	 */
+	static final double JITTER = 0.1;
+
+	private final long minIntervalMs;
+	private final long maxIntervalMs;
+	private long intervalMs;
+
+	RefreshInterval(long minIntervalMs, long maxIntervalMs) {
+		this.minIntervalMs = minIntervalMs;
+		this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+		this.intervalMs = minIntervalMs;
+	}
+
+	/**
+	 * A random delay of up to the jitter of the minimum interval, so that the first runs of nodes which
+	 * started together are spread out while discovery still starts almost straight away
+	 */
+	long getInitialDelay() {
+		return (long)(ThreadLocalRandom.current().nextDouble() * minIntervalMs * JITTER);
+	}
+
+	/**
+	 * @param changed	true if the run that has just finished found a change in the membership
+	 * @return The jittered delay in ms until the next run
+	 */
+	long next(boolean changed) {
+		intervalMs = changed ? minIntervalMs : Math.min(maxIntervalMs, intervalMs * 2);
+		double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return Math.max(1, (long)(intervalMs * jitter));
+	}
+
+	long getIntervalMs() {
+		return intervalMs;
+	}
+
+}
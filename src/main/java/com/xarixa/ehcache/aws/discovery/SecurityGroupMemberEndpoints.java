@@ -0,0 +1,30 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The members of the security group, all of which are expected to listen on the same membership port. This is
+ * the only EC2 call that a {@link MembershipNode} makes.
+ *
+ * @author Fabric WorldWide
+ */
+class SecurityGroupMemberEndpoints implements MemberEndpoints {
+	private final SecurityGroupQuery securityGroupQuery;
+	private final int port;
+
+	SecurityGroupMemberEndpoints(SecurityGroupQuery securityGroupQuery, int port) {
+		this.securityGroupQuery = securityGroupQuery;
+		this.port = port;
+	}
+
+	@Override
+	public Set<String> getEndpoints() {
+		Set<String> endpoints = new HashSet<>();
+		for (String address : securityGroupQuery.getAddresses()) {
+			endpoints.add(address + ':' + port);
+		}
+		return endpoints;
+	}
+
+}
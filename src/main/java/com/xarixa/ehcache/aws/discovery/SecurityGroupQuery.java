@@ -0,0 +1,128 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import static com.google.common.base.Predicates.and;
+import static com.google.common.collect.Iterables.filter;
+import static com.google.common.collect.Iterables.getFirst;
+import static org.jclouds.compute.predicates.NodePredicates.inGroup;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.predicates.NodePredicates;
+import org.jclouds.ec2.EC2Api;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.features.InstanceApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Asks EC2 for the addresses of the members of a security group, as configured by the
+ * {@link AwsDiscoveryServiceConfig#getEc2QueryMode() query mode} and the
+ * {@link AwsDiscoveryServiceConfig#getPeerAddressPolicy() peer address policy}
+ *
+ * @author Fabric WorldWide
+ */
+class SecurityGroupQuery {
+	private static final Logger LOG = LoggerFactory.getLogger(SecurityGroupQuery.class.getName());
+	/**
+	 * The prefix of the name of the security group that jclouds creates for the nodes of a group, by which it
+	 * finds the group of a node
+	 */
+	static final String JCLOUDS_GROUP_PREFIX = "jclouds#";
+	private final String securityGroup;
+	private final Ec2Client ec2Client;
+	private final AwsDiscoveryServiceConfig discoveryServiceConfig;
+
+	SecurityGroupQuery(AwsDiscoveryServiceConfig discoveryServiceConfig, Ec2Client ec2Client) {
+		this.securityGroup = discoveryServiceConfig.getSecurityGroup();
+		this.discoveryServiceConfig = discoveryServiceConfig;
+		this.ec2Client = ec2Client;
+	}
+
+	/**
+	 * Retrieves the addresses of all of the members of the AWS security group
+	 * @return
+	 */
+	Set<String> getAddresses() {
+		if (discoveryServiceConfig.getEc2QueryMode() == Ec2QueryMode.FILTERED) {
+			return getAddressesFromFilteredQuery();
+		}
+		return getAddressesFromAllNodes();
+	}
+
+	/**
+	 * Asks EC2 for the running instances in the security group only, region by region. Each reservation is
+	 * read as it is iterated so nothing but the addresses is kept.
+	 */
+	private Set<String> getAddressesFromFilteredQuery() {
+		EC2Api ec2Api = ec2Client.getEc2Api();
+		InstanceApi instanceApi = ec2Api.getInstanceApi().get();
+		Multimap<String,String> filter = getSecurityGroupFilter(securityGroup);
+		Set<String> addresses = new HashSet<String>();
+
+		for (String region : ec2Api.getConfiguredRegions()) {
+			for (Reservation<? extends RunningInstance> reservation :
+					instanceApi.describeInstancesInRegionWithFilter(region, filter)) {
+				for (RunningInstance instance : reservation) {
+					addAddress(addresses, instance.getId(), instance.getPrivateIpAddress(), instance.getIpAddress());
+				}
+			}
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * The EC2 filter for the running instances of a jclouds group, which are those in the security group that
+	 * jclouds named after it, so that the filtered query finds the same instances as listing all of the nodes
+	 */
+	static Multimap<String,String> getSecurityGroupFilter(String securityGroup) {
+		return ImmutableMultimap.of(
+				"instance.group-name", JCLOUDS_GROUP_PREFIX + securityGroup,
+				"instance-state-name", "running");
+	}
+
+	/**
+	 * Lists every node in the account and keeps the running ones in the group
+	 */
+	private Set<String> getAddressesFromAllNodes() {
+		// Create a query to list all of the nodes in this security group
+		Iterable<? extends NodeMetadata> nodesInSecurityGroup =
+				filter(ec2Client.getComputeService().listNodesDetailsMatching(
+						NodePredicates.all()), and(inGroup(securityGroup), and(NodePredicates.RUNNING)));
+		Iterator<? extends NodeMetadata> nodesInSecurityGroupIterator = nodesInSecurityGroup.iterator();
+		Set<String> addresses = new HashSet<String>();
+
+		while (nodesInSecurityGroupIterator.hasNext()) {
+			NodeMetadata nodeMetadata = nodesInSecurityGroupIterator.next();
+			
+			// Pick the first private and public IPs and add the one that the policy selects to the list
+			addAddress(addresses, nodeMetadata.getId(),
+					getFirst(nodeMetadata.getPrivateAddresses(), null), getFirst(nodeMetadata.getPublicAddresses(), null));
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * Adds the address of an instance that the configured {@link PeerAddressPolicy} selects
+	 */
+	private void addAddress(Set<String> addresses, String instanceId,
+			String privateAddress, String publicAddress) {
+		PeerAddressPolicy peerAddressPolicy = discoveryServiceConfig.getPeerAddressPolicy();
+		String address = peerAddressPolicy.selectAddress(privateAddress, publicAddress);
+		if (address != null) {
+			addresses.add(address);
+		} else {
+			LOG.warn("No available IP address for instance '{}' with the {} address policy, skipping this instance",
+					instanceId, peerAddressPolicy);
+		}
+	}
+
+}
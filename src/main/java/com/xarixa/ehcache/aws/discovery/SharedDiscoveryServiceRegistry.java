@@ -0,0 +1,119 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * Keeps one {@link AwsSecurityGroupAwareDiscoveryService} per security group, credentials, query, refresh and
+ * removal settings, so that providers in the same JVM which discover the same group in the same way share a single
+ * poll and EC2 context. A service is started by its first subscriber and stopped and dropped when its last
+ * subscriber leaves. The services of a set of credentials share an {@link Ec2Client}, which is
+ * closed a grace period after the last of them is stopped unless another is started in the meantime.
+ *
+ * @author Fabric WorldWide
+ */
+class SharedDiscoveryServiceRegistry implements DiscoverySubscriptionRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(SharedDiscoveryServiceRegistry.class.getName());
+	private final ScheduledExecutorService discoveryServiceExecutor;
+	private final long ec2ClientCloseDelayMs;
+	private final Map<List<Object>,AwsSecurityGroupAwareDiscoveryService> discoveryServices = new HashMap<>();
+	private final Map<List<String>,Ec2Client> ec2Clients = new HashMap<>();
+
+	SharedDiscoveryServiceRegistry(ScheduledExecutorService discoveryServiceExecutor) {
+		this(discoveryServiceExecutor, Ec2Client.CLOSE_DELAY_MS);
+	}
+
+	/**
+	 * @param ec2ClientCloseDelayMs	The time in ms that the client of a set of credentials is kept once no service
+	 * 								uses it
+	 */
+	SharedDiscoveryServiceRegistry(ScheduledExecutorService discoveryServiceExecutor, long ec2ClientCloseDelayMs) {
+		this.discoveryServiceExecutor = discoveryServiceExecutor;
+		this.ec2ClientCloseDelayMs = ec2ClientCloseDelayMs;
+	}
+
+	@Override
+	public synchronized void subscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		List<Object> key = getKey(discoveryServiceConfig);
+		AwsSecurityGroupAwareDiscoveryService discoveryService = discoveryServices.get(key);
+		if (discoveryService == null) {
+			discoveryService = new AwsSecurityGroupAwareDiscoveryService(discoveryServiceExecutor, discoveryServiceConfig,
+					getEc2Client(discoveryServiceConfig));
+			discoveryServices.put(key, discoveryService);
+		}
+
+		if (discoveryService.subscribe(updateableCacheManagerPeerProvider, discoveryServiceConfig.getRmiListenerPort())) {
+			LOG.debug("Starting discovery of security group '{}'", discoveryServiceConfig.getSecurityGroup());
+			discoveryService.startDiscoveryService();
+		}
+	}
+
+	@Override
+	public synchronized void unsubscribe(UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		List<Object> key = getKey(discoveryServiceConfig);
+		AwsSecurityGroupAwareDiscoveryService discoveryService = discoveryServices.get(key);
+		if (discoveryService != null && discoveryService.unsubscribe(updateableCacheManagerPeerProvider)) {
+			LOG.debug("Stopping discovery of security group '{}'", discoveryServiceConfig.getSecurityGroup());
+			discoveryServices.remove(key);
+			discoveryService.stopDiscoveryService();
+			closeUnusedEc2Client(discoveryServiceConfig);
+		}
+	}
+
+	private Ec2Client getEc2Client(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		List<String> credentials = Arrays.asList(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey());
+		Ec2Client ec2Client = ec2Clients.get(credentials);
+		if (ec2Client == null) {
+			ec2Client = createEc2Client(discoveryServiceConfig);
+			ec2Clients.put(credentials, ec2Client);
+		} else {
+			ec2Client.cancelClose();
+		}
+		return ec2Client;
+	}
+
+	/**
+	 * Closes the client of the credentials of a service which has been stopped once the grace period has passed,
+	 * unless another service uses them. The client is kept, as it is built again if it is used after it closed.
+	 */
+	private void closeUnusedEc2Client(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		List<String> credentials = Arrays.asList(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey());
+		for (List<Object> key : discoveryServices.keySet()) {
+			if (credentials.equals(key.subList(1, 3))) {
+				return;
+			}
+		}
+
+		Ec2Client ec2Client = ec2Clients.get(credentials);
+		if (ec2Client != null) {
+			ec2Client.closeLater(discoveryServiceExecutor, ec2ClientCloseDelayMs);
+		}
+	}
+
+	Ec2Client createEc2Client(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		return new Ec2Client(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey());
+	}
+
+	/**
+	 * Everything that decides what a poll returns and when, apart from the RMI listener port which is added per
+	 * subscriber. The credentials are the second and third elements.
+	 */
+	static List<Object> getKey(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		return Arrays.<Object>asList(discoveryServiceConfig.getSecurityGroup(), discoveryServiceConfig.getAccessKey(),
+				discoveryServiceConfig.getSecretKey(), discoveryServiceConfig.getEc2QueryMode(),
+				discoveryServiceConfig.getPeerAddressPolicy(), discoveryServiceConfig.getSecurityGroupRefreshInterval(),
+				discoveryServiceConfig.getSecurityGroupMaxRefreshInterval(), discoveryServiceConfig.getPeerRemovalRounds(),
+				discoveryServiceConfig.getPeerRemovalDelay());
+	}
+
+}
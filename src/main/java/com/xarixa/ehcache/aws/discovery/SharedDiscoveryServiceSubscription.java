@@ -0,0 +1,34 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+/**
+ * The {@link DiscoveryService} of a single provider, which subscribes it to the shared discovery service of its
+ * configuration on start and unsubscribes it on stop
+ *
+ * @author Fabric WorldWide
+ */
+class SharedDiscoveryServiceSubscription implements DiscoveryService {
+	private final DiscoverySubscriptionRegistry registry;
+	private final UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider;
+	private final AwsDiscoveryServiceConfig discoveryServiceConfig;
+
+	SharedDiscoveryServiceSubscription(DiscoverySubscriptionRegistry registry,
+			UpdateableHostBasedCacheManagerPeerProvider updateableCacheManagerPeerProvider,
+			AwsDiscoveryServiceConfig discoveryServiceConfig) {
+		this.registry = registry;
+		this.updateableCacheManagerPeerProvider = updateableCacheManagerPeerProvider;
+		this.discoveryServiceConfig = discoveryServiceConfig;
+	}
+
+	@Override
+	public void startDiscoveryService() {
+		registry.subscribe(updateableCacheManagerPeerProvider, discoveryServiceConfig);
+	}
+
+	@Override
+	public void stopDiscoveryService() {
+		registry.unsubscribe(updateableCacheManagerPeerProvider, discoveryServiceConfig);
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.xarixa.ehcache.aws.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Operational metrics of a peer provider and its discovery service, exposed through the provider MBean.
+ * The counters which are updated for every replicated event are striped, everything else is updated at most
+ * a few times per discovery run.
+ *
+ * @author Fabric WorldWide
+ */
+public class CachePeerProviderMetrics {
+	private final LatencyHistogram discoveryRunDuration = new LatencyHistogram();
+	private final AtomicLong discoveryFailures = new AtomicLong();
+	private final LatencyHistogram ec2CallLatency = new LatencyHistogram();
+	private final AtomicLong ec2CallErrors = new AtomicLong();
+
+	private final AtomicLong membershipUpdates = new AtomicLong();
+	private final AtomicLong peersAdded = new AtomicLong();
+	private final AtomicLong peersRemoved = new AtomicLong();
+	private volatile int peersAddedLastUpdate;
+	private volatile int peersRemovedLastUpdate;
+	private volatile long lastMembershipUpdate;
+
+	private final LatencyHistogram stubLookupLatency = new LatencyHistogram();
+	private final AtomicLong stubLookupSuccesses = new AtomicLong();
+	private final AtomicLong stubLookupFailures = new AtomicLong();
+
+	private final StripedCounter listRemoteCachePeersHits = new StripedCounter();
+	private final StripedCounter listRemoteCachePeersMisses = new StripedCounter();
+
+	/**
+	 * Records a run of the discovery service
+	 * @param nanos		The duration of the run
+	 * @param successful	false if the run failed and the membership was not updated
+	 */
+	public void recordDiscoveryRun(long nanos, boolean successful) {
+		discoveryRunDuration.record(nanos);
+		if (!successful) {
+			discoveryFailures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a call to the EC2 API
+	 * @param nanos		The latency of the call
+	 * @param successful	false if the call failed
+	 */
+	public void recordEc2Call(long nanos, boolean successful) {
+		ec2CallLatency.record(nanos);
+		if (!successful) {
+			ec2CallErrors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a membership update from discovery, which counts as a successful discovery
+	 * @param added		Number of peers that joined
+	 * @param removed	Number of peers that departed
+	 */
+	public void recordMembershipUpdate(int added, int removed) {
+		membershipUpdates.incrementAndGet();
+		peersAdded.addAndGet(added);
+		peersRemoved.addAndGet(removed);
+		peersAddedLastUpdate = added;
+		peersRemovedLastUpdate = removed;
+		lastMembershipUpdate = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a lookup of a cache peer stub
+	 * @param nanos		The latency of the lookup
+	 * @param successful	false if the lookup failed
+	 */
+	public void recordStubLookup(long nanos, boolean successful) {
+		stubLookupLatency.record(nanos);
+		if (successful) {
+			stubLookupSuccesses.incrementAndGet();
+		} else {
+			stubLookupFailures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records whether the list of cache peers was already resolved when it was asked for
+	 */
+	public void recordListRemoteCachePeers(boolean hit) {
+		if (hit) {
+			listRemoteCachePeersHits.increment();
+		} else {
+			listRemoteCachePeersMisses.increment();
+		}
+	}
+
+	/**
+	 * @return The count, mean, percentiles and maximum of the discovery run durations in ms
+	 */
+	public Map<String,Long> getDiscoveryRunDuration() {
+		return discoveryRunDuration.getSummary(TimeUnit.MILLISECONDS);
+	}
+
+	public long getDiscoveryFailureCount() {
+		return discoveryFailures.get();
+	}
+
+	/**
+	 * @return The count, mean, percentiles and maximum of the EC2 call latencies in ms
+	 */
+	public Map<String,Long> getEc2CallLatency() {
+		return ec2CallLatency.getSummary(TimeUnit.MILLISECONDS);
+	}
+
+	public long getEc2CallErrorCount() {
+		return ec2CallErrors.get();
+	}
+
+	public long getMembershipUpdateCount() {
+		return membershipUpdates.get();
+	}
+
+	public long getPeersAddedCount() {
+		return peersAdded.get();
+	}
+
+	public long getPeersRemovedCount() {
+		return peersRemoved.get();
+	}
+
+	public int getPeersAddedLastUpdate() {
+		return peersAddedLastUpdate;
+	}
+
+	public int getPeersRemovedLastUpdate() {
+		return peersRemovedLastUpdate;
+	}
+
+	/**
+	 * @return The time in ms since discovery last updated the membership, or -1 if it never has
+	 */
+	public long getTimeSinceLastSuccessfulDiscovery() {
+		long lastUpdate = lastMembershipUpdate;
+		return lastUpdate == 0 ? -1 : System.currentTimeMillis() - lastUpdate;
+	}
+
+	/**
+	 * @return The count, mean, percentiles and maximum of the stub lookup latencies in ms
+	 */
+	public Map<String,Long> getStubLookupLatency() {
+		return stubLookupLatency.getSummary(TimeUnit.MILLISECONDS);
+	}
+
+	public long getStubLookupSuccessCount() {
+		return stubLookupSuccesses.get();
+	}
+
+	public long getStubLookupFailureCount() {
+		return stubLookupFailures.get();
+	}
+
+	public long getListRemoteCachePeersHitCount() {
+		return listRemoteCachePeersHits.get();
+	}
+
+	public long getListRemoteCachePeersMissCount() {
+		return listRemoteCachePeersMisses.get();
+	}
+
+	/**
+	 * @return The fraction of the calls that found the list already resolved, or 0 if there have not been any
+	 */
+	public double getListRemoteCachePeersHitRatio() {
+		long hits = listRemoteCachePeersHits.get();
+		long total = hits + listRemoteCachePeersMisses.get();
+		return total == 0 ? 0 : hits / (double)total;
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.xarixa.ehcache.aws.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The compression of the replication payloads exchanged with a peer, to weigh the bytes saved against the CPU
+ * time spent saving them. The bytes are counted for every payload that was large enough to compress, as they
+ * would have been and as they went over the wire, so payloads which did not compress count as no saving.
+ * The times are the CPU time of the compressing thread where the JVM measures it, and elapsed time otherwise.
+ *
+ * @author Fabric WorldWide
+ */
+public class CompressionMetrics {
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	private static final boolean THREAD_CPU_TIME_ENABLED =
+			THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+
+	private final AtomicLong uncompressedBytes = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong incompressiblePayloads = new AtomicLong();
+	private final LatencyHistogram compressionTime = new LatencyHistogram();
+	private final LatencyHistogram decompressionTime = new LatencyHistogram();
+
+	/**
+	 * @return The CPU time of the current thread in ns if the JVM measures it, otherwise {@link System#nanoTime()}
+	 */
+	public static long currentThreadTimeNanos() {
+		return THREAD_CPU_TIME_ENABLED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * Records the compression of a payload which is to be sent
+	 * @param uncompressedLength	The length of the payload
+	 * @param sentLength			The length sent, which is the uncompressed length if it did not compress
+	 * @param nanos					The time spent compressing
+	 */
+	public void recordCompression(int uncompressedLength, int sentLength, long nanos) {
+		uncompressedBytes.addAndGet(uncompressedLength);
+		wireBytes.addAndGet(sentLength);
+		if (sentLength >= uncompressedLength) {
+			incompressiblePayloads.incrementAndGet();
+		}
+		compressionTime.record(nanos);
+	}
+
+	/**
+	 * Records the decompression of a payload which was received
+	 * @param receivedLength		The length received
+	 * @param uncompressedLength	The length of the payload
+	 * @param nanos					The time spent decompressing
+	 */
+	public void recordDecompression(int receivedLength, int uncompressedLength, long nanos) {
+		uncompressedBytes.addAndGet(uncompressedLength);
+		wireBytes.addAndGet(receivedLength);
+		decompressionTime.record(nanos);
+	}
+
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	public long getBytesSaved() {
+		return uncompressedBytes.get() - wireBytes.get();
+	}
+
+	/**
+	 * @return The wire bytes as a fraction of the uncompressed bytes, or 1 if nothing has been compressed
+	 */
+	public double getCompressionRatio() {
+		long uncompressed = uncompressedBytes.get();
+		return uncompressed == 0 ? 1 : wireBytes.get() / (double)uncompressed;
+	}
+
+	/**
+	 * @return The number of payloads which were sent uncompressed as they did not get any smaller
+	 */
+	public long getIncompressiblePayloadCount() {
+		return incompressiblePayloads.get();
+	}
+
+	/**
+	 * @return The count, mean, percentiles and maximum of the time spent compressing a payload in microseconds
+	 */
+	public Map<String,Long> getCompressionTime() {
+		return compressionTime.getSummary(TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * @return The count, mean, percentiles and maximum of the time spent decompressing a payload in microseconds
+	 */
+	public Map<String,Long> getDecompressionTime() {
+		return decompressionTime.getSummary(TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "CompressionMetrics[ratio=" + getCompressionRatio() + ", bytesSaved=" + getBytesSaved() +
+				", compressionTime=" + getCompressionTime() + ", decompressionTime=" + getDecompressionTime() + "]";
+	}
+
+}
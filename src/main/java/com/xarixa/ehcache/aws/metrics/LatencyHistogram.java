@@ -0,0 +1,89 @@
+package com.xarixa.ehcache.aws.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies with a bucket per power of two nanoseconds. This keeps a fixed, small
+ * amount of state however many values are recorded, at the cost of the percentiles being the upper bound of
+ * the bucket that they fall in, i.e. within a factor of two. That is enough to tell a 2ms lookup from a 2s one.
+ *
+ * @author Fabric WorldWide
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = Long.SIZE;
+
+	/**
+	 * Bucket i holds the values from 2^(i-1) up to 2^i - 1 ns, bucket 0 holds zero
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos	The latency in ns, negative values are recorded as zero
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long currentMax;
+		while (nanos > (currentMax = maxNanos.get()) && !maxNanos.compareAndSet(currentMax, nanos)) {
+			// Retry until the maximum has been raised or another thread raised it further
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the upper bound of the bucket in which the percentile falls
+	 * @param percentile	Between 0 and 100
+	 * @return The latency in ns, or 0 if nothing has been recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(maxNanos.get(), i == 0 ? 0 : (1L << i) - 1);
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * A summary for JMX, with the count and the latencies in the given unit
+	 * @return The count, mean, 50th, 90th and 99th percentiles and maximum by name
+	 */
+	public Map<String,Long> getSummary(TimeUnit unit) {
+		long currentCount = count.get();
+		Map<String,Long> summary = new LinkedHashMap<>();
+		summary.put("count", currentCount);
+		summary.put("mean", currentCount == 0 ? 0 : unit.convert(totalNanos.get() / currentCount, TimeUnit.NANOSECONDS));
+		summary.put("p50", unit.convert(getPercentileNanos(50), TimeUnit.NANOSECONDS));
+		summary.put("p90", unit.convert(getPercentileNanos(90), TimeUnit.NANOSECONDS));
+		summary.put("p99", unit.convert(getPercentileNanos(99), TimeUnit.NANOSECONDS));
+		summary.put("max", unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS));
+		return summary;
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.xarixa.ehcache.aws.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for the hot paths which spreads the increments over a number of cells chosen by the thread, so that
+ * threads counting at the same time do not contend on a single value. Each cell is padded out to its own cache
+ * line. Reading the count sums the cells, which is only done when the metrics are read.
+ *
+ * @author Fabric WorldWide
+ */
+public class StripedCounter {
+	/**
+	 * Longs per cache line, the cells are spaced this far apart
+	 */
+	private static final int PADDING = 8;
+
+	/**
+	 * A power of two of at least the number of processors
+	 */
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	public void increment() {
+		cells.getAndIncrement(cellIndex());
+	}
+
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	private static int cellIndex() {
+		long threadId = Thread.currentThread().getId();
+		int hash = (int)(threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+	}
+
+}
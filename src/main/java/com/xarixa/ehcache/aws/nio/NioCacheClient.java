@@ -0,0 +1,267 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+
+/**
+ * Makes requests to the peers over one persistent connection per peer, which is shared by all of the caches
+ * and all of the threads replicating to that peer. Requests are matched up with their responses by id, so any
+ * number of them can be outstanding on a connection at a time. All of the connections are served by a single
+ * event loop thread, the threads making requests wait for their responses.
+ * <p>
+ * A connection is opened on the first request to a peer and is reopened by the next request after it fails,
+ * unless it failed within the retry backoff, in which case requests fail straight away.
+ * <p>
+ * Requests are compressed as configured, and the responses are decompressed on the threads which made them,
+ * keeping the work off the event loop. The compression is measured per peer.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheClient {
+	private static final Logger LOG = LoggerFactory.getLogger(NioCacheClient.class.getName());
+	private static final AtomicLong CLIENT_COUNT = new AtomicLong();
+
+	private final NioEventLoop eventLoop;
+	private final long requestTimeoutMs;
+	private final long retryBackoffMs;
+	private final PayloadCompression compression;
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final ConcurrentMap<CachePeerHost, ClientConnection> connections = new ConcurrentHashMap<>();
+
+	/**
+	 * The time in ms at which a connection to each peer last failed
+	 */
+	private final ConcurrentMap<CachePeerHost, Long> connectionFailures = new ConcurrentHashMap<>();
+	private final ConcurrentMap<CachePeerHost, CompressionMetrics> compressionMetrics = new ConcurrentHashMap<>();
+
+	/**
+	 * @param requestTimeoutMs	How long to wait for the response to a request
+	 * @param retryBackoffMs	How long to fail requests to a peer for after its connection failed
+	 * @param compression		The compression of the requests
+	 * @throws IOException		If the selector could not be opened
+	 */
+	public NioCacheClient(long requestTimeoutMs, long retryBackoffMs, PayloadCompression compression) throws IOException {
+		this.eventLoop = new NioEventLoop("AwsNioCacheClientThread-" + CLIENT_COUNT.incrementAndGet());
+		this.requestTimeoutMs = requestTimeoutMs;
+		this.retryBackoffMs = retryBackoffMs;
+		this.compression = compression;
+	}
+
+	/**
+	 * Makes a request and waits for its response
+	 * @return The payload of the response
+	 * @throws RemoteException	If the payload is too long for a frame, or the peer could not be reached, did not
+	 * 							respond in time or failed the request
+	 */
+	byte[] request(CachePeerHost host, byte type, byte[] payload) throws RemoteException {
+		if (payload.length > NioFrames.MAX_PAYLOAD_LENGTH) {
+			throw new RemoteException("The request of " + payload.length + " bytes to " + host +
+					" is longer than the longest payload of " + NioFrames.MAX_PAYLOAD_LENGTH + " bytes");
+		}
+
+		CompressionMetrics metrics = getCompressionMetrics(host);
+		byte[] compressedPayload;
+		try {
+			compressedPayload = compression.compress(payload, metrics);
+		} catch (IOException e) {
+			throw new RemoteException("Could not compress a request to " + host, e);
+		}
+
+		ClientConnection connection = getConnection(host);
+		long requestId = nextRequestId.incrementAndGet();
+		PendingResponse response = new PendingResponse();
+		connection.pendingResponses.put(requestId, response);
+		try {
+			ByteBuffer frame = compressedPayload == null ? NioFrames.frame(type, requestId, payload) :
+					NioFrames.frame((byte)(type | NioFrames.COMPRESSED_FLAG), requestId, compressedPayload);
+			if (!connection.connection.send(frame) || connection.connection.isClosed()) {
+				// Pending responses are failed when the connection closes, which may have been before this was added
+				response.fail("The connection to " + host + " closed");
+			}
+
+			if (!response.await(requestTimeoutMs)) {
+				throw new RemoteException("No response from " + host + " within " + requestTimeoutMs + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted waiting for a response from " + host, e);
+		} finally {
+			connection.pendingResponses.remove(requestId);
+		}
+
+		if (response.error != null) {
+			throw new RemoteException(response.error);
+		}
+		if (!response.compressed) {
+			return response.payload;
+		}
+
+		try {
+			return PayloadCompression.decompress(response.payload, metrics);
+		} catch (IOException e) {
+			throw new RemoteException("Could not decompress the response from " + host, e);
+		}
+	}
+
+	/**
+	 * @return The compression of the requests to and responses from each peer
+	 */
+	public Map<CachePeerHost, CompressionMetrics> getCompressionMetrics() {
+		return Collections.unmodifiableMap(compressionMetrics);
+	}
+
+	/**
+	 * Closes the connection to a peer which has departed
+	 */
+	public void disconnect(CachePeerHost host) {
+		ClientConnection connection = connections.remove(host);
+		if (connection != null) {
+			connection.connection.close();
+		}
+		connectionFailures.remove(host);
+		compressionMetrics.remove(host);
+	}
+
+	/**
+	 * Closes all of the connections and stops the event loop
+	 */
+	public void close() {
+		eventLoop.close();
+		connections.clear();
+	}
+
+	private CompressionMetrics getCompressionMetrics(CachePeerHost host) {
+		CompressionMetrics metrics = compressionMetrics.get(host);
+		if (metrics == null) {
+			CompressionMetrics newMetrics = new CompressionMetrics();
+			metrics = compressionMetrics.putIfAbsent(host, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		return metrics;
+	}
+
+	private ClientConnection getConnection(CachePeerHost host) throws RemoteException {
+		ClientConnection connection = connections.get(host);
+		if (connection != null) {
+			return connection;
+		}
+
+		Long lastFailure = connectionFailures.get(host);
+		if (lastFailure != null && System.currentTimeMillis() - lastFailure < retryBackoffMs) {
+			throw new ConnectException("The connection to " + host + " failed less than " + retryBackoffMs + "ms ago");
+		}
+
+		synchronized (connections) {
+			connection = connections.get(host);
+			if (connection == null) {
+				connection = connect(host);
+				connections.put(host, connection);
+			}
+			return connection;
+		}
+	}
+
+	private ClientConnection connect(CachePeerHost host) throws RemoteException {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setKeepAlive(true);
+			channel.connect(new InetSocketAddress(host.getHostname(), host.getPort()));
+			LOG.debug("Connecting to cache peer {}", host);
+			return new ClientConnection(host, channel);
+		} catch (IOException e) {
+			connectionFailures.put(host, System.currentTimeMillis());
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException closeException) {
+					LOG.debug("Could not close the channel to {}", host, closeException);
+				}
+			}
+			throw new ConnectException("Could not connect to " + host, e);
+		}
+	}
+
+	private final class ClientConnection implements NioConnection.Listener {
+		private final CachePeerHost host;
+		private final NioConnection connection;
+		private final ConcurrentMap<Long, PendingResponse> pendingResponses = new ConcurrentHashMap<>();
+
+		private ClientConnection(CachePeerHost host, SocketChannel channel) {
+			this.host = host;
+			this.connection = new NioConnection(eventLoop, channel, this, "connection to cache peer " + host);
+		}
+
+		@Override
+		public void frameReceived(NioConnection connection, byte type, long requestId, byte[] payload) {
+			PendingResponse response = pendingResponses.get(requestId);
+			if (response == null) {
+				// Timed out
+				return;
+			}
+
+			if (type == NioFrames.ERROR_RESPONSE) {
+				response.fail(new String(payload, StandardCharsets.UTF_8));
+			} else {
+				response.complete(payload, (type & NioFrames.COMPRESSED_FLAG) != 0);
+			}
+		}
+
+		@Override
+		public void connectionClosed(NioConnection connection, IOException cause) {
+			connections.remove(host, this);
+			if (cause != null) {
+				LOG.debug("The connection to cache peer {} failed", host, cause);
+				connectionFailures.put(host, System.currentTimeMillis());
+			}
+			for (PendingResponse response : pendingResponses.values()) {
+				response.fail("The connection to " + host + " closed" + (cause == null ? "" : ": " + cause.getMessage()));
+			}
+		}
+	}
+
+	private static final class PendingResponse {
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private volatile byte[] payload;
+		private volatile boolean compressed;
+		private volatile String error;
+
+		void complete(byte[] payload, boolean compressed) {
+			this.payload = payload;
+			this.compressed = compressed;
+			completed.countDown();
+		}
+
+		void fail(String error) {
+			this.error = error;
+			completed.countDown();
+		}
+
+		boolean await(long timeoutMs) throws InterruptedException {
+			return completed.await(timeoutMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+}
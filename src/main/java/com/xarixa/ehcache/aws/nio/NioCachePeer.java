@@ -0,0 +1,152 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.ehcache.Element;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.distribution.EventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+
+/**
+ * A cache on a peer, reached through the {@link NioCacheClient}. This takes the place of the RMI stub, so that
+ * the replicators and bootstrap loaders work as they do over RMI, but there is nothing to look up: the name,
+ * GUID and URLs are known locally and everything else is a request over the shared connection to the peer.
+ * Failures surface as {@link RemoteException}s, as they would from a stub.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCachePeer implements CachePeer {
+	private final NioCacheClient client;
+	private final CachePeerHost host;
+	private final String cacheName;
+	private final String urlBase;
+
+	public NioCachePeer(NioCacheClient client, CachePeerHost host, String cacheName) {
+		this.client = client;
+		this.host = host;
+		this.cacheName = cacheName;
+		this.urlBase = "//" + host.getHostname() + ":" + host.getPort();
+	}
+
+	@Override
+	public void put(Element element) throws RemoteException {
+		List<RmiEventMessage> eventMessages = new ArrayList<>(1);
+		eventMessages.add(new RmiEventMessage(null, RmiEventMessage.RmiEventType.PUT, null, element));
+		send(eventMessages);
+	}
+
+	@Override
+	public boolean remove(Serializable key) throws RemoteException {
+		List<RmiEventMessage> eventMessages = new ArrayList<>(1);
+		eventMessages.add(new RmiEventMessage(null, RmiEventMessage.RmiEventType.REMOVE, key, null));
+		send(eventMessages);
+		return true;
+	}
+
+	@Override
+	public void removeAll() throws RemoteException {
+		List<RmiEventMessage> eventMessages = new ArrayList<>(1);
+		eventMessages.add(new RmiEventMessage(null, RmiEventMessage.RmiEventType.REMOVE_ALL, null, null));
+		send(eventMessages);
+	}
+
+	/**
+	 * Sends all of the events in one frame
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void send(List eventMessages) throws RemoteException {
+		NioFrames.PayloadWriter writer = new NioFrames.PayloadWriter();
+		try {
+			writer.writeUTF(cacheName);
+			writer.writeInt(eventMessages.size());
+			for (Object eventMessage : eventMessages) {
+				writeEvent(writer, (EventMessage)eventMessage);
+			}
+		} catch (IOException e) {
+			throw new RemoteException("Could not serialize the events for " + getUrl(), e);
+		}
+		client.request(host, NioFrames.SEND, writer.toByteArray());
+	}
+
+	@Override
+	public String getName() {
+		return cacheName;
+	}
+
+	@Override
+	public String getGuid() {
+		return getUrl();
+	}
+
+	@Override
+	public String getUrl() {
+		return urlBase + "/" + cacheName;
+	}
+
+	@Override
+	public String getUrlBase() {
+		return urlBase;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List getKeys() throws RemoteException {
+		return (List)requestObject(NioFrames.GET_KEYS, null);
+	}
+
+	@Override
+	public Element getQuiet(Serializable key) throws RemoteException {
+		return (Element)requestObject(NioFrames.GET_QUIET, key);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List getElements(List keys) throws RemoteException {
+		return (List)requestObject(NioFrames.GET_ELEMENTS, new ArrayList<>(keys));
+	}
+
+	@Override
+	public String toString() {
+		return "NioCachePeer[" + getUrl() + "]";
+	}
+
+	private Object requestObject(byte type, Serializable argument) throws RemoteException {
+		try {
+			byte[] response = client.request(host, type, NioFrames.cachePayload(cacheName, argument));
+			return response.length == 0 ? null : NioFrames.deserialize(response);
+		} catch (IOException e) {
+			throw new RemoteException("Could not read the response from " + getUrl(), e);
+		}
+	}
+
+	private static void writeEvent(NioFrames.PayloadWriter writer, EventMessage eventMessage) throws IOException {
+		if (!(eventMessage instanceof RmiEventMessage)) {
+			throw new IOException("Cannot replicate a " + eventMessage.getClass().getName());
+		}
+
+		RmiEventMessage rmiEventMessage = (RmiEventMessage)eventMessage;
+		switch (rmiEventMessage.getType()) {
+		case PUT:
+			writer.writeByte(NioFrames.EVENT_PUT);
+			writer.writeObject(rmiEventMessage.getElement());
+			break;
+		case REMOVE:
+			writer.writeByte(NioFrames.EVENT_REMOVE);
+			writer.writeObject(rmiEventMessage.getSerializableKey());
+			break;
+		case REMOVE_ALL:
+			writer.writeByte(NioFrames.EVENT_REMOVE_ALL);
+			break;
+		default:
+			throw new IOException("Cannot replicate an event of type " + rmiEventMessage.getType());
+		}
+	}
+
+}
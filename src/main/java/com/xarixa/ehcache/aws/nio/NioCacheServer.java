@@ -0,0 +1,329 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+
+/**
+ * Serves the requests of the {@link NioCacheClient}s of the peers, applying replicated events to the caches of
+ * the cache manager. The connections are accepted and read by a single event loop thread, and the requests are
+ * handled on a small pool of workers. The requests on each connection are handled one at a time in the order
+ * they arrived, so that the events from a peer are applied in the order it sent them. The responses are compressed
+ * as configured, and the requests are decompressed on the workers.
+ *
+ * @author Fabric WorldWide
+ */
+public class NioCacheServer {
+	private static final Logger LOG = LoggerFactory.getLogger(NioCacheServer.class.getName());
+	private static final AtomicInteger WORKER_THREAD_COUNT = new AtomicInteger();
+	private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+	/**
+	 * The requests of a connection handled before the worker moves on, so one busy peer cannot hold a worker
+	 */
+	private static final int MAX_REQUESTS_PER_TURN = 64;
+
+	private final CacheManager cacheManager;
+	private final String hostName;
+	private final int port;
+	private final int workerThreads;
+	private final PayloadCompression compression;
+	private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+	private NioEventLoop eventLoop;
+	private ServerSocketChannel serverChannel;
+	private volatile ExecutorService workers;
+
+	/**
+	 * @param hostName		The address to listen on, or null for all of them
+	 * @param port			The port to listen on, or 0 for any free port
+	 * @param workerThreads	The number of threads which apply the requests to the caches
+	 * @param compression	The compression of the responses
+	 */
+	public NioCacheServer(CacheManager cacheManager, String hostName, int port, int workerThreads, PayloadCompression compression) {
+		this.cacheManager = cacheManager;
+		this.hostName = hostName;
+		this.port = port;
+		this.workerThreads = workerThreads;
+		this.compression = compression;
+	}
+
+	/**
+	 * Binds the port and starts accepting connections
+	 */
+	public synchronized void start() throws IOException {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setName("AwsNioCacheServerWorkerThread-" + WORKER_THREAD_COUNT.incrementAndGet());
+				return t;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		workers = executor;
+
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.bind(hostName == null ? new InetSocketAddress(port) : new InetSocketAddress(hostName, port));
+			serverChannel.configureBlocking(false);
+			eventLoop = new NioEventLoop("AwsNioCacheServerThread-" + getPort());
+		} catch (IOException e) {
+			serverChannel.close();
+			workers.shutdownNow();
+			throw e;
+		}
+
+		eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serverChannel.register(eventLoop.getSelector(), SelectionKey.OP_ACCEPT, new Acceptor());
+				} catch (IOException e) {
+					LOG.error("Could not accept connections on port {}", getPort(), e);
+				}
+			}
+		});
+		LOG.info("Listening for NIO cache peers on {}", serverChannel.socket().getLocalSocketAddress());
+	}
+
+	/**
+	 * @return The port listened on, which is the bound port if any free port was asked for
+	 */
+	public int getPort() {
+		return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * @return The compression of the requests from and responses to all of the peers
+	 */
+	public CompressionMetrics getCompressionMetrics() {
+		return compressionMetrics;
+	}
+
+	/**
+	 * Closes the connections and stops handling requests
+	 */
+	public synchronized void stop() {
+		if (eventLoop != null) {
+			eventLoop.close();
+			eventLoop = null;
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Handles a request
+	 * @return The payload of the response
+	 */
+	byte[] handle(byte type, byte[] payload) throws IOException {
+		NioFrames.PayloadReader reader = new NioFrames.PayloadReader(payload);
+		Ehcache cache = getCache(reader.readUTF());
+
+		switch (type) {
+		case NioFrames.SEND:
+			int eventCount = reader.readInt();
+			for (int i = 0; i < eventCount; i++) {
+				applyEvent(cache, reader);
+			}
+			return EMPTY_PAYLOAD;
+		case NioFrames.GET_KEYS:
+			return NioFrames.serialize(new ArrayList<Object>(cache.getKeys()));
+		case NioFrames.GET_QUIET:
+			Element element = cache.getQuiet(reader.readObject());
+			return element == null ? EMPTY_PAYLOAD : NioFrames.serialize(element);
+		case NioFrames.GET_ELEMENTS:
+			List<Element> elements = new ArrayList<>();
+			for (Object key : (List<?>)reader.readObject()) {
+				Element keyElement = cache.getQuiet(key);
+				if (keyElement != null) {
+					elements.add(keyElement);
+				}
+			}
+			return NioFrames.serialize(elements);
+		default:
+			throw new IOException("Unknown request type " + type);
+		}
+	}
+
+	private Ehcache getCache(String cacheName) throws IOException {
+		Ehcache cache = cacheManager.getEhcache(cacheName);
+		if (cache == null) {
+			throw new IOException("There is no cache named " + cacheName);
+		}
+		return cache;
+	}
+
+	private static void applyEvent(Ehcache cache, NioFrames.PayloadReader reader) throws IOException {
+		byte eventType = reader.readByte();
+		switch (eventType) {
+		case NioFrames.EVENT_PUT:
+			cache.put((Element)reader.readObject(), true);
+			break;
+		case NioFrames.EVENT_REMOVE:
+			cache.remove((Serializable)reader.readObject(), true);
+			break;
+		case NioFrames.EVENT_REMOVE_ALL:
+			cache.removeAll(true);
+			break;
+		default:
+			throw new IOException("Unknown event type " + eventType);
+		}
+	}
+
+	private final class Acceptor implements NioEventLoop.Handler {
+		@Override
+		public void ready(SelectionKey key) {
+			SocketChannel channel = null;
+			try {
+				channel = serverChannel.accept();
+				if (channel == null) {
+					return;
+				}
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				new ServerConnection(channel);
+			} catch (IOException e) {
+				LOG.warn("Could not accept a connection on port {}", getPort(), e);
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException closeException) {
+						LOG.debug("Could not close a connection on port {}", getPort(), closeException);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void closed() {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				LOG.debug("Could not close port {}", getPort(), e);
+			}
+		}
+	}
+
+	/**
+	 * Queues the requests of a connection and handles them in order on the workers
+	 */
+	private final class ServerConnection implements NioConnection.Listener, Runnable {
+		private final NioConnection connection;
+		private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private ServerConnection(SocketChannel channel) throws IOException {
+			this.connection = new NioConnection(eventLoop, channel, this,
+					"connection from cache peer " + channel.getRemoteAddress());
+		}
+
+		@Override
+		public void frameReceived(NioConnection connection, byte type, long requestId, byte[] payload) {
+			requests.add(new Request(type, requestId, payload));
+			schedule();
+		}
+
+		@Override
+		public void connectionClosed(NioConnection connection, IOException cause) {
+			if (cause != null) {
+				LOG.debug("The {} closed", connection, cause);
+			}
+			requests.clear();
+		}
+
+		@Override
+		public void run() {
+			Request request;
+			int handled = 0;
+			while (handled++ < MAX_REQUESTS_PER_TURN && (request = requests.poll()) != null) {
+				byte responseType = NioFrames.RESPONSE;
+				byte[] response;
+				try {
+					if ((request.type & NioFrames.COMPRESSED_FLAG) == 0) {
+						response = handle(request.type, request.payload);
+					} else {
+						response = handle((byte)(request.type & ~NioFrames.COMPRESSED_FLAG),
+								PayloadCompression.decompress(request.payload, compressionMetrics));
+					}
+					if (response.length > NioFrames.MAX_PAYLOAD_LENGTH) {
+						throw new IOException("The response of " + response.length +
+								" bytes is longer than the longest payload of " + NioFrames.MAX_PAYLOAD_LENGTH + " bytes");
+					}
+
+					byte[] compressedResponse = compression.compress(response, compressionMetrics);
+					if (compressedResponse != null) {
+						responseType |= NioFrames.COMPRESSED_FLAG;
+						response = compressedResponse;
+					}
+				} catch (IOException | RuntimeException e) {
+					// Anything thrown would leave the connection scheduled, so that it is never handled again
+					LOG.debug("Could not handle a request on the {}", connection, e);
+					responseType = NioFrames.ERROR_RESPONSE;
+					response = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+				}
+				connection.send(NioFrames.frame(responseType, request.requestId, response));
+			}
+
+			scheduled.set(false);
+			if (!requests.isEmpty()) {
+				schedule();
+			}
+		}
+
+		private void schedule() {
+			ExecutorService currentWorkers = workers;
+			if (currentWorkers != null && scheduled.compareAndSet(false, true)) {
+				try {
+					currentWorkers.execute(this);
+				} catch (RejectedExecutionException e) {
+					// Stopping
+				}
+			}
+		}
+	}
+
+	private static final class Request {
+		private final byte type;
+		private final long requestId;
+		private final byte[] payload;
+
+		private Request(byte type, long requestId, byte[] payload) {
+			this.type = type;
+			this.requestId = requestId;
+			this.payload = payload;
+		}
+	}
+
+}
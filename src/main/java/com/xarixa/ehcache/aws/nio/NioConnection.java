@@ -0,0 +1,229 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking connection which reads and writes {@link NioFrames frames}. Frames can be sent from any
+ * thread, they are queued and written by the event loop as the socket accepts them. Received frames are handed
+ * to the listener on the event loop thread, which must not block.
+ *
+ * @author Fabric WorldWide
+ */
+class NioConnection implements NioEventLoop.Handler {
+	private static final Logger LOG = LoggerFactory.getLogger(NioConnection.class.getName());
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	interface Listener {
+		void frameReceived(NioConnection connection, byte type, long requestId, byte[] payload);
+
+		/**
+		 * @param cause	Why the connection closed, null if it was closed on purpose
+		 */
+		void connectionClosed(NioConnection connection, IOException cause);
+	}
+
+	private final NioEventLoop eventLoop;
+	private final SocketChannel channel;
+	private final Listener listener;
+	private final String description;
+	private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	private volatile boolean closed;
+
+	/**
+	 * Only used on the event loop thread
+	 */
+	private SelectionKey key;
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/**
+	 * Registers the channel with the event loop
+	 * @param channel		A non-blocking channel, either connected or with a connection pending
+	 * @param description	Describes the connection in the logs
+	 */
+	NioConnection(NioEventLoop eventLoop, SocketChannel channel, Listener listener, String description) {
+		this.eventLoop = eventLoop;
+		this.channel = channel;
+		this.listener = listener;
+		this.description = description;
+		eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				register();
+			}
+		});
+	}
+
+	/**
+	 * Queues the frame to be written
+	 * @return false if the connection has closed
+	 */
+	boolean send(ByteBuffer frame) {
+		if (closed) {
+			return false;
+		}
+		writeQueue.add(frame);
+		if (flushScheduled.compareAndSet(false, true)) {
+			eventLoop.execute(flushTask);
+		}
+		return true;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection, dropping any frames not yet written
+	 */
+	void close() {
+		eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close(null);
+			}
+		});
+	}
+
+	@Override
+	public void ready(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				key.interestOps(SelectionKey.OP_READ);
+				flush();
+			}
+			if (key.isValid() && key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	@Override
+	public void closed() {
+		close(new IOException("The event loop of " + description + " stopped"));
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+	private void register() {
+		try {
+			key = channel.register(eventLoop.getSelector(),
+					channel.isConnectionPending() ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+			flush();
+		} catch (ClosedChannelException e) {
+			close(e);
+		}
+	}
+
+	/**
+	 * Reads what is available and hands over every complete frame
+	 */
+	private void read() throws IOException {
+		if (channel.read(readBuffer) < 0) {
+			close(new EOFException(description + " was closed by the peer"));
+			return;
+		}
+
+		readBuffer.flip();
+		ByteBuffer largerReadBuffer = null;
+		while (readBuffer.remaining() >= 4) {
+			int length = readBuffer.getInt(readBuffer.position());
+			if (length < NioFrames.HEADER_LENGTH || length > NioFrames.MAX_FRAME_LENGTH) {
+				throw new IOException("Received a frame of invalid length " + length + " on " + description);
+			}
+			if (readBuffer.remaining() < 4 + length) {
+				if (4 + length > readBuffer.capacity()) {
+					largerReadBuffer = ByteBuffer.allocate(4 + length);
+				}
+				break;
+			}
+
+			readBuffer.getInt();
+			byte type = readBuffer.get();
+			long requestId = readBuffer.getLong();
+			byte[] payload = new byte[length - NioFrames.HEADER_LENGTH];
+			readBuffer.get(payload);
+			listener.frameReceived(this, type, requestId, payload);
+		}
+
+		if (largerReadBuffer != null) {
+			readBuffer = largerReadBuffer.put(readBuffer);
+		} else if (!readBuffer.hasRemaining() && readBuffer.capacity() > READ_BUFFER_SIZE) {
+			// Go back to the usual size once a large frame has been read
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		} else {
+			readBuffer.compact();
+		}
+	}
+
+	/**
+	 * Writes the queued frames until the socket will not take any more, then waits for it to become writable
+	 */
+	private void flush() {
+		flushScheduled.set(false);
+		if (closed || key == null || !channel.isConnected()) {
+			// Flushed once the connection is registered and connected
+			return;
+		}
+
+		try {
+			ByteBuffer frame;
+			while ((frame = writeQueue.peek()) != null) {
+				channel.write(frame);
+				if (frame.hasRemaining()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				writeQueue.poll();
+			}
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void close(IOException cause) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.debug("Could not close {}", description, e);
+		}
+		writeQueue.clear();
+		listener.connectionClosed(this, cause);
+	}
+
+}
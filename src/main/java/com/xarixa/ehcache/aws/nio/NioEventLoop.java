@@ -0,0 +1,113 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread which runs a selector over any number of non-blocking channels, so that the connections to all of
+ * the peers are served by one thread rather than one each. Channels are only registered and their interest
+ * changed from this thread, other threads hand it tasks through {@link #execute(Runnable)}.
+ *
+ * @author Fabric WorldWide
+ */
+class NioEventLoop {
+	private static final Logger LOG = LoggerFactory.getLogger(NioEventLoop.class.getName());
+
+	/**
+	 * Attached to the selection keys, told when its channel is ready
+	 */
+	interface Handler {
+		void ready(SelectionKey key);
+
+		/**
+		 * The loop is stopping, release the channel
+		 */
+		void closed();
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean running = true;
+
+	NioEventLoop(String threadName) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runLoop();
+			}
+		}, threadName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Runs the task on the loop thread, before it next waits for the channels
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops the loop, which closes the channels registered with it
+	 */
+	void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	private void runLoop() {
+		try {
+			while (running) {
+				runTasks();
+				selector.select();
+
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					if (key.isValid()) {
+						((Handler)key.attachment()).ready(key);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			LOG.error("The selector of {} failed, closing its connections", thread.getName(), e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				((Handler)key.attachment()).closed();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOG.debug("Could not close the selector of {}", thread.getName(), e);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.error("A task on {} failed", thread.getName(), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * The framing of the NIO transport. Every frame is a header of
+ * <pre>
+ * int	length of the rest of the frame
+ * byte	type
+ * long	request id, which the response to a request carries back so that requests can share a connection
+ * </pre>
+ * followed by the payload. A {@link #SEND} payload is the cache name followed by the number of events and the
+ * events, each a type byte and for a put the serialized element or for a remove the serialized key. Keys,
+ * elements and lists are Java serialized, as they are whatever the application put into the cache, while
+ * everything around them is written as is. Payloads may be compressed by the sender, see {@link PayloadCompression}.
+ *
+ * @author Fabric WorldWide
+ */
+final class NioFrames {
+	/**
+	 * The type and request id which follow the length
+	 */
+	static final int HEADER_LENGTH = 1 + 8;
+
+	/**
+	 * Frames longer than this are taken to be corrupt, and the connection is closed
+	 */
+	static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * The longest payload which can be sent, compressed or not, as the receiver takes anything longer to be corrupt
+	 */
+	static final int MAX_PAYLOAD_LENGTH = MAX_FRAME_LENGTH - HEADER_LENGTH;
+
+	static final byte SEND = 1;
+	static final byte GET_KEYS = 2;
+	static final byte GET_QUIET = 3;
+	static final byte GET_ELEMENTS = 4;
+	static final byte RESPONSE = 5;
+	static final byte ERROR_RESPONSE = 6;
+
+	/**
+	 * Set on the type of a frame whose payload is compressed
+	 */
+	static final byte COMPRESSED_FLAG = 0x40;
+
+	static final byte EVENT_PUT = 1;
+	static final byte EVENT_REMOVE = 2;
+	static final byte EVENT_REMOVE_ALL = 3;
+
+	private NioFrames() {
+	}
+
+	/**
+	 * @return The frame, ready to be written
+	 */
+	static ByteBuffer frame(byte type, long requestId, byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_LENGTH + payload.length);
+		frame.putInt(HEADER_LENGTH + payload.length);
+		frame.put(type);
+		frame.putLong(requestId);
+		frame.put(payload);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * A payload of a cache name, optionally followed by a serialized object
+	 */
+	static byte[] cachePayload(String cacheName, Serializable object) throws IOException {
+		PayloadWriter writer = new PayloadWriter();
+		writer.writeUTF(cacheName);
+		if (object != null) {
+			writer.writeObject(object);
+		}
+		return writer.toByteArray();
+	}
+
+	static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	static Object deserialize(byte[] bytes) throws IOException {
+		try (ObjectInputStream input = new ContextClassLoaderObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Could not deserialize a replicated object", e);
+		}
+	}
+
+	/**
+	 * Builds a payload
+	 */
+	static final class PayloadWriter extends DataOutputStream {
+		PayloadWriter() {
+			super(new ByteArrayOutputStream());
+		}
+
+		/**
+		 * Writes the serialized object preceded by its length
+		 */
+		void writeObject(Object object) throws IOException {
+			byte[] bytes = serialize(object);
+			writeInt(bytes.length);
+			write(bytes);
+		}
+
+		byte[] toByteArray() {
+			return ((ByteArrayOutputStream)out).toByteArray();
+		}
+	}
+
+	/**
+	 * Reads a payload
+	 */
+	static final class PayloadReader extends DataInputStream {
+		PayloadReader(byte[] payload) {
+			super(new ByteArrayInputStream(payload));
+		}
+
+		Object readObject() throws IOException {
+			byte[] bytes = new byte[readInt()];
+			readFully(bytes);
+			return deserialize(bytes);
+		}
+	}
+
+	/**
+	 * Resolves the classes of the application's keys and values through the context class loader first, as
+	 * RMI does with its codebase, falling back to the class loader of this module
+	 */
+	private static final class ContextClassLoaderObjectInputStream extends ObjectInputStream {
+		private ContextClassLoaderObjectInputStream(InputStream input) throws IOException {
+			super(input);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			if (classLoader != null) {
+				try {
+					return Class.forName(description.getName(), false, classLoader);
+				} catch (ClassNotFoundException e) {
+					// Fall back to the default resolution
+				}
+			}
+			return super.resolveClass(description);
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+
+/**
+ * The compression of the frame payloads sent by one side of the NIO transport. Payloads at least as long as the
+ * threshold are compressed, and sent compressed if that made them shorter. A compressed frame has
+ * {@link NioFrames#COMPRESSED_FLAG} set on its type and a payload of
+ * <pre>
+ * byte	id of the algorithm
+ * int	length of the uncompressed payload
+ * </pre>
+ * followed by the compressed bytes. Every frame says whether and how it was compressed, so each side decompresses
+ * whatever it receives, whether or not it compresses what it sends.
+ *
+ * @author Fabric WorldWide
+ */
+public final class PayloadCompression {
+	/**
+	 * Nothing is compressed
+	 */
+	public static final PayloadCompression NONE = new PayloadCompression(null, 0);
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The algorithm id and uncompressed length
+	 */
+	private static final int COMPRESSED_HEADER_LENGTH = 1 + 4;
+
+	/**
+	 * The algorithms of the JDK, which every peer has
+	 */
+	public enum Algorithm {
+		/**
+		 * Deflate at its fastest level, for the least CPU time
+		 */
+		DEFLATE((byte)1) {
+			@Override
+			OutputStream compressing(OutputStream output) {
+				final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				return new DeflaterOutputStream(output, deflater, BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							deflater.end();
+						}
+					}
+				};
+			}
+
+			@Override
+			InputStream decompressing(InputStream input) {
+				final Inflater inflater = new Inflater();
+				return new InflaterInputStream(input, inflater, BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							inflater.end();
+						}
+					}
+				};
+			}
+		},
+
+		/**
+		 * GZIP at the default level, for smaller payloads at more CPU time
+		 */
+		GZIP((byte)2) {
+			@Override
+			OutputStream compressing(OutputStream output) throws IOException {
+				return new GZIPOutputStream(output, BUFFER_SIZE);
+			}
+
+			@Override
+			InputStream decompressing(InputStream input) throws IOException {
+				return new GZIPInputStream(input, BUFFER_SIZE);
+			}
+		};
+
+		private final byte id;
+
+		private Algorithm(byte id) {
+			this.id = id;
+		}
+
+		abstract OutputStream compressing(OutputStream output) throws IOException;
+
+		abstract InputStream decompressing(InputStream input) throws IOException;
+
+		private static Algorithm forId(byte id) throws IOException {
+			for (Algorithm algorithm : values()) {
+				if (algorithm.id == id) {
+					return algorithm;
+				}
+			}
+			throw new IOException("Unknown compression algorithm " + id);
+		}
+	}
+
+	private final Algorithm algorithm;
+	private final int threshold;
+
+	/**
+	 * @param algorithm	The algorithm to compress with, or null to not compress
+	 * @param threshold	The length in bytes from which payloads are compressed
+	 */
+	public PayloadCompression(Algorithm algorithm, int threshold) {
+		this.algorithm = algorithm;
+		this.threshold = threshold;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Compresses a payload which is at least the threshold
+	 * @return The payload of the compressed frame, or null if the payload is to be sent as it is
+	 */
+	byte[] compress(byte[] payload, CompressionMetrics metrics) throws IOException {
+		if (algorithm == null || payload.length < threshold) {
+			return null;
+		}
+
+		long start = CompressionMetrics.currentThreadTimeNanos();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length / 2 + COMPRESSED_HEADER_LENGTH);
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeByte(algorithm.id);
+		header.writeInt(payload.length);
+		try (OutputStream output = algorithm.compressing(bytes)) {
+			output.write(payload);
+		}
+		byte[] compressed = bytes.size() < payload.length ? bytes.toByteArray() : null;
+		metrics.recordCompression(payload.length, compressed == null ? payload.length : compressed.length,
+				CompressionMetrics.currentThreadTimeNanos() - start);
+		return compressed;
+	}
+
+	/**
+	 * Decompresses the payload of a frame with {@link NioFrames#COMPRESSED_FLAG} set
+	 * @return The uncompressed payload
+	 * @throws IOException	If the payload is corrupt
+	 */
+	static byte[] decompress(byte[] payload, CompressionMetrics metrics) throws IOException {
+		long start = CompressionMetrics.currentThreadTimeNanos();
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(payload));
+		Algorithm algorithm = Algorithm.forId(header.readByte());
+		int length = header.readInt();
+		if (length < 0 || length > NioFrames.MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid uncompressed payload length " + length);
+		}
+
+		byte[] decompressed = new byte[length];
+		try (DataInputStream input = new DataInputStream(algorithm.decompressing(header))) {
+			input.readFully(decompressed);
+		}
+		metrics.recordDecompression(payload.length, length, CompressionMetrics.currentThreadTimeNanos() - start);
+		return decompressed;
+	}
+
+	@Override
+	public String toString() {
+		return algorithm == null ? "none" : algorithm + " from " + threshold + " bytes";
+	}
+
+}
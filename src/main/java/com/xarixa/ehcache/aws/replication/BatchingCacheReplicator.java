@@ -0,0 +1,157 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CacheReplicator;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicates the changes to a cache by handing them to a {@link ReplicationBatcher}, which sends the changes
+ * gathered over a short interval to each peer together rather than making a remote call per change. Like
+ * Ehcache's asynchronous RMI replicator, a put or update which is not replicated by copy removes the element
+ * from the peers, and expiries and evictions are not replicated as each peer expires and evicts by itself.
+ *
+ * @author Fabric WorldWide
+ */
+public class BatchingCacheReplicator implements CacheReplicator {
+	private static final Logger LOG = LoggerFactory.getLogger(BatchingCacheReplicator.class.getName());
+	/**
+	 * Maximum time to wait for the changes to be sent when disposing
+	 */
+	static final long DISPOSE_TIMEOUT_MS = 5000;
+
+	private final ReplicationBatcher batcher;
+	private final boolean replicatePuts;
+	private final boolean replicatePutsViaCopy;
+	private final boolean replicateUpdates;
+	private final boolean replicateUpdatesViaCopy;
+	private final boolean replicateRemovals;
+	private volatile Status status = Status.STATUS_ALIVE;
+
+	BatchingCacheReplicator(ReplicationBatcher batcher, boolean replicatePuts, boolean replicatePutsViaCopy,
+			boolean replicateUpdates, boolean replicateUpdatesViaCopy, boolean replicateRemovals) {
+		this.batcher = batcher;
+		this.replicatePuts = replicatePuts;
+		this.replicatePutsViaCopy = replicatePutsViaCopy;
+		this.replicateUpdates = replicateUpdates;
+		this.replicateUpdatesViaCopy = replicateUpdatesViaCopy;
+		this.replicateRemovals = replicateRemovals;
+	}
+
+	@Override
+	public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+		if (replicatePuts) {
+			replicatePutOrUpdate(cache, element, replicatePutsViaCopy);
+		}
+	}
+
+	@Override
+	public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+		if (replicateUpdates) {
+			replicatePutOrUpdate(cache, element, replicateUpdatesViaCopy);
+		}
+	}
+
+	@Override
+	public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+		if (replicateRemovals && alive() && isKeySerializable(cache, element)) {
+			batcher.add(cache, element.getObjectKey(),
+					new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable)element.getObjectKey(), null));
+		}
+	}
+
+	@Override
+	public void notifyRemoveAll(Ehcache cache) {
+		if (replicateRemovals && alive()) {
+			batcher.addRemoveAll(cache, new RmiEventMessage(cache, RmiEventType.REMOVE_ALL, null, null));
+		}
+	}
+
+	@Override
+	public void notifyElementExpired(Ehcache cache, Element element) {
+		// Each peer expires its own elements
+	}
+
+	@Override
+	public void notifyElementEvicted(Ehcache cache, Element element) {
+		// Each peer evicts according to its own capacity
+	}
+
+	@Override
+	public boolean isReplicateUpdatesViaCopy() {
+		return replicateUpdatesViaCopy;
+	}
+
+	@Override
+	public boolean notAlive() {
+		return status != Status.STATUS_ALIVE;
+	}
+
+	@Override
+	public boolean alive() {
+		return status == Status.STATUS_ALIVE;
+	}
+
+	/**
+	 * Sends what has been gathered so far, so that the changes made before a cache is disposed are not lost, and
+	 * gives up the batcher, which is shut down if no other replicator uses it. A peer which has not been sent to
+	 * within {@value #DISPOSE_TIMEOUT_MS}ms does not hold up the dispose any longer.
+	 */
+	@Override
+	public synchronized void dispose() {
+		if (status == Status.STATUS_SHUTDOWN) {
+			return;
+		}
+
+		status = Status.STATUS_SHUTDOWN;
+		try {
+			if (!batcher.flushAndWait(DISPOSE_TIMEOUT_MS)) {
+				LOG.warn("Could not send the replicated changes to every peer within {}ms of disposing", DISPOSE_TIMEOUT_MS);
+			}
+		} finally {
+			ReplicationBatcher.release(batcher);
+		}
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		ReplicationBatcher.retain(batcher);
+		return new BatchingCacheReplicator(batcher, replicatePuts, replicatePutsViaCopy, replicateUpdates,
+				replicateUpdatesViaCopy, replicateRemovals);
+	}
+
+	private void replicatePutOrUpdate(Ehcache cache, Element element, boolean viaCopy) {
+		if (notAlive() || !isKeySerializable(cache, element)) {
+			return;
+		}
+
+		if (viaCopy) {
+			if (!element.isSerializable()) {
+				LOG.warn("The element with key {} in cache {} is not serializable and cannot be replicated",
+						element.getObjectKey(), cache.getName());
+				return;
+			}
+			batcher.add(cache, element.getObjectKey(), new RmiEventMessage(cache, RmiEventType.PUT, null, element));
+		} else {
+			batcher.add(cache, element.getObjectKey(),
+					new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable)element.getObjectKey(), null));
+		}
+	}
+
+	private static boolean isKeySerializable(Ehcache cache, Element element) {
+		if (element.isKeySerializable()) {
+			return true;
+		}
+		LOG.warn("The key {} in cache {} is not serializable and cannot be replicated", element.getObjectKey(), cache.getName());
+		return false;
+	}
+
+}
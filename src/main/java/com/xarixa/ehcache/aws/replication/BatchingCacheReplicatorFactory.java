@@ -0,0 +1,94 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.util.Properties;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xarixa.ehcache.aws.AwsSecurityGroupAwareCacheManagerPeerProvider;
+import com.xarixa.ehcache.aws.NioCacheManagerPeerProvider;
+
+/**
+ * Creates a {@link BatchingCacheReplicator} for a cache. The replication properties have the same names and
+ * defaults as those of Ehcache's <strong>RMICacheReplicatorFactory</strong>, so that it can be swapped in:
+ * <ul>
+ * <li><strong>replicatePuts</strong>, <strong>replicatePutsViaCopy</strong>, <strong>replicateUpdates</strong>,
+ * <strong>replicateUpdatesViaCopy</strong> and <strong>replicateRemovals</strong>, all true by default</li>
+ * <li><strong>batchInterval</strong>, the time in ms over which events are gathered before they are sent,
+ * 10 by default</li>
+ * <li><strong>maximumBatchSize</strong>, the most events sent to a peer in one call, 1000 by default</li>
+ * <li><strong>scheme</strong>, the scheme of the peer provider to replicate through, <strong>RMI</strong> by default
+ * or <strong>NIO</strong> for the {@link NioCacheManagerPeerProvider}</li>
+ * <li><strong>replicationFactor</strong>, the number of peers which own each key and are sent its changes, or 0 for
+ * every peer, which is the default. Reads of the keys owned by other peers can be routed to their owners with the
+ * {@link PartitionedCacheLoaderFactory}, configured with the same replication factor.</li>
+ * </ul>
+ * Caches configured with the same settings share their batches.
+ *
+ * @author Fabric WorldWide
+ */
+public class BatchingCacheReplicatorFactory extends CacheEventListenerFactory {
+	static final int DEFAULT_BATCH_INTERVAL_MS = 10;
+	static final int DEFAULT_MAXIMUM_BATCH_SIZE = 1000;
+
+	private static final String REPLICATE_PUTS_PROP = "replicatePuts";
+	private static final String REPLICATE_PUTS_VIA_COPY_PROP = "replicatePutsViaCopy";
+	private static final String REPLICATE_UPDATES_PROP = "replicateUpdates";
+	private static final String REPLICATE_UPDATES_VIA_COPY_PROP = "replicateUpdatesViaCopy";
+	private static final String REPLICATE_REMOVALS_PROP = "replicateRemovals";
+	private static final String BATCH_INTERVAL_PROP = "batchInterval";
+	private static final String MAXIMUM_BATCH_SIZE_PROP = "maximumBatchSize";
+	static final String SCHEME_PROP = "scheme";
+	static final String REPLICATION_FACTOR_PROP = "replicationFactor";
+
+	@Override
+	public CacheEventListener createCacheEventListener(Properties properties) {
+		int batchInterval = extractIntegerProperty(BATCH_INTERVAL_PROP, DEFAULT_BATCH_INTERVAL_MS, properties);
+		if (batchInterval < 1) {
+			throw new IllegalArgumentException("Configured batch interval is invalid (was " + batchInterval + ")");
+		}
+
+		int maximumBatchSize = extractIntegerProperty(MAXIMUM_BATCH_SIZE_PROP, DEFAULT_MAXIMUM_BATCH_SIZE, properties);
+		if (maximumBatchSize < 1) {
+			throw new IllegalArgumentException("Configured maximum batch size is invalid (was " + maximumBatchSize + ")");
+		}
+
+		int replicationFactor = extractIntegerProperty(REPLICATION_FACTOR_PROP, 0, properties);
+		if (replicationFactor < 0) {
+			throw new IllegalArgumentException("Configured replication factor is invalid (was " + replicationFactor + ")");
+		}
+
+		String scheme = StringUtils.defaultIfBlank(PropertyUtil.extractAndLogProperty(SCHEME_PROP, properties),
+				AwsSecurityGroupAwareCacheManagerPeerProvider.CACHE_SCHEME).trim().toUpperCase();
+
+		return new BatchingCacheReplicator(ReplicationBatcher.getInstance(scheme, batchInterval, maximumBatchSize, replicationFactor),
+				extractBooleanProperty(REPLICATE_PUTS_PROP, properties),
+				extractBooleanProperty(REPLICATE_PUTS_VIA_COPY_PROP, properties),
+				extractBooleanProperty(REPLICATE_UPDATES_PROP, properties),
+				extractBooleanProperty(REPLICATE_UPDATES_VIA_COPY_PROP, properties),
+				extractBooleanProperty(REPLICATE_REMOVALS_PROP, properties));
+	}
+
+	private static boolean extractBooleanProperty(String propertyName, Properties properties) {
+		String propertyValue = PropertyUtil.extractAndLogProperty(propertyName, properties);
+		return propertyValue == null || PropertyUtil.parseBoolean(propertyValue);
+	}
+
+	static int extractIntegerProperty(String propertyName, int defaultValue, Properties properties) {
+		String propertyValue = PropertyUtil.extractAndLogProperty(propertyName, properties);
+		if (propertyValue == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(propertyValue.trim());
+		} catch (NumberFormatException e) {
+			throw new CacheException("Expected an integer for " + propertyName + ", but got '" + propertyValue + "'");
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A consistent hash ring of nodes, each placed at a number of points so that the keys spread evenly over them.
+ * The owners of a key are the distinct nodes found walking clockwise from the key's point. Adding or removing a
+ * node only moves the keys between that node and its neighbours, roughly 1/N of the keys for N nodes. The owners
+ * depend only on the names of the nodes and the key, so rings of the same nodes agree on them, but nodes which
+ * see different members while the membership changes do not.
+ *
+ * @author Fabric WorldWide
+ */
+final class ConsistentHashRing<T> {
+	/**
+	 * Points per node, enough for the load to be within a few percent of even
+	 */
+	static final int POINTS_PER_NODE = 128;
+
+	/**
+	 * The classes of keys whose hash codes are defined by their value, so the same in every JVM
+	 */
+	private static final Set<Class<?>> VALUE_HASHED_KEY_CLASSES = Collections.unmodifiableSet(new HashSet<Class<?>>(
+			Arrays.<Class<?>>asList(String.class, Integer.class, Long.class, Short.class, Byte.class, Float.class,
+					Double.class, BigInteger.class, BigDecimal.class, Character.class, Boolean.class, UUID.class)));
+
+	private final long[] points;
+	private final List<T> pointNodes;
+	private final int nodeCount;
+
+	/**
+	 * @param nodesByName	The nodes by a name which is the same in every JVM, i.e. the peer's URL
+	 */
+	ConsistentHashRing(Map<String, T> nodesByName) {
+		long[][] placements = new long[nodesByName.size() * POINTS_PER_NODE][];
+		// Number the nodes in the order of their names, which is the same in every JVM
+		SortedMap<String, T> sortedNodesByName = new TreeMap<>(nodesByName);
+		List<T> nodes = new ArrayList<>(sortedNodesByName.values());
+		int placement = 0;
+		int nodeIndex = 0;
+		for (String name : sortedNodesByName.keySet()) {
+			for (int i = 0; i < POINTS_PER_NODE; i++) {
+				placements[placement++] = new long[] { hash((name + '#' + i).getBytes(StandardCharsets.UTF_8)), nodeIndex };
+			}
+			nodeIndex++;
+		}
+
+		Arrays.sort(placements, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] placement1, long[] placement2) {
+				int comparison = Long.compare(placement1[0], placement2[0]);
+				// Order colliding points by node so every JVM agrees
+				return comparison != 0 ? comparison : Long.compare(placement1[1], placement2[1]);
+			}
+		});
+
+		this.points = new long[placements.length];
+		this.pointNodes = new ArrayList<>(placements.length);
+		for (int i = 0; i < placements.length; i++) {
+			points[i] = placements[i][0];
+			pointNodes.add(nodes.get((int)placements[i][1]));
+		}
+		this.nodeCount = nodes.size();
+	}
+
+	/**
+	 * @param count	The number of owners wanted
+	 * @return Up to count distinct nodes, the first of which is the primary owner
+	 */
+	List<T> getOwners(Object key, int count) {
+		List<T> owners = new ArrayList<>(Math.min(count, nodeCount));
+		if (points.length == 0) {
+			return owners;
+		}
+
+		int index = Arrays.binarySearch(points, hashKey(key));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		for (int walked = 0; walked < points.length && owners.size() < Math.min(count, nodeCount); walked++) {
+			T node = pointNodes.get((index + walked) % points.length);
+			if (!owners.contains(node)) {
+				owners.add(node);
+			}
+		}
+		return owners;
+	}
+
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Hashes a key the same way in every JVM. Strings, boxed numbers and the like have hash codes that are
+	 * defined by their value, anything else is hashed by its serialized form as its hash code may be its identity,
+	 * which includes numbers such as {@link java.util.concurrent.atomic.AtomicLong} and subclasses of the value
+	 * hashed classes.
+	 */
+	static long hashKey(Object key) {
+		if (VALUE_HASHED_KEY_CLASSES.contains(key.getClass())) {
+			return mix(key.getClass().getName().hashCode() * 31L + key.hashCode());
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(key);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot place the key " + key + " as it is not serializable", e);
+		}
+		return hash(bytes.toByteArray());
+	}
+
+	private static long hash(byte[] bytes) {
+		try {
+			return ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(bytes)).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, spreading a hash code over all 64 bits
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
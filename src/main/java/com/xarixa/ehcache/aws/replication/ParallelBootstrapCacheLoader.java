@@ -0,0 +1,345 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.bootstrap.BootstrapCacheLoader;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bootstraps a cache from several of its peers at once, rather than from the single peer that Ehcache's
+ * <strong>RMIBootstrapCacheLoader</strong> uses. The load waits until the peer provider has discovered at least one
+ * peer, gets the keys from each of the peers it loads from and splits them into chunks of keys which the same
+ * peers have, so that the keys of peers which only own some of them with a replication factor are all loaded.
+ * The chunks are spread over the peers which have their keys. Each peer has a fixed number of chunks in flight,
+ * which limits the load on the peers and the memory held by the elements on their way in. A chunk that a peer
+ * fails to return is handed to the other peers which have its keys, along with the rest of that peer's chunks.
+ * <p>
+ * With a replication factor, keys which are only owned by peers beyond the maximum number of peers are not
+ * loaded, and can be read through from their owners with the {@link PartitionedCacheLoader}.
+ * <p>
+ * The elements are only put if the key is not in the cache already, as anything replicated to the cache while it
+ * bootstraps is newer than the copy being loaded.
+ *
+ * @author Fabric WorldWide
+ */
+public class ParallelBootstrapCacheLoader implements BootstrapCacheLoader, Cloneable {
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelBootstrapCacheLoader.class.getName());
+	private static final long PEER_POLL_INTERVAL_MS = 100;
+
+	private final boolean asynchronous;
+	private final String scheme;
+	private final int maximumChunkSize;
+	private final int maximumPeers;
+	private final int chunksInFlightPerPeer;
+	private final long peerWaitTimeoutMs;
+
+	/**
+	 * @param asynchronous			true to load on a background thread, so that the cache can be used straight away
+	 * @param scheme				The scheme of the peer provider to load from
+	 * @param maximumChunkSize		The most keys asked for from a peer in one call
+	 * @param maximumPeers			The most peers to load from, at most 64
+	 * @param chunksInFlightPerPeer	The most calls to a peer at once
+	 * @param peerWaitTimeoutMs		How long to wait for discovery to find a peer before giving up
+	 */
+	ParallelBootstrapCacheLoader(boolean asynchronous, String scheme, int maximumChunkSize, int maximumPeers,
+			int chunksInFlightPerPeer, long peerWaitTimeoutMs) {
+		this.asynchronous = asynchronous;
+		this.scheme = scheme;
+		this.maximumChunkSize = maximumChunkSize;
+		this.maximumPeers = maximumPeers;
+		this.chunksInFlightPerPeer = chunksInFlightPerPeer;
+		this.peerWaitTimeoutMs = peerWaitTimeoutMs;
+	}
+
+	@Override
+	public void load(final Ehcache cache) throws CacheException {
+		if (!asynchronous) {
+			doLoad(cache);
+			return;
+		}
+
+		Thread loadThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					doLoad(cache);
+				} catch (RuntimeException e) {
+					LOG.warn("Could not bootstrap cache {}", cache.getName(), e);
+				}
+			}
+		}, "AwsBootstrapThread-" + cache.getName());
+		loadThread.setDaemon(true);
+		loadThread.start();
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		return super.clone();
+	}
+
+	/**
+	 * Lists the peers to load from, overridden by the tests
+	 */
+	List<CachePeer> listRemoteCachePeers(Ehcache cache) {
+		return ReplicationBatcher.listRemoteCachePeers(cache, scheme);
+	}
+
+	void doLoad(Ehcache cache) {
+		long start = System.nanoTime();
+		List<CachePeer> cachePeers = waitForCachePeers(cache);
+		if (cachePeers.isEmpty()) {
+			LOG.warn("No peers of cache {} were found within {}ms, it starts empty", cache.getName(), peerWaitTimeoutMs);
+			return;
+		}
+
+		// Spread the nodes which join at the same time over the peers
+		Collections.shuffle(cachePeers);
+
+		// The peers which have each key, as a bit per loading peer
+		List<CachePeer> loadingPeers = new ArrayList<>(Math.min(maximumPeers, cachePeers.size()));
+		Map<Serializable, Long> keyHolders = new HashMap<>();
+		for (CachePeer cachePeer : cachePeers) {
+			if (loadingPeers.size() == maximumPeers) {
+				break;
+			}
+
+			List<?> keys;
+			try {
+				keys = cachePeer.getKeys();
+			} catch (Exception e) {
+				LOG.debug("Could not get the keys of cache {} from {}, trying the next peer", cache.getName(), cachePeer, e);
+				continue;
+			}
+			long holder = 1L << loadingPeers.size();
+			loadingPeers.add(cachePeer);
+			for (Object key : keys) {
+				if (key instanceof Serializable) {
+					Long holders = keyHolders.get(key);
+					keyHolders.put((Serializable)key, holders == null ? holder : holders | holder);
+				}
+			}
+		}
+		if (loadingPeers.isEmpty()) {
+			LOG.warn("Could not get the keys of cache {} from any of its {} peers, it starts empty", cache.getName(), cachePeers.size());
+			return;
+		}
+
+		ChunkLoad chunkLoad = new ChunkLoad(cache, loadingPeers.size());
+		Map<Long, List<Serializable>> openChunks = new HashMap<>();
+		for (Map.Entry<Serializable, Long> keyHolder : keyHolders.entrySet()) {
+			if (cache.isKeyInCache(keyHolder.getKey())) {
+				continue;
+			}
+
+			List<Serializable> chunk = openChunks.get(keyHolder.getValue());
+			if (chunk == null) {
+				chunk = new ArrayList<>(maximumChunkSize);
+				openChunks.put(keyHolder.getValue(), chunk);
+			}
+			chunk.add(keyHolder.getKey());
+			if (chunk.size() == maximumChunkSize) {
+				chunkLoad.add(chunk, keyHolder.getValue());
+				openChunks.remove(keyHolder.getValue());
+			}
+		}
+		keyHolders = null;
+		for (Map.Entry<Long, List<Serializable>> openChunk : openChunks.entrySet()) {
+			chunkLoad.add(openChunk.getValue(), openChunk.getKey());
+		}
+
+		List<Callable<Void>> workers = new ArrayList<>(loadingPeers.size() * chunksInFlightPerPeer);
+		for (int peerIndex = 0; peerIndex < loadingPeers.size(); peerIndex++) {
+			for (int i = 0; i < chunksInFlightPerPeer; i++) {
+				workers.add(chunkLoad.newWorker(loadingPeers.get(peerIndex), peerIndex));
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size(),
+				new ReplicationBatcher.DaemonThreadFactory("AwsBootstrapThread-" + cache.getName()));
+		try {
+			executor.invokeAll(workers);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while bootstrapping cache {}", cache.getName());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int unloadedChunks = chunkLoad.remainingChunks.get() + chunkLoad.unloadedChunks.get();
+		if (unloadedChunks > 0) {
+			LOG.warn("Bootstrapped cache {} with {} elements from {} peers, {} chunks of keys could not be loaded",
+					cache.getName(), chunkLoad.loadedElements.get(), loadingPeers.size(), unloadedChunks);
+		} else {
+			LOG.info("Bootstrapped cache {} with {} elements from {} peers in {}ms", cache.getName(),
+					chunkLoad.loadedElements.get(), loadingPeers.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Polls the peer provider until discovery has found a peer of the cache
+	 * @return The peers, which is empty if none were found in time
+	 */
+	private List<CachePeer> waitForCachePeers(Ehcache cache) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(peerWaitTimeoutMs);
+		while (true) {
+			List<CachePeer> cachePeers = listRemoteCachePeers(cache);
+			if (cachePeers != null && !cachePeers.isEmpty()) {
+				return new ArrayList<>(cachePeers);
+			}
+			if (System.nanoTime() >= deadline) {
+				return new ArrayList<>();
+			}
+
+			try {
+				Thread.sleep(PEER_POLL_INTERVAL_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ArrayList<>();
+			}
+		}
+	}
+
+	/**
+	 * The chunks of one load, queued for each peer until they have all been loaded or their peers have failed
+	 */
+	private static final class ChunkLoad {
+		private final Ehcache cache;
+		private final List<BlockingQueue<Chunk>> queues;
+		private final AtomicInteger remainingChunks = new AtomicInteger();
+		private final AtomicInteger unloadedChunks = new AtomicInteger();
+		private final AtomicLong loadedElements = new AtomicLong();
+
+		/**
+		 * A bit per peer which has failed, written holding the lock of this
+		 */
+		private volatile long failedPeers;
+		/**
+		 * Guarded by this
+		 */
+		private int nextHolder;
+
+		private ChunkLoad(Ehcache cache, int peerCount) {
+			this.cache = cache;
+			this.queues = new ArrayList<>(peerCount);
+			for (int i = 0; i < peerCount; i++) {
+				queues.add(new LinkedBlockingQueue<Chunk>());
+			}
+		}
+
+		/**
+		 * @param holders	A bit per peer which has the keys
+		 */
+		private synchronized void add(List<Serializable> keys, long holders) {
+			remainingChunks.incrementAndGet();
+			assign(new Chunk(keys, holders));
+		}
+
+		/**
+		 * Queues the chunk for the next of its peers which has not failed, or gives it up if they all have. Called
+		 * holding the lock of this, so that no chunk is queued for a peer once it has failed.
+		 */
+		private void assign(Chunk chunk) {
+			long liveHolders = chunk.holders & ~failedPeers;
+			if (liveHolders == 0) {
+				remainingChunks.decrementAndGet();
+				unloadedChunks.incrementAndGet();
+				return;
+			}
+
+			for (int skipped = nextHolder++ % Long.bitCount(liveHolders); skipped > 0; skipped--) {
+				liveHolders &= liveHolders - 1;
+			}
+			queues.get(Long.numberOfTrailingZeros(liveHolders)).add(chunk);
+		}
+
+		/**
+		 * Hands the chunk and those still queued for the peer to the other peers which have their keys
+		 */
+		private synchronized void peerFailed(int peerIndex, Chunk chunk) {
+			failedPeers |= 1L << peerIndex;
+			assign(chunk);
+
+			List<Chunk> queuedChunks = new ArrayList<>();
+			queues.get(peerIndex).drainTo(queuedChunks);
+			for (Chunk queuedChunk : queuedChunks) {
+				assign(queuedChunk);
+			}
+		}
+
+		private Callable<Void> newWorker(final CachePeer cachePeer, final int peerIndex) {
+			return new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					// A chunk being loaded by another peer may yet be handed to this one, so keep polling until all are done
+					while (remainingChunks.get() > 0 && (failedPeers & 1L << peerIndex) == 0
+							&& cache.getStatus() == Status.STATUS_ALIVE) {
+						Chunk chunk = queues.get(peerIndex).poll(PEER_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+						if (chunk != null) {
+							loadChunk(cachePeer, peerIndex, chunk);
+						}
+					}
+					return null;
+				}
+			};
+		}
+
+		private void loadChunk(CachePeer cachePeer, int peerIndex, Chunk chunk) {
+			List<?> elements;
+			try {
+				elements = cachePeer.getElements(chunk.keys);
+			} catch (Exception e) {
+				if ((failedPeers & 1L << peerIndex) == 0) {
+					LOG.warn("Could not load a chunk of cache {} from {}, leaving it to the other peers", cache.getName(), cachePeer, e);
+				}
+				peerFailed(peerIndex, chunk);
+				return;
+			}
+
+			if (elements != null) {
+				for (Object element : elements) {
+					if (element != null) {
+						cache.putIfAbsent((Element)element, true);
+						loadedElements.incrementAndGet();
+					}
+				}
+			}
+			remainingChunks.decrementAndGet();
+		}
+	}
+
+	private static final class Chunk {
+		private final List<Serializable> keys;
+		private final long holders;
+
+		private Chunk(List<Serializable> keys, long holders) {
+			this.keys = keys;
+			this.holders = holders;
+		}
+	}
+
+}
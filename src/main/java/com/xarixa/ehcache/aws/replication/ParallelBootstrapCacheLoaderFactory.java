@@ -0,0 +1,65 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.util.Properties;
+
+import net.sf.ehcache.bootstrap.BootstrapCacheLoaderFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xarixa.ehcache.aws.AwsSecurityGroupAwareCacheManagerPeerProvider;
+
+/**
+ * Creates a {@link ParallelBootstrapCacheLoader} for a cache, with the properties:
+ * <ul>
+ * <li><strong>bootstrapAsynchronously</strong>, true by default as for Ehcache's own bootstrap loaders</li>
+ * <li><strong>maximumChunkSize</strong>, the most keys asked for from a peer in one call, 1000 by default</li>
+ * <li><strong>maximumPeers</strong>, the most peers loaded from, 4 by default and at most 64</li>
+ * <li><strong>chunksInFlightPerPeer</strong>, the most calls to each peer at once, 2 by default</li>
+ * <li><strong>peerWaitTimeout</strong>, the time in ms to wait for discovery to find a peer of the cache before it
+ * starts empty, 60000 by default</li>
+ * <li><strong>scheme</strong>, the scheme of the peer provider to load from, <strong>RMI</strong> by default</li>
+ * </ul>
+ *
+ * @author Fabric WorldWide
+ */
+public class ParallelBootstrapCacheLoaderFactory extends BootstrapCacheLoaderFactory<ParallelBootstrapCacheLoader> {
+	private static final String BOOTSTRAP_ASYNCHRONOUSLY_PROP = "bootstrapAsynchronously";
+	private static final String MAXIMUM_CHUNK_SIZE_PROP = "maximumChunkSize";
+	private static final String MAXIMUM_PEERS_PROP = "maximumPeers";
+	private static final String CHUNKS_IN_FLIGHT_PER_PEER_PROP = "chunksInFlightPerPeer";
+	private static final String PEER_WAIT_TIMEOUT_PROP = "peerWaitTimeout";
+
+	@Override
+	public ParallelBootstrapCacheLoader createBootstrapCacheLoader(Properties properties) {
+		String asynchronous = PropertyUtil.extractAndLogProperty(BOOTSTRAP_ASYNCHRONOUSLY_PROP, properties);
+
+		int maximumChunkSize = BatchingCacheReplicatorFactory.extractIntegerProperty(MAXIMUM_CHUNK_SIZE_PROP, 1000, properties);
+		if (maximumChunkSize < 1) {
+			throw new IllegalArgumentException("Configured maximum chunk size is invalid (was " + maximumChunkSize + ")");
+		}
+
+		int maximumPeers = BatchingCacheReplicatorFactory.extractIntegerProperty(MAXIMUM_PEERS_PROP, 4, properties);
+		if (maximumPeers < 1 || maximumPeers > Long.SIZE) {
+			throw new IllegalArgumentException("Configured maximum peers is invalid (was " + maximumPeers + ")");
+		}
+
+		int chunksInFlightPerPeer = BatchingCacheReplicatorFactory.extractIntegerProperty(CHUNKS_IN_FLIGHT_PER_PEER_PROP, 2, properties);
+		if (chunksInFlightPerPeer < 1) {
+			throw new IllegalArgumentException("Configured chunks in flight per peer is invalid (was " + chunksInFlightPerPeer + ")");
+		}
+
+		int peerWaitTimeout = BatchingCacheReplicatorFactory.extractIntegerProperty(PEER_WAIT_TIMEOUT_PROP, 60000, properties);
+		if (peerWaitTimeout < 0) {
+			throw new IllegalArgumentException("Configured peer wait timeout is invalid (was " + peerWaitTimeout + ")");
+		}
+
+		String scheme = StringUtils.defaultIfBlank(
+				PropertyUtil.extractAndLogProperty(BatchingCacheReplicatorFactory.SCHEME_PROP, properties),
+				AwsSecurityGroupAwareCacheManagerPeerProvider.CACHE_SCHEME).trim().toUpperCase();
+
+		return new ParallelBootstrapCacheLoader(asynchronous == null || PropertyUtil.parseBoolean(asynchronous), scheme,
+				maximumChunkSize, maximumPeers, chunksInFlightPerPeer, peerWaitTimeout);
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the peers which own a key, from a {@link ConsistentHashRing} of the members of its cache. The ring holds
+ * this node as well as its peers, so that the nodes which see the same members place the keys on the same owners,
+ * and the owners handed out are those of the owners which are peers. A ring is kept per cache and is only rebuilt
+ * when the provider hands out a different list of peers, which it does when the membership changes, so a change of
+ * membership moves only the keys of the peers that joined or departed.
+ *
+ * @author Fabric WorldWide
+ */
+class PartitionOwners {
+	private static final Logger LOG = LoggerFactory.getLogger(PartitionOwners.class.getName());
+
+	private final int replicationFactor;
+	private final Map<Ehcache, CacheRing> cacheRings = Collections.synchronizedMap(new WeakHashMap<Ehcache, CacheRing>());
+
+	/**
+	 * @param replicationFactor	The number of members which own each key
+	 */
+	PartitionOwners(int replicationFactor) {
+		this.replicationFactor = replicationFactor;
+	}
+
+	int getReplicationFactor() {
+		return replicationFactor;
+	}
+
+	/**
+	 * @param cachePeers	The peers of the cache, as listed by the provider
+	 * @param localUrlBase	The URL base by which the peers know this node, or null if it is not known, in which case
+	 * 						the keys are placed on the peers alone
+	 * @return The peers which own the key, which is all of them if there are no more members than the replication
+	 * 			factor, and one fewer than the replication factor if this node is an owner
+	 */
+	List<CachePeer> getOwners(Ehcache cache, List<CachePeer> cachePeers, String localUrlBase, Object key) {
+		if (cachePeers.size() + (localUrlBase == null ? 0 : 1) <= replicationFactor) {
+			return cachePeers;
+		}
+
+		CacheRing cacheRing = getRing(cache, cachePeers, localUrlBase);
+		List<CachePeer> owners = new ArrayList<>(replicationFactor);
+		for (String ownerUrlBase : cacheRing.ring.getOwners(key, replicationFactor)) {
+			// This node is on the ring but not in the peers
+			CachePeer owner = cacheRing.cachePeersByUrlBase.get(ownerUrlBase);
+			if (owner != null) {
+				owners.add(owner);
+			}
+		}
+		return owners;
+	}
+
+	private CacheRing getRing(Ehcache cache, List<CachePeer> cachePeers, String localUrlBase) {
+		CacheRing cacheRing = cacheRings.get(cache);
+		if (cacheRing == null || cacheRing.cachePeers != cachePeers
+				|| (localUrlBase == null ? cacheRing.localUrlBase != null : !localUrlBase.equals(cacheRing.localUrlBase))) {
+			cacheRing = new CacheRing(cachePeers, localUrlBase, getCachePeersByUrlBase(cachePeers));
+			cacheRings.put(cache, cacheRing);
+		}
+		return cacheRing;
+	}
+
+	private static Map<String, CachePeer> getCachePeersByUrlBase(List<CachePeer> cachePeers) {
+		Map<String, CachePeer> cachePeersByUrlBase = new HashMap<>(cachePeers.size() * 2);
+		for (CachePeer cachePeer : cachePeers) {
+			try {
+				cachePeersByUrlBase.put(cachePeer.getUrlBase(), cachePeer);
+			} catch (RemoteException e) {
+				// Its keys go to the next members on the ring until the list is next rebuilt
+				LOG.debug("Leaving {} off the ring as its URL is not known", cachePeer, e);
+			}
+		}
+		return cachePeersByUrlBase;
+	}
+
+	private static final class CacheRing {
+		private final List<CachePeer> cachePeers;
+		private final String localUrlBase;
+		private final Map<String, CachePeer> cachePeersByUrlBase;
+		/**
+		 * The URL bases of the peers and this node
+		 */
+		private final ConsistentHashRing<String> ring;
+
+		private CacheRing(List<CachePeer> cachePeers, String localUrlBase, Map<String, CachePeer> cachePeersByUrlBase) {
+			this.cachePeers = cachePeers;
+			this.localUrlBase = localUrlBase;
+			this.cachePeersByUrlBase = cachePeersByUrlBase;
+			Map<String, String> members = new HashMap<>(cachePeersByUrlBase.size() * 2 + 1);
+			for (String urlBase : cachePeersByUrlBase.keySet()) {
+				members.put(urlBase, urlBase);
+			}
+			if (localUrlBase != null) {
+				members.put(localUrlBase, localUrlBase);
+			}
+			this.ring = new ConsistentHashRing<>(members);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.loader.CacheLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the keys which are missing locally from the peers which own them, as placed by the same
+ * {@link PartitionOwners} as the {@link BatchingCacheReplicator} sends the changes to them. The owners are asked
+ * in turn, primary first, until one of them has the key. A copy loaded from the owners is kept up to date as the
+ * replicator sends a remove of the key to every peer which does not own it when it changes. Ehcache only calls a loader for the loading reads, i.e.
+ * <strong>getWithLoader</strong>, so those are the reads which are routed to the owners.
+ *
+ * @author Fabric WorldWide
+ */
+public class PartitionedCacheLoader implements CacheLoader {
+	private static final Logger LOG = LoggerFactory.getLogger(PartitionedCacheLoader.class.getName());
+
+	private final Ehcache cache;
+	private final String scheme;
+	private final int replicationFactor;
+
+	/**
+	 * Null when every peer is asked
+	 */
+	private final PartitionOwners partitionOwners;
+	private volatile Status status = Status.STATUS_UNINITIALISED;
+
+	/**
+	 * @param replicationFactor	The replication factor the cache replicates with, or 0 to ask every peer
+	 */
+	PartitionedCacheLoader(Ehcache cache, String scheme, int replicationFactor) {
+		this.cache = cache;
+		this.scheme = scheme;
+		this.replicationFactor = replicationFactor;
+		this.partitionOwners = replicationFactor > 0 ? new PartitionOwners(replicationFactor) : null;
+	}
+
+	@Override
+	public Object load(Object key) throws CacheException {
+		Element element = loadElement(key);
+		return element == null ? null : element.getObjectValue();
+	}
+
+	@Override
+	public Object load(Object key, Object argument) {
+		return load(key);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Map loadAll(Collection keys) {
+		Map<Object, Object> values = new HashMap<>();
+		for (Object key : keys) {
+			Object value = load(key);
+			if (value != null) {
+				values.put(key, value);
+			}
+		}
+		return values;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Map loadAll(Collection keys, Object argument) {
+		return loadAll(keys);
+	}
+
+	@Override
+	public String getName() {
+		return "PartitionedCacheLoader(" + cache.getName() + ")";
+	}
+
+	@Override
+	public CacheLoader clone(Ehcache cache) throws CloneNotSupportedException {
+		return new PartitionedCacheLoader(cache, scheme, replicationFactor);
+	}
+
+	@Override
+	public void init() {
+		status = Status.STATUS_ALIVE;
+	}
+
+	@Override
+	public void dispose() throws CacheException {
+		status = Status.STATUS_SHUTDOWN;
+	}
+
+	@Override
+	public Status getStatus() {
+		return status;
+	}
+
+	List<CachePeer> listRemoteCachePeers() {
+		return ReplicationBatcher.listRemoteCachePeers(cache, scheme);
+	}
+
+	String getLocalUrlBase() {
+		return ReplicationBatcher.getLocalUrlBase(cache, scheme);
+	}
+
+	private Element loadElement(Object key) {
+		if (!(key instanceof Serializable)) {
+			return null;
+		}
+
+		List<CachePeer> cachePeers = listRemoteCachePeers();
+		List<CachePeer> owners = partitionOwners == null ? cachePeers :
+				partitionOwners.getOwners(cache, cachePeers, getLocalUrlBase(), key);
+		for (CachePeer owner : owners) {
+			try {
+				Element element = owner.getQuiet((Serializable)key);
+				if (element != null) {
+					return element;
+				}
+			} catch (RemoteException e) {
+				LOG.debug("Could not load {} of cache {} from {}, trying the next owner", key, cache.getName(), owner, e);
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.util.Properties;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.loader.CacheLoader;
+import net.sf.ehcache.loader.CacheLoaderFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xarixa.ehcache.aws.AwsSecurityGroupAwareCacheManagerPeerProvider;
+
+/**
+ * Creates a {@link PartitionedCacheLoader}, configured with the same <strong>scheme</strong> and
+ * <strong>replicationFactor</strong> as the {@link BatchingCacheReplicatorFactory} of the cache.
+ *
+ * @author Fabric WorldWide
+ */
+public class PartitionedCacheLoaderFactory extends CacheLoaderFactory {
+
+	@Override
+	public CacheLoader createCacheLoader(Ehcache cache, Properties properties) {
+		int replicationFactor = BatchingCacheReplicatorFactory.extractIntegerProperty(
+				BatchingCacheReplicatorFactory.REPLICATION_FACTOR_PROP, 0, properties);
+		if (replicationFactor < 0) {
+			throw new IllegalArgumentException("Configured replication factor is invalid (was " + replicationFactor + ")");
+		}
+
+		String scheme = StringUtils.defaultIfBlank(
+				PropertyUtil.extractAndLogProperty(BatchingCacheReplicatorFactory.SCHEME_PROP, properties),
+				AwsSecurityGroupAwareCacheManagerPeerProvider.CACHE_SCHEME).trim().toUpperCase();
+		return new PartitionedCacheLoader(cache, scheme, replicationFactor);
+	}
+
+}
@@ -0,0 +1,586 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xarixa.ehcache.aws.NioCacheManagerPeerListener;
+
+/**
+ * Gathers the replicated changes of all of the caches in the JVM and sends them once per interval. The changes
+ * to a key within an interval are coalesced to the last of them, and a remove all drops everything gathered
+ * for the cache before it. At the end of each interval the changes are grouped by the peer they go to, using
+ * the peers the provider lists for each cache, and queued for the peer without waiting for them to be sent. Each
+ * peer has at most one task sending its queue at a time, so that its changes arrive in order, the peers are sent
+ * to concurrently and a slow peer only holds up its own changes. A peer which falls behind by more than
+ * {@value #MAX_QUEUED_EVENTS} changes has the changes over that dropped.
+ * <p>
+ * Ehcache binds a remote {@link CachePeer} per cache, so the changes to each cache still go in a call of their
+ * own, but that is one call per cache and peer per interval rather than one per change.
+ * <p>
+ * A batcher is shared by the replicators of the caches with the same settings, and shut down when the last of
+ * them is disposed.
+ * <p>
+ * With a replication factor a put only goes to the peers which own its key, as placed by {@link PartitionOwners},
+ * rather than to every peer. The other peers are sent a remove of the key instead, as they may hold a copy that
+ * they loaded from the owners, which is much smaller than the element. Removes and remove alls still go to every
+ * peer.
+ *
+ * @author Fabric WorldWide
+ */
+class ReplicationBatcher {
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicationBatcher.class.getName());
+	private static final Map<List<Object>, ReplicationBatcher> batchers = new HashMap<>();
+
+	/**
+	 * Stands in for the key of a remove all, which goes ahead of the changes that follow it
+	 */
+	private static final Object REMOVE_ALL_KEY = new Object();
+
+	/**
+	 * Maximum number of changes waiting to be sent to a peer
+	 */
+	static final int MAX_QUEUED_EVENTS = 100000;
+
+	private final String scheme;
+	private final int maximumBatchSize;
+
+	/**
+	 * The key of this batcher in the shared batchers, and the number of replicators using it. Guarded by the class.
+	 */
+	private List<Object> batcherKey;
+	private int references;
+
+	/**
+	 * Null when every change goes to every peer
+	 */
+	private final PartitionOwners partitionOwners;
+	private final ConcurrentMap<Ehcache, PendingEvents> pendingEvents = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService flushExecutor;
+	private final ExecutorService sendExecutor;
+	private final Object flushLock = new Object();
+
+	/**
+	 * The URL base of each peer, by which the peers of different caches are grouped. Guarded by the flush lock.
+	 */
+	private final Map<CachePeer, String> destinations = new WeakHashMap<>();
+
+	/**
+	 * The changes waiting to be sent to each peer, which are dropped once they have been sent
+	 */
+	private final ConcurrentMap<String, DestinationQueue> destinationQueues = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of peers which are being sent to. Guarded by the send lock.
+	 */
+	private int sendingDestinations;
+	private final Object sendLock = new Object();
+
+	/**
+	 * Gets the batcher shared by the caches with the same settings, starting it if need be. Each call takes a
+	 * reference which is given up by {@link #release(ReplicationBatcher)}.
+	 */
+	static synchronized ReplicationBatcher getInstance(String scheme, int batchIntervalMs, int maximumBatchSize,
+			int replicationFactor) {
+		List<Object> batcherKey = Arrays.<Object>asList(scheme, batchIntervalMs, maximumBatchSize, replicationFactor);
+		ReplicationBatcher batcher = batchers.get(batcherKey);
+		if (batcher == null) {
+			batcher = new ReplicationBatcher(scheme, maximumBatchSize, replicationFactor);
+			batcher.start(batchIntervalMs);
+			batcher.batcherKey = batcherKey;
+			batchers.put(batcherKey, batcher);
+		}
+		batcher.references++;
+		return batcher;
+	}
+
+	/**
+	 * Takes another reference to a shared batcher, for a replicator which is a copy of one that uses it
+	 */
+	static synchronized void retain(ReplicationBatcher batcher) {
+		if (batcher.batcherKey != null) {
+			batcher.references++;
+		}
+	}
+
+	/**
+	 * Gives up a reference to a shared batcher, shutting it down once the last one has been given up
+	 */
+	static synchronized void release(ReplicationBatcher batcher) {
+		if (batcher.batcherKey == null || --batcher.references > 0) {
+			return;
+		}
+
+		batchers.remove(batcher.batcherKey);
+		batcher.batcherKey = null;
+		batcher.shutdown();
+	}
+
+	/**
+	 * @param scheme				The scheme of the peer provider to send through
+	 * @param replicationFactor	The number of peers each change is sent to, or 0 for all of them
+	 */
+	ReplicationBatcher(String scheme, int maximumBatchSize, int replicationFactor) {
+		this.scheme = scheme;
+		this.maximumBatchSize = maximumBatchSize;
+		this.partitionOwners = replicationFactor > 0 ? new PartitionOwners(replicationFactor) : null;
+		this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("AwsReplicationBatcherThread"));
+		this.sendExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("AwsReplicationSenderThread"));
+	}
+
+	void start(long batchIntervalMs) {
+		flushExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					LOG.error("Could not send the replicated changes", e);
+				}
+			}
+		}, batchIntervalMs, batchIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds a change, replacing any change to the same key since the last flush
+	 */
+	void add(Ehcache cache, Object key, RmiEventMessage eventMessage) {
+		getPendingEvents(cache).add(key, eventMessage);
+	}
+
+	/**
+	 * Adds a remove all, dropping the changes to the cache since the last flush
+	 */
+	void addRemoveAll(Ehcache cache, RmiEventMessage eventMessage) {
+		getPendingEvents(cache).addRemoveAll(eventMessage);
+	}
+
+	/**
+	 * Queues everything gathered so far to be sent, without waiting for it to be sent
+	 */
+	void flush() {
+		synchronized (flushLock) {
+			Map<String, List<Batch>> batchesByDestination = new HashMap<>();
+			for (Map.Entry<Ehcache, PendingEvents> entry : pendingEvents.entrySet()) {
+				Ehcache cache = entry.getKey();
+				List<RmiEventMessage> events = entry.getValue().drain();
+				if (cache.getStatus() != Status.STATUS_ALIVE) {
+					pendingEvents.remove(cache, entry.getValue());
+				}
+				if (events == null) {
+					continue;
+				}
+
+				List<CachePeer> cachePeers;
+				try {
+					cachePeers = listRemoteCachePeers(cache);
+				} catch (CacheException e) {
+					LOG.warn("Could not list the peers of cache {}, dropping {} replicated changes", cache.getName(), events.size(), e);
+					continue;
+				}
+
+				for (Map.Entry<CachePeer, List<RmiEventMessage>> cachePeerEvents : partition(cache, cachePeers, events).entrySet()) {
+					String destination = getDestination(cachePeerEvents.getKey());
+					List<Batch> batches = batchesByDestination.get(destination);
+					if (batches == null) {
+						batches = new ArrayList<>();
+						batchesByDestination.put(destination, batches);
+					}
+					batches.add(new Batch(cache.getName(), cachePeerEvents.getKey(), cachePeerEvents.getValue()));
+				}
+			}
+
+			for (Map.Entry<String, List<Batch>> destinationBatches : batchesByDestination.entrySet()) {
+				queue(destinationBatches.getKey(), destinationBatches.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Queues everything gathered so far to be sent and waits until everything queued has been sent, for at most
+	 * the timeout
+	 * @return true if everything was sent in time
+	 */
+	boolean flushAndWait(long timeoutMs) {
+		flush();
+
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (sendLock) {
+			try {
+				long remainingMs = timeoutMs;
+				while (sendingDestinations > 0 && remainingMs > 0) {
+					sendLock.wait(remainingMs);
+					remainingMs = deadline - System.currentTimeMillis();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return sendingDestinations == 0;
+		}
+	}
+
+	/**
+	 * Lists the peers to send the changes to a cache to
+	 */
+	List<CachePeer> listRemoteCachePeers(Ehcache cache) {
+		return listRemoteCachePeers(cache, scheme);
+	}
+
+	/**
+	 * @return The URL base by which the peers know this node, or null if it is not known
+	 */
+	String getLocalUrlBase(Ehcache cache) {
+		return getLocalUrlBase(cache, scheme);
+	}
+
+	/**
+	 * Finds the URL base of this node from the peer listener of the cache manager for the scheme, i.e. from the
+	 * peers the RMI listener has bound
+	 * @return The URL base, or null if there is no such listener or it has not bound any peers yet
+	 */
+	static String getLocalUrlBase(Ehcache cache, String scheme) {
+		CacheManager cacheManager = cache.getCacheManager();
+		CacheManagerPeerListener peerListener = cacheManager == null ? null : cacheManager.getCachePeerListener(scheme);
+		if (peerListener instanceof NioCacheManagerPeerListener) {
+			return ((NioCacheManagerPeerListener)peerListener).getUrlBase();
+		}
+		if (peerListener == null) {
+			return null;
+		}
+
+		for (Object boundCachePeer : peerListener.getBoundCachePeers()) {
+			try {
+				return ((CachePeer)boundCachePeer).getUrlBase();
+			} catch (RemoteException e) {
+				// Bound locally, so this is not expected
+				LOG.debug("Could not get the URL base of {}", boundCachePeer, e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the peers of a cache from the peer provider of its cache manager for the scheme
+	 * @return The peers, which is empty if there is no such provider
+	 */
+	static List<CachePeer> listRemoteCachePeers(Ehcache cache, String scheme) {
+		CacheManager cacheManager = cache.getCacheManager();
+		CacheManagerPeerProvider peerProvider = cacheManager == null ? null :
+				cacheManager.getCacheManagerPeerProvider(scheme);
+		if (peerProvider == null) {
+			return new ArrayList<>();
+		}
+
+		@SuppressWarnings("unchecked")
+		List<CachePeer> cachePeers = peerProvider.listRemoteCachePeers(cache);
+		return cachePeers;
+	}
+
+	/**
+	 * Stops sending, anything not yet sent is dropped
+	 */
+	void shutdown() {
+		flushExecutor.shutdownNow();
+		sendExecutor.shutdownNow();
+	}
+
+	boolean isShutdown() {
+		return flushExecutor.isShutdown();
+	}
+
+	/**
+	 * Works out which of the changes go to each peer, i.e. the puts to their owners and a remove to the others
+	 */
+	private Map<CachePeer, List<RmiEventMessage>> partition(Ehcache cache, List<CachePeer> cachePeers,
+			List<RmiEventMessage> events) {
+		Map<CachePeer, List<RmiEventMessage>> eventsByCachePeer = new IdentityHashMap<>();
+		if (partitionOwners == null || cachePeers.size() <= partitionOwners.getReplicationFactor()) {
+			for (CachePeer cachePeer : cachePeers) {
+				eventsByCachePeer.put(cachePeer, events);
+			}
+			return eventsByCachePeer;
+		}
+
+		String localUrlBase = getLocalUrlBase(cache);
+		for (RmiEventMessage event : events) {
+			if (event.getType() != RmiEventType.PUT) {
+				for (CachePeer cachePeer : cachePeers) {
+					addEvent(eventsByCachePeer, cachePeer, event);
+				}
+				continue;
+			}
+
+			Serializable key = (Serializable)event.getElement().getObjectKey();
+			List<CachePeer> owners = partitionOwners.getOwners(cache, cachePeers, localUrlBase, key);
+			RmiEventMessage invalidation = null;
+			for (CachePeer cachePeer : cachePeers) {
+				if (owners.contains(cachePeer)) {
+					addEvent(eventsByCachePeer, cachePeer, event);
+				} else {
+					if (invalidation == null) {
+						invalidation = new RmiEventMessage(cache, RmiEventType.REMOVE, key, null);
+					}
+					addEvent(eventsByCachePeer, cachePeer, invalidation);
+				}
+			}
+		}
+		return eventsByCachePeer;
+	}
+
+	private static void addEvent(Map<CachePeer, List<RmiEventMessage>> eventsByCachePeer, CachePeer cachePeer,
+			RmiEventMessage event) {
+		List<RmiEventMessage> cachePeerEvents = eventsByCachePeer.get(cachePeer);
+		if (cachePeerEvents == null) {
+			cachePeerEvents = new ArrayList<>();
+			eventsByCachePeer.put(cachePeer, cachePeerEvents);
+		}
+		cachePeerEvents.add(event);
+	}
+
+	private PendingEvents getPendingEvents(Ehcache cache) {
+		PendingEvents cacheEvents = pendingEvents.get(cache);
+		if (cacheEvents == null) {
+			PendingEvents newCacheEvents = new PendingEvents();
+			cacheEvents = pendingEvents.putIfAbsent(cache, newCacheEvents);
+			if (cacheEvents == null) {
+				cacheEvents = newCacheEvents;
+			}
+		}
+		return cacheEvents;
+	}
+
+	private String getDestination(CachePeer cachePeer) {
+		String destination = destinations.get(cachePeer);
+		if (destination == null) {
+			try {
+				destination = cachePeer.getUrlBase();
+				destinations.put(cachePeer, destination);
+			} catch (RemoteException e) {
+				// Send to the peer on its own, it will most likely fail and be reported there
+				destination = "unresolved@" + System.identityHashCode(cachePeer);
+			}
+		}
+		return destination;
+	}
+
+	/**
+	 * Adds batches to the queue of a peer, and starts sending it if it is not already being sent
+	 */
+	private void queue(String destination, List<Batch> batches) {
+		while (true) {
+			DestinationQueue destinationQueue = destinationQueues.get(destination);
+			if (destinationQueue == null) {
+				DestinationQueue newDestinationQueue = new DestinationQueue(destination);
+				destinationQueue = destinationQueues.putIfAbsent(destination, newDestinationQueue);
+				if (destinationQueue == null) {
+					destinationQueue = newDestinationQueue;
+				}
+			}
+
+			Boolean start = destinationQueue.add(batches);
+			if (start == null) {
+				// Dropped once it was sent, so use a new one
+				continue;
+			}
+			if (start) {
+				startSending(destinationQueue);
+			}
+			return;
+		}
+	}
+
+	private void startSending(DestinationQueue destinationQueue) {
+		synchronized (sendLock) {
+			sendingDestinations++;
+		}
+		try {
+			sendExecutor.execute(destinationQueue);
+		} catch (RejectedExecutionException e) {
+			LOG.debug("Not sending the replicated changes to {}, the batcher has been shut down", destinationQueue.destination);
+			destinationQueue.drop();
+			sent();
+		}
+	}
+
+	/**
+	 * Records that a peer is no longer being sent to
+	 */
+	private void sent() {
+		synchronized (sendLock) {
+			sendingDestinations--;
+			sendLock.notifyAll();
+		}
+	}
+
+	private void send(String destination, Batch batch) {
+		List<RmiEventMessage> events = batch.events;
+		try {
+			for (int from = 0; from < events.size(); from += maximumBatchSize) {
+				// A sub list is not serializable, so copy it
+				batch.cachePeer.send(new ArrayList<>(events.subList(from, Math.min(events.size(), from + maximumBatchSize))));
+			}
+		} catch (RemoteException | RuntimeException e) {
+			LOG.warn("Could not send {} replicated changes of cache {} to {}", events.size(), batch.cacheName, destination, e);
+		}
+	}
+
+	/**
+	 * The changes to a cache since the last flush, in the order in which their keys were first changed
+	 */
+	private static final class PendingEvents {
+		private Map<Object, RmiEventMessage> events = new LinkedHashMap<>();
+
+		synchronized void add(Object key, RmiEventMessage eventMessage) {
+			events.put(key, eventMessage);
+		}
+
+		synchronized void addRemoveAll(RmiEventMessage eventMessage) {
+			events.clear();
+			events.put(REMOVE_ALL_KEY, eventMessage);
+		}
+
+		/**
+		 * @return The changes, or null if there are none
+		 */
+		synchronized List<RmiEventMessage> drain() {
+			if (events.isEmpty()) {
+				return null;
+			}
+			List<RmiEventMessage> drained = new ArrayList<>(events.values());
+			events = new LinkedHashMap<>();
+			return drained;
+		}
+	}
+
+	/**
+	 * The batches waiting to be sent to a peer, which it sends until there are none left, when it drops itself
+	 */
+	private final class DestinationQueue implements Runnable {
+		private final String destination;
+		/**
+		 * Guarded by this, as are the fields below
+		 */
+		private List<Batch> batches = new ArrayList<>();
+		private int queuedEvents;
+		private boolean sending;
+		private boolean dropped;
+
+		private DestinationQueue(String destination) {
+			this.destination = destination;
+		}
+
+		/**
+		 * @return Whether the queue needs to be sent, or null if it has been dropped and cannot take batches
+		 */
+		synchronized Boolean add(List<Batch> newBatches) {
+			if (dropped) {
+				return null;
+			}
+
+			for (Batch batch : newBatches) {
+				if (queuedEvents + batch.events.size() > MAX_QUEUED_EVENTS) {
+					LOG.warn("Dropping {} replicated changes of cache {} to {}, which has {} changes waiting to be sent",
+							batch.events.size(), batch.cacheName, destination, queuedEvents);
+					continue;
+				}
+				batches.add(batch);
+				queuedEvents += batch.events.size();
+			}
+
+			if (sending || batches.isEmpty()) {
+				return false;
+			}
+			sending = true;
+			return true;
+		}
+
+		synchronized void drop() {
+			dropped = true;
+			batches = new ArrayList<>();
+			queuedEvents = 0;
+			destinationQueues.remove(destination, this);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					List<Batch> sendBatches;
+					synchronized (this) {
+						if (batches.isEmpty() || Thread.currentThread().isInterrupted()) {
+							drop();
+							return;
+						}
+						sendBatches = batches;
+						batches = new ArrayList<>();
+						queuedEvents = 0;
+					}
+
+					for (Batch batch : sendBatches) {
+						send(destination, batch);
+					}
+				}
+			} finally {
+				sent();
+			}
+		}
+	}
+
+	private static final class Batch {
+		private final String cacheName;
+		private final CachePeer cachePeer;
+		private final List<RmiEventMessage> events;
+
+		private Batch(String cacheName, CachePeer cachePeer, List<RmiEventMessage> events) {
+			this.cacheName = cacheName;
+			this.cachePeer = cachePeer;
+			this.events = events;
+		}
+	}
+
+	static final class DaemonThreadFactory implements ThreadFactory {
+		private final String namePrefix;
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		DaemonThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -1,13 +1,21 @@
 package com.xarixa.ehcache.aws;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.ConnectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
@@ -22,7 +30,6 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.powermock.reflect.internal.WhiteboxImpl;
 
 import com.xarixa.ehcache.aws.discovery.DiscoveryService;
 import com.xarixa.ehcache.aws.discovery.DiscoveryServiceConfig;
@@ -30,8 +37,9 @@ import com.xarixa.ehcache.aws.discovery.DiscoveryServiceFactory;
 
 @RunWith(JMock.class)
 public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
-    private static final String CACHE_PEERS_MAP_VARIABLE_NAME = "cachePeers";
-	private static final String PEER_URLS_SET_VARIABLE_NAME = "peerUrls";
+	private static final int PEER_LOOKUP_TIMEOUT_MS = 200;
+	private static final int PEER_RETRY_BACKOFF_MS = 60000;
+	private static final int PEER_FAILURE_THRESHOLD = 3;
 	private Mockery context = new Mockery() {{
         setImposteriser(ClassImposteriser.INSTANCE);
     }};
@@ -46,6 +54,12 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
     	
     	context.checking(new Expectations() {{
     		atMost(1).of(discoveryServiceConfig).validate();
+    		allowing(discoveryServiceConfig).getPeerLookupTimeout(); will(returnValue(PEER_LOOKUP_TIMEOUT_MS));
+    		allowing(discoveryServiceConfig).getPeerRetryBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS));
+    		allowing(discoveryServiceConfig).getPeerRetryMaxBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS * 4));
+    		allowing(discoveryServiceConfig).getPeerFailureThreshold(); will(returnValue(PEER_FAILURE_THRESHOLD));
+    		allowing(discoveryServiceConfig).getClusterFormationTimeout(); will(returnValue(0));
+    		allowing(discoveryServiceConfig).getPeerListFile(); will(returnValue(null));
     	}});
     	
     	peerProvider = new TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(
@@ -88,7 +102,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		}});
 		
 		// Make sure that the initial list is empty
-		Assert.assertTrue(((Set<String>)WhiteboxImpl.getInternalState(peerProvider, PEER_URLS_SET_VARIABLE_NAME)).isEmpty());
+		Assert.assertTrue(peerProvider.getCachePeerTable().getPeerUrls().isEmpty());
 
 		// Set up a list of hosts. Because these hosts are actually resolved they need to be real.
 		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
@@ -99,12 +113,51 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		peerProvider.setCachePeerHosts(cachePeerHosts);
 		
 		// Check that RMI URL's should be formed from the values
-		Set<String> peerUrls = (Set<String>)WhiteboxImpl.getInternalState(peerProvider, PEER_URLS_SET_VARIABLE_NAME);
+		Set<String> peerUrls = peerProvider.getCachePeerTable().getPeerUrls();
 		Assert.assertEquals(2, peerUrls.size());
 		Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
 		Assert.assertTrue(peerUrls.contains("//www.yahoo.com:61618"));
 	}
 
+	@Test
+	public void testSetCachePeerHostsLeavesOutTheLocalHostOnTheListenerPortOnly() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+		}});
+
+		// The loopback interface is always present, and localhost is resolved to it
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("127.0.0.1", 61616));
+		cachePeerHosts.add(new CachePeerHost("localhost", 61616));
+		cachePeerHosts.add(new CachePeerHost("127.0.0.1", 61617));
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+
+		Set<String> peerUrls = peerProvider.getCachePeerTable().getPeerUrls();
+		Assert.assertEquals(2, peerUrls.size());
+		Assert.assertTrue(peerUrls.contains("//127.0.0.1:61617"));
+		Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
+	}
+
+	@Test
+	public void testRegisterPeerAddsRemotePeersOnlyOnce() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+		}});
+
+		peerProvider.registerPeer("//www.google.com:61616/myCache");
+		peerProvider.registerPeer("//www.google.com:61616/myOtherCache");
+		peerProvider.registerPeer("//127.0.0.1:61616/myCache");
+
+		Set<CachePeerIdentity> peers = peerProvider.getCachePeerTable().getPeers();
+		Assert.assertEquals(1, peers.size());
+		Assert.assertEquals("//www.google.com:61616/myCache", peers.iterator().next().getCacheUrl("myCache"));
+	}
+
 	@Test
 	public void testSetCachePeerHostsUpdatesTheSetOfHostsWhenAHostHasBeenRemoved() {
 		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
@@ -124,7 +177,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		peerProvider.setCachePeerHosts(cachePeerHosts);
 		
 		// Check that RMI URL's should be formed from the values
-		Set<String> peerUrls = (Set<String>)WhiteboxImpl.getInternalState(peerProvider, PEER_URLS_SET_VARIABLE_NAME);
+		Set<String> peerUrls = peerProvider.getCachePeerTable().getPeerUrls();
 		Assert.assertEquals(2, peerUrls.size());
 		Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
 		Assert.assertTrue(peerUrls.contains("//www.yahoo.com:61618"));
@@ -134,7 +187,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		peerProvider.setCachePeerHosts(cachePeerHosts);
 		
 		// Check that RMI URL's should be formed from the values
-		peerUrls = (Set<String>)WhiteboxImpl.getInternalState(peerProvider, PEER_URLS_SET_VARIABLE_NAME);
+		peerUrls = peerProvider.getCachePeerTable().getPeerUrls();
 		Assert.assertEquals(1, peerUrls.size());
 		Assert.assertTrue(peerUrls.contains("//www.yahoo.com:61618"));
 	}
@@ -180,7 +233,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		}});
 		
 		// Make sure that the initial list is empty
-		Assert.assertTrue(((Map<String,List<CachePeer>>)WhiteboxImpl.getInternalState(peerProvider, CACHE_PEERS_MAP_VARIABLE_NAME)).isEmpty());
+		Assert.assertTrue(peerProvider.getCachePeerTable().getCachePeers().isEmpty());
 
 		// Set up a list of hosts. Because these hosts are actually resolved they need to be real.
 		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
@@ -193,8 +246,8 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		// Now list the peers, which should create a new entry in the map and return a list of CachePeer's
 		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
 		Assert.assertEquals(2, listRemoteCachePeers.size());
-		Assert.assertTrue(listRemoteCachePeers.contains(googleCacheRemote));
-		Assert.assertTrue(listRemoteCachePeers.contains(yahooCacheRemote));
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(googleCacheRemote));
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(yahooCacheRemote));
 
 		try {
 			listRemoteCachePeers.add(context.mock(CachePeer.class, "dummyCachePeer"));
@@ -205,12 +258,37 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 
 		// Check that the cache has also been populated with this list
 		Map<String,List<CachePeer>> cachePeers =
-				(Map<String,List<CachePeer>>)WhiteboxImpl.getInternalState(peerProvider, CACHE_PEERS_MAP_VARIABLE_NAME);
+				peerProvider.getCachePeerTable().getCachePeers();
 		Assert.assertEquals(1, cachePeers.size());
 		Assert.assertEquals(listRemoteCachePeers, cachePeers.get(cacheName));
 		
 		// Another invocation should return exactly the same object, i.e. this list should not be recreated
-		Assert.assertEquals(listRemoteCachePeers.hashCode(), peerProvider.listRemoteCachePeers(cache).hashCode());
+		Assert.assertSame(listRemoteCachePeers, peerProvider.listRemoteCachePeers(cache));
+	}
+
+	@Test
+	public void testSetCachePeerHostsOnlyPublishesANewTableWhenTheMembershipChanges() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+		}});
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		CachePeerTable table = peerProvider.getCachePeerTable();
+
+		// The same membership again should leave the published table alone
+		peerProvider.setCachePeerHosts(new HashSet<>(cachePeerHosts));
+		Assert.assertSame(table, peerProvider.getCachePeerTable());
+
+		// A new member replaces the table as a whole, the old snapshot is untouched
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertNotSame(table, peerProvider.getCachePeerTable());
+		Assert.assertEquals(1, table.getPeerUrls().size());
+		Assert.assertEquals(2, peerProvider.getPeerUrls().size());
 	}
 	
 	@Test
@@ -233,7 +311,7 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		}});
 		
 		// Make sure that the initial list is empty
-		Assert.assertTrue(((Map<String,List<CachePeer>>)WhiteboxImpl.getInternalState(peerProvider, CACHE_PEERS_MAP_VARIABLE_NAME)).isEmpty());
+		Assert.assertTrue(peerProvider.getCachePeerTable().getCachePeers().isEmpty());
 
 		// Set up a list of hosts. Because these hosts are actually resolved they need to be real.
 		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
@@ -248,19 +326,393 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 		// Now list the peers, which should create a new entry in the map and return a list of CachePeer's
 		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
 		Assert.assertEquals(2, listRemoteCachePeers.size());
-		Assert.assertTrue(listRemoteCachePeers.contains(googleCacheRemote));
-		Assert.assertTrue(listRemoteCachePeers.contains(yahooCacheRemote));
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(googleCacheRemote));
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(yahooCacheRemote));
 
 		// Now remove google cache peer
 		Assert.assertTrue(cachePeerHosts.remove(googleCachePeerHost));
 		peerProvider.setCachePeerHosts(cachePeerHosts);
 		listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
 		Assert.assertEquals(1, listRemoteCachePeers.size());
-		Assert.assertTrue(listRemoteCachePeers.contains(yahooCacheRemote));
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(yahooCacheRemote));
 	}
-	
 
+	@Test
+	public void testListRemoteCachePeersOnlyLooksUpNewPeersWhenAHostHasBeenAddedOrRemoved() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		// Mock some stuff up
+		final Ehcache cache = context.mock(Ehcache.class);
+		final CachePeer googleCacheRemote = context.mock(CachePeer.class, "googleCacheRemote");
+		final CachePeer yahooCacheRemote = context.mock(CachePeer.class, "yahooCacheRemote");
+		final CachePeer bingCacheRemote = context.mock(CachePeer.class, "bingCacheRemote");
+
+		final String cacheName = "myCache";
+		peerProvider.addCachePeerPerUrl("//www.google.com:61616/" + cacheName, googleCacheRemote);
+		peerProvider.addCachePeerPerUrl("//www.yahoo.com:61618/" + cacheName, yahooCacheRemote);
+		peerProvider.addCachePeerPerUrl("//www.bing.com:61617/" + cacheName, bingCacheRemote);
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(cache).getName(); will(returnValue(cacheName));
+		}});
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		CachePeerHost googleCachePeerHost = new CachePeerHost("www.google.com", 61616);
+		cachePeerHosts.add(googleCachePeerHost);
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertEquals(2, peerProvider.listRemoteCachePeers(cache).size());
+
+		// Add a new peer, only this one should be looked up
+		cachePeerHosts.add(new CachePeerHost("www.bing.com", 61617));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(3, listRemoteCachePeers.size());
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(bingCacheRemote));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.google.com:61616/" + cacheName));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.yahoo.com:61618/" + cacheName));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.bing.com:61617/" + cacheName));
+
+		// Remove a peer, the list should be rebuilt straight away without any lookups
+		Assert.assertTrue(cachePeerHosts.remove(googleCachePeerHost));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertNotNull(peerProvider.getCachePeerTable().getCachePeers(cacheName));
+		listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(2, listRemoteCachePeers.size());
+		Assert.assertFalse(untracked(listRemoteCachePeers).contains(googleCacheRemote));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.yahoo.com:61618/" + cacheName));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.bing.com:61617/" + cacheName));
+	}
+
+	@Test
+	public void testListRemoteCachePeersReturnsThePeersResolvedInTimeAndMergesInLateOnes() throws InterruptedException {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		// Mock some stuff up
+		final Ehcache cache = context.mock(Ehcache.class);
+		final CachePeer googleCacheRemote = context.mock(CachePeer.class, "googleCacheRemote");
+		final CachePeer yahooCacheRemote = context.mock(CachePeer.class, "yahooCacheRemote");
+
+		// The yahoo lookup is black-holed until we release it
+		final String cacheName = "myCache";
+		CountDownLatch yahooLookupLatch = new CountDownLatch(1);
+		peerProvider.addCachePeerPerUrl("//www.google.com:61616/" + cacheName, googleCacheRemote);
+		peerProvider.addBlockedCachePeerPerUrl("//www.yahoo.com:61618/" + cacheName, yahooCacheRemote, yahooLookupLatch);
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(cache).getName(); will(returnValue(cacheName));
+		}});
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+
+		// Only the peer which resolved in time is returned, and we don't wait much longer than the timeout
+		long start = System.currentTimeMillis();
+		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertTrue(System.currentTimeMillis() - start < PEER_LOOKUP_TIMEOUT_MS * 5);
+		Assert.assertEquals(1, listRemoteCachePeers.size());
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(googleCacheRemote));
+
+		// Release the black-holed lookup, it should be merged into the published list
+		yahooLookupLatch.countDown();
+		for (int i = 0; i < 50 && peerProvider.listRemoteCachePeers(cache).size() < 2; i++) {
+			Thread.sleep(20);
+		}
+		listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(2, listRemoteCachePeers.size());
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(yahooCacheRemote));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.yahoo.com:61618/" + cacheName));
+	}
+
+	@Test
+	public void testListRemoteCachePeersSkipsPeersThatCouldNotBeReachedUntilTheirBackoffExpires() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		// Mock some stuff up
+		final Ehcache cache = context.mock(Ehcache.class);
+		final CachePeer googleCacheRemote = context.mock(CachePeer.class, "googleCacheRemote");
+		final CachePeer bingCacheRemote = context.mock(CachePeer.class, "bingCacheRemote");
+
+		final String cacheName = "myCache";
+		peerProvider.addCachePeerPerUrl("//www.google.com:61616/" + cacheName, googleCacheRemote);
+		peerProvider.addUnreachableUrl("//www.yahoo.com:61618/" + cacheName);
+		peerProvider.addCachePeerPerUrl("//www.bing.com:61617/" + cacheName, bingCacheRemote);
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(cache).getName(); will(returnValue(cacheName));
+		}});
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertEquals(1, peerProvider.listRemoteCachePeers(cache).size());
+		Assert.assertTrue(peerProvider.getBackedOffPeers().containsKey("//www.yahoo.com:61618"));
+
+		// A new peer forces a new list, but the unreachable peer should not be tried again yet
+		cachePeerHosts.add(new CachePeerHost("www.bing.com", 61617));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(2, listRemoteCachePeers.size());
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(bingCacheRemote));
+		Assert.assertEquals(1, peerProvider.getLookupCount("//www.yahoo.com:61618/" + cacheName));
+	}
+
+	@Test
+	public void testStubsOfAPeerAreEvictedAfterRepeatedFailedCallsAndThePeerIsBackedOff() throws RemoteException {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		// Mock some stuff up
+		final Ehcache cache = context.mock(Ehcache.class);
+		final CachePeer googleCacheRemote = context.mock(CachePeer.class, "googleCacheRemote");
+		final CachePeer yahooCacheRemote = context.mock(CachePeer.class, "yahooCacheRemote");
+
+		final String cacheName = "myCache";
+		peerProvider.addCachePeerPerUrl("//www.google.com:61616/" + cacheName, googleCacheRemote);
+		peerProvider.addCachePeerPerUrl("//www.yahoo.com:61618/" + cacheName, yahooCacheRemote);
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(cache).getName(); will(returnValue(cacheName));
+			allowing(yahooCacheRemote).removeAll(); will(throwException(new ConnectException("Connection refused")));
+		}});
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Date beforeEviction = new Date(System.currentTimeMillis() - 1);
 
+		List<CachePeer> listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(2, listRemoteCachePeers.size());
+		CachePeer trackedYahooCacheRemote = listRemoteCachePeers.get(untracked(listRemoteCachePeers).indexOf(yahooCacheRemote));
+
+		for (int i = 1; i <= PEER_FAILURE_THRESHOLD; i++) {
+			try {
+				trackedYahooCacheRemote.removeAll();
+				Assert.fail("Expected the call to fail");
+			} catch (ConnectException e) {
+				// Expected
+			}
+			if (i < PEER_FAILURE_THRESHOLD) {
+				Assert.assertEquals(Integer.valueOf(i), peerProvider.getFailingPeers().get("//www.yahoo.com:61618"));
+				Assert.assertFalse(peerProvider.stale(beforeEviction));
+			}
+		}
+
+		// The peer remains a member but its stubs are gone until it has been resolved again
+		listRemoteCachePeers = peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(1, listRemoteCachePeers.size());
+		Assert.assertTrue(untracked(listRemoteCachePeers).contains(googleCacheRemote));
+		Assert.assertTrue(peerProvider.getPeerUrls().contains("//www.yahoo.com:61618"));
+		Assert.assertTrue(peerProvider.getBackedOffPeers().containsKey("//www.yahoo.com:61618"));
+		Assert.assertTrue(peerProvider.stale(beforeEviction));
+	}
+
+	@Test
+	public void testMembershipChangesLookupsAndListHitsAreRecordedInTheMetrics() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		// Mock some stuff up
+		final Ehcache cache = context.mock(Ehcache.class);
+		final CachePeer googleCacheRemote = context.mock(CachePeer.class, "googleCacheRemote");
+
+		final String cacheName = "myCache";
+		peerProvider.addCachePeerPerUrl("//www.google.com:61616/" + cacheName, googleCacheRemote);
+		peerProvider.addUnreachableUrl("//www.yahoo.com:61618/" + cacheName);
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(cache).getName(); will(returnValue(cacheName));
+		}});
+
+		Assert.assertEquals(-1, peerProvider.getTimeSinceLastSuccessfulDiscovery());
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+		cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertEquals(2, peerProvider.getPeersAddedLastUpdate());
+		Assert.assertTrue(peerProvider.getTimeSinceLastSuccessfulDiscovery() >= 0);
+
+		// One miss which looks up both peers, then hits
+		peerProvider.listRemoteCachePeers(cache);
+		peerProvider.listRemoteCachePeers(cache);
+		peerProvider.listRemoteCachePeers(cache);
+		peerProvider.listRemoteCachePeers(cache);
+		Assert.assertEquals(0.75, peerProvider.getListRemoteCachePeersHitRatio(), 0.001);
+		Assert.assertEquals(1, peerProvider.getStubLookupSuccessCount());
+		Assert.assertEquals(1, peerProvider.getStubLookupFailureCount());
+		Assert.assertEquals(Long.valueOf(2), peerProvider.getStubLookupLatency().get("count"));
+
+		cachePeerHosts.remove(new CachePeerHost("www.yahoo.com", 61618));
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertEquals(0, peerProvider.getPeersAddedLastUpdate());
+		Assert.assertEquals(1, peerProvider.getPeersRemovedLastUpdate());
+		Assert.assertEquals(2, peerProvider.getPeersAddedCount());
+		Assert.assertEquals(1, peerProvider.getPeersRemovedCount());
+	}
+
+	@Test
+	public void testUpdateCachePeerHostsAppliesChangesInVersionOrderOnly() {
+		invokeInitAndCheckDiscoveryServiceHasBeenStarted();
+
+		context.checking(new Expectations() {{
+			allowing(discoveryServiceConfig).getRmiListenerPort(); will(returnValue(61616));
+		}});
+
+		CachePeerHost google = new CachePeerHost("www.google.com", 61616);
+		CachePeerHost yahoo = new CachePeerHost("www.yahoo.com", 61618);
+		CachePeerHost bing = new CachePeerHost("www.bing.com", 61620);
+		Set<CachePeerHost> none = Collections.emptySet();
+
+		// A change before any full membership cannot be applied
+		Assert.assertFalse(peerProvider.updateCachePeerHosts(
+				new CachePeerHostDelta(1, 2, Collections.singleton(bing), none)));
+		Assert.assertTrue(peerProvider.getCachePeerTable().getPeerUrls().isEmpty());
+
+		Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+		cachePeerHosts.add(google);
+		cachePeerHosts.add(yahoo);
+		Assert.assertTrue(peerProvider.updateCachePeerHosts(CachePeerHostDelta.fullMembership(1, cachePeerHosts)));
+		Assert.assertEquals(2, peerProvider.getCachePeerTable().getPeerUrls().size());
+
+		// Applies to version 1
+		Assert.assertTrue(peerProvider.updateCachePeerHosts(
+				new CachePeerHostDelta(1, 2, Collections.singleton(bing), Collections.singleton(yahoo))));
+		Set<String> peerUrls = peerProvider.getCachePeerTable().getPeerUrls();
+		Assert.assertEquals(2, peerUrls.size());
+		Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
+		Assert.assertTrue(peerUrls.contains("//www.bing.com:61620"));
+		Assert.assertEquals(1, peerProvider.getPeersAddedLastUpdate());
+		Assert.assertEquals(1, peerProvider.getPeersRemovedLastUpdate());
+
+		// Version 3 was missed, so version 4 cannot be applied
+		Assert.assertFalse(peerProvider.updateCachePeerHosts(
+				new CachePeerHostDelta(3, 4, Collections.singleton(yahoo), none)));
+		Assert.assertEquals(2, peerProvider.getCachePeerTable().getPeerUrls().size());
+
+		// Setting the full set forgets the version
+		peerProvider.setCachePeerHosts(cachePeerHosts);
+		Assert.assertFalse(peerProvider.updateCachePeerHosts(
+				new CachePeerHostDelta(2, 3, none, Collections.singleton(google))));
+	}
+
+	@Test
+	public void testPeersAreKeptInThePeerListFileAndLoadedOnTheNextStart() throws IOException {
+		final Path peerListFile = Files.createTempDirectory("peers").resolve("peers.txt");
+		final DiscoveryServiceConfig persistingConfig = context.mock(DiscoveryServiceConfig.class, "persistingConfig");
+		final DiscoveryService discoveryService = context.mock(DiscoveryService.class);
+
+		context.checking(new Expectations() {{
+			atMost(2).of(persistingConfig).validate();
+			allowing(persistingConfig).getPeerLookupTimeout(); will(returnValue(PEER_LOOKUP_TIMEOUT_MS));
+			allowing(persistingConfig).getPeerRetryBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS));
+			allowing(persistingConfig).getPeerRetryMaxBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS * 4));
+			allowing(persistingConfig).getPeerFailureThreshold(); will(returnValue(PEER_FAILURE_THRESHOLD));
+			allowing(persistingConfig).getClusterFormationTimeout(); will(returnValue(60000));
+			allowing(persistingConfig).getPeerListFile(); will(returnValue(peerListFile.toString()));
+			allowing(persistingConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(discoveryServiceFactory).createDiscoveryService(with(any(AwsSecurityGroupAwareCacheManagerPeerProvider.class)), with(equal(persistingConfig)));
+				will(returnValue(discoveryService));
+			allowing(discoveryService).startDiscoveryService();
+		}});
+
+		try {
+			// Discovery reports the peers, which are written to the file
+			TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider firstProvider =
+					new TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(persistingConfig, discoveryServiceFactory);
+			Assert.assertEquals(60000, firstProvider.getTimeForClusterToForm());
+			Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+			cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+			cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+			firstProvider.setCachePeerHosts(cachePeerHosts);
+			Assert.assertEquals(0, firstProvider.getTimeForClusterToForm());
+			Assert.assertTrue(Files.isRegularFile(peerListFile));
+
+			// The next provider starts out with them, without waiting for discovery
+			TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider secondProvider =
+					new TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(persistingConfig, discoveryServiceFactory);
+			long start = System.currentTimeMillis();
+			secondProvider.init();
+			Assert.assertTrue(System.currentTimeMillis() - start < 60000);
+			Assert.assertEquals(0, secondProvider.getTimeForClusterToForm());
+			Set<String> peerUrls = secondProvider.getCachePeerTable().getPeerUrls();
+			Assert.assertEquals(2, peerUrls.size());
+			Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
+			Assert.assertTrue(peerUrls.contains("//www.yahoo.com:61618"));
+		} finally {
+			Files.deleteIfExists(peerListFile);
+			Files.deleteIfExists(peerListFile.getParent());
+		}
+	}
+
+	@Test
+	public void testAnEmptyOrPartialFirstDiscoveryResultKeepsTheLastKnownPeers() throws IOException {
+		final Path peerListFile = Files.createTempDirectory("peers").resolve("peers.txt");
+		final DiscoveryServiceConfig persistingConfig = context.mock(DiscoveryServiceConfig.class, "persistingConfig");
+		final DiscoveryService discoveryService = context.mock(DiscoveryService.class);
+
+		context.checking(new Expectations() {{
+			atMost(2).of(persistingConfig).validate();
+			allowing(persistingConfig).getPeerLookupTimeout(); will(returnValue(PEER_LOOKUP_TIMEOUT_MS));
+			allowing(persistingConfig).getPeerRetryBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS));
+			allowing(persistingConfig).getPeerRetryMaxBackoff(); will(returnValue(PEER_RETRY_BACKOFF_MS * 4));
+			allowing(persistingConfig).getPeerFailureThreshold(); will(returnValue(PEER_FAILURE_THRESHOLD));
+			allowing(persistingConfig).getClusterFormationTimeout(); will(returnValue(60000));
+			allowing(persistingConfig).getPeerListFile(); will(returnValue(peerListFile.toString()));
+			allowing(persistingConfig).getRmiListenerPort(); will(returnValue(61616));
+			allowing(discoveryServiceFactory).createDiscoveryService(with(any(AwsSecurityGroupAwareCacheManagerPeerProvider.class)), with(equal(persistingConfig)));
+				will(returnValue(discoveryService));
+			allowing(discoveryService).startDiscoveryService();
+		}});
+
+		try {
+			Set<CachePeerHost> cachePeerHosts = new HashSet<>();
+			cachePeerHosts.add(new CachePeerHost("www.google.com", 61616));
+			cachePeerHosts.add(new CachePeerHost("www.yahoo.com", 61618));
+			new TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(persistingConfig, discoveryServiceFactory)
+					.setCachePeerHosts(cachePeerHosts);
+
+			TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider warmProvider =
+					new TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(persistingConfig, discoveryServiceFactory);
+			warmProvider.init();
+			Assert.assertEquals(2, warmProvider.getCachePeerTable().getPeerUrls().size());
+
+			// The first run of discovery found nothing, which does not drop the last known peers
+			Assert.assertTrue(warmProvider.updateCachePeerHosts(
+					CachePeerHostDelta.fullMembership(1, Collections.<CachePeerHost>emptySet())));
+			Assert.assertEquals(2, warmProvider.getCachePeerTable().getPeerUrls().size());
+
+			// Nor does a partial one, which only adds to them
+			Assert.assertTrue(warmProvider.updateCachePeerHosts(new CachePeerHostDelta(1, 2,
+					Collections.singleton(new CachePeerHost("www.bing.com", 61620)), Collections.<CachePeerHost>emptySet())));
+			Set<String> peerUrls = warmProvider.getCachePeerTable().getPeerUrls();
+			Assert.assertEquals(3, peerUrls.size());
+			Assert.assertTrue(peerUrls.contains("//www.google.com:61616"));
+			Assert.assertTrue(peerUrls.contains("//www.yahoo.com:61618"));
+			Assert.assertTrue(peerUrls.contains("//www.bing.com:61620"));
+		} finally {
+			Files.deleteIfExists(peerListFile);
+			Files.deleteIfExists(peerListFile.getParent());
+		}
+	}
+
+	/**
+	 * The stubs that are handed out are tracked, so get the ones that the test set up
+	 */
+	private static List<CachePeer> untracked(List<CachePeer> cachePeers) {
+		List<CachePeer> untrackedCachePeers = new ArrayList<>(cachePeers.size());
+		for (CachePeer cachePeer : cachePeers) {
+			untrackedCachePeers.add(CachePeerHealth.untracked(cachePeer));
+		}
+		return untrackedCachePeers;
+	}
 
 	private void invokeInitAndCheckDiscoveryServiceHasBeenStarted() {
 		final DiscoveryService discoveryService = context.mock(DiscoveryService.class);
@@ -276,7 +728,10 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 
 	private class TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider
 		extends AwsSecurityGroupAwareCacheManagerPeerProvider {
-		private Map<String,CachePeer> cachePeersPerUrlMap = new HashMap<String,CachePeer>();
+		private Map<String,CachePeer> cachePeersPerUrlMap = new ConcurrentHashMap<String,CachePeer>();
+		private Map<String,Integer> lookupCountsPerUrlMap = new ConcurrentHashMap<String,Integer>();
+		private Map<String,CountDownLatch> lookupLatchesPerUrlMap = new ConcurrentHashMap<String,CountDownLatch>();
+		private Set<String> unreachableUrls = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
 
 		public TestWithoutRmiLookupAwsSecurityGroupAwareCacheManagerPeerProvider(
 				CacheManager cacheManager) {
@@ -293,11 +748,43 @@ public class AwsSecurityGroupAwareCacheManagerPeerProviderTest {
 			cachePeersPerUrlMap.put(url, cachePeer);
 		}
 
+		/**
+		 * The lookup of the URL blocks until the latch is released
+		 */
+		private void addBlockedCachePeerPerUrl(String url, CachePeer cachePeer, CountDownLatch lookupLatch) {
+			cachePeersPerUrlMap.put(url, cachePeer);
+			lookupLatchesPerUrlMap.put(url, lookupLatch);
+		}
+
+		/**
+		 * The lookup of the URL fails as if the host could not be connected to
+		 */
+		private void addUnreachableUrl(String url) {
+			unreachableUrls.add(url);
+		}
+
+		private int getLookupCount(String url) {
+			Integer lookupCount = lookupCountsPerUrlMap.get(url);
+			return lookupCount == null ? 0 : lookupCount;
+		}
+
 		/**
 		 * Override this method which does RMI lookups
 		 */
 		@Override
 		public CachePeer lookupRemoteCachePeer(String url) throws MalformedURLException, NotBoundException, RemoteException {
+			lookupCountsPerUrlMap.put(url, getLookupCount(url) + 1);
+			if (unreachableUrls.contains(url)) {
+				throw new ConnectException("Connection refused to host: " + url);
+			}
+			CountDownLatch lookupLatch = lookupLatchesPerUrlMap.get(url);
+			if (lookupLatch != null) {
+				try {
+					lookupLatch.await();
+				} catch (InterruptedException e) {
+					throw new RemoteException("Interrupted", e);
+				}
+			}
 			CachePeer cachePeer = cachePeersPerUrlMap.get(url);
 			Assert.assertNotNull("The cache peer for URL '" + url + "' has not been set up in the test", cachePeer);
 			return cachePeer;
@@ -2,6 +2,7 @@ package com.xarixa.ehcache.aws.discovery;
 
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -19,13 +20,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import com.xarixa.ehcache.aws.AbstractAwsIntegrationTest;
-import com.xarixa.ehcache.aws.CachePeerHost;
-import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
 
 @RunWith(JMock.class)
 public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends AbstractAwsIntegrationTest {
-    private static final Integer RMI_LISTENER_PORT = 73487;
-
     private Mockery context = new Mockery() {{
         setImposteriser(ClassImposteriser.INSTANCE);
     }};
@@ -45,8 +42,6 @@ public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends Abstra
 
 	@Before
 	public void setUpTest() {
-		final UpdateableHostBasedCacheManagerPeerProvider peerProviderMock =
-				context.mock(UpdateableHostBasedCacheManagerPeerProvider.class);
 		final AwsDiscoveryServiceConfig discoveryServiceConfig = context.mock(AwsDiscoveryServiceConfig.class);
 		final ScheduledExecutorService mockExecutorService = context.mock(ScheduledExecutorService.class);
 		
@@ -54,6 +49,9 @@ public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends Abstra
 			atMost(1).of(discoveryServiceConfig).getSecurityGroupRefreshInterval();
 			will(returnValue(5000));
 			
+			atMost(1).of(discoveryServiceConfig).getSecurityGroupMaxRefreshInterval();
+			will(returnValue(60000));
+			
 			atMost(1).of(discoveryServiceConfig).getAccessKey();
 			will(returnValue(getAwsAccessKey()));
 			
@@ -63,21 +61,24 @@ public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends Abstra
 			atMost(1).of(discoveryServiceConfig).getSecurityGroup();
 			will(returnValue(getSecurityGroupId()));
 			
-			atLeast(1).of(discoveryServiceConfig).getRmiListenerPort();
-			will(returnValue(RMI_LISTENER_PORT));
+			allowing(discoveryServiceConfig).getEc2QueryMode();
+			will(returnValue(Ec2QueryMode.ALL_NODES));
 
-			atMost(1).of(mockExecutorService).scheduleWithFixedDelay(with(any(AwsSecurityGroupAwareDiscoveryService.class)),
-					with(any(Integer.class)), with(any(Integer.class)), with(TimeUnit.MILLISECONDS));
+			allowing(discoveryServiceConfig).getPeerAddressPolicy();
+			will(returnValue(PeerAddressPolicy.PUBLIC));
+
+			atMost(1).of(mockExecutorService).schedule(with(any(AwsSecurityGroupAwareDiscoveryService.class)),
+					with(any(Long.class)), with(TimeUnit.MILLISECONDS));
 		}});
 		
 		awsSecurityGroupAwareDiscoveryService =
-				new AwsSecurityGroupAwareDiscoveryService(peerProviderMock, mockExecutorService, discoveryServiceConfig);
+				new AwsSecurityGroupAwareDiscoveryService(mockExecutorService, discoveryServiceConfig);
 		awsSecurityGroupAwareDiscoveryService.startDiscoveryService();
 	}
 
 	/**
 	 * This integration test creates instances in the security group and then runs the
-	 * {@link AwsSecurityGroupAwareDiscoveryService#getHostsInSecurityGroup()} to retrieve the hosts and check that all
+	 * {@link AwsSecurityGroupAwareDiscoveryService#getAddressesInSecurityGroup()} to retrieve the hosts and check that all
 	 * host IP addresses have been retrieved.
 	 * 
 	 * @throws RunNodesException
@@ -88,7 +89,7 @@ public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends Abstra
 				getComputeService().createNodesInGroup(getSecurityGroupId(), 2);
 		
 		// Run the method to get the hosts in this group
-		Set<CachePeerHost> hostsInSecurityGroup = awsSecurityGroupAwareDiscoveryService.getHostsInSecurityGroup();
+		Set<String> hostsInSecurityGroup = awsSecurityGroupAwareDiscoveryService.getAddressesInSecurityGroup();
 		Assert.assertEquals(2, hostsInSecurityGroup.size());
 
 		// Make sure that all of the public IP's exist from what was created to what was discovered
@@ -96,10 +97,40 @@ public class AwsSecurityGroupAwareDiscoveryServiceIntegrationTest extends Abstra
 			Iterator<String> publicIpIterator = node.getPublicAddresses().iterator();
 			Assert.assertTrue("No public IP addresses available for '" + node.getId() + "'", publicIpIterator.hasNext());
 			String publicIp = publicIpIterator.next();
-			CachePeerHost hostToMatch = new CachePeerHost(publicIp, RMI_LISTENER_PORT);
-			Assert.assertTrue("Could not find created AWS node '" + hostToMatch +
+			Assert.assertTrue("Could not find created AWS node '" + publicIp +
 					"' in my hosts list: " + hostsInSecurityGroup,
-					hostsInSecurityGroup.contains(hostToMatch));
+					hostsInSecurityGroup.contains(publicIp));
+		}
+	}
+
+	/**
+	 * The filtered query asks EC2 for the security group that jclouds created for the group, which must hold
+	 * the same instances as jclouds finds in the group when it lists all of the nodes
+	 * 
+	 * @throws RunNodesException
+	 */
+	@Test
+	public void testThatTheFilteredQueryFindsTheSameNodesAsListingAllOfTheNodes() throws RunNodesException {
+		getComputeService().createNodesInGroup(getSecurityGroupId(), 2);
+
+		AwsDiscoveryServiceConfig filteredDiscoveryServiceConfig = new AwsDiscoveryServiceConfig();
+		filteredDiscoveryServiceConfig.setSecurityGroup(getSecurityGroupId());
+		filteredDiscoveryServiceConfig.setAccessKey(getAwsAccessKey());
+		filteredDiscoveryServiceConfig.setSecretKey(getAwsSecretKey());
+		filteredDiscoveryServiceConfig.setEc2QueryMode(Ec2QueryMode.FILTERED);
+		filteredDiscoveryServiceConfig.setPeerAddressPolicy(PeerAddressPolicy.PUBLIC);
+		filteredDiscoveryServiceConfig.setSecurityGroupRefreshInterval(5000);
+
+		ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+		AwsSecurityGroupAwareDiscoveryService filteredDiscoveryService =
+				new AwsSecurityGroupAwareDiscoveryService(executorService, filteredDiscoveryServiceConfig);
+		try {
+			Set<String> hostsInSecurityGroup = awsSecurityGroupAwareDiscoveryService.getAddressesInSecurityGroup();
+			Assert.assertFalse(hostsInSecurityGroup.isEmpty());
+			Assert.assertEquals(hostsInSecurityGroup, filteredDiscoveryService.getAddressesInSecurityGroup());
+		} finally {
+			filteredDiscoveryService.stopDiscoveryService();
+			executorService.shutdownNow();
 		}
 	}
 
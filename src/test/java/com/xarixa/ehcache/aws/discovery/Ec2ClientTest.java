@@ -0,0 +1,126 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.ec2.EC2Api;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Ec2ClientTest {
+	private final ScheduledThreadPoolExecutor discoveryServiceExecutor = new ScheduledThreadPoolExecutor(1);
+	private final List<String> built = new ArrayList<>();
+	private final Ec2Client ec2Client = new Ec2Client("key", "secret") {
+		@Override
+		synchronized ComputeService getComputeService() {
+			built.add("compute service");
+			throw new UnsupportedOperationException("No EC2 in tests");
+		}
+
+		@Override
+		synchronized EC2Api getEc2Api() {
+			built.add("EC2 API");
+			throw new UnsupportedOperationException("No EC2 in tests");
+		}
+	};
+
+	@After
+	public void tearDown() {
+		discoveryServiceExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testNothingIsBuiltWhenDiscoveryIsStarted() {
+		AwsSecurityGroupAwareDiscoveryService discoveryService =
+				new AwsSecurityGroupAwareDiscoveryService(discoveryServiceExecutor, createConfig(Ec2QueryMode.FILTERED), ec2Client);
+		discoveryService.startDiscoveryService();
+		discoveryService.stopDiscoveryService();
+
+		Assert.assertTrue(built.isEmpty());
+	}
+
+	@Test
+	public void testTheFilteredQueryOnlyBuildsTheEc2Api() {
+		try {
+			new SecurityGroupQuery(createConfig(Ec2QueryMode.FILTERED), ec2Client).getAddresses();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+
+		Assert.assertEquals(1, built.size());
+		Assert.assertEquals("EC2 API", built.get(0));
+	}
+
+	@Test
+	public void testListingAllOfTheNodesOnlyBuildsTheComputeService() {
+		try {
+			new SecurityGroupQuery(createConfig(Ec2QueryMode.ALL_NODES), ec2Client).getAddresses();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+
+		Assert.assertEquals(1, built.size());
+		Assert.assertEquals("compute service", built.get(0));
+	}
+
+	@Test
+	public void testAClientIsOnlyClosedOnceTheGracePeriodHasPassed() throws InterruptedException {
+		CountingEc2Client countingEc2Client = new CountingEc2Client();
+		countingEc2Client.closeLater(discoveryServiceExecutor, 100);
+		Assert.assertEquals(0, countingEc2Client.closes);
+
+		Thread.sleep(500);
+		Assert.assertEquals(1, countingEc2Client.closes);
+	}
+
+	@Test
+	public void testAClientWhichIsUsedAgainWithinTheGracePeriodIsKept() throws InterruptedException {
+		CountingEc2Client countingEc2Client = new CountingEc2Client();
+		countingEc2Client.closeLater(discoveryServiceExecutor, 100);
+		countingEc2Client.cancelClose();
+
+		Thread.sleep(500);
+		Assert.assertEquals(0, countingEc2Client.closes);
+	}
+
+	@Test
+	public void testAClientWhichWasNeverUsedCanBeClosed() {
+		Ec2Client unusedEc2Client = new Ec2Client("key", "secret");
+		unusedEc2Client.close();
+		unusedEc2Client.close();
+	}
+
+	private static class CountingEc2Client extends Ec2Client {
+		private volatile int closes;
+
+		CountingEc2Client() {
+			super("key", "secret");
+		}
+
+		@Override
+		public synchronized void close() {
+			closes++;
+			super.close();
+		}
+	}
+
+	/**
+	 * The first run is scheduled within the jitter of a minute, and a run only logs that EC2 cannot be reached
+	 */
+	private static AwsDiscoveryServiceConfig createConfig(Ec2QueryMode ec2QueryMode) {
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setSecurityGroup("group");
+		config.setAccessKey("key");
+		config.setSecretKey("secret");
+		config.setEc2QueryMode(ec2QueryMode);
+		config.setRmiListenerPort(40001);
+		config.setSecurityGroupRefreshInterval(60000);
+		return config;
+	}
+
+}
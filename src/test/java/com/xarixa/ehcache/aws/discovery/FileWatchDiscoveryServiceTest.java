@@ -0,0 +1,140 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+import com.xarixa.ehcache.aws.CachePeerHostDelta;
+import com.xarixa.ehcache.aws.DeltaAwareCachePeerProvider;
+
+@RunWith(JMock.class)
+public class FileWatchDiscoveryServiceTest {
+	private static final int RMI_LISTENER_PORT = 40001;
+	/**
+	 * Long enough for the JDK to notice the change where it has to poll the directory
+	 */
+	private static final long UPDATE_TIMEOUT_SECONDS = 30;
+	private Mockery context = new Mockery() {{
+		setThreadingPolicy(new Synchroniser());
+	}};
+	private DeltaAwareCachePeerProvider peerProvider;
+	private final BlockingQueue<CachePeerHostDelta> updates = new LinkedBlockingQueue<>();
+	private Path directory;
+	private Path discoveryFile;
+	private FileWatchDiscoveryService discoveryService;
+
+	@Before
+	public void setUp() throws IOException {
+		peerProvider = context.mock(DeltaAwareCachePeerProvider.class);
+		directory = Files.createTempDirectory("discovery");
+		discoveryFile = directory.resolve("peers.txt");
+
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setDiscoveryFile(discoveryFile.toString());
+		config.setRmiListenerPort(RMI_LISTENER_PORT);
+		discoveryService = new FileWatchDiscoveryService(peerProvider, config);
+
+		context.checking(new Expectations() {{
+			allowing(peerProvider).updateCachePeerHosts(with(any(CachePeerHostDelta.class)));
+			will(new CustomAction("record the update") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					updates.add((CachePeerHostDelta)invocation.getParameter(0));
+					return true;
+				}
+			});
+		}});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		discoveryService.stopDiscoveryService();
+		Files.deleteIfExists(discoveryFile);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	public void testChangesToTheDiscoveryFileArePassedOnAsTheyAreWritten() throws IOException, InterruptedException {
+		write("# Written by the agent", "10.0.0.1", "10.0.0.2:40002", "not-a-peer:port");
+		discoveryService.startDiscoveryService();
+
+		CachePeerHostDelta delta = updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertTrue(delta.isFullMembership());
+		Assert.assertEquals(new HashSet<>(Arrays.asList(new CachePeerHost("10.0.0.1", RMI_LISTENER_PORT),
+				new CachePeerHost("10.0.0.2", 40002))), delta.getAddedCachePeerHosts());
+
+		write("10.0.0.2:40002", "10.0.0.3");
+		delta = updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertEquals(1, delta.getFromVersion());
+		Assert.assertEquals(2, delta.getToVersion());
+		Assert.assertEquals(Collections.singleton(new CachePeerHost("10.0.0.3", RMI_LISTENER_PORT)),
+				delta.getAddedCachePeerHosts());
+		Assert.assertEquals(Collections.singleton(new CachePeerHost("10.0.0.1", RMI_LISTENER_PORT)),
+				delta.getRemovedCachePeerHosts());
+
+		// Deleting the file keeps the peers
+		Files.delete(discoveryFile);
+		Assert.assertNull(updates.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testARemovedPeerIsDroppedAfterTheRemovalDelayWithoutAnotherChange() throws IOException, InterruptedException {
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setDiscoveryFile(discoveryFile.toString());
+		config.setRmiListenerPort(RMI_LISTENER_PORT);
+		// The rounds do not apply, as the file is only read when it changes
+		config.setPeerRemovalRounds(3);
+		config.setPeerRemovalDelay(500);
+		discoveryService = new FileWatchDiscoveryService(peerProvider, config);
+
+		write("10.0.0.1", "10.0.0.2");
+		discoveryService.startDiscoveryService();
+		Assert.assertTrue(updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS).isFullMembership());
+
+		write("10.0.0.1");
+		Assert.assertNull(updates.poll(200, TimeUnit.MILLISECONDS));
+		CachePeerHostDelta delta = updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertEquals(Collections.emptySet(), delta.getAddedCachePeerHosts());
+		Assert.assertEquals(Collections.singleton(new CachePeerHost("10.0.0.2", RMI_LISTENER_PORT)),
+				delta.getRemovedCachePeerHosts());
+	}
+
+	@Test
+	public void testIpv6AddressesAreReadWithAndWithoutAPort() throws IOException, InterruptedException {
+		write("2001:db8::10", "[2001:db8::11]:40002", "[2001:db8::12]", "[2001:db8::13", "[2001:db8::14]40002");
+		discoveryService.startDiscoveryService();
+
+		CachePeerHostDelta delta = updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertEquals(new HashSet<>(Arrays.asList(new CachePeerHost("2001:db8::10", RMI_LISTENER_PORT),
+				new CachePeerHost("2001:db8::11", 40002), new CachePeerHost("2001:db8::12", RMI_LISTENER_PORT))),
+				delta.getAddedCachePeerHosts());
+	}
+
+	private void write(String... lines) throws IOException {
+		Path temporaryFile = Files.createTempFile(directory, "peers", ".tmp");
+		Files.write(temporaryFile, Arrays.asList(lines), StandardCharsets.UTF_8);
+		Files.move(temporaryFile, discoveryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
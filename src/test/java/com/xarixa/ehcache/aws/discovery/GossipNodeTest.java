@@ -0,0 +1,132 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a gossip cluster on the loopback address, with every node seeded with the first one and, as EC2 would
+ * return, itself
+ */
+public class GossipNodeTest {
+	private static final int NODES = 12;
+	private static final long INTERVAL_MS = 50;
+	private static final long FAILURE_TIMEOUT_MS = 1000;
+	private static final long WAIT_MS = 15000;
+	private ScheduledExecutorService executor;
+	private List<GossipNode> nodes = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		executor = Executors.newScheduledThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		for (GossipNode node : nodes) {
+			node.stop();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testMembersConvergeAndADepartedMemberIsDropped() throws InterruptedException {
+		GossipNode seed = startNode("cluster", Collections.<String>emptySet());
+		Set<String> seedEndpoints = Collections.singleton(seed.getLocalEndpoint());
+		for (int i = 1; i < NODES; i++) {
+			startNode("cluster", seedEndpoints);
+		}
+
+		Set<String> allEndpoints = new HashSet<>();
+		for (GossipNode node : nodes) {
+			allEndpoints.add(node.getLocalEndpoint());
+		}
+		Assert.assertEquals(NODES, allEndpoints.size());
+		awaitLiveEndpoints(nodes, allEndpoints);
+
+		GossipNode departed = nodes.remove(NODES - 1);
+		departed.stop();
+		allEndpoints.remove(departed.getLocalEndpoint());
+		awaitLiveEndpoints(nodes, allEndpoints);
+	}
+
+	@Test
+	public void testNodesOfAnotherClusterAreIgnored() throws InterruptedException {
+		GossipNode seed = startNode("cluster", Collections.<String>emptySet());
+		GossipNode member = startNode("cluster", Collections.singleton(seed.getLocalEndpoint()));
+		GossipNode stranger = startNode("another-cluster", Collections.singleton(seed.getLocalEndpoint()));
+
+		Set<String> clusterEndpoints = new HashSet<>();
+		clusterEndpoints.add(seed.getLocalEndpoint());
+		clusterEndpoints.add(member.getLocalEndpoint());
+		List<GossipNode> clusterNodes = new ArrayList<>();
+		clusterNodes.add(seed);
+		clusterNodes.add(member);
+		awaitLiveEndpoints(clusterNodes, clusterEndpoints);
+
+		Assert.assertEquals(Collections.singleton(stranger.getLocalEndpoint()), stranger.getLiveEndpoints());
+	}
+
+	@Test
+	public void testMembersOfHostsWhichAreNotSeedsAreIgnored() throws InterruptedException {
+		GossipNode seed = startNode("cluster", Collections.<String>emptySet());
+		GossipNode member = startNode("cluster", Collections.singleton(seed.getLocalEndpoint()));
+		// Knows the cluster name, but is on a host which the seeds of the others do not include
+		GossipNode stranger = startNode("cluster", "127.0.0.2", Collections.singleton(seed.getLocalEndpoint()));
+
+		Set<String> clusterEndpoints = new HashSet<>();
+		clusterEndpoints.add(seed.getLocalEndpoint());
+		clusterEndpoints.add(member.getLocalEndpoint());
+		List<GossipNode> clusterNodes = new ArrayList<>();
+		clusterNodes.add(seed);
+		clusterNodes.add(member);
+		awaitLiveEndpoints(clusterNodes, clusterEndpoints);
+
+		// Give the stranger time to gossip with both, and the members time to ask for their seeds again
+		Thread.sleep(FAILURE_TIMEOUT_MS * 2);
+		Assert.assertFalse(seed.getLiveEndpoints().contains(stranger.getLocalEndpoint()));
+		Assert.assertFalse(member.getLiveEndpoints().contains(stranger.getLocalEndpoint()));
+		Assert.assertEquals(clusterEndpoints, seed.getLiveEndpoints());
+	}
+
+	private GossipNode startNode(String clusterName, Set<String> seedEndpoints) {
+		return startNode(clusterName, "127.0.0.1", seedEndpoints);
+	}
+
+	private GossipNode startNode(String clusterName, String address, final Set<String> seedEndpoints) {
+		final GossipNode[] node = new GossipNode[1];
+		node[0] = new GossipNode(executor, clusterName, address, address, 0, new MemberEndpoints() {
+			@Override
+			public Set<String> getEndpoints() {
+				Set<String> endpoints = new HashSet<>(seedEndpoints);
+				endpoints.add(node[0].getLocalEndpoint());
+				return endpoints;
+			}
+		}, INTERVAL_MS, FAILURE_TIMEOUT_MS, FAILURE_TIMEOUT_MS,
+				new DiscoverySubscribers());
+		node[0].start();
+		nodes.add(node[0]);
+		return node[0];
+	}
+
+	private static void awaitLiveEndpoints(List<GossipNode> nodes, Set<String> expectedEndpoints)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		for (GossipNode node : nodes) {
+			while (!expectedEndpoints.equals(node.getLiveEndpoints()) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(INTERVAL_MS);
+			}
+			Assert.assertEquals("Live members of " + node.getLocalEndpoint(), expectedEndpoints, node.getLiveEndpoints());
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a leader elected cluster on the loopback address, where the members are the nodes that are running
+ */
+public class LeaderElectedNodeTest {
+	private static final int NODES = 6;
+	private static final long INTERVAL_MS = 50;
+	private static final long LEADER_TIMEOUT_MS = 300;
+	private static final long WAIT_MS = 10000;
+	/**
+	 * What a loaded host may add to the time that a failed leader is replaced in
+	 */
+	private static final long TAKEOVER_MARGIN_MS = 2000;
+	private ScheduledExecutorService executor;
+	private List<LeaderElectedNode> nodes = new ArrayList<>();
+	private Set<String> runningEndpoints = new CopyOnWriteArraySet<>();
+	private ConcurrentHashMap<String,AtomicInteger> polls = new ConcurrentHashMap<>();
+
+	@Before
+	public void setUp() {
+		executor = Executors.newScheduledThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		for (LeaderElectedNode node : nodes) {
+			node.stop();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testOnlyTheLeaderPollsAndAFailedLeaderIsReplaced() throws IOException, InterruptedException {
+		for (int i = 0; i < NODES; i++) {
+			runningEndpoints.add("127.0.0.1:" + getFreePort());
+		}
+		for (String endpoint : new TreeSet<>(runningEndpoints)) {
+			startNode(endpoint);
+		}
+
+		String leader = new TreeSet<>(runningEndpoints).first();
+		awaitLeaderAndMembership(leader, runningEndpoints);
+		awaitPolls(leader, 4);
+		for (LeaderElectedNode node : nodes) {
+			int nodePolls = polls.get(node.getLocalEndpoint()).get();
+			if (node.getLocalEndpoint().equals(leader)) {
+				Assert.assertTrue("The leader polled " + nodePolls + " times", nodePolls > 3);
+			} else {
+				Assert.assertEquals("Polls of follower " + node.getLocalEndpoint(), 1, nodePolls);
+			}
+		}
+
+		LeaderElectedNode failedLeader = nodes.remove(0);
+		failedLeader.stop();
+		runningEndpoints.remove(leader);
+		long failedAt = System.currentTimeMillis();
+		String nextLeader = new TreeSet<>(runningEndpoints).first();
+		awaitLeaderAndMembership(nextLeader, runningEndpoints);
+		long takeover = System.currentTimeMillis() - failedAt;
+		Assert.assertTrue("The leader was replaced after " + takeover + "ms",
+				takeover < LEADER_TIMEOUT_MS + INTERVAL_MS + TAKEOVER_MARGIN_MS);
+	}
+
+	@Test
+	public void testPushesFromANodeWhichIsNotAMemberAreIgnored() throws IOException, InterruptedException {
+		TreeSet<String> endpoints = new TreeSet<>();
+		for (int i = 0; i < 3; i++) {
+			endpoints.add("127.0.0.1:" + getFreePort());
+		}
+		// The lowest endpoint, so it leads among the members that it polls, which include the others
+		final String impostor = endpoints.pollFirst();
+		runningEndpoints.addAll(endpoints);
+		for (String endpoint : endpoints) {
+			startNode(endpoint);
+		}
+		awaitLeaderAndMembership(endpoints.first(), runningEndpoints);
+		List<LeaderElectedNode> members = new ArrayList<>(nodes);
+
+		Set<String> impostorMembers = new HashSet<>(endpoints);
+		impostorMembers.add(impostor);
+		startNode(impostor, impostorMembers);
+		awaitPolls(impostor, 4);
+
+		for (LeaderElectedNode node : members) {
+			Assert.assertEquals("Leader of " + node.getLocalEndpoint(), endpoints.first(), node.getLeader());
+			Assert.assertEquals("Members of " + node.getLocalEndpoint(), runningEndpoints, node.getMembership());
+		}
+	}
+
+	private LeaderElectedNode startNode(String endpoint) {
+		return startNode(endpoint, runningEndpoints);
+	}
+
+	/**
+	 * @param members	The members that the node polls
+	 */
+	private LeaderElectedNode startNode(final String endpoint, final Set<String> members) {
+		int portIndex = endpoint.lastIndexOf(':');
+		polls.put(endpoint, new AtomicInteger());
+		LeaderElectedNode node = new LeaderElectedNode(executor, "cluster", "127.0.0.1", "127.0.0.1",
+				Integer.parseInt(endpoint.substring(portIndex + 1)), new MemberEndpoints() {
+			@Override
+			public Set<String> getEndpoints() {
+				polls.get(endpoint).incrementAndGet();
+				return new HashSet<>(members);
+			}
+		}, INTERVAL_MS, LEADER_TIMEOUT_MS, new DiscoverySubscribers());
+		node.start();
+		Assert.assertEquals(endpoint, node.getLocalEndpoint());
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Waits for the node to have polled at least the number of times
+	 */
+	private void awaitPolls(String endpoint, int expectedPolls) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		while (polls.get(endpoint).get() < expectedPolls && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue("Polls of " + endpoint, polls.get(endpoint).get() >= expectedPolls);
+	}
+
+	private void awaitLeaderAndMembership(String expectedLeader, Set<String> expectedMembership)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		for (LeaderElectedNode node : nodes) {
+			while ((!expectedLeader.equals(node.getLeader()) || !expectedMembership.equals(node.getMembership()))
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals("Leader of " + node.getLocalEndpoint(), expectedLeader, node.getLeader());
+			Assert.assertEquals("Members of " + node.getLocalEndpoint(), expectedMembership, node.getMembership());
+		}
+	}
+
+	private static int getFreePort() throws IOException {
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			return serverSocket.getLocalPort();
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MembershipTrackerTest {
+
+	@Test
+	public void testMembersAreRemovedAsSoonAsTheyAreMissingByDefault() {
+		MembershipTracker<String> membershipTracker = new MembershipTracker<>();
+		membershipTracker.update(members("a", "b"), 0);
+
+		MembershipTracker.Change<String> change = membershipTracker.update(members("a", "c"), 1);
+		Assert.assertEquals(members("c"), change.added);
+		Assert.assertEquals(members("b"), change.removed);
+	}
+
+	@Test
+	public void testMembersAreOnlyRemovedOnceMissingForTheRemovalRoundsAndDelay() {
+		MembershipTracker<String> membershipTracker = new MembershipTracker<>(3, 1000);
+		membershipTracker.update(members("a", "b"), 0);
+
+		// Additions apply straight away
+		MembershipTracker.Change<String> change = membershipTracker.update(members("a", "c"), 100);
+		Assert.assertEquals(members("c"), change.added);
+		Assert.assertEquals(Collections.emptySet(), change.removed);
+		Assert.assertFalse(membershipTracker.update(members("a", "c"), 200).isChanged());
+
+		// Found again, so the rounds start over
+		Assert.assertFalse(membershipTracker.update(members("a", "b", "c"), 300).isChanged());
+		Assert.assertFalse(membershipTracker.update(members("a", "c"), 400).isChanged());
+		Assert.assertFalse(membershipTracker.update(members("a", "c"), 500).isChanged());
+		Assert.assertFalse(membershipTracker.update(members("a", "c"), 600).isChanged());
+
+		// Missing for three rounds, but not yet for the delay
+		Assert.assertFalse(membershipTracker.update(members("a", "c"), 1300).isChanged());
+		change = membershipTracker.update(members("a", "c"), 1400);
+		Assert.assertEquals(Collections.emptySet(), change.added);
+		Assert.assertEquals(members("b"), change.removed);
+	}
+
+	@Test
+	public void testTheNextRemovalTimeIsWhenTheFirstMissingMemberHasBeenMissingForTheDelay() {
+		MembershipTracker<String> membershipTracker = new MembershipTracker<>(1, 1000);
+		membershipTracker.update(members("a", "b", "c"), 0);
+		Assert.assertEquals(Long.MAX_VALUE, membershipTracker.getNextRemovalTime());
+
+		membershipTracker.update(members("a", "c"), 100);
+		membershipTracker.update(members("a"), 300);
+		Assert.assertEquals(1100, membershipTracker.getNextRemovalTime());
+
+		Assert.assertEquals(members("b"), membershipTracker.update(members("a"), 1100).removed);
+		Assert.assertEquals(1300, membershipTracker.getNextRemovalTime());
+	}
+
+	@Test
+	public void testARunWhichFindsNoMembersDoesNotRemoveAny() {
+		MembershipTracker<String> membershipTracker = new MembershipTracker<>();
+		membershipTracker.update(members("a", "b"), 0);
+
+		Assert.assertFalse(membershipTracker.update(Collections.<String>emptySet(), 1).isChanged());
+		Assert.assertEquals(members("a", "b"), membershipTracker.getFullMembership().added);
+	}
+
+	@Test
+	public void testAFirstRunWhichFindsNoMembersIsNotAMembership() {
+		MembershipTracker<String> membershipTracker = new MembershipTracker<>();
+
+		Assert.assertFalse(membershipTracker.update(Collections.<String>emptySet(), 0).isChanged());
+		Assert.assertNull(membershipTracker.getFullMembership());
+
+		MembershipTracker.Change<String> change = membershipTracker.update(members("a"), 1);
+		Assert.assertEquals(0, change.fromVersion);
+		Assert.assertEquals(members("a"), change.added);
+	}
+
+	private static Set<String> members(String... members) {
+		return new HashSet<>(Arrays.asList(members));
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PeerAddressPolicyTest {
+	private static final String PRIVATE_ADDRESS = "10.0.0.1";
+	private static final String PUBLIC_ADDRESS = "54.0.0.1";
+
+	@Test
+	public void testThePrivatePolicySelectsThePrivateAddress() {
+		Assert.assertEquals(PRIVATE_ADDRESS, PeerAddressPolicy.PRIVATE.selectAddress(PRIVATE_ADDRESS, PUBLIC_ADDRESS));
+		Assert.assertEquals(PRIVATE_ADDRESS, PeerAddressPolicy.PRIVATE.selectAddress(PRIVATE_ADDRESS, null));
+		Assert.assertNull(PeerAddressPolicy.PRIVATE.selectAddress(null, PUBLIC_ADDRESS));
+	}
+
+	@Test
+	public void testThePublicPolicySelectsThePublicAddress() {
+		Assert.assertEquals(PUBLIC_ADDRESS, PeerAddressPolicy.PUBLIC.selectAddress(PRIVATE_ADDRESS, PUBLIC_ADDRESS));
+		Assert.assertEquals(PUBLIC_ADDRESS, PeerAddressPolicy.PUBLIC.selectAddress(null, PUBLIC_ADDRESS));
+		Assert.assertNull(PeerAddressPolicy.PUBLIC.selectAddress(PRIVATE_ADDRESS, null));
+	}
+
+	@Test
+	public void testTheFallbackPolicySelectsThePublicAddressOnlyWithoutAPrivateOne() {
+		PeerAddressPolicy policy = PeerAddressPolicy.PRIVATE_WITH_PUBLIC_FALLBACK;
+		Assert.assertEquals(PRIVATE_ADDRESS, policy.selectAddress(PRIVATE_ADDRESS, PUBLIC_ADDRESS));
+		Assert.assertEquals(PRIVATE_ADDRESS, policy.selectAddress(PRIVATE_ADDRESS, null));
+		Assert.assertEquals(PUBLIC_ADDRESS, policy.selectAddress(null, PUBLIC_ADDRESS));
+		Assert.assertNull(policy.selectAddress(null, null));
+	}
+
+}
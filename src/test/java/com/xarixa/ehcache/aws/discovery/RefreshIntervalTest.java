@@ -0,0 +1,76 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RefreshIntervalTest {
+	private static final int RUNS = 1000;
+
+	@Test
+	public void testTheIntervalDoublesWhileTheMembershipIsUnchangedUpToTheMaximum() {
+		RefreshInterval refreshInterval = new RefreshInterval(1000, 5000);
+		Assert.assertEquals(1000, refreshInterval.getIntervalMs());
+
+		refreshInterval.next(false);
+		Assert.assertEquals(2000, refreshInterval.getIntervalMs());
+		refreshInterval.next(false);
+		Assert.assertEquals(4000, refreshInterval.getIntervalMs());
+		refreshInterval.next(false);
+		Assert.assertEquals(5000, refreshInterval.getIntervalMs());
+		refreshInterval.next(false);
+		Assert.assertEquals(5000, refreshInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testTheIntervalIsResetWhenTheMembershipChanges() {
+		RefreshInterval refreshInterval = new RefreshInterval(1000, 8000);
+		refreshInterval.next(false);
+		refreshInterval.next(false);
+		Assert.assertEquals(4000, refreshInterval.getIntervalMs());
+
+		refreshInterval.next(true);
+		Assert.assertEquals(1000, refreshInterval.getIntervalMs());
+		refreshInterval.next(false);
+		Assert.assertEquals(2000, refreshInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testAMaximumBelowTheMinimumKeepsTheIntervalFixed() {
+		RefreshInterval refreshInterval = new RefreshInterval(1000, 500);
+		refreshInterval.next(false);
+		Assert.assertEquals(1000, refreshInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testEveryDelayIsJitteredWithinTheJitterOfTheInterval() {
+		RefreshInterval refreshInterval = new RefreshInterval(1000, 1000);
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long delay = refreshInterval.next(i % 2 == 0);
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+
+		Assert.assertTrue("Delay " + min + " is below the jitter", min >= (long)(1000 * (1 - RefreshInterval.JITTER)));
+		Assert.assertTrue("Delay " + max + " is above the jitter", max <= (long)(1000 * (1 + RefreshInterval.JITTER)));
+		// Nodes which started together must not keep polling together
+		Assert.assertTrue(max > min);
+	}
+
+	@Test
+	public void testTheInitialDelayIsWithinTheJitterOfTheMinimumInterval() {
+		RefreshInterval refreshInterval = new RefreshInterval(1000, 8000);
+		for (int i = 0; i < RUNS; i++) {
+			long delay = refreshInterval.getInitialDelay();
+			Assert.assertTrue("Initial delay " + delay + " is out of range",
+					delay >= 0 && delay <= (long)(1000 * RefreshInterval.JITTER));
+		}
+	}
+
+	@Test
+	public void testTheDelayIsNeverZero() {
+		Assert.assertEquals(1, new RefreshInterval(0, 0).next(false));
+	}
+
+}
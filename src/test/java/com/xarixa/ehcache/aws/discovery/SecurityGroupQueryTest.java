@@ -0,0 +1,33 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Multimap;
+
+public class SecurityGroupQueryTest {
+
+	@Test
+	public void testTheSecurityGroupIsMatchedByTheNameJcloudsGaveItsGroup() {
+		Multimap<String,String> filter = SecurityGroupQuery.getSecurityGroupFilter("cache-cluster");
+
+		Assert.assertTrue(filter.containsEntry("instance.group-name", "jclouds#cache-cluster"));
+		Assert.assertTrue(filter.get("instance.group-id").isEmpty());
+	}
+
+	@Test
+	public void testAGroupNamedLikeASecurityGroupIdIsStillMatchedByName() {
+		Multimap<String,String> filter = SecurityGroupQuery.getSecurityGroupFilter("sg-0123456789abcdef0");
+
+		Assert.assertTrue(filter.containsEntry("instance.group-name", "jclouds#sg-0123456789abcdef0"));
+		Assert.assertTrue(filter.get("instance.group-id").isEmpty());
+	}
+
+	@Test
+	public void testOnlyRunningInstancesAreMatched() {
+		Multimap<String,String> filter = SecurityGroupQuery.getSecurityGroupFilter("cache-cluster");
+		Assert.assertTrue(filter.containsEntry("instance-state-name", "running"));
+		Assert.assertEquals(2, filter.size());
+	}
+
+}
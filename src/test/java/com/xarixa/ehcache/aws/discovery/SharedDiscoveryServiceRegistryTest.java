@@ -0,0 +1,218 @@
+package com.xarixa.ehcache.aws.discovery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xarixa.ehcache.aws.UpdateableHostBasedCacheManagerPeerProvider;
+
+public class SharedDiscoveryServiceRegistryTest {
+	private static final long CLOSE_DELAY_MS = 200;
+
+	/**
+	 * Keeps what each future runs, so that the scheduled runs of the discovery services can be told apart from
+	 * the scheduled closes of the clients
+	 */
+	private final Map<ScheduledFuture<?>, Runnable> scheduled = new ConcurrentHashMap<>();
+	private final ScheduledThreadPoolExecutor discoveryServiceExecutor = new ScheduledThreadPoolExecutor(1) {
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			ScheduledFuture<?> future = super.schedule(command, delay, unit);
+			scheduled.put(future, command);
+			return future;
+		}
+	};
+	private final List<AtomicInteger> ec2ClientCloses = new ArrayList<>();
+	private final SharedDiscoveryServiceRegistry registry =
+			new SharedDiscoveryServiceRegistry(discoveryServiceExecutor, CLOSE_DELAY_MS) {
+		@Override
+		Ec2Client createEc2Client(AwsDiscoveryServiceConfig discoveryServiceConfig) {
+			final AtomicInteger closes = new AtomicInteger();
+			ec2ClientCloses.add(closes);
+			return new Ec2Client(discoveryServiceConfig.getAccessKey(), discoveryServiceConfig.getSecretKey()) {
+				@Override
+				public synchronized void close() {
+					closes.incrementAndGet();
+					super.close();
+				}
+			};
+		}
+	};
+
+	@After
+	public void tearDown() {
+		discoveryServiceExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testProvidersWhichDiscoverTheSameGroupShareOnePoller() {
+		AwsDiscoveryServiceConfig config = createConfig("group", "key");
+		registry.subscribe(createProvider(), config);
+		registry.subscribe(createProvider(), config);
+
+		Assert.assertEquals(1, getPollerCount());
+		Assert.assertEquals(1, ec2ClientCloses.size());
+	}
+
+	@Test
+	public void testTheLastUnsubscribeStopsThePollerAndClosesTheClientAfterTheGracePeriod() throws InterruptedException {
+		AwsDiscoveryServiceConfig config = createConfig("group", "key");
+		UpdateableHostBasedCacheManagerPeerProvider provider1 = createProvider();
+		UpdateableHostBasedCacheManagerPeerProvider provider2 = createProvider();
+		registry.subscribe(provider1, config);
+		registry.subscribe(provider2, config);
+
+		registry.unsubscribe(provider1, config);
+		Assert.assertEquals(1, getPollerCount());
+
+		registry.unsubscribe(provider2, config);
+		Assert.assertEquals(0, getPollerCount());
+		Assert.assertEquals(0, ec2ClientCloses.get(0).get());
+
+		awaitClose(ec2ClientCloses.get(0));
+		Assert.assertEquals(1, ec2ClientCloses.get(0).get());
+	}
+
+	@Test
+	public void testTheClientIsReusedWhenTheGroupIsSubscribedToAgainWithinTheGracePeriod() throws InterruptedException {
+		AwsDiscoveryServiceConfig config = createConfig("group", "key");
+		UpdateableHostBasedCacheManagerPeerProvider provider = createProvider();
+		registry.subscribe(provider, config);
+		registry.unsubscribe(provider, config);
+
+		registry.subscribe(provider, config);
+		Assert.assertEquals(1, getPollerCount());
+		Assert.assertEquals(1, ec2ClientCloses.size());
+
+		Thread.sleep(CLOSE_DELAY_MS * 2);
+		Assert.assertEquals(0, ec2ClientCloses.get(0).get());
+	}
+
+	@Test
+	public void testProvidersWithOtherRefreshOrRemovalSettingsHaveTheirOwnPoller() {
+		AwsDiscoveryServiceConfig config = createConfig("group", "key");
+		AwsDiscoveryServiceConfig fasterConfig = createConfig("group", "key");
+		fasterConfig.setSecurityGroupRefreshInterval(30000);
+		AwsDiscoveryServiceConfig removalConfig = createConfig("group", "key");
+		removalConfig.setPeerRemovalRounds(3);
+		registry.subscribe(createProvider(), config);
+		registry.subscribe(createProvider(), fasterConfig);
+		registry.subscribe(createProvider(), removalConfig);
+
+		Assert.assertEquals(3, getPollerCount());
+		Assert.assertEquals(1, ec2ClientCloses.size());
+	}
+
+	@Test
+	public void testAnUnknownProviderDoesNotStopThePoller() {
+		AwsDiscoveryServiceConfig config = createConfig("group", "key");
+		registry.subscribe(createProvider(), config);
+
+		registry.unsubscribe(createProvider(), config);
+		Assert.assertEquals(1, getPollerCount());
+	}
+
+	@Test
+	public void testTheClientIsKeptWhileAnotherGroupUsesTheSameCredentials() throws InterruptedException {
+		AwsDiscoveryServiceConfig config1 = createConfig("group1", "key");
+		AwsDiscoveryServiceConfig config2 = createConfig("group2", "key");
+		UpdateableHostBasedCacheManagerPeerProvider provider1 = createProvider();
+		UpdateableHostBasedCacheManagerPeerProvider provider2 = createProvider();
+		registry.subscribe(provider1, config1);
+		registry.subscribe(provider2, config2);
+		Assert.assertEquals(2, getPollerCount());
+		Assert.assertEquals(1, ec2ClientCloses.size());
+
+		registry.unsubscribe(provider1, config1);
+		Assert.assertEquals(1, getPollerCount());
+		Thread.sleep(CLOSE_DELAY_MS * 2);
+		Assert.assertEquals(0, ec2ClientCloses.get(0).get());
+
+		registry.unsubscribe(provider2, config2);
+		Assert.assertEquals(0, getPollerCount());
+		awaitClose(ec2ClientCloses.get(0));
+	}
+
+	@Test
+	public void testOtherCredentialsHaveTheirOwnClient() throws InterruptedException {
+		AwsDiscoveryServiceConfig config1 = createConfig("group", "key1");
+		AwsDiscoveryServiceConfig config2 = createConfig("group", "key2");
+		UpdateableHostBasedCacheManagerPeerProvider provider1 = createProvider();
+		registry.subscribe(provider1, config1);
+		registry.subscribe(createProvider(), config2);
+		Assert.assertEquals(2, getPollerCount());
+		Assert.assertEquals(2, ec2ClientCloses.size());
+
+		registry.unsubscribe(provider1, config1);
+		awaitClose(ec2ClientCloses.get(0));
+		Assert.assertEquals(0, ec2ClientCloses.get(1).get());
+	}
+
+	/**
+	 * The scheduled runs of discovery services which have not been cancelled
+	 */
+	private int getPollerCount() {
+		int pollers = 0;
+		for (Map.Entry<ScheduledFuture<?>, Runnable> entry : scheduled.entrySet()) {
+			if (entry.getValue() instanceof AwsSecurityGroupAwareDiscoveryService && !entry.getKey().isDone()) {
+				pollers++;
+			}
+		}
+		return pollers;
+	}
+
+	private static void awaitClose(AtomicInteger closes) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + CLOSE_DELAY_MS + 5000;
+		while (closes.get() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, closes.get());
+	}
+
+	/**
+	 * The first run is scheduled within the jitter of a minute, and a run only logs that EC2 cannot be reached
+	 */
+	private static AwsDiscoveryServiceConfig createConfig(String securityGroup, String accessKey) {
+		AwsDiscoveryServiceConfig config = new AwsDiscoveryServiceConfig();
+		config.setSecurityGroup(securityGroup);
+		config.setAccessKey(accessKey);
+		config.setSecretKey("secret");
+		config.setRmiListenerPort(40001);
+		config.setSecurityGroupRefreshInterval(60000);
+		return config;
+	}
+
+	private static UpdateableHostBasedCacheManagerPeerProvider createProvider() {
+		return (UpdateableHostBasedCacheManagerPeerProvider)Proxy.newProxyInstance(
+				UpdateableHostBasedCacheManagerPeerProvider.class.getClassLoader(),
+				new Class<?>[] { UpdateableHostBasedCacheManagerPeerProvider.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "provider";
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.xarixa.ehcache.aws.nio;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.xarixa.ehcache.aws.CachePeerHost;
+import com.xarixa.ehcache.aws.metrics.CompressionMetrics;
+
+@RunWith(JMock.class)
+public class NioCachePeerTest {
+	private static final long REQUEST_TIMEOUT_MS = 5000;
+	private static final long RETRY_BACKOFF_MS = 60000;
+	private Mockery context = new Mockery() {{
+		setImposteriser(ClassImposteriser.INSTANCE);
+		setThreadingPolicy(new Synchroniser());
+	}};
+	private CacheManager cacheManager;
+	private Ehcache cache;
+	private NioCacheServer server;
+	private NioCacheClient client;
+	private NioCachePeer cachePeer;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheManager = context.mock(CacheManager.class);
+		cache = context.mock(Ehcache.class);
+		context.checking(new Expectations() {{
+			allowing(cacheManager).getEhcache("cache"); will(returnValue(cache));
+			allowing(cacheManager).getEhcache(with(any(String.class))); will(returnValue(null));
+		}});
+
+		server = new NioCacheServer(cacheManager, "127.0.0.1", 0, 2, PayloadCompression.NONE);
+		server.start();
+		client = new NioCacheClient(REQUEST_TIMEOUT_MS, RETRY_BACKOFF_MS, PayloadCompression.NONE);
+		cachePeer = new NioCachePeer(client, new CachePeerHost("127.0.0.1", server.getPort()), "cache");
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.stop();
+	}
+
+	@Test
+	public void testEventsAreSentTogetherAndAppliedInOrderWithoutReplicatingThemAgain() throws RemoteException {
+		final Sequence events = context.sequence("events");
+		context.checking(new Expectations() {{
+			oneOf(cache).put(new Element("a", "1"), true); inSequence(events);
+			oneOf(cache).remove((Serializable)"b", true); inSequence(events);
+			oneOf(cache).removeAll(true); inSequence(events);
+			oneOf(cache).put(new Element("c", "3"), true); inSequence(events);
+		}});
+
+		List<RmiEventMessage> eventMessages = new ArrayList<>();
+		eventMessages.add(new RmiEventMessage(cache, RmiEventType.PUT, null, new Element("a", "1")));
+		eventMessages.add(new RmiEventMessage(cache, RmiEventType.REMOVE, "b", null));
+		eventMessages.add(new RmiEventMessage(cache, RmiEventType.REMOVE_ALL, null, null));
+		eventMessages.add(new RmiEventMessage(cache, RmiEventType.PUT, null, new Element("c", "3")));
+		cachePeer.send(eventMessages);
+	}
+
+	@Test
+	public void testReadsAreAnsweredFromTheRemoteCache() throws RemoteException {
+		context.checking(new Expectations() {{
+			allowing(cache).getKeys(); will(returnValue(Arrays.asList("a", "b")));
+			allowing(cache).getQuiet((Object)"a"); will(returnValue(new Element("a", "1")));
+			allowing(cache).getQuiet((Object)"b"); will(returnValue(null));
+		}});
+
+		Assert.assertEquals(Arrays.asList("a", "b"), cachePeer.getKeys());
+		Assert.assertEquals("1", cachePeer.getQuiet("a").getObjectValue());
+		Assert.assertNull(cachePeer.getQuiet("b"));
+		Assert.assertEquals(Arrays.asList(new Element("a", "1")), cachePeer.getElements(Arrays.asList("a", "b")));
+		Assert.assertEquals("//127.0.0.1:" + server.getPort() + "/cache", cachePeer.getUrl());
+	}
+
+	@Test
+	public void testLargePayloadsAreCompressedBothWaysAndMeasured() throws IOException {
+		client.close();
+		server.stop();
+		server = new NioCacheServer(cacheManager, "127.0.0.1", 0, 2, new PayloadCompression(PayloadCompression.Algorithm.GZIP, 1024));
+		server.start();
+		client = new NioCacheClient(REQUEST_TIMEOUT_MS, RETRY_BACKOFF_MS, new PayloadCompression(PayloadCompression.Algorithm.DEFLATE, 1024));
+		CachePeerHost host = new CachePeerHost("127.0.0.1", server.getPort());
+		cachePeer = new NioCachePeer(client, host, "cache");
+
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			value.append("{\"id\":").append(i).append(",\"name\":\"value\"}");
+		}
+		final Element element = new Element("a", value.toString());
+		context.checking(new Expectations() {{
+			oneOf(cache).put(element, true);
+			allowing(cache).getQuiet((Object)"a"); will(returnValue(element));
+		}});
+
+		cachePeer.put(element);
+		Assert.assertEquals(value.toString(), cachePeer.getQuiet("a").getObjectValue());
+
+		CompressionMetrics clientMetrics = client.getCompressionMetrics().get(host);
+		Assert.assertTrue(clientMetrics.getCompressionRatio() < 0.5);
+		Assert.assertEquals(1L, (long)clientMetrics.getCompressionTime().get("count"));
+		Assert.assertEquals(1L, (long)clientMetrics.getDecompressionTime().get("count"));
+		Assert.assertEquals(clientMetrics.getBytesSaved(), server.getCompressionMetrics().getBytesSaved());
+	}
+
+	@Test(expected = RemoteException.class)
+	public void testRequestsForAnUnknownCacheFail() throws RemoteException {
+		new NioCachePeer(client, new CachePeerHost("127.0.0.1", server.getPort()), "unknown").removeAll();
+	}
+
+	@Test
+	public void testRequestsFailStraightAwayOnceAPeerCannotBeReached() {
+		NioCachePeer unreachableCachePeer = new NioCachePeer(client, new CachePeerHost("127.0.0.1", server.getPort()), "cache");
+		server.stop();
+
+		for (int i = 0; i < 2; i++) {
+			long start = System.currentTimeMillis();
+			try {
+				unreachableCachePeer.removeAll();
+				Assert.fail("The peer has stopped");
+			} catch (RemoteException e) {
+				Assert.assertTrue(System.currentTimeMillis() - start < REQUEST_TIMEOUT_MS);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+	private static final int KEY_COUNT = 10000;
+
+	@Test
+	public void testOwnersAreDistinctAndTheSameHoweverTheNodesAreListed() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(10, false));
+		ConsistentHashRing<String> reversedRing = new ConsistentHashRing<>(nodes(10, true));
+
+		for (int i = 0; i < KEY_COUNT; i++) {
+			List<String> owners = ring.getOwners("key" + i, 3);
+			Assert.assertEquals(3, new HashSet<>(owners).size());
+			Assert.assertEquals(owners, reversedRing.getOwners("key" + i, 3));
+		}
+		Assert.assertEquals(2, new ConsistentHashRing<>(nodes(2, false)).getOwners("key", 3).size());
+	}
+
+	@Test
+	public void testAddingANodeOnlyMovesTheKeysItTakesOver() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(10, false));
+		ConsistentHashRing<String> largerRing = new ConsistentHashRing<>(nodes(11, false));
+
+		int movedKeyCount = 0;
+		for (int i = 0; i < KEY_COUNT; i++) {
+			String primaryOwner = ring.getOwners(i, 1).get(0);
+			String newPrimaryOwner = largerRing.getOwners(i, 1).get(0);
+			if (!primaryOwner.equals(newPrimaryOwner)) {
+				Assert.assertEquals("//10.0.0.11:40001", newPrimaryOwner);
+				movedKeyCount++;
+			}
+		}
+
+		// Around 1/11 of the keys, allowing for the spread of the points
+		Assert.assertTrue("Moved " + movedKeyCount, movedKeyCount > KEY_COUNT / 22 && movedKeyCount < KEY_COUNT * 2 / 11);
+	}
+
+	@Test
+	public void testAKeyWithAnIdentityHashCodeIsPlacedByItsValue() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(10, false));
+		ConsistentHashRing<String> freshRing = new ConsistentHashRing<>(nodes(10, false));
+
+		for (int i = 0; i < KEY_COUNT; i++) {
+			Assert.assertEquals(ConsistentHashRing.hashKey(new AtomicLong(i)), ConsistentHashRing.hashKey(new AtomicLong(i)));
+			Assert.assertEquals(ring.getOwners(new AtomicLong(i), 3), freshRing.getOwners(new AtomicLong(i), 3));
+		}
+	}
+
+	private static Map<String, String> nodes(int count, boolean reversed) {
+		Map<String, String> nodes = new LinkedHashMap<>();
+		for (int i = 1; i <= count; i++) {
+			String name = "//10.0.0." + (reversed ? count + 1 - i : i) + ":40001";
+			nodes.put(name, name);
+		}
+		return nodes;
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelBootstrapCacheLoaderTest {
+	private static final int KEY_COUNT = 1000;
+
+	private final ConcurrentMap<Object, Element> loaded = new ConcurrentHashMap<>();
+	private final List<CachePeer> cachePeers = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void testTheKeysAreLoadedInChunksSpreadOverThePeers() {
+		AtomicInteger calls1 = new AtomicInteger();
+		AtomicInteger calls2 = new AtomicInteger();
+		cachePeers.add(createCachePeer(calls1, false));
+		cachePeers.add(createCachePeer(calls2, false));
+
+		createLoader(1000).doLoad(createCache());
+
+		Assert.assertEquals(KEY_COUNT, loaded.size());
+		Assert.assertEquals(KEY_COUNT / 10, calls1.get() + calls2.get());
+	}
+
+	@Test
+	public void testTheChunksOfAFailedPeerAreLoadedFromTheOthers() {
+		AtomicInteger failingCalls = new AtomicInteger();
+		AtomicInteger calls = new AtomicInteger();
+		cachePeers.add(createCachePeer(failingCalls, true));
+		cachePeers.add(createCachePeer(calls, false));
+
+		createLoader(1000).doLoad(createCache());
+
+		Assert.assertEquals(KEY_COUNT, loaded.size());
+		Assert.assertEquals(KEY_COUNT / 10, calls.get());
+	}
+
+	@Test
+	public void testTheKeysOfEveryPeerAreLoadedFromThePeersWhichHaveThem() {
+		// Each key is owned by two of the three peers
+		AtomicInteger misses = new AtomicInteger();
+		for (int peer = 0; peer < 3; peer++) {
+			Set<Integer> ownedKeys = new HashSet<>();
+			for (int key = 0; key < KEY_COUNT; key++) {
+				if (key % 3 != peer) {
+					ownedKeys.add(key);
+				}
+			}
+			cachePeers.add(createCachePeer(new AtomicInteger(), ownedKeys, false, misses));
+		}
+
+		createLoader(1000).doLoad(createCache());
+
+		Assert.assertEquals(KEY_COUNT, loaded.size());
+		Assert.assertEquals(0, misses.get());
+	}
+
+	@Test
+	public void testTheChunksOfAPeerWhichFailsWhileLoadingAreLoadedFromTheOthersWhichHaveThem() {
+		AtomicInteger misses = new AtomicInteger();
+		AtomicInteger calls = new AtomicInteger();
+		Set<Integer> allKeys = new HashSet<>();
+		for (int key = 0; key < KEY_COUNT; key++) {
+			allKeys.add(key);
+		}
+		cachePeers.add(createCachePeer(new AtomicInteger(), allKeys, true, misses));
+		cachePeers.add(createCachePeer(calls, allKeys, false, misses));
+
+		createLoader(1000).doLoad(createCache());
+
+		Assert.assertEquals(KEY_COUNT, loaded.size());
+		Assert.assertEquals(KEY_COUNT / 10, calls.get());
+	}
+
+	@Test
+	public void testTheLoadWaitsForDiscoveryToFindAPeer() throws InterruptedException {
+		Thread discovery = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					return;
+				}
+				cachePeers.add(createCachePeer(new AtomicInteger(), false));
+			}
+		});
+		discovery.start();
+
+		createLoader(5000).doLoad(createCache());
+		discovery.join();
+
+		Assert.assertEquals(KEY_COUNT, loaded.size());
+	}
+
+	@Test
+	public void testTheCacheStartsEmptyIfNoPeerIsFound() {
+		createLoader(0).doLoad(createCache());
+
+		Assert.assertTrue(loaded.isEmpty());
+	}
+
+	private ParallelBootstrapCacheLoader createLoader(long peerWaitTimeoutMs) {
+		return new ParallelBootstrapCacheLoader(false, "RMI", 10, 4, 2, peerWaitTimeoutMs) {
+			@Override
+			List<CachePeer> listRemoteCachePeers(Ehcache cache) {
+				return cachePeers;
+			}
+		};
+	}
+
+	private static CachePeer createCachePeer(final AtomicInteger getElementsCalls, final boolean failing) {
+		return createCachePeer(getElementsCalls, null, failing, new AtomicInteger());
+	}
+
+	/**
+	 * @param ownedKeys		The keys the peer has, or null for a peer which fails to list them too
+	 * @param misses		Counts the keys asked for which the peer does not have
+	 */
+	private static CachePeer createCachePeer(final AtomicInteger getElementsCalls, final Set<Integer> ownedKeys,
+			final boolean failing, final AtomicInteger misses) {
+		return (CachePeer)Proxy.newProxyInstance(CachePeer.class.getClassLoader(), new Class<?>[] { CachePeer.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws RemoteException {
+						switch (method.getName()) {
+						case "getKeys":
+							if (failing && ownedKeys == null) {
+								throw new RemoteException("Peer is down");
+							}
+							List<Integer> keys = new ArrayList<>();
+							for (int i = 0; i < KEY_COUNT; i++) {
+								if (ownedKeys == null || ownedKeys.contains(i)) {
+									keys.add(i);
+								}
+							}
+							return keys;
+						case "getElements":
+							if (failing) {
+								throw new RemoteException("Peer is down");
+							}
+							getElementsCalls.incrementAndGet();
+							List<Element> elements = new ArrayList<>();
+							for (Object key : (List<?>)args[0]) {
+								if (ownedKeys == null || ownedKeys.contains(key)) {
+									elements.add(new Element((Serializable)key, "value" + key));
+								} else {
+									misses.incrementAndGet();
+								}
+							}
+							return elements;
+						case "toString":
+							return failing ? "failing peer" : "peer";
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private Ehcache createCache() {
+		return (Ehcache)Proxy.newProxyInstance(Ehcache.class.getClassLoader(), new Class<?>[] { Ehcache.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+						case "toString":
+							return "cache";
+						case "getStatus":
+							return Status.STATUS_ALIVE;
+						case "isKeyInCache":
+							return loaded.containsKey(args[0]);
+						case "putIfAbsent":
+							Element element = (Element)args[0];
+							return loaded.putIfAbsent(element.getObjectKey(), element);
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.distribution.CachePeer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PartitionedCacheLoaderTest {
+	private static final String LOCAL_URL_BASE = "//10.0.0.9:40001";
+
+	private final List<CachePeer> cachePeers = new ArrayList<>();
+	private final Map<String, List<Object>> asked = new HashMap<>();
+	private final Set<String> failing = new HashSet<>();
+
+	@Test
+	public void testKeysAreLoadedFromTheirPrimaryOwner() {
+		Map<String, String> members = createCachePeers(4);
+		members.put(LOCAL_URL_BASE, LOCAL_URL_BASE);
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(members);
+		PartitionedCacheLoader loader = createLoader(2);
+
+		for (int i = 0; i < 100; i++) {
+			String key = "key" + i;
+			Assert.assertEquals("value of " + key, loader.load(key));
+
+			// The first owner which is a peer answers, and no other peer is asked
+			List<String> owners = new ArrayList<>(ring.getOwners(key, 2));
+			owners.remove(LOCAL_URL_BASE);
+			for (String urlBase : members.keySet()) {
+				List<Object> askedKeys = asked.get(urlBase);
+				Assert.assertEquals(urlBase.equals(owners.get(0)), askedKeys != null && askedKeys.contains(key));
+			}
+		}
+	}
+
+	@Test
+	public void testTheNextOwnerIsAskedIfTheFirstFails() {
+		Map<String, String> members = createCachePeers(4);
+		members.put(LOCAL_URL_BASE, LOCAL_URL_BASE);
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(members);
+		PartitionedCacheLoader loader = createLoader(3);
+
+		for (int i = 0; i < 100; i++) {
+			String key = "key" + i;
+			List<String> owners = new ArrayList<>(ring.getOwners(key, 3));
+			owners.remove(LOCAL_URL_BASE);
+			failing.clear();
+			failing.add(owners.get(0));
+
+			Assert.assertEquals("value of " + key, loader.load(key));
+			Assert.assertTrue(asked.get(owners.get(1)).contains(key));
+		}
+	}
+
+	@Test
+	public void testKeysWhichNoOwnerHasAreNotLoaded() {
+		createCachePeers(2);
+		failing.add("//10.0.0.1:40001");
+		failing.add("//10.0.0.2:40001");
+
+		Assert.assertNull(createLoader(1).load("key"));
+		Assert.assertTrue(createLoader(0).loadAll(Arrays.asList("key", "other")).isEmpty());
+	}
+
+	private PartitionedCacheLoader createLoader(int replicationFactor) {
+		return new PartitionedCacheLoader(createCache(), "RMI", replicationFactor) {
+			@Override
+			List<CachePeer> listRemoteCachePeers() {
+				return cachePeers;
+			}
+
+			@Override
+			String getLocalUrlBase() {
+				return LOCAL_URL_BASE;
+			}
+		};
+	}
+
+	/**
+	 * @return The URL bases of the peers, by themselves as a ring wants them
+	 */
+	private Map<String, String> createCachePeers(int count) {
+		Map<String, String> members = new HashMap<>();
+		for (int i = 1; i <= count; i++) {
+			String urlBase = "//10.0.0." + i + ":40001";
+			cachePeers.add(createCachePeer(urlBase));
+			members.put(urlBase, urlBase);
+		}
+		return members;
+	}
+
+	private CachePeer createCachePeer(final String urlBase) {
+		return (CachePeer)Proxy.newProxyInstance(CachePeer.class.getClassLoader(), new Class<?>[] { CachePeer.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws RemoteException {
+						switch (method.getName()) {
+						case "getUrlBase":
+						case "toString":
+							return urlBase;
+						case "hashCode":
+							return urlBase.hashCode();
+						case "equals":
+							return proxy == args[0];
+						case "getQuiet":
+							List<Object> askedKeys = asked.get(urlBase);
+							if (askedKeys == null) {
+								askedKeys = new ArrayList<>();
+								asked.put(urlBase, askedKeys);
+							}
+							askedKeys.add(args[0]);
+							if (failing.contains(urlBase)) {
+								throw new RemoteException(urlBase + " is down");
+							}
+							return new Element(args[0], "value of " + args[0]);
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private static Ehcache createCache() {
+		return (Ehcache)Proxy.newProxyInstance(Ehcache.class.getClassLoader(), new Class<?>[] { Ehcache.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+						case "toString":
+							return "cache";
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,385 @@
+package com.xarixa.ehcache.aws.replication;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CachePeer;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicationBatcherTest {
+	private static final long SEND_TIMEOUT_MS = 5000;
+	private static final long BATCH_INTERVAL_MS = 50;
+	private final Map<Ehcache, List<CachePeer>> cachePeers = new HashMap<>();
+	private final Map<CachePeer, List<List<?>>> sent = new HashMap<>();
+	private ReplicationBatcher batcher;
+	private String localUrlBase;
+	/**
+	 * The peer whose sends block until they are released, if any
+	 */
+	private String blockedUrlBase;
+	private final CountDownLatch blockedSendRelease = new CountDownLatch(1);
+
+	@Before
+	public void setUp() {
+		batcher = createBatcher(1000, 0);
+	}
+
+	@After
+	public void tearDown() {
+		blockedSendRelease.countDown();
+		batcher.shutdown();
+	}
+
+	@Test
+	public void testASharedBatcherIsShutDownWhenItsLastReplicatorIsDisposed() throws CloneNotSupportedException {
+		ReplicationBatcher sharedBatcher = ReplicationBatcher.getInstance("TEST", 1000, 100, 0);
+		BatchingCacheReplicator replicator = new BatchingCacheReplicator(sharedBatcher, true, true, true, true, true);
+		BatchingCacheReplicator copy = (BatchingCacheReplicator)replicator.clone();
+		BatchingCacheReplicator other = new BatchingCacheReplicator(ReplicationBatcher.getInstance("TEST", 1000, 100, 0),
+				true, true, true, true, true);
+
+		replicator.dispose();
+		replicator.dispose();
+		copy.dispose();
+		Assert.assertFalse(sharedBatcher.isShutdown());
+
+		other.dispose();
+		Assert.assertTrue(sharedBatcher.isShutdown());
+
+		ReplicationBatcher newBatcher = ReplicationBatcher.getInstance("TEST", 1000, 100, 0);
+		Assert.assertNotSame(sharedBatcher, newBatcher);
+		ReplicationBatcher.release(newBatcher);
+		Assert.assertTrue(newBatcher.isShutdown());
+	}
+
+	@Test
+	public void testChangesToAKeyAreCoalescedToTheLastAndSentInOneCallPerPeer() {
+		Ehcache cache = createCache("cache");
+		CachePeer peer1 = createCachePeer("//10.0.0.1:40001");
+		CachePeer peer2 = createCachePeer("//10.0.0.2:40001");
+		cachePeers.put(cache, Arrays.asList(peer1, peer2));
+
+		RmiEventMessage firstPutOfA = put(cache);
+		RmiEventMessage putOfB = put(cache);
+		RmiEventMessage removeOfA = remove(cache);
+		batcher.add(cache, "a", firstPutOfA);
+		batcher.add(cache, "b", putOfB);
+		batcher.add(cache, "a", removeOfA);
+		flush();
+
+		List<List<?>> expected = Collections.<List<?>>singletonList(Arrays.asList(removeOfA, putOfB));
+		Assert.assertEquals(expected, sent.get(peer1));
+		Assert.assertEquals(expected, sent.get(peer2));
+
+		// Nothing left to send
+		flush();
+		Assert.assertEquals(1, sent.get(peer1).size());
+	}
+
+	@Test
+	public void testARemoveAllDropsTheChangesBeforeIt() {
+		Ehcache cache = createCache("cache");
+		CachePeer peer = createCachePeer("//10.0.0.1:40001");
+		cachePeers.put(cache, Collections.singletonList(peer));
+
+		RmiEventMessage removeAll = new RmiEventMessage(cache, RmiEventType.REMOVE_ALL, null, null);
+		RmiEventMessage putOfB = put(cache);
+		batcher.add(cache, "a", put(cache));
+		batcher.addRemoveAll(cache, removeAll);
+		batcher.add(cache, "b", putOfB);
+		flush();
+
+		Assert.assertEquals(Collections.<List<?>>singletonList(Arrays.asList(removeAll, putOfB)), sent.get(peer));
+	}
+
+	@Test
+	public void testBatchesAreSplitAtTheMaximumBatchSize() {
+		batcher.shutdown();
+		batcher = createBatcher(2, 0);
+
+		Ehcache cache = createCache("cache");
+		CachePeer peer = createCachePeer("//10.0.0.1:40001");
+		cachePeers.put(cache, Collections.singletonList(peer));
+
+		for (int i = 0; i < 5; i++) {
+			batcher.add(cache, i, put(cache));
+		}
+		flush();
+
+		List<Integer> batchSizes = new ArrayList<>();
+		for (List<?> batch : sent.get(peer)) {
+			batchSizes.add(batch.size());
+		}
+		Assert.assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+	}
+
+	@Test
+	public void testWithAReplicationFactorPutsOnlyGoToTheOwnersOfTheirKeys() {
+		batcher.shutdown();
+		batcher = createBatcher(1000, 2);
+
+		Ehcache cache = createCache("cache");
+		List<CachePeer> peers = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			peers.add(createCachePeer("//10.0.0." + i + ":40001"));
+		}
+		cachePeers.put(cache, peers);
+
+		for (int i = 0; i < 100; i++) {
+			batcher.add(cache, "key" + i, new RmiEventMessage(cache, RmiEventType.PUT, null, new Element("key" + i, i)));
+		}
+		flush();
+
+		int putCount = 0;
+		for (CachePeer peer : peers) {
+			// Every peer owns some of the keys, and is sent a remove of the others
+			List<?> events = sent.get(peer).get(0);
+			Assert.assertEquals(100, events.size());
+			int peerPutCount = count(events, RmiEventType.PUT);
+			Assert.assertTrue(peerPutCount > 0);
+			putCount += peerPutCount;
+		}
+		Assert.assertEquals(200, putCount);
+	}
+
+	@Test
+	public void testThisNodeOwnsItsShareOfTheKeys() {
+		batcher.shutdown();
+		batcher = createBatcher(1000, 1);
+		localUrlBase = "//10.0.0.9:40001";
+
+		Ehcache cache = createCache("cache");
+		List<CachePeer> peers = new ArrayList<>();
+		Map<String, CachePeer> peersByUrlBase = new HashMap<>();
+		Map<String, String> members = new HashMap<>();
+		members.put(localUrlBase, localUrlBase);
+		for (int i = 1; i <= 3; i++) {
+			CachePeer peer = createCachePeer("//10.0.0." + i + ":40001");
+			peers.add(peer);
+			peersByUrlBase.put("//10.0.0." + i + ":40001", peer);
+			members.put("//10.0.0." + i + ":40001", "//10.0.0." + i + ":40001");
+		}
+		cachePeers.put(cache, peers);
+
+		for (int i = 0; i < 100; i++) {
+			batcher.add(cache, "key" + i, new RmiEventMessage(cache, RmiEventType.PUT, null, new Element("key" + i, i)));
+		}
+		flush();
+
+		// The keys are placed as on a ring of every member, which the peers agree on
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(members);
+		int locallyOwned = 0;
+		Map<CachePeer, Integer> expectedPutCounts = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			String owner = ring.getOwners("key" + i, 1).get(0);
+			if (owner.equals(localUrlBase)) {
+				locallyOwned++;
+			} else {
+				CachePeer peer = peersByUrlBase.get(owner);
+				expectedPutCounts.put(peer, expectedPutCounts.containsKey(peer) ? expectedPutCounts.get(peer) + 1 : 1);
+			}
+		}
+		Assert.assertTrue(locallyOwned > 0);
+		for (CachePeer peer : peers) {
+			Assert.assertEquals(expectedPutCounts.get(peer), Integer.valueOf(count(sent.get(peer).get(0), RmiEventType.PUT)));
+		}
+	}
+
+	@Test
+	public void testChangesOnTheOwnersRemoveTheCopiesOfTheOtherPeers() {
+		batcher.shutdown();
+		batcher = createBatcher(1000, 1);
+
+		Ehcache cache = createCache("cache");
+		List<CachePeer> peers = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			peers.add(createCachePeer("//10.0.0." + i + ":40001"));
+		}
+		cachePeers.put(cache, peers);
+
+		batcher.add(cache, "key", new RmiEventMessage(cache, RmiEventType.PUT, null, new Element("key", "updated")));
+		flush();
+
+		// A peer which loaded the key from its owner drops its copy on the update
+		int owners = 0;
+		for (CachePeer peer : peers) {
+			RmiEventMessage event = (RmiEventMessage)sent.get(peer).get(0).get(0);
+			if (event.getType() == RmiEventType.PUT) {
+				owners++;
+			} else {
+				Assert.assertEquals(RmiEventType.REMOVE, event.getType());
+				Assert.assertEquals("key", event.getSerializableKey());
+			}
+		}
+		Assert.assertEquals(1, owners);
+
+		// And a remove reaches every peer
+		batcher.add(cache, "key", new RmiEventMessage(cache, RmiEventType.REMOVE, "key", null));
+		flush();
+		for (CachePeer peer : peers) {
+			Assert.assertEquals(RmiEventType.REMOVE, ((RmiEventMessage)sent.get(peer).get(1).get(0)).getType());
+		}
+	}
+
+	@Test
+	public void testAPeerWhichBlocksDoesNotHoldUpTheOthers() throws InterruptedException {
+		Ehcache cache = createCache("cache");
+		blockedUrlBase = "//10.0.0.1:40001";
+		CachePeer blockedPeer = createCachePeer(blockedUrlBase);
+		CachePeer peer = createCachePeer("//10.0.0.2:40001");
+		cachePeers.put(cache, Arrays.asList(blockedPeer, peer));
+		batcher.start(BATCH_INTERVAL_MS);
+
+		// The other peer is sent each interval's changes while the first send to the blocked peer has not returned
+		for (int i = 1; i <= 5; i++) {
+			batcher.add(cache, "key" + i, put(cache));
+			awaitSentCount(peer, i);
+		}
+		Assert.assertEquals(1, getSentCount(blockedPeer));
+
+		// Only the dispose waits, and for at most its timeout
+		long start = System.currentTimeMillis();
+		Assert.assertFalse(batcher.flushAndWait(BATCH_INTERVAL_MS));
+		Assert.assertTrue(System.currentTimeMillis() - start < SEND_TIMEOUT_MS);
+
+		// Once it is released it catches up, in order
+		blockedSendRelease.countDown();
+		flush();
+		Assert.assertEquals(getSent(peer), getSent(blockedPeer));
+	}
+
+	private void flush() {
+		Assert.assertTrue(batcher.flushAndWait(SEND_TIMEOUT_MS));
+	}
+
+	private void awaitSentCount(CachePeer peer, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + SEND_TIMEOUT_MS;
+		while (getSentCount(peer) < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(count, getSentCount(peer));
+	}
+
+	private int getSentCount(CachePeer peer) {
+		return getSent(peer).size();
+	}
+
+	/**
+	 * The changes sent to a peer, one list per call
+	 */
+	private List<List<?>> getSent(CachePeer peer) {
+		synchronized (sent) {
+			List<List<?>> peerBatches = sent.get(peer);
+			return peerBatches == null ? new ArrayList<List<?>>() : new ArrayList<>(peerBatches);
+		}
+	}
+
+	private static int count(List<?> events, RmiEventType type) {
+		int count = 0;
+		for (Object event : events) {
+			if (((RmiEventMessage)event).getType() == type) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private ReplicationBatcher createBatcher(int maximumBatchSize, int replicationFactor) {
+		return new ReplicationBatcher("RMI", maximumBatchSize, replicationFactor) {
+			@Override
+			List<CachePeer> listRemoteCachePeers(Ehcache cache) {
+				return cachePeers.get(cache);
+			}
+
+			@Override
+			String getLocalUrlBase(Ehcache cache) {
+				return localUrlBase;
+			}
+		};
+	}
+
+	private static RmiEventMessage put(Ehcache cache) {
+		return new RmiEventMessage(cache, RmiEventType.PUT, null, null);
+	}
+
+	private static RmiEventMessage remove(Ehcache cache) {
+		return new RmiEventMessage(cache, RmiEventType.REMOVE, null, null);
+	}
+
+	private CachePeer createCachePeer(final String urlBase) {
+		return (CachePeer)Proxy.newProxyInstance(CachePeer.class.getClassLoader(), new Class<?>[] { CachePeer.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getUrlBase":
+						case "toString":
+							return urlBase;
+						case "hashCode":
+							return urlBase.hashCode();
+						case "equals":
+							return proxy == args[0];
+						case "send":
+							synchronized (sent) {
+								List<List<?>> peerBatches = sent.get(proxy);
+								if (peerBatches == null) {
+									peerBatches = new ArrayList<>();
+									sent.put((CachePeer)proxy, peerBatches);
+								}
+								peerBatches.add((List<?>)args[0]);
+							}
+							if (urlBase.equals(blockedUrlBase)) {
+								try {
+									blockedSendRelease.await();
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+							}
+							return null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private static Ehcache createCache(final String name) {
+		return (Ehcache)Proxy.newProxyInstance(Ehcache.class.getClassLoader(), new Class<?>[] { Ehcache.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+						case "toString":
+							return name;
+						case "getStatus":
+							return Status.STATUS_ALIVE;
+						case "hashCode":
+							return name.hashCode();
+						case "equals":
+							return proxy == args[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+}